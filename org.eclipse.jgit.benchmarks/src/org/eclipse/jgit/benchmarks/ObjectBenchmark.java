@@ -0,0 +1,78 @@
+package org.eclipse.jgit.benchmarks;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Reads and inserts single objects. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectBenchmark {
+	/** A reader kept open by each benchmark thread. */
+	@State(Scope.Thread)
+	public static class ReaderState {
+		ObjectReader reader;
+
+		int next;
+
+		@Setup(Level.Trial)
+		public void setUp(RepositoryState state) {
+			reader = state.repo.newObjectReader();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			reader.close();
+		}
+
+		ObjectId pick(List<ObjectId> ids) {
+			return ids.get(next++ % ids.size());
+		}
+	}
+
+	/** Counter making every inserted blob a new object. */
+	@State(Scope.Thread)
+	public static class InsertState {
+		long seq = System.nanoTime();
+	}
+
+	@Benchmark
+	public void openBlob(RepositoryState state, ReaderState r, Blackhole bh) throws IOException {
+		bh.consume(r.reader.open(r.pick(state.blobIds)).getCachedBytes());
+	}
+
+	@Benchmark
+	public void openCommit(RepositoryState state, ReaderState r, Blackhole bh) throws IOException {
+		bh.consume(r.reader.open(r.pick(state.commitIds)).getCachedBytes());
+	}
+
+	@Benchmark
+	public ObjectId insertBlob(RepositoryState state, InsertState s) throws IOException {
+		try (ObjectInserter ins = state.repo.newObjectInserter()) {
+			ObjectId id = ins.insert(Constants.OBJ_BLOB, Constants.encode("blob " + s.seq++ + "\n"));
+			ins.flush();
+			return id;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.eclipse.jgit.benchmarks;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Reads and updates references. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefBenchmark {
+	/** Position of each benchmark thread in the list of names. */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Benchmark
+	public Ref exactRef(RepositoryState state, Cursor c) throws IOException {
+		String name = state.refNames.get(c.next++ % state.refNames.size());
+		return state.repo.exactRef(name);
+	}
+
+	@Benchmark
+	public Map<String, Ref> allRefs(RepositoryState state) throws IOException {
+		return state.repo.getRefDatabase().getRefs(RefDatabase.ALL);
+	}
+
+	@Benchmark
+	public RefUpdate.Result updateRef(RepositoryState state, Cursor c) throws IOException {
+		// Move the branch back and forth between two commits.
+		ObjectId id = state.commitIds.get(c.next++ & 1);
+		RefUpdate u = state.repo.updateRef(Constants.R_HEADS + "bench");
+		u.setNewObjectId(id);
+		u.setForceUpdate(true);
+		return u.update();
+	}
+}
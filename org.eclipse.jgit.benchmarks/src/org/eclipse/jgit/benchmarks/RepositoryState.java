@@ -0,0 +1,194 @@
+package org.eclipse.jgit.benchmarks;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.jdbc.SqlRepositoryBuilder;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A repository of one of the storage backends, filled with a generated
+ * history before the benchmarks of a trial run.
+ * <p>
+ * The history is a single line of {@link #commits} commits over a tree of
+ * {@link #files} files spread across directories of 16 files; each commit
+ * changes one file. {@link #refs} branches and as many tags point at
+ * commits along the history.
+ */
+@State(Scope.Benchmark)
+public class RepositoryState {
+	/** Backend to open: {@code file}, {@code dfs} or {@code sqlite}. */
+	@Param({ "file", "dfs", "sqlite" })
+	public String backend;
+
+	@Param({ "500" })
+	public int commits;
+
+	@Param({ "256" })
+	public int files;
+
+	@Param({ "100" })
+	public int refs;
+
+	Repository repo;
+
+	/** Commits of the history, oldest first. */
+	List<ObjectId> commitIds;
+
+	/** Blobs of the last commit. */
+	List<ObjectId> blobIds;
+
+	/** Names of the branches and tags. */
+	List<String> refNames;
+
+	ObjectId head;
+
+	private File dir;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("jgit-bench-").toFile();
+		repo = open();
+		populate();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (repo != null) {
+			repo.close();
+			repo = null;
+		}
+		FileUtils.delete(dir, FileUtils.RECURSIVE | FileUtils.RETRY);
+	}
+
+	private Repository open() throws IOException {
+		switch (backend) {
+		case "file": {
+			Repository r = new FileRepositoryBuilder()
+				.setGitDir(new File(dir, "repo.git"))
+				.setBare()
+				.build();
+			r.create(true);
+			return r;
+		}
+		case "dfs":
+			return new InMemoryRepository(new DfsRepositoryDescription("bench"));
+		case "sqlite": {
+			Repository r = new SqlRepositoryBuilder()
+				.setDatabaseUrl("jdbc:sqlite:" + new File(dir, "repo.db").getPath())
+				.setMaxConnections(1)
+				.build();
+			r.create(true);
+			return r;
+		}
+		default:
+			throw new IllegalArgumentException("Unknown backend: " + backend);
+		}
+	}
+
+	private void populate() throws IOException {
+		commitIds = new ArrayList<>(commits);
+		refNames = new ArrayList<>(2 * refs);
+		PersonIdent ident = new PersonIdent("A U Thor", "author@example.com", 1500000000000L, 0);
+		ObjectId[] blobs = new ObjectId[files];
+
+		try (ObjectInserter ins = repo.newObjectInserter()) {
+			for (int f = 0; f < files; f++) {
+				blobs[f] = ins.insert(Constants.OBJ_BLOB, content(f, 0));
+			}
+
+			ObjectId parent = null;
+			for (int c = 0; c < commits; c++) {
+				int changed = c % files;
+				blobs[changed] = ins.insert(Constants.OBJ_BLOB, content(changed, c));
+
+				CommitBuilder cb = new CommitBuilder();
+				cb.setTreeId(insertTree(ins, blobs));
+				if (parent != null) {
+					cb.setParentId(parent);
+				}
+				cb.setAuthor(ident);
+				cb.setCommitter(ident);
+				cb.setMessage("Change file " + changed + " in commit " + c + "\n");
+				parent = ins.insert(cb);
+				commitIds.add(parent);
+			}
+			ins.flush();
+			head = parent;
+		}
+
+		List<ObjectId> b = new ArrayList<>(files);
+		for (ObjectId id : blobs) {
+			b.add(id);
+		}
+		blobIds = b;
+
+		update(Constants.R_HEADS + Constants.MASTER, head);
+		for (int i = 0; i < refs; i++) {
+			ObjectId target = commitIds.get(i * commitIds.size() / refs);
+			String branch = String.format("%sbranch%04d", Constants.R_HEADS, Integer.valueOf(i));
+			String tag = String.format("%sv%04d", Constants.R_TAGS, Integer.valueOf(i));
+			update(branch, target);
+			update(tag, target);
+			refNames.add(branch);
+			refNames.add(tag);
+		}
+	}
+
+	private ObjectId insertTree(ObjectInserter ins, ObjectId[] blobs) throws IOException {
+		TreeFormatter root = new TreeFormatter();
+		for (int d = 0; d * 16 < blobs.length; d++) {
+			TreeFormatter sub = new TreeFormatter();
+			for (int f = d * 16; f < Math.min(blobs.length, (d + 1) * 16); f++) {
+				sub.append(String.format("f%04d", Integer.valueOf(f)), FileMode.REGULAR_FILE, blobs[f]);
+			}
+			root.append(String.format("d%03d", Integer.valueOf(d)), FileMode.TREE, ins.insert(sub));
+		}
+		return ins.insert(root);
+	}
+
+	private void update(String name, ObjectId id) throws IOException {
+		RefUpdate u = repo.updateRef(name);
+		u.setNewObjectId(id);
+		u.setForceUpdate(true);
+		switch (u.update()) {
+		case NEW:
+		case FORCED:
+		case NO_CHANGE:
+			break;
+		default:
+			throw new IOException("Cannot update " + name + ": " + u.getResult());
+		}
+	}
+
+	private static byte[] content(int file, int version) {
+		StringBuilder s = new StringBuilder();
+		for (int line = 0; line < 40; line++) {
+			s.append("file ").append(file)
+				.append(" version ").append(version)
+				.append(" line ").append(line).append('\n');
+		}
+		return Constants.encode(s.toString());
+	}
+}
@@ -0,0 +1,52 @@
+package org.eclipse.jgit.benchmarks;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Walks the history and the tree of the generated repository. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WalkBenchmark {
+	@Benchmark
+	public int revWalk(RepositoryState state, Blackhole bh) throws IOException {
+		int n = 0;
+		try (RevWalk rw = new RevWalk(state.repo)) {
+			rw.markStart(rw.parseCommit(state.head));
+			for (RevCommit c : rw) {
+				bh.consume(c.getRawBuffer());
+				n++;
+			}
+		}
+		return n;
+	}
+
+	@Benchmark
+	public int treeWalk(RepositoryState state, Blackhole bh) throws IOException {
+		int n = 0;
+		try (RevWalk rw = new RevWalk(state.repo);
+				TreeWalk tw = new TreeWalk(state.repo)) {
+			tw.addTree(rw.parseCommit(state.head).getTree());
+			tw.setRecursive(true);
+			while (tw.next()) {
+				bh.consume(tw.getObjectId(0));
+				n++;
+			}
+		}
+		return n;
+	}
+}
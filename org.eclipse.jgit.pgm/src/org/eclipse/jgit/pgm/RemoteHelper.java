@@ -93,17 +93,16 @@ protected void run() throws Exception {
 			repository,
 			new URIish(realUrl),
 			realRemote,
-			new PrintWriter(outw),
+			ins,
+			outs,
 			new TextProgressMonitor(errw)
 		);
 
 		driver.setProvider(new RemoteHelperTransport(driver));
-
-		BufferedReader reader = new BufferedReader(new InputStreamReader(ins));
-
-		String line;
-		while ((line = reader.readLine()) != null) {
-			driver.handleLine(line);
+		try {
+			driver.run();
+		} finally {
+			driver.close();
 		}
 	}
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.integrate.remotehelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.integrate.remotehelper.internal.RemoteHelperTransport;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.jdbc.SqlRepository;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.transport.PacketLineIn;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportJdbc;
+import org.eclipse.jgit.transport.TransportProtocol;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteHelperDriverTest extends LocalDiskRepositoryTestCase {
+	/** Opens the SQLite database at the path of a {@code test-sqlite} URI. */
+	private static final TransportProtocol SQLITE = new TransportProtocol() {
+		@Override
+		public String getName() {
+			return "SQLite";
+		}
+
+		@Override
+		public Set<String> getSchemes() {
+			return Collections.singleton("test-sqlite");
+		}
+
+		@Override
+		public Set<URIishField> getRequiredFields() {
+			return EnumSet.of(URIishField.PATH);
+		}
+
+		@Override
+		public Transport open(URIish uri, Repository local, String remoteName)
+				throws TransportException {
+			try {
+				return new TransportJdbc(local, uri, DriverManager
+						.getConnection("jdbc:sqlite:" + uri.getPath())) {
+					// Opened without a host, as the JDBC protocol needs.
+				};
+			} catch (SQLException e) {
+				throw new TransportException(uri, e.getMessage(), e);
+			}
+		}
+	};
+
+	private FileRepository local;
+
+	private URIish remoteUri;
+
+	private RevCommit commit;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		Transport.register(SQLITE);
+		local = createBareRepository();
+		remoteUri = new URIish().setScheme("test-sqlite").setPath(
+				new File(createTempDirectory("remote"), "repo.db").getPath());
+
+		try (SqlRepository remote = new SqlRepository(DriverManager
+				.getConnection("jdbc:sqlite:" + remoteUri.getPath()))) {
+			remote.createIfNotExists();
+			TestRepository<SqlRepository> tr = new TestRepository<>(remote);
+			commit = tr.branch("refs/heads/master").commit()
+					.add("A", "A").create();
+		}
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		Transport.unregister(SQLITE);
+		super.tearDown();
+	}
+
+	@Test
+	public void testFetchThroughConnect() throws Exception {
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+		request.write(Constants
+				.encode("capabilities\nconnect git-upload-pack\n"));
+		PacketLineOut pckOut = new PacketLineOut(request);
+		pckOut.writeString("want " + commit.name() + "\n");
+		pckOut.end();
+		pckOut.writeString("done\n");
+
+		InputStream in = run(request);
+		assertEquals("connect", readLine(in));
+		assertEquals("fetch", readLine(in));
+		assertEquals("push", readLine(in));
+		assertEquals("", readLine(in));
+		// Connected, upload-pack owns the streams from here on.
+		assertEquals("", readLine(in));
+
+		PacketLineIn pckIn = new PacketLineIn(in);
+		boolean advertised = false;
+		for (String line = pckIn.readString(); line != PacketLineIn.END;
+				line = pckIn.readString()) {
+			advertised |= line.startsWith(commit.name() + " refs/heads/master");
+		}
+		assertTrue(advertised);
+		assertEquals("NAK", pckIn.readString());
+
+		try (ObjectInserter ins = local.newObjectInserter()) {
+			PackParser parser = ins.newPackParser(in);
+			parser.parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		}
+		try (RevWalk rw = new RevWalk(local)) {
+			assertTrue(local.hasObject(rw.parseCommit(commit).getTree()));
+		}
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testUnknownServiceFallsBack() throws Exception {
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+		request.write(Constants.encode("connect git-unknown-pack\n"));
+
+		InputStream in = run(request);
+		assertEquals("fallback", readLine(in));
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testRunNeedsInputStream() throws Exception {
+		RemoteHelperDriver driver = new RemoteHelperDriver(local, remoteUri,
+				"origin", new PrintWriter(new ByteArrayOutputStream()),
+				NullProgressMonitor.INSTANCE);
+		try {
+			driver.run();
+			fail("Driver without input stream ran");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/** Run a driver on {@code request}, returning what it replied. */
+	private InputStream run(ByteArrayOutputStream request) throws Exception {
+		ByteArrayOutputStream reply = new ByteArrayOutputStream();
+		RemoteHelperDriver driver = new RemoteHelperDriver(local, remoteUri,
+				"origin", new ByteArrayInputStream(request.toByteArray()),
+				reply, NullProgressMonitor.INSTANCE);
+		try {
+			driver.setProvider(new RemoteHelperTransport(driver));
+			driver.run();
+		} finally {
+			driver.close();
+		}
+		return new ByteArrayInputStream(reply.toByteArray());
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != -1 && b != '\n') {
+			if (b != '\r')
+				line.append((char) b);
+		}
+		return line.toString();
+	}
+}
@@ -42,6 +42,8 @@
 import static org.hamcrest.Matchers.is;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -85,4 +87,49 @@ public void validBlockSize() {
 
 		assertThat(config.getBlockSize(), is(65536));
 	}
+
+	@Test
+	public void zeroShardCountExpectsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new DfsBlockCacheConfig().setShardCount(0);
+	}
+
+	@Test
+	public void shardSmallerThanBlockExpectsException() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage(
+				is(JGitText.get().windowSizeMustBeLesserThanLimit));
+
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(64 * 1024)
+				.setBlockLimit(1 << 20)
+				.setShardCount(32));
+	}
+
+	@Test
+	@SuppressWarnings("boxing")
+	public void cacheHotMaxFromConfig() throws Exception {
+		Config rc = new Config();
+		rc.fromText("[core \"dfs\"]\n"
+				+ "\tcacheHotMax = idx:4\n"
+				+ "\tcacheHotMax = bitmap:3\n"
+				+ "\tscanResistant = true\n");
+		DfsBlockCacheConfig config = new DfsBlockCacheConfig().fromConfig(rc);
+
+		assertThat(config.getCacheHotMap().get(PackExt.INDEX), is(4));
+		assertThat(config.getCacheHotMap().get(PackExt.BITMAP_INDEX), is(3));
+		assertThat(config.getCacheHotMap().containsKey(PackExt.PACK),
+				is(false));
+		assertThat(config.isScanResistant(), is(true));
+	}
+
+	@Test
+	public void invalidCacheHotMaxExpectsException() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+
+		Config rc = new Config();
+		rc.fromText("[core \"dfs\"]\n\tcacheHotMax = idx\n");
+		new DfsBlockCacheConfig().fromConfig(rc);
+	}
 }
@@ -45,12 +45,14 @@
 
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.junit.TestRng;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -135,6 +137,102 @@ public void weirdBlockSize() throws Exception {
 		}
 	}
 
+	@SuppressWarnings("resource")
+	@Test
+	public void shardedCacheReusesBlocks() throws Exception {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(1 << 20)
+				.setShardCount(4));
+		cache = DfsBlockCache.getInstance();
+		assertEquals(4, cache.getShardCount());
+
+		DfsRepositoryDescription repo = new DfsRepositoryDescription("test");
+		InMemoryRepository r1 = new InMemoryRepository(repo);
+		byte[] content = rng.nextBytes(424242);
+		ObjectId id;
+		try (ObjectInserter ins = r1.newObjectInserter()) {
+			id = ins.insert(OBJ_BLOB, content);
+			ins.flush();
+		}
+		long oldSize = cache.getCurrentSize();
+		assertTrue(oldSize > 2000);
+
+		try (ObjectReader rdr = r1.newObjectReader()) {
+			byte[] actual = rdr.open(id, OBJ_BLOB).getBytes();
+			assertTrue(Arrays.equals(content, actual));
+		}
+		assertEquals(0, cache.getMissCount());
+		assertTrue(cache.getHitCount() > 0);
+		assertEquals(oldSize, cache.getCurrentSize());
+		assertEquals(cache.getHitCount(), sum(cache.getHitCountPerShard()));
+		assertEquals(oldSize, sum(cache.getCurrentSizePerShard()));
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void shardedCacheSpreadsPackBlocks() throws Exception {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(1 << 20)
+				.setStreamRatio(0.5)
+				.setShardCount(4));
+		cache = DfsBlockCache.getInstance();
+		assertTrue(cache.shouldCopyThroughCache(1 << 19));
+		assertFalse(cache.shouldCopyThroughCache((1 << 19) + 1));
+
+		InMemoryRepository r1 = new InMemoryRepository(
+				new DfsRepositoryDescription("test"));
+		try (ObjectInserter ins = r1.newObjectInserter()) {
+			for (int i = 0; i < 100; i++)
+				ins.insert(OBJ_BLOB, rng.nextBytes(1000));
+			ins.flush();
+		}
+		for (long size : cache.getCurrentSizePerShard())
+			assertTrue(size > 0);
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void scanResistantCacheCountsByExtension() throws Exception {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(1 << 20)
+				.setCacheHotMap(
+						Collections.singletonMap(PackExt.INDEX,
+								Integer.valueOf(3)))
+				.setScanResistant(true));
+		cache = DfsBlockCache.getInstance();
+
+		DfsRepositoryDescription repo = new DfsRepositoryDescription("test");
+		InMemoryRepository r1 = new InMemoryRepository(repo);
+		byte[] content = rng.nextBytes(424242);
+		ObjectId id;
+		try (ObjectInserter ins = r1.newObjectInserter()) {
+			id = ins.insert(OBJ_BLOB, content);
+			ins.flush();
+		}
+
+		try (ObjectReader rdr = r1.newObjectReader()) {
+			byte[] actual = rdr.open(id, OBJ_BLOB).getBytes();
+			assertTrue(Arrays.equals(content, actual));
+		}
+		assertTrue(cache.getHitCount(PackExt.PACK) > 0);
+		long total = 0;
+		for (PackExt ext : PackExt.values()) {
+			total += cache.getHitCount(ext);
+		}
+		assertEquals(cache.getHitCount(), total);
+	}
+
+	private static long sum(long[] values) {
+		long r = 0;
+		for (long v : values) {
+			r += v;
+		}
+		return r;
+	}
+
 	private void resetCache() {
 		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
 				.setBlockSize(512)
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_PREFETCH_BLOCKS;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.internal.storage.pack.PackOutputStream;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.After;
+import org.junit.Test;
+
+public class DfsBlockPrefetcherTest {
+	private static final int BLOCK_SIZE = 512;
+
+	private DfsBlockCache cache;
+
+	private ExecutorService pool;
+
+	@After
+	public void tearDown() {
+		if (pool != null)
+			pool.shutdownNow();
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void prefetchedBlocksAreCached() throws Exception {
+		InMemoryRepository repo = newRepository(
+				new InMemoryRepository(new DfsRepositoryDescription("test")));
+		List<Runnable> queued = new ArrayList<>();
+		repo.getObjectDatabase().getReaderOptions()
+				.setStreamPrefetchBlocks(4)
+				.setPrefetchExecutor(queued::add);
+
+		DfsPackFile pack = repo.getObjectDatabase().getPacks()[0];
+		int length = readPack(repo).length;
+		try (DfsReader ctx = (DfsReader) repo.newObjectReader()) {
+			DfsBlockPrefetcher prefetch = DfsBlockPrefetcher.forPack(pack,
+					ctx, length - 20);
+			prefetch.advance(12);
+			assertEquals(4, queued.size());
+			for (int i = 1; i <= 4; i++)
+				assertFalse(cache.contains(pack.key, i * BLOCK_SIZE));
+
+			for (Runnable r : queued)
+				r.run();
+			for (int i = 1; i <= 4; i++)
+				assertTrue(cache.contains(pack.key, i * BLOCK_SIZE));
+			assertFalse(cache.contains(pack.key, 5 * BLOCK_SIZE));
+			prefetch.close();
+		}
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void copyWithPrefetchMatchesPack() throws Exception {
+		InMemoryRepository repo = newRepository(
+				new InMemoryRepository(new DfsRepositoryDescription("test")));
+		pool = Executors.newFixedThreadPool(4);
+		repo.getObjectDatabase().getReaderOptions()
+				.setStreamPrefetchBlocks(8)
+				.setPrefetchExecutor(pool);
+
+		assertCopyMatchesPack(repo);
+		DfsPackFile pack = repo.getObjectDatabase().getPacks()[0];
+		for (long pos = 0; pos < readPack(repo).length; pos += BLOCK_SIZE)
+			assertTrue(cache.contains(pack.key, pos));
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void rejectedPrefetchLoadsBlocksInReader() throws Exception {
+		InMemoryRepository repo = newRepository(
+				new InMemoryRepository(new DfsRepositoryDescription("test")));
+		AtomicInteger rejected = new AtomicInteger();
+		repo.getObjectDatabase().getReaderOptions()
+				.setStreamPrefetchBlocks(4)
+				.setPrefetchExecutor(r -> {
+					rejected.incrementAndGet();
+					throw new RejectedExecutionException();
+				});
+
+		assertCopyMatchesPack(repo);
+		assertTrue(rejected.get() > 0);
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void failedPrefetchLoadsBlocksInReader() throws Exception {
+		FailingRepository repo = new FailingRepository(
+				new DfsRepositoryDescription("test"));
+		newRepository(repo);
+		repo.getObjectDatabase().getReaderOptions()
+				.setStreamPrefetchBlocks(4)
+				.setPrefetchExecutor(r -> {
+					repo.failing = true;
+					try {
+						r.run();
+					} finally {
+						repo.failing = false;
+					}
+				});
+
+		assertCopyMatchesPack(repo);
+		assertTrue(repo.failures.get() > 0);
+	}
+
+	@Test
+	public void readerOptionsPrefetchSettings() {
+		DfsReaderOptions opts = new DfsReaderOptions();
+		assertEquals(0, opts.getStreamPrefetchBlocks());
+		assertNull(opts.getPrefetchExecutor());
+
+		Config rc = new Config();
+		rc.setInt(CONFIG_CORE_SECTION, CONFIG_DFS_SECTION,
+				CONFIG_KEY_STREAM_PREFETCH_BLOCKS, 16);
+		assertEquals(16, opts.fromConfig(rc).getStreamPrefetchBlocks());
+		assertEquals(0, opts.setStreamPrefetchBlocks(-1)
+				.getStreamPrefetchBlocks());
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void noPrefetchWithoutExecutor() throws Exception {
+		InMemoryRepository repo = newRepository(
+				new InMemoryRepository(new DfsRepositoryDescription("test")));
+		repo.getObjectDatabase().getReaderOptions().setStreamPrefetchBlocks(4);
+		try (DfsReader ctx = (DfsReader) repo.newObjectReader()) {
+			assertNull(DfsBlockPrefetcher.forPack(
+					repo.getObjectDatabase().getPacks()[0], ctx, 0));
+		}
+	}
+
+	/**
+	 * Fill {@code repo} with a pack written by another repository, once the
+	 * block cache no longer holds the blocks written by the inserter.
+	 */
+	private <T extends InMemoryRepository> T newRepository(T repo)
+			throws IOException {
+		DfsRepositoryDescription desc = repo.getDescription();
+		InMemoryRepository src = new InMemoryRepository(desc);
+		// Random content does not compress, the pack spans many blocks.
+		byte[] content = new byte[64 * 1024];
+		new Random(42).nextBytes(content);
+		try (ObjectInserter ins = src.newObjectInserter()) {
+			ins.insert(OBJ_BLOB, content);
+			ins.flush();
+		}
+
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(BLOCK_SIZE)
+				.setBlockLimit(1 << 20));
+		cache = DfsBlockCache.getInstance();
+		repo.getObjectDatabase().commitPack(
+				src.getObjectDatabase().listPacks(),
+				Collections.<DfsPackDescription> emptyList());
+		return repo;
+	}
+
+	private static void assertCopyMatchesPack(InMemoryRepository repo)
+			throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (DfsReader ctx = (DfsReader) repo.newObjectReader()) {
+			PackOutputStream out = new PackOutputStream(
+					NullProgressMonitor.INSTANCE, buf, null);
+			repo.getObjectDatabase().getPacks()[0].copyPackAsIs(out, ctx);
+		}
+
+		byte[] pack = readPack(repo);
+		assertTrue(pack.length > 8 * BLOCK_SIZE);
+		assertArrayEquals(Arrays.copyOfRange(pack, 12, pack.length - 20),
+				buf.toByteArray());
+	}
+
+	private static byte[] readPack(InMemoryRepository repo)
+			throws IOException {
+		DfsObjDatabase db = repo.getObjectDatabase();
+		try (ReadableChannel rc = db.openFile(
+				db.getPacks()[0].getPackDescription(), PACK)) {
+			ByteBuffer buf = ByteBuffer.allocate((int) rc.size());
+			while (buf.hasRemaining() && rc.read(buf) > 0) {
+				// Read the whole file.
+			}
+			return buf.array();
+		}
+	}
+
+	/** Repository whose files cannot be opened while {@link #failing}. */
+	private static class FailingRepository extends InMemoryRepository {
+		volatile boolean failing;
+
+		final AtomicInteger failures = new AtomicInteger();
+
+		private final MemObjDatabase objdb = new MemObjDatabase(this) {
+			@Override
+			protected ReadableChannel openFile(DfsPackDescription desc,
+					PackExt ext) throws FileNotFoundException, IOException {
+				if (failing) {
+					failures.incrementAndGet();
+					throw new IOException("Injected failure");
+				}
+				return super.openFile(desc, ext);
+			}
+		};
+
+		FailingRepository(DfsRepositoryDescription desc) {
+			super(desc);
+		}
+
+		@Override
+		public MemObjDatabase getObjectDatabase() {
+			return objdb;
+		}
+	}
+}
@@ -4,6 +4,7 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.GC_REST;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.REFTABLE;
 import static org.junit.Assert.assertEquals;
@@ -27,6 +28,7 @@
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
@@ -89,6 +91,26 @@ public void testCollectionWithNoGarbage() throws Exception {
 		assertTrue("commit1 in pack", isObjectInPack(commit1, pack));
 	}
 
+	@Test
+	public void testWriteCommitGraph() throws Exception {
+		RevCommit commit0 = commit().message("0").create();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		git.update("master", commit1);
+
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		gc.setWriteCommitGraph(true);
+		run(gc);
+
+		DfsPackFile pack = odb.getPacks()[0];
+		assertTrue(pack.getPackDescription().hasFileExt(COMMIT_GRAPH));
+		try (DfsReader reader = odb.newReader()) {
+			CommitGraph graph = reader.getCommitGraph();
+			assertNotNull(graph);
+			assertEquals(2, graph.getCommitCount());
+			assertEquals(2, graph.getGeneration(graph.findPosition(commit1)));
+		}
+	}
+
 	@Test
 	public void testRacyNoReusePrefersSmaller() throws Exception {
 		StringBuilder msg = new StringBuilder();
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.CommitGraph.ChangedPathQuery;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junit.Test;
+
+public class CommitGraphTest extends GcTestCase {
+	private RevCommit a, b, c, d, octopus;
+
+	private File graphFile() {
+		return new File(repo.getObjectDatabase().getDirectory(),
+				"info/" + CommitGraphV1.FILE_NAME);
+	}
+
+	private void enable() throws Exception {
+		StoredConfig cfg = repo.getConfig();
+		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, true);
+		cfg.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, true);
+		cfg.save();
+	}
+
+	private void createHistory() throws Exception {
+		a = tr.commit().add("A", "A").create();
+		b = tr.commit().parent(a).add("B", "B").create();
+		c = tr.commit().parent(a).add("C", "C").create();
+		d = tr.commit().parent(c).add("D", "D").create();
+		octopus = tr.parseBody(
+				tr.commit().parent(b).parent(d).parent(c).create());
+		tr.update("refs/heads/master", octopus);
+		tr.update("refs/heads/side", d);
+		tr.lightweightTag("t", tr.tag("v1", b));
+	}
+
+	@Test
+	public void testWrittenByGc() throws Exception {
+		enable();
+		createHistory();
+		gc.gc();
+		assertTrue(graphFile().exists());
+
+		CommitGraph graph = repo.getObjectDatabase().getCommitGraph();
+		assertNotNull(graph);
+		assertEquals(5, graph.getCommitCount());
+		assertEquals(1, graph.getGeneration(graph.findPosition(a)));
+		assertEquals(2, graph.getGeneration(graph.findPosition(b)));
+		assertEquals(3, graph.getGeneration(graph.findPosition(d)));
+		assertEquals(4, graph.getGeneration(graph.findPosition(octopus)));
+		assertEquals(-1, graph.findPosition(octopus.getTree()));
+
+		int pos = graph.findPosition(octopus);
+		int[] parents = graph.getParents(pos);
+		assertEquals(3, parents.length);
+		MutableObjectId id = new MutableObjectId();
+		for (int i = 0; i < parents.length; i++) {
+			graph.getObjectId(parents[i], id);
+			assertEquals(octopus.getParent(i), id);
+		}
+		graph.getTree(pos, id);
+		assertEquals(octopus.getTree(), id);
+		assertEquals(octopus.getCommitTime(), graph.getCommitTime(pos));
+	}
+
+	@Test
+	public void testNotReadUnlessEnabled() throws Exception {
+		createHistory();
+		gc.writeCommitGraph();
+		assertTrue(graphFile().exists());
+		assertNull(repo.getObjectDatabase().getCommitGraph());
+	}
+
+	@Test
+	public void testRevWalkWithoutBody() throws Exception {
+		enable();
+		createHistory();
+		gc.writeCommitGraph();
+
+		try (RevWalk rw = new RevWalk(repo)) {
+			rw.setRetainBody(false);
+			RevCommit o = rw.parseCommit(octopus);
+			assertEquals(octopus.getTree(), o.getTree());
+			assertEquals(octopus.getCommitTime(), o.getCommitTime());
+			assertEquals(3, o.getParentCount());
+			for (int i = 0; i < 3; i++)
+				assertEquals(octopus.getParent(i), o.getParent(i));
+			assertNull(o.getRawBuffer());
+
+			assertTrue(rw.isMergedInto(rw.parseCommit(a), o));
+			assertTrue(rw.isMergedInto(rw.parseCommit(d), o));
+			assertFalse(rw.isMergedInto(o, rw.parseCommit(d)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(b),
+					rw.parseCommit(d)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(d),
+					rw.parseCommit(b)));
+		}
+	}
+
+	@Test
+	public void testChangedPathFilters() throws Exception {
+		enable();
+		repo.getConfig().setBoolean(ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_WRITE_CHANGED_PATHS, true);
+		RevCommit c1 = tr.commit().add("src/A", "1").add("doc/B", "1")
+				.create();
+		RevCommit c2 = tr.commit().parent(c1).add("src/A", "2")
+				.add("doc/B", "1").create();
+		RevCommit c3 = tr.commit().parent(c2).add("src/A", "2")
+				.add("doc/B", "2").create();
+		tr.update("refs/heads/master", c3);
+		gc.writeCommitGraph();
+
+		CommitGraph graph = repo.getObjectDatabase().getCommitGraph();
+		ChangedPathQuery src = graph.newChangedPathQuery(
+				new byte[][] { Constants.encode("src") });
+		ChangedPathQuery doc = graph.newChangedPathQuery(
+				new byte[][] { Constants.encode("doc/B") });
+		assertNotNull(src);
+		assertTrue(src.maybeChanged(graph.findPosition(c1)));
+		assertTrue(src.maybeChanged(graph.findPosition(c2)));
+		assertFalse(src.maybeChanged(graph.findPosition(c3)));
+		assertFalse(doc.maybeChanged(graph.findPosition(c2)));
+		assertTrue(doc.maybeChanged(graph.findPosition(c3)));
+
+		try (RevWalk rw = new RevWalk(repo)) {
+			rw.setRetainBody(false);
+			rw.markStart(rw.parseCommit(c3));
+			rw.setTreeFilter(AndTreeFilter.create(
+					PathFilterGroup.createFromStrings("src/A"),
+					TreeFilter.ANY_DIFF));
+			assertEquals(c2, rw.next());
+			assertEquals(c1, rw.next());
+			assertNull(rw.next());
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.junit.TestRepository.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.junit.Test;
+
+public class GcGeometricRepackTest extends GcTestCase {
+	@Test
+	public void testGeometricSplit() {
+		assertEquals(0, GC.geometricSplit(new long[0], 0, 2));
+		assertEquals(0, GC.geometricSplit(new long[] { 1, 2, 4, 8 }, 0, 2));
+		assertEquals(3, GC.geometricSplit(new long[] { 1, 1, 1, 100 }, 0, 2));
+		assertEquals(0, GC.geometricSplit(new long[] { 10, 100 }, 0, 2));
+		assertEquals(1, GC.geometricSplit(new long[] { 10, 100 }, 6, 2));
+		assertEquals(2, GC.geometricSplit(new long[] { 10, 100 }, 50, 2));
+	}
+
+	@Test
+	public void testGeometricSplitKeepsPackAtExactFactor() {
+		assertEquals(0, GC.geometricSplit(new long[] { 10, 100 }, 5, 2));
+		assertEquals(1, GC.geometricSplit(new long[] { 10, 40 }, 10, 2));
+		assertEquals(2, GC.geometricSplit(new long[] { 10, 40 }, 11, 2));
+	}
+
+	@Test
+	public void testRollsUpSmallPacks() throws Exception {
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		CommitBuilder cb = bb.commit();
+		for (int i = 0; i < 20; i++)
+			cb.add("f" + i, "content " + i);
+		cb.create();
+		gc.setPackExpireAgeMillis(0);
+		gc.gc();
+		stats = gc.getStatistics();
+		assertEquals(22, stats.numberOfPackedObjects);
+		assertEquals(1, stats.numberOfPackFiles);
+		PackFile large = repo.getObjectDatabase().getPacks().iterator()
+				.next();
+		File bitmap = new File(large.getPackFile().getPath()
+				.replaceAll("\\.pack$", ".bitmap"));
+		assertTrue(bitmap.exists());
+
+		PackConfig config = new PackConfig(repo);
+		config.setGeometricRepackFactor(2);
+		gc.setPackConfig(config);
+
+		bb.commit().add("f0", "changed 0").create();
+		gc.gc();
+		stats = gc.getStatistics();
+		assertEquals(0, stats.numberOfLooseObjects);
+		assertEquals(25, stats.numberOfPackedObjects);
+		assertEquals(2, stats.numberOfPackFiles);
+
+		bb.commit().add("f1", "changed 1").create();
+		gc.gc();
+		stats = gc.getStatistics();
+		assertEquals(0, stats.numberOfLooseObjects);
+		assertEquals(28, stats.numberOfPackedObjects);
+		assertEquals(2, stats.numberOfPackFiles);
+
+		PackFile small = null;
+		boolean foundLarge = false;
+		for (PackFile p : repo.getObjectDatabase().getPacks()) {
+			if (p.getPackName().equals(large.getPackName()))
+				foundLarge = true;
+			else
+				small = p;
+		}
+		assertTrue(foundLarge);
+		assertTrue(bitmap.exists());
+		assertEquals(6, small.getIndex().getObjectCount());
+		Set<ObjectId> ids = new HashSet<>();
+		for (MutableEntry e : small)
+			ids.add(e.toObjectId());
+		for (MutableEntry e : large)
+			assertFalse(ids.contains(e.toObjectId()));
+	}
+
+	@Test
+	public void testFullRepackWhenAllPacksRollUp() throws Exception {
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		bb.commit().add("A", "A").create();
+		gc.setPackExpireAgeMillis(0);
+		gc.gc();
+		bb.commit().add("A", "A2").add("B", "B").create();
+
+		PackConfig config = new PackConfig(repo);
+		config.setGeometricRepackFactor(2);
+		gc.setPackConfig(config);
+		gc.gc();
+		stats = gc.getStatistics();
+		assertEquals(0, stats.numberOfLooseObjects);
+		assertEquals(7, stats.numberOfPackedObjects);
+		assertEquals(1, stats.numberOfPackFiles);
+	}
+}
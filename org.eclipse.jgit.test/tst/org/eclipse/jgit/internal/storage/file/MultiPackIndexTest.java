@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.Test;
+
+public class MultiPackIndexTest extends GcTestCase {
+	private File midxFile() {
+		return new File(repo.getObjectDatabase().getDirectory(),
+				"pack/" + MultiPackIndex.FILE_NAME);
+	}
+
+	private void enable() throws Exception {
+		StoredConfig cfg = repo.getConfig();
+		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, true);
+		cfg.save();
+	}
+
+	/** Create a new pack for each commit by keeping the older packs. */
+	private void commitAndPack(BranchBuilder bb, String content)
+			throws Exception {
+		bb.commit().add("A", content).add("B", content + "B").create();
+		gc.gc();
+		for (PackFile p : repo.getObjectDatabase().getPacks()) {
+			String name = p.getPackFile().getPath();
+			new File(name.substring(0, name.lastIndexOf('.')) + ".keep")
+					.createNewFile();
+		}
+	}
+
+	private List<ObjectId> allPackedObjects() {
+		List<ObjectId> ids = new ArrayList<>();
+		for (PackFile p : repo.getObjectDatabase().getPacks())
+			for (MutableEntry e : p)
+				ids.add(e.toObjectId());
+		return ids;
+	}
+
+	@Test
+	public void testWrittenByGc() throws Exception {
+		enable();
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		commitAndPack(bb, "1");
+		assertFalse(midxFile().exists());
+		commitAndPack(bb, "2");
+		commitAndPack(bb, "3");
+		assertTrue(midxFile().exists());
+
+		MultiPackIndex midx = repo.getObjectDatabase().getMultiPackIndex();
+		assertNotNull(midx);
+		assertEquals(3, midx.getPackNames().size());
+		List<ObjectId> ids = allPackedObjects();
+		assertEquals(ids.size(), midx.getObjectCount());
+
+		for (ObjectId id : ids) {
+			int pos = midx.findPosition(id);
+			assertTrue(pos >= 0);
+			assertEquals(id, midx.getObjectId(pos));
+		}
+		assertEquals(-1, midx.findPosition(ObjectId.zeroId()));
+
+		try (FileRepository r = new FileRepository(repo.getDirectory());
+				ObjectReader reader = r.newObjectReader()) {
+			assertNotNull(r.getObjectDatabase().getMultiPackIndex());
+			for (ObjectId id : ids) {
+				assertTrue(reader.has(id));
+				assertEquals(reader.open(id).getSize(),
+						reader.getObjectSize(id, ObjectReader.OBJ_ANY));
+			}
+		}
+	}
+
+	@Test
+	public void testIncrementalWrite() throws Exception {
+		enable();
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		commitAndPack(bb, "1");
+		commitAndPack(bb, "2");
+		MultiPackIndex before = repo.getObjectDatabase().getMultiPackIndex();
+		assertEquals(2, before.getPackNames().size());
+
+		commitAndPack(bb, "3");
+		gc.writeMultiPackIndex();
+		MultiPackIndex after = repo.getObjectDatabase().getMultiPackIndex();
+		assertEquals(3, after.getPackNames().size());
+		assertEquals(allPackedObjects().size(), after.getObjectCount());
+	}
+
+	@Test
+	public void testUnusedWithMissingPack() throws Exception {
+		enable();
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		commitAndPack(bb, "1");
+		commitAndPack(bb, "2");
+		assertNotNull(repo.getObjectDatabase().getMultiPackIndex());
+
+		for (File f : new File(repo.getObjectDatabase().getDirectory(), "pack")
+				.listFiles()) {
+			if (f.getName().endsWith(".keep"))
+				f.delete();
+		}
+		gc.setPackExpireAgeMillis(0);
+		bb.commit().add("C", "C").create();
+		repo.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				null, ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false);
+		gc.gc();
+		assertTrue(midxFile().exists());
+		repo.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				null, ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, true);
+
+		try (FileRepository r = new FileRepository(repo.getDirectory());
+				ObjectReader reader = r.newObjectReader()) {
+			assertNull(r.getObjectDatabase().getMultiPackIndex());
+			for (ObjectId id : allPackedObjects())
+				assertTrue(reader.has(id));
+		}
+	}
+
+	@Test
+	public void testDeletedWithSinglePack() throws Exception {
+		enable();
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		commitAndPack(bb, "1");
+		commitAndPack(bb, "2");
+		assertTrue(midxFile().exists());
+
+		for (File f : new File(repo.getObjectDatabase().getDirectory(), "pack")
+				.listFiles()) {
+			if (f.getName().endsWith(".keep"))
+				f.delete();
+		}
+		gc.setPackExpireAgeMillis(0);
+		gc.gc();
+		assertEquals(1, repo.getObjectDatabase().getPacks().size());
+		assertFalse(midxFile().exists());
+	}
+
+	@Test
+	public void testUnusedWithInvalidPackId() throws Exception {
+		enable();
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		commitAndPack(bb, "1");
+		commitAndPack(bb, "2");
+		MultiPackIndex midx = repo.getObjectDatabase().getMultiPackIndex();
+		assertNotNull(midx);
+		int packCnt = midx.getPackNames().size();
+
+		try (RandomAccessFile f = new RandomAccessFile(midxFile(), "rw")) {
+			f.seek(6);
+			int chunkCnt = f.readUnsignedByte();
+			for (int i = 0; i < chunkCnt; i++) {
+				f.seek(MultiPackIndex.HEADER_LENGTH
+						+ i * MultiPackIndex.CHUNK_LOOKUP_WIDTH);
+				if (f.readInt() == MultiPackIndex.CHUNK_OBJECT_OFFSETS) {
+					f.seek(f.readLong());
+					f.writeInt(packCnt);
+				}
+			}
+		}
+
+		try (FileRepository r = new FileRepository(repo.getDirectory());
+				ObjectReader reader = r.newObjectReader()) {
+			assertNull(r.getObjectDatabase().getMultiPackIndex());
+			for (ObjectId id : allPackedObjects()) {
+				assertTrue(reader.has(id));
+				assertNotNull(reader.open(id));
+			}
+		}
+	}
+}
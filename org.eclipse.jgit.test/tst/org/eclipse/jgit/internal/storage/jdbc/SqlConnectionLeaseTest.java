@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqliteAdapter;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.storage.jdbc.SqlRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SqlConnectionLeaseTest extends LocalDiskRepositoryTestCase {
+	private static final ObjectId ID = ObjectId
+			.fromString("0123456789012345678901234567890123456789");
+
+	private Connection connection;
+
+	private SqlRepository repo;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		File db = new File(createTempDirectory("sql"), "repo.db");
+		connection = DriverManager.getConnection("jdbc:sqlite:" + db);
+		connection.setAutoCommit(false);
+		repo = new SqlRepository(connection, new SqliteAdapter());
+		repo.create(true);
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		repo.close();
+		connection.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testFailedWorkIsRolledBack() throws Exception {
+		try {
+			repo.withLease(() -> {
+				assertTrue(insert("refs/heads/a"));
+				throw new IOException("injected");
+			});
+			fail("work did not fail");
+		} catch (IOException e) {
+			assertEquals("injected", e.getMessage());
+		}
+
+		assertNull(repo.getCurrentLease());
+		assertNull(repo.exactRef("refs/heads/a"));
+	}
+
+	@Test
+	public void testFailedNestedWorkAbortsTransaction() throws Exception {
+		try (SqlConnectionLease lease = repo.lease()) {
+			assertTrue(insert("refs/heads/a"));
+			try {
+				repo.withLease(() -> {
+					assertTrue(insert("refs/heads/b"));
+					throw new SQLException("injected");
+				});
+				fail("work did not fail");
+			} catch (IOException e) {
+				assertEquals("injected", e.getCause().getMessage());
+			}
+
+			assertTrue(insert("refs/heads/c"));
+			try {
+				lease.commit();
+				fail("aborted transaction was committed");
+			} catch (SQLException e) {
+				// Expected, the work of the outer lease is lost.
+			}
+		}
+
+		repo.getRefDatabase().refresh();
+		assertNull(repo.exactRef("refs/heads/a"));
+		assertNull(repo.exactRef("refs/heads/b"));
+		assertNull(repo.exactRef("refs/heads/c"));
+	}
+
+	@Test
+	public void testLeaseAfterAbortCommits() throws Exception {
+		try {
+			repo.withLease(() -> {
+				insert("refs/heads/a");
+				throw new IOException("injected");
+			});
+			fail("work did not fail");
+		} catch (IOException e) {
+			// Expected.
+		}
+
+		repo.withLease(() -> Boolean.valueOf(insert("refs/heads/b")));
+		connection.rollback();
+
+		repo.getRefDatabase().refresh();
+		assertNull(repo.exactRef("refs/heads/a"));
+		assertNotNull(repo.exactRef("refs/heads/b"));
+	}
+
+	@Test
+	public void testStatementsOutliveLease() throws Exception {
+		String url = "jdbc:sqlite:"
+				+ new File(createTempDirectory("sql"), "pooled.db");
+		PreparedStatement first;
+		PreparedStatement raw;
+		try (SqlRepository pooled = new SqlRepositoryBuilder()
+				.setDatabaseUrl(url).setMaxConnections(1).build()) {
+			try (SqlConnectionLease lease = pooled.lease()) {
+				first = lease.prepareStatement("SELECT 1");
+				raw = first.unwrap(PreparedStatement.class);
+				first.close();
+			}
+			assertNull(pooled.getCurrentLease());
+
+			try (SqlConnectionLease lease = pooled.lease()) {
+				PreparedStatement second = lease.prepareStatement("SELECT 1");
+				assertSame(first, second);
+				second.close();
+			}
+			assertFalse(raw.isClosed());
+		}
+		assertTrue(raw.isClosed());
+	}
+
+	private boolean insert(String name) throws SQLException {
+		return SqlRefDatabase.insertRef(repo, name, false, ID.name());
+	}
+}
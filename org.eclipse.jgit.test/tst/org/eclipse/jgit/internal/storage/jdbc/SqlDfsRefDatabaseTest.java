@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqliteAdapter;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SqlDfsRefDatabaseTest extends LocalDiskRepositoryTestCase {
+	private Connection dfsConnection;
+
+	private Connection sqlConnection;
+
+	private SqlDfsRepository dfs;
+
+	private SqlRepository repo;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		String url = "jdbc:sqlite:"
+				+ new File(createTempDirectory("sql"), "repo.db");
+		dfsConnection = DriverManager.getConnection(url);
+		dfs = new SqlDfsRepository.Builder()
+				.setSqlRepository(new SqlRepository(dfsConnection,
+						new SqliteAdapter()))
+				.build();
+		dfs.create(true);
+
+		// A second reader of the same refs, caching them by version.
+		sqlConnection = DriverManager.getConnection(url);
+		repo = new SqlRepository(sqlConnection, new SqliteAdapter());
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		dfs.close();
+		repo.close();
+		dfsConnection.close();
+		sqlConnection.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testPutInvalidatesSqlRefs() throws Exception {
+		assertNull(repo.exactRef("refs/heads/alias"));
+
+		RefUpdate u = dfs.updateRef("refs/heads/alias");
+		assertEquals(RefUpdate.Result.NEW, u.link(Constants.R_HEADS
+				+ Constants.MASTER));
+
+		Ref alias = repo.exactRef("refs/heads/alias");
+		assertTrue(alias.isSymbolic());
+		assertEquals(Constants.R_HEADS + Constants.MASTER,
+				alias.getTarget().getName());
+	}
+
+	@Test
+	public void testRemoveInvalidatesSqlRefs() throws Exception {
+		Ref head = repo.exactRef(Constants.HEAD);
+		assertTrue(head.isSymbolic());
+
+		assertTrue(dfs.getRefDatabase()
+				.compareAndRemove(dfs.exactRef(Constants.HEAD)));
+		assertNull(repo.exactRef(Constants.HEAD));
+	}
+}
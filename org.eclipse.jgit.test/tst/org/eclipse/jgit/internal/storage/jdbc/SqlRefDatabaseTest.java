@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.LOCK_FAILURE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_OTHER_REASON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqliteAdapter;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SqlRefDatabaseTest extends LocalDiskRepositoryTestCase {
+	private static final String MASTER = "refs/heads/master";
+
+	private Connection connection;
+
+	private Connection otherConnection;
+
+	private SqlRepository repo;
+
+	/** A second writer of the same refs, caching them by version. */
+	private SqlRepository other;
+
+	private RevCommit c1;
+
+	private RevCommit c2;
+
+	private RevCommit c3;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		String url = "jdbc:sqlite:"
+				+ new File(createTempDirectory("sql"), "repo.db");
+		connection = DriverManager.getConnection(url);
+		repo = new SqlRepository(connection, new SqliteAdapter());
+		repo.create(true);
+
+		TestRepository<SqlRepository> tr = new TestRepository<>(repo);
+		c1 = tr.commit().create();
+		c2 = tr.commit().parent(c1).message("c2").create();
+		c3 = tr.commit().parent(c1).message("c3").create();
+		tr.update(MASTER, c1);
+
+		otherConnection = DriverManager.getConnection(url);
+		other = new SqlRepository(otherConnection, new SqliteAdapter());
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		repo.close();
+		other.close();
+		connection.close();
+		otherConnection.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testLostUpdateRaceFailsWithLockFailure() throws Exception {
+		// Reads master before the other writer moves it.
+		RefUpdate late = repo.updateRef(MASTER);
+		late.setNewObjectId(c3);
+
+		RefUpdate first = other.updateRef(MASTER);
+		first.setNewObjectId(c2);
+		assertEquals(RefUpdate.Result.FAST_FORWARD, first.update());
+
+		assertEquals(RefUpdate.Result.LOCK_FAILURE, late.update());
+		assertEquals(c2, repo.exactRef(MASTER).getObjectId());
+	}
+
+	@Test
+	public void testLostCreateRaceFailsWithLockFailure() throws Exception {
+		RefUpdate late = repo.updateRef("refs/heads/topic");
+		late.setNewObjectId(c3);
+
+		RefUpdate first = other.updateRef("refs/heads/topic");
+		first.setNewObjectId(c2);
+		assertEquals(RefUpdate.Result.NEW, first.update());
+
+		assertEquals(RefUpdate.Result.LOCK_FAILURE, late.update());
+		assertEquals(c2, repo.exactRef("refs/heads/topic").getObjectId());
+	}
+
+	@Test
+	public void testAtomicBatchRollsBackOnLockFailure() throws Exception {
+		ReceiveCommand create = new ReceiveCommand(ObjectId.zeroId(), c1,
+				"refs/heads/a");
+		ReceiveCommand delete = new ReceiveCommand(c1, ObjectId.zeroId(),
+				"refs/heads/b");
+		ReceiveCommand update = new ReceiveCommand(c1, c2, MASTER);
+		RefUpdate b = repo.updateRef("refs/heads/b");
+		b.setNewObjectId(c1);
+		assertEquals(RefUpdate.Result.NEW, b.update());
+
+		// Moves master after the commands were computed.
+		RefUpdate moved = other.updateRef(MASTER);
+		moved.setNewObjectId(c3);
+		assertEquals(RefUpdate.Result.FAST_FORWARD, moved.update());
+
+		BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+		assertTrue(batch.isAtomic());
+		batch.addCommand(Arrays.asList(create, delete, update));
+		try (RevWalk walk = new RevWalk(repo)) {
+			batch.execute(walk, NullProgressMonitor.INSTANCE);
+		}
+
+		assertEquals(REJECTED_OTHER_REASON, create.getResult());
+		assertEquals(REJECTED_OTHER_REASON, delete.getResult());
+		assertEquals(LOCK_FAILURE, update.getResult());
+		assertNull(repo.exactRef("refs/heads/a"));
+		assertEquals(c1, repo.exactRef("refs/heads/b").getObjectId());
+		assertEquals(c3, repo.exactRef(MASTER).getObjectId());
+	}
+
+	@Test
+	public void testChangesInvalidateOtherSnapshots() throws Exception {
+		assertEquals(c1, other.exactRef(MASTER).getObjectId());
+
+		RefUpdate u = repo.updateRef(MASTER);
+		u.setNewObjectId(c2);
+		assertEquals(RefUpdate.Result.FAST_FORWARD, u.update());
+		assertEquals(c2, other.exactRef(MASTER).getObjectId());
+
+		ReceiveCommand create = new ReceiveCommand(ObjectId.zeroId(), c3,
+				"refs/heads/topic");
+		BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+		batch.addCommand(create);
+		try (RevWalk walk = new RevWalk(repo)) {
+			batch.execute(walk, NullProgressMonitor.INSTANCE);
+		}
+		assertEquals(OK, create.getResult());
+		assertEquals(c3, other.exactRef("refs/heads/topic").getObjectId());
+
+		RefUpdate d = repo.updateRef("refs/heads/topic");
+		d.setForceUpdate(true);
+		assertEquals(RefUpdate.Result.FORCED, d.delete());
+		assertNull(other.exactRef("refs/heads/topic"));
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import static org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter.SCHEMA_META_INDEX;
+import static org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter.SCHEMA_TEXT_IDS;
+import static org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter.SCHEMA_VERSION;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqliteAdapter;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SqlSchemaUpgradeTest extends LocalDiskRepositoryTestCase {
+	private static final byte[] CONTENT = Constants.encode("hello\n");
+
+	private static final ObjectId ID = new ObjectInserter.Formatter()
+			.idFor(Constants.OBJ_BLOB, CONTENT);
+
+	private Connection connection;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		File db = new File(createTempDirectory("sql"), "repo.db");
+		connection = DriverManager.getConnection("jdbc:sqlite:" + db);
+
+		// Tables of a repository written before any schema upgrade.
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE \"git.objects\" ("
+					+ "\"hash\" VARCHAR(40) NOT NULL PRIMARY KEY,"
+					+ "\"type\" SMALLINT NOT NULL,"
+					+ "\"content\" BLOB NOT NULL)");
+			statement.execute("CREATE TABLE \"git.refs\" ("
+					+ "\"name\" VARCHAR(255) NOT NULL PRIMARY KEY,"
+					+ "\"symbolic\" BOOLEAN NOT NULL,"
+					+ "\"target\" VARCHAR(255) NOT NULL)");
+		}
+		try (PreparedStatement insert = connection.prepareStatement(
+				"INSERT INTO \"git.objects\" VALUES (?, ?, ?)")) {
+			insert.setString(1, ID.name());
+			insert.setInt(2, Constants.OBJ_BLOB);
+			insert.setBytes(3, CONTENT);
+			insert.executeUpdate();
+		}
+		try (PreparedStatement insert = connection.prepareStatement(
+				"INSERT INTO \"git.refs\" VALUES (?, ?, ?)")) {
+			insert.setString(1, "refs/heads/master");
+			insert.setBoolean(2, false);
+			insert.setString(3, ID.name());
+			insert.executeUpdate();
+			insert.setString(1, Constants.HEAD);
+			insert.setBoolean(2, true);
+			insert.setString(3, "refs/heads/master");
+			insert.executeUpdate();
+		}
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		connection.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testUpgradeTwice() throws Exception {
+		try (SqlRepository repo = open(new SqliteAdapter())) {
+			assertEquals(SCHEMA_TEXT_IDS, repo.upgradeSchema());
+			assertEquals(SCHEMA_VERSION, repo.getAdapter().getSchemaVersion());
+			assertContent(repo);
+		}
+
+		try (SqlRepository repo = open(new SqliteAdapter())) {
+			assertEquals(SCHEMA_VERSION, repo.upgradeSchema());
+			assertContent(repo);
+		}
+	}
+
+	@Test
+	public void testUpgradeResumesAfterFailedStep() throws Exception {
+		try (SqlRepository repo = open(new SqliteAdapter() {
+			@Override
+			protected void upgradeSchema(Statement statement, int fromVersion)
+					throws SQLException {
+				if (fromVersion == SCHEMA_META_INDEX) {
+					throw new SQLException("injected");
+				}
+				super.upgradeSchema(statement, fromVersion);
+			}
+		})) {
+			repo.upgradeSchema();
+			fail("upgrade did not fail");
+		} catch (IOException e) {
+			assertEquals("injected", e.getCause().getMessage());
+		}
+
+		try (SqlRepository repo = open(new SqliteAdapter())) {
+			// Steps before the failed one, including the conversion of
+			// the ids to binary, are not run again.
+			assertEquals(SCHEMA_META_INDEX, repo.upgradeSchema());
+			assertEquals(SCHEMA_VERSION, repo.getAdapter().getSchemaVersion());
+			assertContent(repo);
+		}
+	}
+
+	private SqlRepository open(SqlDriverAdapter adapter) {
+		return new SqlRepository(connection, adapter);
+	}
+
+	private static void assertContent(SqlRepository repo) throws Exception {
+		assertArrayEquals(CONTENT, repo.open(ID).getCachedBytes());
+		Ref master = repo.exactRef("refs/heads/master");
+		assertEquals(ID, master.getObjectId());
+		Ref head = repo.exactRef(Constants.HEAD);
+		assertTrue(head.isSymbolic());
+		assertEquals(ID, head.getObjectId());
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.internal.storage.jdbc.SqlConnectionPool;
+import org.eclipse.jgit.internal.storage.jdbc.SqlRepository;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqliteAdapter;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+public class SqlRepositoryBuilderTest extends LocalDiskRepositoryTestCase {
+	@Test
+	public void testBuildPooledRepository() throws Exception {
+		String url = "jdbc:sqlite:"
+				+ new File(createTempDirectory("sql"), "repo.db");
+		RevCommit commit;
+		try (SqlRepository repo = new SqlRepositoryBuilder()
+				.setDatabaseUrl(url).setMaxConnections(1).build()) {
+			assertTrue(repo.getConnectionProvider() instanceof SqlConnectionPool);
+			assertTrue(repo.getAdapter() instanceof SqliteAdapter);
+			repo.create(true);
+			commit = new TestRepository<>(repo).branch("refs/heads/master")
+					.commit().create();
+		}
+
+		try (SqlRepository repo = new SqlRepositoryBuilder()
+				.setDatabaseUrl(url).setMustExist(true).build()) {
+			assertEquals(commit, repo.resolve("refs/heads/master"));
+		}
+	}
+
+	@Test
+	public void testNamedRepositories() throws Exception {
+		String url = "jdbc:sqlite:"
+				+ new File(createTempDirectory("sql"), "repo.db");
+		RevCommit a;
+		RevCommit b;
+		try (SqlRepository main = open(url, "");
+				SqlRepository repoA = open(url, "a");
+				SqlRepository repoB = open(url, "b")) {
+			repoA.create(true);
+			main.create(true);
+			repoB.create(true);
+			a = new TestRepository<>(repoA).branch("refs/heads/master")
+					.commit().create();
+			b = new TestRepository<>(repoB).branch("refs/heads/master")
+					.commit().message("b").create();
+
+			long idA = repoA.getAdapter().getRepositoryId();
+			long idB = repoB.getAdapter().getRepositoryId();
+			assertEquals(0, main.getAdapter().getRepositoryId());
+			assertEquals(0, main.getAdapter().getNetworkId());
+			assertTrue(idA > 0);
+			assertTrue(idB > 0);
+			assertNotEquals(idA, idB);
+			assertEquals(idA, repoA.getAdapter().getNetworkId());
+			assertEquals(idB, repoB.getAdapter().getNetworkId());
+		}
+
+		try (SqlRepository main = open(url, "");
+				SqlRepository repoA = open(url, "a");
+				SqlRepository repoB = open(url, "b")) {
+			assertNull(main.resolve("refs/heads/master"));
+			assertEquals(a, repoA.resolve("refs/heads/master"));
+			assertEquals(b, repoB.resolve("refs/heads/master"));
+		}
+	}
+
+	private static SqlRepository open(String url, String name)
+			throws Exception {
+		return new SqlRepositoryBuilder().setDatabaseUrl(url)
+				.setRepositoryName(name).build();
+	}
+
+	@Test
+	public void testMustExist() throws Exception {
+		String url = "jdbc:sqlite:"
+				+ new File(createTempDirectory("sql"), "repo.db");
+		try {
+			new SqlRepositoryBuilder().setDatabaseUrl(url).setMustExist(true)
+					.build();
+			fail("missing repository was opened");
+		} catch (RepositoryNotFoundException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testNoConnection() throws Exception {
+		try {
+			new SqlRepositoryBuilder().build();
+			fail("repository without connection was built");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
@@ -65,6 +65,8 @@
 import org.eclipse.jgit.diff.RenameDetector;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.CommitGraph.ChangedPathQuery;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
@@ -131,6 +133,10 @@ public class BlameGenerator implements AutoCloseable {
 
 	private TreeWalk treeWalk;
 
+	private CommitGraph commitGraph;
+
+	private boolean commitGraphLoaded;
+
 	private DiffAlgorithm diffAlgorithm = new HistogramDiff();
 
 	private RawTextComparator textComparator = RawTextComparator.DEFAULT;
@@ -184,6 +190,8 @@ private void initRevPool(boolean reverse) {
 		reader = revPool.getObjectReader();
 		treeWalk = new TreeWalk(reader);
 		treeWalk.setRecursive(true);
+		commitGraph = null;
+		commitGraphLoaded = false;
 	}
 
 	/** @return repository being scanned for revision history. */
@@ -603,6 +611,9 @@ private boolean processOne(Candidate n) throws IOException {
 			return split(n.getNextCandidate(0), n);
 		revPool.parseHeaders(parent);
 
+		if (isUnchanged(n, parent))
+			return blameEntireRegionOnParent(n, parent);
+
 		if (find(parent, n.sourcePath)) {
 			if (idBuf.equals(n.sourceBlob))
 				return blameEntireRegionOnParent(n, parent);
@@ -632,6 +643,39 @@ private boolean processOne(Candidate n) throws IOException {
 		return split(next, n);
 	}
 
+	/**
+	 * Check the changed path filter of the commit graph.
+	 *
+	 * @return true if the file definitely has the same content in the parent;
+	 *         false if the trees need to be searched.
+	 */
+	private boolean isUnchanged(Candidate n, RevCommit parent)
+			throws IOException {
+		if (n.sourceCommit == null || revPool instanceof ReverseWalk)
+			return false;
+		if (!commitGraphLoaded) {
+			commitGraph = reader.getCommitGraph();
+			commitGraphLoaded = true;
+		}
+		if (commitGraph == null)
+			return false;
+
+		int pos = commitGraph.findPosition(n.sourceCommit);
+		if (pos < 0)
+			return false;
+		int[] parents = commitGraph.getParents(pos);
+		if (parents.length == 0)
+			return false;
+		MutableObjectId id = new MutableObjectId();
+		commitGraph.getObjectId(parents[0], id);
+		if (!id.equals(parent))
+			return false;
+
+		ChangedPathQuery q = commitGraph.newChangedPathQuery(
+				n.sourcePath.getPathsBestEffort());
+		return q != null && !q.maybeChanged(pos);
+	}
+
 	private boolean blameEntireRegionOnParent(Candidate n, RevCommit parent) {
 		// File was not modified, blame parent.
 		n.sourceCommit = parent;
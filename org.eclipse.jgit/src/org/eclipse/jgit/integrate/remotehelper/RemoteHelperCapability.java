@@ -2,6 +2,7 @@
 
 public class RemoteHelperCapability {
 	public static final RemoteHelperCapability CONNECT = new RemoteHelperCapability("connect");
+	public static final RemoteHelperCapability STATELESS_CONNECT = new RemoteHelperCapability("stateless-connect");
 	public static final RemoteHelperCapability PUSH = new RemoteHelperCapability("push");
 	public static final RemoteHelperCapability EXPORT = new RemoteHelperCapability("export");
 	public static final RemoteHelperCapability FETCH = new RemoteHelperCapability("fetch");
@@ -13,6 +13,17 @@ public boolean isBatched() {
 		return false;
 	}
 
+	/**
+	 * Whether the command connects git to a service, after which the input
+	 * and output streams belong to that service and no more commands are
+	 * read.
+	 *
+	 * @return true if the helper is done once the command completes.
+	 */
+	public boolean isConnecting() {
+		return false;
+	}
+
 	public abstract void handle(
 		List<String> arguments
 	) throws Exception;
@@ -4,10 +4,26 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.URIish;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+
 public interface RemoteHelperContext {
 	void reply(String data);
 	void complete();
 
+	/**
+	 * @return the stream git writes commands to, positioned after the last
+	 *         command line read. Null if the helper only has line access.
+	 */
+	InputStream getInputStream();
+
+	/**
+	 * @return the stream replies are written to. Replies written through
+	 *         {@link #reply(String)} are flushed before it is returned.
+	 *         Null if the helper only has line access.
+	 */
+	OutputStream getOutputStream();
+
 	Repository getRepository();
 
 	String getRemoteName();
@@ -5,8 +5,13 @@
 import org.eclipse.jgit.lib.TextProgressMonitor;
 import org.eclipse.jgit.transport.URIish;
 
-import java.io.PrintStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -18,14 +23,70 @@ public class RemoteHelperDriver implements RemoteHelperContext {
 	private final String remoteName;
 	private final ProgressMonitor monitor;
 
+	private final InputStream rawIn;
+	private final OutputStream rawOut;
+
 	private RemoteHelperProvider provider;
 
+	/** Set once a command connected git to a service. */
+	private boolean connected;
+
 	public RemoteHelperDriver(Repository repository, URIish uri, String remoteName, PrintWriter out, ProgressMonitor monitor) {
 		this.repository = repository;
 		this.uri = uri;
 		this.remoteName = remoteName;
 		this.out = out;
 		this.monitor = monitor;
+		this.rawIn = null;
+		this.rawOut = null;
+	}
+
+	/**
+	 * Create a driver reading commands from {@code in} itself, see
+	 * {@link #run()}. Unlike a driver fed lines by the caller, it can hand
+	 * both streams to commands that connect git to a service.
+	 */
+	public RemoteHelperDriver(Repository repository, URIish uri, String remoteName, InputStream in, OutputStream out, ProgressMonitor monitor) {
+		this.repository = repository;
+		this.uri = uri;
+		this.remoteName = remoteName;
+		this.out = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		this.monitor = monitor;
+		this.rawIn = in;
+		this.rawOut = out;
+	}
+
+	/**
+	 * Read and handle commands until git closes the input, or a command
+	 * connected it to a service.
+	 */
+	public void run() throws Exception {
+		if (rawIn == null) {
+			throw new IllegalStateException("Remote Helper Driver has no input stream.");
+		}
+
+		String line;
+		while (!connected && (line = readLine()) != null) {
+			handleLine(line);
+		}
+	}
+
+	/**
+	 * Read one line of {@link #rawIn}, a byte at a time, so that nothing
+	 * after it is buffered away from a command that takes over the stream.
+	 *
+	 * @return the line without its terminator, or null at end of input.
+	 */
+	private String readLine() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = rawIn.read()) != -1 && b != '\n') {
+			line.write(b);
+		}
+		if (b == -1 && line.size() == 0) {
+			return null;
+		}
+		return new String(line.toByteArray(), StandardCharsets.UTF_8);
 	}
 
 	@Override
@@ -40,6 +101,17 @@ public void complete() {
 		out.flush();
 	}
 
+	@Override
+	public InputStream getInputStream() {
+		return rawIn;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		out.flush();
+		return rawOut;
+	}
+
 	@Override
 	public Repository getRepository() {
 		return repository;
@@ -116,6 +188,11 @@ public void handleLine(String line) throws Exception {
 
 		command.handle(arguments);
 
+		if (command.isConnecting()) {
+			connected = true;
+			return;
+		}
+
 		if (!command.isBatched()) {
 			command.complete();
 		} else {
@@ -126,10 +203,27 @@ public void handleLine(String line) throws Exception {
 	public RemoteHelperCommand getDefaultCommand(String name) {
 		if ("capabilities".equals(name)) {
 			return new DefaultCapabilitiesCommand(this);
+		} else if ("connect".equals(name) || "stateless-connect".equals(name)) {
+			return new FallbackConnectCommand(this);
 		}
 		return null;
 	}
 
+	/**
+	 * Answers a connect request the provider cannot serve, so that git uses
+	 * the other capabilities of the helper instead.
+	 */
+	private class FallbackConnectCommand extends RemoteHelperCommand {
+		public FallbackConnectCommand(RemoteHelperContext context) {
+			super(context);
+		}
+
+		@Override
+		public void handle(List<String> arguments) throws Exception {
+			getContext().reply("fallback");
+		}
+	}
+
 	private class DefaultCapabilitiesCommand extends RemoteHelperCommand {
 		public DefaultCapabilitiesCommand(RemoteHelperContext context) {
 			super(context);
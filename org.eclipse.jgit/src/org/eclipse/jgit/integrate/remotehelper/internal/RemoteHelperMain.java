@@ -30,17 +30,16 @@ public static void main(String[] args, String gitDir) throws Exception {
 			Git.open(new File(gitDir)).getRepository(),
 			new URIish(url),
 			remoteName,
-			new PrintWriter(System.out),
+			System.in,
+			System.out,
 			new TextProgressMonitor()
 		);
 
 		driver.setProvider(new RemoteHelperTransport(driver));
-
-		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-
-		String line;
-		while ((line = reader.readLine()) != null) {
-			driver.handleLine(line);
+		try {
+			driver.run();
+		} finally {
+			driver.close();
 		}
 	}
 }
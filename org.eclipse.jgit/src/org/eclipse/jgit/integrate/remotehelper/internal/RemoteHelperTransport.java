@@ -6,9 +6,11 @@
 import org.eclipse.jgit.integrate.remotehelper.RemoteHelperCommand;
 import org.eclipse.jgit.integrate.remotehelper.RemoteHelperContext;
 import org.eclipse.jgit.integrate.remotehelper.RemoteHelperProvider;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.FetchConnection;
 import org.eclipse.jgit.transport.PushConnection;
 import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportJdbc;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -40,6 +42,8 @@ public RemoteHelperCommand getCommand(String name) {
 			return new TransportListCommand(this);
 		} else if ("push".equals(name)) {
 			return new TransportPushCommand(this);
+		} else if ("connect".equals(name)) {
+			return new TransportConnectCommand(this);
 		}
 		return null;
 	}
@@ -48,6 +52,12 @@ public RemoteHelperCommand getCommand(String name) {
 	public Collection<RemoteHelperCapability> getCapabilities() {
 		ArrayList<RemoteHelperCapability> capabilities = new ArrayList<>();
 
+		// Protocol v2 is not served, so only connect is offered; git
+		// prefers it to stateless-connect anyway.
+		if (getServedRepository() != null && getContext().getInputStream() != null) {
+			capabilities.add(RemoteHelperCapability.CONNECT);
+		}
+
 		try {
 			FetchConnection fetchConnection = getFetchConnection();
 			PushConnection pushConnection = getPushConnection();
@@ -83,6 +93,18 @@ public PushConnection getPushConnection() throws TransportException {
 		}
 	}
 
+	/**
+	 * @return the remote repository, if the transport opens it inside this
+	 *         process so that git can be connected to services running on
+	 *         it; otherwise null.
+	 */
+	public Repository getServedRepository() {
+		if (getTransport() instanceof TransportJdbc) {
+			return ((TransportJdbc) getTransport()).getSqlRepository();
+		}
+		return null;
+	}
+
 	public void setTransport(Transport transport) {
 		this.transport = transport;
 	}
@@ -0,0 +1,64 @@
+package org.eclipse.jgit.integrate.remotehelper.internal;
+
+import org.eclipse.jgit.integrate.remotehelper.RemoteHelperCommand;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.ReceivePack;
+import org.eclipse.jgit.transport.UploadPack;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Connects git to {@code git-upload-pack} or {@code git-receive-pack} run
+ * on the remote repository inside the helper.
+ * <p>
+ * git then negotiates with its own haves and streams packs through the
+ * helper's stdin and stdout, as it would over SSH, instead of going through
+ * the fetch and push commands of the helper.
+ */
+public class TransportConnectCommand extends RemoteHelperCommand {
+	private final RemoteHelperTransport provider;
+
+	private boolean connected;
+
+	public TransportConnectCommand(RemoteHelperTransport provider) {
+		super(provider.getContext());
+		this.provider = provider;
+	}
+
+	@Override
+	public boolean isConnecting() {
+		return connected;
+	}
+
+	@Override
+	public void handle(List<String> arguments) throws Exception {
+		Repository remote = provider.getServedRepository();
+		InputStream in = getContext().getInputStream();
+		String service = arguments.isEmpty() ? "" : arguments.get(0);
+		if (remote == null || in == null) {
+			getContext().reply("fallback");
+			return;
+		}
+
+		if ("git-upload-pack".equals(service)) {
+			connected = true;
+			getContext().complete();
+			OutputStream out = getContext().getOutputStream();
+			UploadPack up = new UploadPack(remote);
+			up.upload(in, out, null);
+			out.flush();
+		} else if ("git-receive-pack".equals(service)) {
+			connected = true;
+			getContext().complete();
+			OutputStream out = getContext().getOutputStream();
+			ReceivePack rp = new ReceivePack(remote);
+			rp.receive(in, out, null);
+			out.flush();
+		} else {
+			// Let git use fetch and push for services that are not served.
+			getContext().reply("fallback");
+		}
+	}
+}
@@ -3,7 +3,7 @@
 import org.eclipse.jgit.integrate.remotehelper.RemoteHelperCommand;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.transport.FetchConnection;
 
 import java.util.ArrayList;
@@ -30,18 +30,27 @@ public void complete() throws Exception {
 		List<Ref> want = new ArrayList<>();
 		HashSet<ObjectId> have = new HashSet<>();
 
-		for (FetchDefinition def : defs) {
-			want.add(provider.getFetchConnection().getRef(def.getName()));
-		}
-
 		FetchConnection connection = provider.getFetchConnection();
-		connection.fetch(
-			new TextProgressMonitor(),
-			want,
-			have
-		);
+		try {
+			for (FetchDefinition def : defs) {
+				want.add(connection.getRef(def.getName()));
+			}
 
-		connection.close();
+			// Objects reachable from local refs need not be sent again.
+			for (Ref ref : getContext().getRepository().getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+				if (ref.getObjectId() != null) {
+					have.add(ref.getObjectId());
+				}
+			}
+
+			connection.fetch(
+				getContext().getProgressMonitor(),
+				want,
+				have
+			);
+		} finally {
+			connection.close();
+		}
 
 		defs.clear();
 		getContext().complete();
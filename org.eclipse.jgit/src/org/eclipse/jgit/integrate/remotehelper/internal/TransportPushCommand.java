@@ -2,7 +2,6 @@
 
 import org.eclipse.jgit.integrate.remotehelper.RemoteHelperCommand;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.TextProgressMonitor;
 import org.eclipse.jgit.transport.PushConnection;
 import org.eclipse.jgit.transport.RemoteRefUpdate;
 
@@ -51,11 +50,14 @@ public void complete() throws Exception {
 		}
 
 		PushConnection connection = provider.getPushConnection();
-
-		connection.push(
-			new TextProgressMonitor(),
-			refUpdates
-		);
+		try {
+			connection.push(
+				getContext().getProgressMonitor(),
+				refUpdates
+			);
+		} finally {
+			connection.close();
+		}
 
 		for (String dest : refUpdates.keySet()) {
 			RemoteRefUpdate refUpdate = refUpdates.get(dest);
@@ -45,12 +45,14 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 
 /**
  * Caches slices of a {@link BlockBasedFile} in memory for faster read access.
@@ -69,7 +71,10 @@
  * typically doesn't yield a corresponding benefit to the application. This
  * cache implements a clock replacement algorithm, giving each block one chance
  * to have been accessed during a sweep of the cache to save itself from
- * eviction.
+ * eviction. Blocks of the extensions in
+ * {@link DfsBlockCacheConfig#getCacheHotMap()} get more chances, and with
+ * {@link DfsBlockCacheConfig#isScanResistant()} pack data gets none until it
+ * is used a second time.
  * <p>
  * Entities created by the cache are held under hard references, preventing the
  * Java VM from clearing anything. Blocks are discarded by the replacement
@@ -84,6 +89,12 @@
  * The internal hash table does not expand at runtime, instead it is fixed in
  * size at cache creation time. The internal lock table used to gate load
  * invocations is also fixed in size.
+ * <p>
+ * The cache may be split into {@link DfsBlockCacheConfig#getShardCount()}
+ * shards, selected by the hash of the stream key. Each shard has its own
+ * table, load locks, clock and statistics, and an equal share of the limit,
+ * so threads loading blocks of different files rarely wait for the same
+ * lock. Lookups of cached blocks take no lock at all.
  */
 public final class DfsBlockCache {
 	private static volatile DfsBlockCache cache;
@@ -113,14 +124,11 @@ public static DfsBlockCache getInstance() {
 		return cache;
 	}
 
-	/** Number of entries in {@link #table}. */
-	private final int tableSize;
-
-	/** Hash bucket directory; entries are chained below. */
-	private final AtomicReferenceArray<HashEntry> table;
+	/** Most {@link PackExt} values that can be registered. */
+	private static final int PACK_EXT_LIMIT = 32;
 
-	/** Locks to prevent concurrent loads for same (PackFile,position). */
-	private final ReentrantLock[] loadLocks;
+	/** Independent parts of the cache, selected by stream key. */
+	private final Shard[] shards;
 
 	/** Maximum number of bytes the cache should hold. */
 	private final long maxBytes;
@@ -143,49 +151,34 @@ public static DfsBlockCache getInstance() {
 	/** As {@link #blockSize} is a power of 2, bits to shift for a / blockSize. */
 	private final int blockSizeShift;
 
-	/** Number of times a block was found in the cache. */
-	private final AtomicLong statHit;
-
-	/** Number of times a block was not found, and had to be loaded. */
-	private final AtomicLong statMiss;
-
-	/** Number of blocks evicted due to cache being full. */
-	private volatile long statEvict;
-
-	/** Protects the clock and its related data. */
-	private final ReentrantLock clockLock;
-
-	/** Current position of the clock. */
-	private Ref clockHand;
+	/** Largest hot count of a block, by {@link PackExt#getPosition()}. */
+	private final int[] cacheHotMax;
 
-	/** Number of bytes currently loaded in the cache. */
-	private volatile long liveBytes;
+	/** Whether blocks of pack data are added cold. */
+	private final boolean scanResistant;
 
-	@SuppressWarnings("unchecked")
 	private DfsBlockCache(final DfsBlockCacheConfig cfg) {
-		tableSize = tableSize(cfg);
+		int shardCount = cfg.getShardCount();
+		int tableSize = tableSize(cfg, shardCount);
 		if (tableSize < 1)
 			throw new IllegalArgumentException(JGitText.get().tSizeMustBeGreaterOrEqual1);
 
-		table = new AtomicReferenceArray<>(tableSize);
-		loadLocks = new ReentrantLock[cfg.getConcurrencyLevel()];
-		for (int i = 0; i < loadLocks.length; i++)
-			loadLocks[i] = new ReentrantLock(true /* fair */);
-
 		maxBytes = cfg.getBlockLimit();
 		maxStreamThroughCache = (long) (maxBytes * cfg.getStreamRatio());
 		blockSize = cfg.getBlockSize();
 		blockSizeShift = Integer.numberOfTrailingZeros(blockSize);
 
-		clockLock = new ReentrantLock(true /* fair */);
-		String none = ""; //$NON-NLS-1$
-		clockHand = new Ref<>(
-				DfsStreamKey.of(new DfsRepositoryDescription(none), none),
-				-1, 0, null);
-		clockHand.next = clockHand;
+		cacheHotMax = new int[PACK_EXT_LIMIT];
+		for (int i = 0; i < cacheHotMax.length; i++)
+			cacheHotMax[i] = 1;
+		for (Map.Entry<PackExt, Integer> e : cfg.getCacheHotMap().entrySet())
+			cacheHotMax[e.getKey().getPosition()] = e.getValue().intValue();
+		scanResistant = cfg.isScanResistant();
 
-		statHit = new AtomicLong();
-		statMiss = new AtomicLong();
+		shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++)
+			shards[i] = new Shard(tableSize, cfg.getConcurrencyLevel(),
+					maxBytes / shardCount);
 	}
 
 	boolean shouldCopyThroughCache(long length) {
@@ -194,7 +187,10 @@ boolean shouldCopyThroughCache(long length) {
 
 	/** @return total number of bytes in the cache. */
 	public long getCurrentSize() {
-		return liveBytes;
+		long size = 0;
+		for (Shard s : shards)
+			size += s.liveBytes;
+		return size;
 	}
 
 	/** @return 0..100, defining how full the cache is. */
@@ -204,12 +200,18 @@ public long getFillPercentage() {
 
 	/** @return number of requests for items in the cache. */
 	public long getHitCount() {
-		return statHit.get();
+		long hits = 0;
+		for (Shard s : shards)
+			hits += sum(s.statHit);
+		return hits;
 	}
 
 	/** @return number of requests for items not in the cache. */
 	public long getMissCount() {
-		return statMiss.get();
+		long miss = 0;
+		for (Shard s : shards)
+			miss += sum(s.statMiss);
+		return miss;
 	}
 
 	/** @return total number of requests (hit + miss). */
@@ -219,8 +221,8 @@ public long getTotalRequestCount() {
 
 	/** @return 0..100, defining number of cache hits. */
 	public long getHitRatio() {
-		long hits = statHit.get();
-		long miss = statMiss.get();
+		long hits = getHitCount();
+		long miss = getMissCount();
 		long total = hits + miss;
 		if (total == 0)
 			return 0;
@@ -229,7 +231,125 @@ public long getHitRatio() {
 
 	/** @return number of evictions performed due to cache being full. */
 	public long getEvictions() {
-		return statEvict;
+		long evict = 0;
+		for (Shard s : shards)
+			evict += sum(s.statEvict);
+		return evict;
+	}
+
+	/**
+	 * @param ext
+	 *            extension of the blocks to count.
+	 * @return number of requests for blocks of {@code ext} in the cache.
+	 * @since 4.10
+	 */
+	public long getHitCount(PackExt ext) {
+		long hits = 0;
+		for (Shard s : shards)
+			hits += s.statHit.get(ext.getPosition());
+		return hits;
+	}
+
+	/**
+	 * @param ext
+	 *            extension of the blocks to count.
+	 * @return number of requests for blocks of {@code ext} not in the cache.
+	 * @since 4.10
+	 */
+	public long getMissCount(PackExt ext) {
+		long miss = 0;
+		for (Shard s : shards)
+			miss += s.statMiss.get(ext.getPosition());
+		return miss;
+	}
+
+	/**
+	 * @param ext
+	 *            extension of the blocks to count.
+	 * @return 0..100, defining number of cache hits for blocks of
+	 *         {@code ext}.
+	 * @since 4.10
+	 */
+	public long getHitRatio(PackExt ext) {
+		long hits = getHitCount(ext);
+		long miss = getMissCount(ext);
+		long total = hits + miss;
+		if (total == 0)
+			return 0;
+		return hits * 100 / total;
+	}
+
+	/**
+	 * @param ext
+	 *            extension of the blocks to count.
+	 * @return number of blocks of {@code ext} evicted due to cache being
+	 *         full.
+	 * @since 4.10
+	 */
+	public long getEvictions(PackExt ext) {
+		long evict = 0;
+		for (Shard s : shards)
+			evict += s.statEvict.get(ext.getPosition());
+		return evict;
+	}
+
+	/**
+	 * @return number of shards of the cache.
+	 * @since 4.10
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @return number of bytes in each shard of the cache.
+	 * @since 4.10
+	 */
+	public long[] getCurrentSizePerShard() {
+		long[] r = new long[shards.length];
+		for (int i = 0; i < shards.length; i++)
+			r[i] = shards[i].liveBytes;
+		return r;
+	}
+
+	/**
+	 * @return number of requests for items in each shard of the cache.
+	 * @since 4.10
+	 */
+	public long[] getHitCountPerShard() {
+		long[] r = new long[shards.length];
+		for (int i = 0; i < shards.length; i++)
+			r[i] = sum(shards[i].statHit);
+		return r;
+	}
+
+	/**
+	 * @return number of requests for items not in each shard of the cache.
+	 * @since 4.10
+	 */
+	public long[] getMissCountPerShard() {
+		long[] r = new long[shards.length];
+		for (int i = 0; i < shards.length; i++)
+			r[i] = sum(shards[i].statMiss);
+		return r;
+	}
+
+	/**
+	 * @return number of evictions performed in each shard of the cache.
+	 * @since 4.10
+	 */
+	public long[] getEvictionsPerShard() {
+		long[] r = new long[shards.length];
+		for (int i = 0; i < shards.length; i++)
+			r[i] = sum(shards[i].statEvict);
+		return r;
+	}
+
+	private static long sum(AtomicLongArray counts) {
+		long r = 0;
+		for (int i = 0; i < counts.length(); i++)
+			r += counts.get(i);
+		return r;
 	}
 
 	private int hash(int packHash, long off) {
@@ -240,9 +360,9 @@ int getBlockSize() {
 		return blockSize;
 	}
 
-	private static int tableSize(final DfsBlockCacheConfig cfg) {
+	private static int tableSize(final DfsBlockCacheConfig cfg, int shardCount) {
 		final int wsz = cfg.getBlockSize();
-		final long limit = cfg.getBlockLimit();
+		final long limit = cfg.getBlockLimit() / shardCount;
 		if (wsz <= 0)
 			throw new IllegalArgumentException(JGitText.get().invalidWindowSize);
 		if (limit < wsz)
@@ -250,6 +370,20 @@ private static int tableSize(final DfsBlockCacheConfig cfg) {
 		return (int) Math.min(5 * (limit / wsz) / 2, Integer.MAX_VALUE);
 	}
 
+	/**
+	 * Select the shard of a block. Blocks of one stream are spread over all
+	 * shards, like over the slots of a shard; objects stored once per stream
+	 * use position 0.
+	 */
+	private Shard shardFor(DfsStreamKey key, long position) {
+		if (shards.length == 1)
+			return shards[0];
+		// Mix the bits so that shards and the slots within a shard are not
+		// correlated.
+		int h = hash(key.hash, position) * 0x9e3779b9;
+		return shards[(h >>> 1) % shards.length];
+	}
+
 	/**
 	 * Lookup a cached object, creating and loading it if it doesn't exist.
 	 *
@@ -267,126 +401,8 @@ private static int tableSize(final DfsBlockCacheConfig cfg) {
 	 */
 	DfsBlock getOrLoad(BlockBasedFile file, long position, DfsReader ctx,
 			@Nullable ReadableChannel fileChannel) throws IOException {
-		final long requestedPosition = position;
-		position = file.alignToBlock(position);
-
-		DfsStreamKey key = file.key;
-		int slot = slot(key, position);
-		HashEntry e1 = table.get(slot);
-		DfsBlock v = scan(e1, key, position);
-		if (v != null && v.contains(key, requestedPosition)) {
-			ctx.stats.blockCacheHit++;
-			statHit.incrementAndGet();
-			return v;
-		}
-
-		reserveSpace(blockSize);
-		ReentrantLock regionLock = lockFor(key, position);
-		regionLock.lock();
-		try {
-			HashEntry e2 = table.get(slot);
-			if (e2 != e1) {
-				v = scan(e2, key, position);
-				if (v != null) {
-					ctx.stats.blockCacheHit++;
-					statHit.incrementAndGet();
-					creditSpace(blockSize);
-					return v;
-				}
-			}
-
-			statMiss.incrementAndGet();
-			boolean credit = true;
-			try {
-				v = file.readOneBlock(requestedPosition, ctx, fileChannel);
-				credit = false;
-			} finally {
-				if (credit)
-					creditSpace(blockSize);
-			}
-			if (position != v.start) {
-				// The file discovered its blockSize and adjusted.
-				position = v.start;
-				slot = slot(key, position);
-				e2 = table.get(slot);
-			}
-
-			Ref<DfsBlock> ref = new Ref<>(key, position, v.size(), v);
-			ref.hot = true;
-			for (;;) {
-				HashEntry n = new HashEntry(clean(e2), ref);
-				if (table.compareAndSet(slot, e2, n))
-					break;
-				e2 = table.get(slot);
-			}
-			addToClock(ref, blockSize - v.size());
-		} finally {
-			regionLock.unlock();
-		}
-
-		// If the block size changed from the default, it is possible the block
-		// that was loaded is the wrong block for the requested position.
-		if (v.contains(file.key, requestedPosition))
-			return v;
-		return getOrLoad(file, requestedPosition, ctx, fileChannel);
-	}
-
-	@SuppressWarnings("unchecked")
-	private void reserveSpace(int reserve) {
-		clockLock.lock();
-		try {
-			long live = liveBytes + reserve;
-			if (maxBytes < live) {
-				Ref prev = clockHand;
-				Ref hand = clockHand.next;
-				do {
-					if (hand.hot) {
-						// Value was recently touched. Clear
-						// hot and give it another chance.
-						hand.hot = false;
-						prev = hand;
-						hand = hand.next;
-						continue;
-					} else if (prev == hand)
-						break;
-
-					// No recent access since last scan, kill
-					// value and remove from clock.
-					Ref dead = hand;
-					hand = hand.next;
-					prev.next = hand;
-					dead.next = null;
-					dead.value = null;
-					live -= dead.size;
-					statEvict++;
-				} while (maxBytes < live);
-				clockHand = prev;
-			}
-			liveBytes = live;
-		} finally {
-			clockLock.unlock();
-		}
-	}
-
-	private void creditSpace(int credit) {
-		clockLock.lock();
-		liveBytes -= credit;
-		clockLock.unlock();
-	}
-
-	@SuppressWarnings("unchecked")
-	private void addToClock(Ref ref, int credit) {
-		clockLock.lock();
-		try {
-			if (credit != 0)
-				liveBytes -= credit;
-			Ref ptr = clockHand;
-			ref.next = ptr.next;
-			ptr.next = ref;
-			clockHand = ref;
-		} finally {
-			clockLock.unlock();
-		}
+		return shardFor(file.key, file.alignToBlock(position)).getOrLoad(file,
+				position, ctx, fileChannel);
 	}
 
 	void put(DfsBlock v) {
@@ -398,84 +414,26 @@ <T> Ref<T> putRef(DfsStreamKey key, long size, T v) {
 	}
 
 	<T> Ref<T> put(DfsStreamKey key, long pos, int size, T v) {
-		int slot = slot(key, pos);
-		HashEntry e1 = table.get(slot);
-		Ref<T> ref = scanRef(e1, key, pos);
-		if (ref != null)
-			return ref;
-
-		reserveSpace(size);
-		ReentrantLock regionLock = lockFor(key, pos);
-		regionLock.lock();
-		try {
-			HashEntry e2 = table.get(slot);
-			if (e2 != e1) {
-				ref = scanRef(e2, key, pos);
-				if (ref != null) {
-					creditSpace(size);
-					return ref;
-				}
-			}
-
-			ref = new Ref<>(key, pos, size, v);
-			ref.hot = true;
-			for (;;) {
-				HashEntry n = new HashEntry(clean(e2), ref);
-				if (table.compareAndSet(slot, e2, n))
-					break;
-				e2 = table.get(slot);
-			}
-			addToClock(ref, 0);
-		} finally {
-			regionLock.unlock();
-		}
-		return ref;
+		return shardFor(key, pos).put(key, pos, size, v);
 	}
 
 	boolean contains(DfsStreamKey key, long position) {
-		return scan(table.get(slot(key, position)), key, position) != null;
+		return shardFor(key, position).contains(key, position);
 	}
 
-	@SuppressWarnings("unchecked")
 	<T> T get(DfsStreamKey key, long position) {
-		T val = (T) scan(table.get(slot(key, position)), key, position);
-		if (val == null)
-			statMiss.incrementAndGet();
-		else
-			statHit.incrementAndGet();
-		return val;
-	}
-
-	private <T> T scan(HashEntry n, DfsStreamKey key, long position) {
-		Ref<T> r = scanRef(n, key, position);
-		return r != null ? r.get() : null;
+		return shardFor(key, position).get(key, position);
 	}
 
 	<T> Ref<T> getRef(DfsStreamKey key) {
-		Ref<T> r = scanRef(table.get(slot(key, 0)), key, 0);
-		if (r != null)
-			statHit.incrementAndGet();
-		else
-			statMiss.incrementAndGet();
-		return r;
-	}
-
-	@SuppressWarnings("unchecked")
-	private <T> Ref<T> scanRef(HashEntry n, DfsStreamKey key, long position) {
-		for (; n != null; n = n.next) {
-			Ref<T> r = n.ref;
-			if (r.position == position && r.key.equals(key))
-				return r.get() != null ? r : null;
-		}
-		return null;
+		return shardFor(key, 0).getRef(key);
 	}
 
-	private int slot(DfsStreamKey key, long position) {
-		return (hash(key.hash, position) >>> 1) % tableSize;
-	}
-
-	private ReentrantLock lockFor(DfsStreamKey key, long position) {
-		return loadLocks[(hash(key.hash, position) >>> 1) % loadLocks.length];
+	private <T> Ref<T> newRef(DfsStreamKey key, long pos, int size, T v) {
+		Ref<T> ref = new Ref<>(key, pos, size, v, cacheHotMax[key.packExtPos]);
+		if (!scanResistant || key.packExtPos != PackExt.PACK.getPosition())
+			ref.hotCount = 1;
+		return ref;
 	}
 
 	private static HashEntry clean(HashEntry top) {
@@ -487,6 +445,280 @@ private static HashEntry clean(HashEntry top) {
 		return n == top.next ? top : new HashEntry(n, top.ref);
 	}
 
+	/** Part of the cache with its own table, clock and limit. */
+	private final class Shard {
+		/** Number of entries in {@link #table}. */
+		private final int tableSize;
+
+		/** Hash bucket directory; entries are chained below. */
+		private final AtomicReferenceArray<HashEntry> table;
+
+		/** Locks to prevent concurrent loads for same (PackFile,position). */
+		private final ReentrantLock[] loadLocks;
+
+		/** Maximum number of bytes this shard should hold. */
+		private final long maxBytes;
+
+		/** Number of times a block was found in the shard, by extension. */
+		final AtomicLongArray statHit;
+
+		/** Number of times a block was not found, and had to be loaded. */
+		final AtomicLongArray statMiss;
+
+		/** Number of blocks evicted due to the shard being full. */
+		final AtomicLongArray statEvict;
+
+		/**
+		 * Protects the clock and its related data.
+		 * <p>
+		 * Not fair: it is only held for short updates of the clock, and
+		 * handing it over in arrival order costs more than it saves.
+		 */
+		private final ReentrantLock clockLock;
+
+		/** Current position of the clock. */
+		private Ref clockHand;
+
+		/** Number of bytes currently loaded in the shard. */
+		volatile long liveBytes;
+
+		Shard(int tableSize, int concurrencyLevel, long maxBytes) {
+			this.tableSize = tableSize;
+			this.maxBytes = maxBytes;
+
+			table = new AtomicReferenceArray<>(tableSize);
+			loadLocks = new ReentrantLock[concurrencyLevel];
+			for (int i = 0; i < loadLocks.length; i++)
+				loadLocks[i] = new ReentrantLock();
+
+			clockLock = new ReentrantLock();
+			String none = ""; //$NON-NLS-1$
+			clockHand = new Ref<>(
+					DfsStreamKey.of(new DfsRepositoryDescription(none), none),
+					-1, 0, null, 1);
+			clockHand.next = clockHand;
+
+			statHit = new AtomicLongArray(PACK_EXT_LIMIT);
+			statMiss = new AtomicLongArray(PACK_EXT_LIMIT);
+			statEvict = new AtomicLongArray(PACK_EXT_LIMIT);
+		}
+
+		DfsBlock getOrLoad(BlockBasedFile file, long position, DfsReader ctx,
+				@Nullable ReadableChannel fileChannel) throws IOException {
+			final long requestedPosition = position;
+			position = file.alignToBlock(position);
+
+			DfsStreamKey key = file.key;
+			int slot = slot(key, position);
+			HashEntry e1 = table.get(slot);
+			DfsBlock v = scan(e1, key, position);
+			if (v != null && v.contains(key, requestedPosition)) {
+				ctx.stats.blockCacheHit++;
+				statHit.incrementAndGet(key.packExtPos);
+				return v;
+			}
+
+			reserveSpace(blockSize);
+			Shard owner = this;
+			ReentrantLock regionLock = lockFor(key, position);
+			regionLock.lock();
+			try {
+				HashEntry e2 = table.get(slot);
+				if (e2 != e1) {
+					v = scan(e2, key, position);
+					if (v != null) {
+						ctx.stats.blockCacheHit++;
+						statHit.incrementAndGet(key.packExtPos);
+						creditSpace(blockSize);
+						return v;
+					}
+				}
+
+				statMiss.incrementAndGet(key.packExtPos);
+				boolean credit = true;
+				try {
+					v = file.readOneBlock(requestedPosition, ctx, fileChannel);
+					credit = false;
+				} finally {
+					if (credit)
+						creditSpace(blockSize);
+				}
+				if (position != v.start) {
+					// The file discovered its blockSize and adjusted.
+					position = v.start;
+					slot = slot(key, position);
+					e2 = table.get(slot);
+					owner = shardFor(key, position);
+				}
+
+				if (owner == this) {
+					Ref<DfsBlock> ref = newRef(key, position, v.size(), v);
+					for (;;) {
+						HashEntry n = new HashEntry(clean(e2), ref);
+						if (table.compareAndSet(slot, e2, n))
+							break;
+						e2 = table.get(slot);
+					}
+					addToClock(ref, blockSize - v.size());
+				} else {
+					creditSpace(blockSize);
+				}
+			} finally {
+				regionLock.unlock();
+			}
+
+			// Store a block that moved to another shard there, without
+			// holding a lock of this one.
+			if (owner != this)
+				owner.put(key, position, v.size(), v);
+
+			// If the block size changed from the default, it is possible the
+			// block that was loaded is the wrong block for the requested
+			// position.
+			if (v.contains(file.key, requestedPosition))
+				return v;
+			return getOrLoad(file, requestedPosition, ctx, fileChannel);
+		}
+
+		@SuppressWarnings("unchecked")
+		private void reserveSpace(int reserve) {
+			clockLock.lock();
+			try {
+				long live = liveBytes + reserve;
+				if (maxBytes < live) {
+					Ref prev = clockHand;
+					Ref hand = clockHand.next;
+					do {
+						if (hand.hotCount > 0) {
+							// Value was recently touched. Cool it
+							// and give it another chance.
+							hand.hotCount--;
+							prev = hand;
+							hand = hand.next;
+							continue;
+						} else if (prev == hand)
+							break;
+
+						// No recent access since last scan, kill
+						// value and remove from clock.
+						Ref dead = hand;
+						hand = hand.next;
+						prev.next = hand;
+						dead.next = null;
+						dead.value = null;
+						live -= dead.size;
+						statEvict.incrementAndGet(dead.key.packExtPos);
+					} while (maxBytes < live);
+					clockHand = prev;
+				}
+				liveBytes = live;
+			} finally {
+				clockLock.unlock();
+			}
+		}
+
+		private void creditSpace(int credit) {
+			clockLock.lock();
+			liveBytes -= credit;
+			clockLock.unlock();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void addToClock(Ref ref, int credit) {
+			clockLock.lock();
+			try {
+				if (credit != 0)
+					liveBytes -= credit;
+				Ref ptr = clockHand;
+				ref.next = ptr.next;
+				ptr.next = ref;
+				clockHand = ref;
+			} finally {
+				clockLock.unlock();
+			}
+		}
+
+		<T> Ref<T> put(DfsStreamKey key, long pos, int size, T v) {
+			int slot = slot(key, pos);
+			HashEntry e1 = table.get(slot);
+			Ref<T> ref = scanRef(e1, key, pos);
+			if (ref != null)
+				return ref;
+
+			reserveSpace(size);
+			ReentrantLock regionLock = lockFor(key, pos);
+			regionLock.lock();
+			try {
+				HashEntry e2 = table.get(slot);
+				if (e2 != e1) {
+					ref = scanRef(e2, key, pos);
+					if (ref != null) {
+						creditSpace(size);
+						return ref;
+					}
+				}
+
+				ref = newRef(key, pos, size, v);
+				for (;;) {
+					HashEntry n = new HashEntry(clean(e2), ref);
+					if (table.compareAndSet(slot, e2, n))
+						break;
+					e2 = table.get(slot);
+				}
+				addToClock(ref, 0);
+			} finally {
+				regionLock.unlock();
+			}
+			return ref;
+		}
+
+		boolean contains(DfsStreamKey key, long position) {
+			return scan(table.get(slot(key, position)), key, position) != null;
+		}
+
+		@SuppressWarnings("unchecked")
+		<T> T get(DfsStreamKey key, long position) {
+			T val = (T) scan(table.get(slot(key, position)), key, position);
+			if (val == null)
+				statMiss.incrementAndGet(key.packExtPos);
+			else
+				statHit.incrementAndGet(key.packExtPos);
+			return val;
+		}
+
+		private <T> T scan(HashEntry n, DfsStreamKey key, long position) {
+			Ref<T> r = scanRef(n, key, position);
+			return r != null ? r.get() : null;
+		}
+
+		<T> Ref<T> getRef(DfsStreamKey key) {
+			Ref<T> r = scanRef(table.get(slot(key, 0)), key, 0);
+			if (r != null)
+				statHit.incrementAndGet(key.packExtPos);
+			else
+				statMiss.incrementAndGet(key.packExtPos);
+			return r;
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T> Ref<T> scanRef(HashEntry n, DfsStreamKey key, long position) {
+			for (; n != null; n = n.next) {
+				Ref<T> r = n.ref;
+				if (r.position == position && r.key.equals(key))
+					return r.get() != null ? r : null;
+			}
+			return null;
+		}
+
+		private int slot(DfsStreamKey key, long position) {
+			return (hash(key.hash, position) >>> 1) % tableSize;
+		}
+
+		private ReentrantLock lockFor(DfsStreamKey key, long position) {
+			return loadLocks[(hash(key.hash, position) >>> 1) % loadLocks.length];
+		}
+	}
+
 	private static final class HashEntry {
 		/** Next entry in the hash table's chain list. */
 		final HashEntry next;
@@ -504,24 +736,34 @@ private static final class HashEntry {
 		final DfsStreamKey key;
 		final long position;
 		final int size;
+		final int hotMax;
 		volatile T value;
 		Ref next;
-		volatile boolean hot;
 
-		Ref(DfsStreamKey key, long position, int size, T v) {
+		/** Sweeps of the clock this reference survives without a use. */
+		volatile int hotCount;
+
+		Ref(DfsStreamKey key, long position, int size, T v, int hotMax) {
 			this.key = key;
 			this.position = position;
 			this.size = size;
 			this.value = v;
+			this.hotMax = hotMax;
 		}
 
 		T get() {
 			T v = value;
 			if (v != null)
-				hot = true;
+				markHotter();
 			return v;
 		}
 
+		private void markHotter() {
+			int h = hotCount;
+			if (h < hotMax)
+				hotCount = h + 1;
+		}
+
 		boolean has() {
 			return value != null;
 		}
@@ -47,12 +47,19 @@
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_SIZE;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_CACHE_HOT_MAX;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_CONCURRENCY_LEVEL;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_SCAN_RESISTANT;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_SHARD_COUNT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_RATIO;
 
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.lib.Config;
 
 /** Configuration parameters for {@link DfsBlockCache}. */
@@ -67,6 +74,9 @@ public class DfsBlockCacheConfig {
 	private int blockSize;
 	private double streamRatio;
 	private int concurrencyLevel;
+	private int shardCount;
+	private Map<PackExt, Integer> cacheHotMap;
+	private boolean scanResistant;
 
 	/** Create a default configuration. */
 	public DfsBlockCacheConfig() {
@@ -74,6 +84,9 @@ public DfsBlockCacheConfig() {
 		setBlockSize(64 * KB);
 		setStreamRatio(0.30);
 		setConcurrencyLevel(32);
+		setShardCount(1);
+		setCacheHotMap(Collections.<PackExt, Integer> emptyMap());
+		setScanResistant(false);
 	}
 
 	/**
@@ -139,6 +152,98 @@ public DfsBlockCacheConfig setConcurrencyLevel(
 		return this;
 	}
 
+	/**
+	 * @return number of independent shards the cache is split into, each
+	 *         holding an equal share of {@link #getBlockLimit()} with its own
+	 *         table, clock and locks. <b>Default is 1.</b>
+	 */
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * @param newShardCount
+	 *            number of independent shards of the cache. Blocks of one
+	 *            file always belong to the same shard, so loads and evictions
+	 *            of different files mostly do not contend with each other.
+	 *            Each shard must be able to hold at least one block.
+	 * @return {@code this}
+	 */
+	public DfsBlockCacheConfig setShardCount(int newShardCount) {
+		if (newShardCount < 1) {
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().enumValueNotSupported3,
+					CONFIG_CORE_SECTION,
+					CONFIG_DFS_SECTION,
+					CONFIG_KEY_SHARD_COUNT,
+					Integer.valueOf(newShardCount)));
+		}
+		shardCount = newShardCount;
+		return this;
+	}
+
+	/**
+	 * @return how many sweeps of the clock a recently used block of each
+	 *         {@link PackExt} survives without being used again. Extensions
+	 *         not in the map survive one sweep.
+	 */
+	public Map<PackExt, Integer> getCacheHotMap() {
+		return cacheHotMap;
+	}
+
+	/**
+	 * Set the priority of blocks of some pack extensions.
+	 * <p>
+	 * Every use of a cached block makes it hotter, up to the maximum of its
+	 * extension, and every sweep of the clock cools it by one; only blocks
+	 * that are no longer hot are evicted. Giving {@link PackExt#INDEX} and
+	 * {@link PackExt#BITMAP_INDEX} a higher maximum than
+	 * {@link PackExt#PACK} keeps indexes cached while pack data is read.
+	 *
+	 * @param cacheHotMap
+	 *            largest hot count of blocks of each extension, at least 1.
+	 * @return {@code this}
+	 */
+	public DfsBlockCacheConfig setCacheHotMap(
+			Map<PackExt, Integer> cacheHotMap) {
+		for (Map.Entry<PackExt, Integer> e : cacheHotMap.entrySet()) {
+			if (e.getValue().intValue() < 1) {
+				throw new IllegalArgumentException(MessageFormat.format(
+						JGitText.get().enumValueNotSupported3,
+						CONFIG_CORE_SECTION,
+						CONFIG_DFS_SECTION,
+						CONFIG_KEY_CACHE_HOT_MAX,
+						e.getKey().getExtension() + ':' + e.getValue()));
+			}
+		}
+		this.cacheHotMap = Collections
+				.unmodifiableMap(new HashMap<>(cacheHotMap));
+		return this;
+	}
+
+	/**
+	 * @return whether blocks of pack data enter the cache cold.
+	 *         <b>Default is false.</b>
+	 */
+	public boolean isScanResistant() {
+		return scanResistant;
+	}
+
+	/**
+	 * @param scanResistant
+	 *            if true, blocks of {@link PackExt#PACK} files enter the
+	 *            cache cold and are evicted by the next sweep of the clock
+	 *            unless they are used again before. Pack data read only once,
+	 *            such as by a large clone, then replaces other pack data
+	 *            rather than the indexes every request needs. Blocks of other
+	 *            extensions always enter hot.
+	 * @return {@code this}
+	 */
+	public DfsBlockCacheConfig setScanResistant(boolean scanResistant) {
+		this.scanResistant = scanResistant;
+		return this;
+	}
+
 	/**
 	 * @return highest percentage of {@link #getBlockLimit()} a single pack can
 	 *         occupy while being copied by the pack reuse strategy. <b>Default
@@ -187,6 +292,30 @@ public DfsBlockCacheConfig fromConfig(final Config rc) {
 				CONFIG_KEY_CONCURRENCY_LEVEL,
 				getConcurrencyLevel()));
 
+		setShardCount(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_SHARD_COUNT,
+				getShardCount()));
+
+		String[] hot = rc.getStringList(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_CACHE_HOT_MAX);
+		if (hot.length > 0) {
+			Map<PackExt, Integer> map = new HashMap<>(getCacheHotMap());
+			for (String h : hot) {
+				parseCacheHotMax(map, h);
+			}
+			setCacheHotMap(map);
+		}
+
+		setScanResistant(rc.getBoolean(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_SCAN_RESISTANT,
+				isScanResistant()));
+
 		String v = rc.getString(
 				CONFIG_CORE_SECTION,
 				CONFIG_DFS_SECTION,
@@ -204,4 +333,29 @@ public DfsBlockCacheConfig fromConfig(final Config rc) {
 		}
 		return this;
 	}
+
+	/** Parse an {@code ext:count} value of {@code core.dfs.cacheHotMax}. */
+	private static void parseCacheHotMax(Map<PackExt, Integer> map,
+			String value) {
+		int colon = value.indexOf(':');
+		if (colon > 0) {
+			String ext = value.substring(0, colon).trim();
+			for (PackExt e : PackExt.values()) {
+				if (e.getExtension().equals(ext)) {
+					try {
+						map.put(e, Integer.valueOf(
+								value.substring(colon + 1).trim()));
+						return;
+					} catch (NumberFormatException err) {
+						break;
+					}
+				}
+			}
+		}
+		throw new IllegalArgumentException(MessageFormat.format(
+				JGitText.get().enumValueNotSupported3,
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_CACHE_HOT_MAX, value));
+	}
 }
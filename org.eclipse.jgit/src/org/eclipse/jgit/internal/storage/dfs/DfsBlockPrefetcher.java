@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.annotations.Nullable;
+
+/**
+ * Loads the blocks following a sequential read of a pack file into the
+ * {@link DfsBlockCache} on an executor.
+ * <p>
+ * The reading thread keeps using {@link DfsBlockCache#getOrLoad}; it finds
+ * prefetched blocks in the cache, or waits on the load lock of a block that
+ * is being fetched. If a fetch fails the reading thread loads the block
+ * itself and reports the error.
+ */
+final class DfsBlockPrefetcher {
+	/**
+	 * @param pack
+	 *            pack being read.
+	 * @param ctx
+	 *            reader of the calling thread.
+	 * @param end
+	 *            position after the last byte that will be read.
+	 * @return prefetcher for {@code pack}, or null if the reader options do
+	 *         not enable prefetch.
+	 */
+	@Nullable
+	static DfsBlockPrefetcher forPack(DfsPackFile pack, DfsReader ctx,
+			long end) {
+		DfsReaderOptions opts = ctx.getOptions();
+		Executor executor = opts.getPrefetchExecutor();
+		if (executor == null || opts.getStreamPrefetchBlocks() <= 0)
+			return null;
+		return new DfsBlockPrefetcher(pack, ctx.db, executor,
+				opts.getStreamPrefetchBlocks(),
+				opts.getStreamPackBufferSize(), end);
+	}
+
+	private final DfsPackFile pack;
+
+	private final DfsObjDatabase db;
+
+	private final Executor executor;
+
+	/** Most blocks loaded at once, and how far ahead blocks are loaded. */
+	private final int maxBlocks;
+
+	/** Read ahead hint for the channels, or 0. */
+	private final int readAheadBytes;
+
+	private final long end;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	/** Position of the next block to load. */
+	private long next;
+
+	private DfsBlockPrefetcher(DfsPackFile pack, DfsObjDatabase db,
+			Executor executor, int maxBlocks, int readAheadBytes, long end) {
+		this.pack = pack;
+		this.db = db;
+		this.executor = executor;
+		this.maxBlocks = maxBlocks;
+		this.readAheadBytes = readAheadBytes;
+		this.end = end;
+	}
+
+	/**
+	 * Start loading the blocks after the one holding {@code position}.
+	 *
+	 * @param position
+	 *            position the caller is reading.
+	 */
+	void advance(long position) {
+		int size = pack.blockSize;
+		if (size == 0)
+			size = pack.cache.getBlockSize();
+		long start = pack.alignToBlock(position);
+		if (next <= start)
+			next = start + size;
+
+		long limit = Math.min(end, start + (maxBlocks + 1L) * size);
+		while (next < limit && inFlight.get() < maxBlocks) {
+			long pos = next;
+			next += size;
+			if (pack.cache.contains(pack.key, pos))
+				continue;
+
+			inFlight.incrementAndGet();
+			try {
+				executor.execute(() -> load(pos));
+			} catch (RejectedExecutionException e) {
+				// The reader will load the remaining blocks itself.
+				inFlight.decrementAndGet();
+				next = pos;
+				return;
+			}
+		}
+	}
+
+	/** Stop loading blocks. Loads already started complete normally. */
+	void close() {
+		closed = true;
+	}
+
+	private void load(long pos) {
+		try {
+			if (closed || pack.cache.contains(pack.key, pos))
+				return;
+			try (DfsReader ctx = db.newReader();
+					ReadableChannel rc = db.openFile(pack.desc, PACK)) {
+				if (readAheadBytes > 0)
+					rc.setReadAheadBytes(readAheadBytes);
+				pack.cache.getOrLoad(pack, pos, ctx, rc);
+			}
+		} catch (IOException e) {
+			// Ignored, the reader loads the block and reports the error.
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+}
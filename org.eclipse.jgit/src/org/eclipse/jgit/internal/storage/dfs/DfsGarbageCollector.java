@@ -52,6 +52,7 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.dfs.DfsPackCompactor.configureReftable;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.REFTABLE;
@@ -71,6 +72,7 @@
 
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
+import org.eclipse.jgit.internal.storage.file.CommitGraphWriter;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
@@ -110,6 +112,8 @@ public class DfsGarbageCollector {
 	private boolean convertToReftable = true;
 	private long reftableInitialMinUpdateIndex = 1;
 	private long reftableInitialMaxUpdateIndex = 1;
+	private boolean writeCommitGraph;
+	private boolean writeChangedPaths;
 
 	// See packIsCoalesceableGarbage(), below, for how these two variables
 	// interact.
@@ -215,6 +219,33 @@ public DfsGarbageCollector setReftableInitialMaxUpdateIndex(long u) {
 		return this;
 	}
 
+	/**
+	 * @param write
+	 *            if true, a commit graph of the commits reachable from the
+	 *            references is written with the GC pack. Default is
+	 *            {@code false}.
+	 * @return {@code this}
+	 * @since 4.10
+	 */
+	public DfsGarbageCollector setWriteCommitGraph(boolean write) {
+		writeCommitGraph = write;
+		return this;
+	}
+
+	/**
+	 * @param write
+	 *            if true, the commit graph written with
+	 *            {@link #setWriteCommitGraph(boolean)} includes changed path
+	 *            filters to speed up path limited history. Default is
+	 *            {@code false}.
+	 * @return {@code this}
+	 * @since 4.10
+	 */
+	public DfsGarbageCollector setWriteChangedPaths(boolean write) {
+		writeChangedPaths = write;
+		return this;
+	}
+
 	/** @return garbage packs smaller than this size will be repacked. */
 	public long getCoalesceGarbageLimit() {
 		return coalesceGarbageLimit;
@@ -668,6 +699,10 @@ private DfsPackDescription writePack(PackSource source, PackWriter pw,
 			}
 		}
 
+		if (source == GC && writeCommitGraph) {
+			writeCommitGraph(pack, pm);
+		}
+
 		PackStatistics stats = pw.getStatistics();
 		pack.setPackStats(stats);
 		pack.setLastModified(startTimeMillis);
@@ -676,6 +711,25 @@ private DfsPackDescription writePack(PackSource source, PackWriter pw,
 		return pack;
 	}
 
+	private void writeCommitGraph(DfsPackDescription pack, ProgressMonitor pm)
+			throws IOException {
+		Set<ObjectId> tips = new HashSet<>();
+		for (Ref ref : refsBefore) {
+			if (ref.getObjectId() != null)
+				tips.add(ref.getObjectId());
+		}
+		CommitGraphWriter writer = new CommitGraphWriter(ctx);
+		writer.setChangedPaths(writeChangedPaths);
+		writer.prepare(pm, tips);
+		try (DfsOutputStream out = objdb.writeFile(pack, COMMIT_GRAPH)) {
+			CountingOutputStream cnt = new CountingOutputStream(out);
+			writer.write(cnt);
+			pack.addFileExt(COMMIT_GRAPH);
+			pack.setFileSize(COMMIT_GRAPH, cnt.getCount());
+			pack.setBlockSize(COMMIT_GRAPH, out.blockSize());
+		}
+	}
+
 	private void writeReftable() throws IOException {
 		if (reftableConfig != null) {
 			DfsPackDescription pack = objdb.newPack(GC);
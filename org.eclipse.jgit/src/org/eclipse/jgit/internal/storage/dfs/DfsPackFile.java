@@ -47,6 +47,7 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 
@@ -68,6 +69,7 @@
 import org.eclipse.jgit.errors.PackInvalidException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.CommitGraphV1;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
@@ -76,6 +78,7 @@
 import org.eclipse.jgit.internal.storage.pack.StoredObjectRepresentation;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
@@ -104,6 +107,9 @@ public final class DfsPackFile extends BlockBasedFile {
 	/** Index of compressed bitmap mapping entire object graph. */
 	private volatile DfsBlockCache.Ref<PackBitmapIndex> bitmapIndex;
 
+	/** Graph of the commits reachable from the pack's references. */
+	private volatile DfsBlockCache.Ref<CommitGraph> commitGraph;
+
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
 	 * <p>
@@ -306,6 +312,72 @@ else if (bs <= 0)
 		}
 	}
 
+	CommitGraph getCommitGraph(DfsReader ctx) throws IOException {
+		if (invalid || isGarbage() || !desc.hasFileExt(COMMIT_GRAPH))
+			return null;
+
+		DfsBlockCache.Ref<CommitGraph> graphref = commitGraph;
+		if (graphref != null) {
+			CommitGraph graph = graphref.get();
+			if (graph != null)
+				return graph;
+		}
+
+		synchronized (initLock) {
+			graphref = commitGraph;
+			if (graphref != null) {
+				CommitGraph graph = graphref.get();
+				if (graph != null)
+					return graph;
+			}
+
+			DfsStreamKey graphKey = desc.getStreamKey(COMMIT_GRAPH);
+			graphref = cache.getRef(graphKey);
+			if (graphref != null) {
+				CommitGraph graph = graphref.get();
+				if (graph != null) {
+					commitGraph = graphref;
+					return graph;
+				}
+			}
+
+			long size;
+			CommitGraph graph;
+			try {
+				long start = System.nanoTime();
+				ReadableChannel rc = ctx.db.openFile(desc, COMMIT_GRAPH);
+				try {
+					InputStream in = Channels.newInputStream(rc);
+					int wantSize = 8192;
+					int bs = rc.blockSize();
+					if (0 < bs && bs < wantSize)
+						bs = (wantSize / bs) * bs;
+					else if (bs <= 0)
+						bs = wantSize;
+					in = new BufferedInputStream(in, bs);
+					graph = CommitGraphV1.read(in,
+							(int) desc.getFileSize(COMMIT_GRAPH));
+				} finally {
+					size = rc.position();
+					rc.close();
+					ctx.stats.readIdxBytes += size;
+					ctx.stats.readIdxMicros += elapsedMicros(start);
+				}
+			} catch (EOFException e) {
+				throw new IOException(MessageFormat.format(
+						DfsText.get().shortReadOfIndex,
+						desc.getFileName(COMMIT_GRAPH)), e);
+			} catch (IOException e) {
+				throw new IOException(MessageFormat.format(
+						DfsText.get().cannotReadIndex,
+						desc.getFileName(COMMIT_GRAPH)), e);
+			}
+
+			commitGraph = cache.putRef(graphKey, size, graph);
+			return graph;
+		}
+	}
+
 	PackReverseIndex getReverseIdx(DfsReader ctx) throws IOException {
 		DfsBlockCache.Ref<PackReverseIndex> revref = reverseIndex;
 		if (revref != null) {
@@ -438,6 +510,8 @@ void copyPackAsIs(PackOutputStream out, DfsReader ctx)
 	private void copyPackThroughCache(PackOutputStream out, DfsReader ctx)
 			throws IOException {
 		ReadableChannel rc = null;
+		DfsBlockPrefetcher prefetch = DfsBlockPrefetcher.forPack(this, ctx,
+				length - 20);
 		try {
 			long position = 12;
 			long remaining = length - (12 + 20);
@@ -456,6 +530,9 @@ private void copyPackThroughCache(PackOutputStream out, DfsReader ctx)
 						b = cache.getOrLoad(this, position, ctx, rc);
 					}
 				}
+				if (prefetch != null) {
+					prefetch.advance(position);
+				}
 
 				int ptr = (int) (position - b.start);
 				int n = (int) Math.min(b.size() - ptr, remaining);
@@ -464,6 +541,9 @@ private void copyPackThroughCache(PackOutputStream out, DfsReader ctx)
 				remaining -= n;
 			}
 		} finally {
+			if (prefetch != null) {
+				prefetch.close();
+			}
 			if (rc != null) {
 				rc.close();
 			}
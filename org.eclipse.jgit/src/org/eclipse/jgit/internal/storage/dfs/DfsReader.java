@@ -82,6 +82,7 @@
 import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
 import org.eclipse.jgit.lib.BitmapIndex;
 import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.InflaterCache;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
@@ -153,6 +154,16 @@ public BitmapIndex getBitmapIndex() throws IOException {
 		return null;
 	}
 
+	@Override
+	public CommitGraph getCommitGraph() throws IOException {
+		for (DfsPackFile pack : db.getPacks()) {
+			CommitGraph graph = pack.getCommitGraph(this);
+			if (graph != null)
+				return graph;
+		}
+		return null;
+	}
+
 	@Override
 	public Collection<CachedPack> getCachedPacksAndUpdate(
 		BitmapBuilder needBitmap) throws IOException {
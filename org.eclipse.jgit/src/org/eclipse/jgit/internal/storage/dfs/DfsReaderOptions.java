@@ -48,6 +48,9 @@
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_DELTA_BASE_CACHE_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_BUFFER;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_FILE_TRESHOLD;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_PREFETCH_BLOCKS;
+
+import java.util.concurrent.Executor;
 
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.storage.pack.PackConfig;
@@ -65,6 +68,9 @@ public class DfsReaderOptions {
 
 	private int streamPackBufferSize;
 
+	private int streamPrefetchBlocks;
+	private Executor prefetchExecutor;
+
 	/** Create a default reader configuration. */
 	public DfsReaderOptions() {
 		setDeltaBaseCacheLimit(10 * MiB);
@@ -125,6 +131,55 @@ public DfsReaderOptions setStreamPackBufferSize(int bufsz) {
 		return this;
 	}
 
+	/**
+	 * @return number of blocks loaded ahead into the block cache, in
+	 *         parallel, while a pack file is copied. <b>Default is 0</b>,
+	 *         disabling prefetch.
+	 * @since 4.10
+	 */
+	public int getStreamPrefetchBlocks() {
+		return streamPrefetchBlocks;
+	}
+
+	/**
+	 * Set how many blocks are loaded ahead while a pack file is copied.
+	 * <p>
+	 * Each of these blocks is read on its own channel by a task of
+	 * {@link #getPrefetchExecutor()}, so with a high latency backing store a
+	 * copy is no longer limited to one outstanding read. Prefetch is only
+	 * done when an executor is set.
+	 *
+	 * @param blocks
+	 *            most blocks being loaded ahead at once; 0 disables
+	 *            prefetch.
+	 * @return {@code this}
+	 * @since 4.10
+	 */
+	public DfsReaderOptions setStreamPrefetchBlocks(int blocks) {
+		streamPrefetchBlocks = Math.max(0, blocks);
+		return this;
+	}
+
+	/**
+	 * @return executor loading blocks ahead of a pack file copy, or null.
+	 * @since 4.10
+	 */
+	public Executor getPrefetchExecutor() {
+		return prefetchExecutor;
+	}
+
+	/**
+	 * @param executor
+	 *            executor to load blocks ahead of a pack file copy on. Set to
+	 *            null to disable prefetch.
+	 * @return {@code this}
+	 * @since 4.10
+	 */
+	public DfsReaderOptions setPrefetchExecutor(Executor executor) {
+		prefetchExecutor = executor;
+		return this;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 * <p>
@@ -157,6 +212,12 @@ public DfsReaderOptions fromConfig(Config rc) {
 				CONFIG_DFS_SECTION,
 				CONFIG_KEY_STREAM_BUFFER,
 				getStreamPackBufferSize()));
+
+		setStreamPrefetchBlocks(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_STREAM_PREFETCH_BLOCKS,
+				getStreamPrefetchBlocks()));
 		return this;
 	}
 }
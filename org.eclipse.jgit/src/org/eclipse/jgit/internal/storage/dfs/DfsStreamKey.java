@@ -47,6 +47,9 @@
 
 import java.util.Arrays;
 
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+
 /** Key used by {@link DfsBlockCache} to disambiguate streams. */
 public abstract class DfsStreamKey {
 	/**
@@ -57,19 +60,52 @@ public abstract class DfsStreamKey {
 	 * @return key for {@code name}
 	 */
 	public static DfsStreamKey of(DfsRepositoryDescription repo, String name) {
-		return new ByteArrayDfsStreamKey(repo, name.getBytes(UTF_8));
+		return of(repo, name, null);
+	}
+
+	/**
+	 * @param repo
+	 *            description of the containing repository.
+	 * @param name
+	 *            compute the key from a string name.
+	 * @param ext
+	 *            pack extension of the stream, used by {@link DfsBlockCache}
+	 *            to choose how long blocks of the stream are kept and to
+	 *            count hits by extension. If null, the stream is treated as
+	 *            pack data.
+	 * @return key for {@code name}
+	 * @since 4.10
+	 */
+	public static DfsStreamKey of(DfsRepositoryDescription repo, String name,
+			@Nullable PackExt ext) {
+		return new ByteArrayDfsStreamKey(repo, name.getBytes(UTF_8), ext);
 	}
 
 	final int hash;
 
+	/** Position of the stream's {@link PackExt}. */
+	final int packExtPos;
+
 	/**
 	 * @param hash
 	 *            hash of the other identifying components of the key.
 	 */
 	protected DfsStreamKey(int hash) {
+		this(hash, null);
+	}
+
+	/**
+	 * @param hash
+	 *            hash of the other identifying components of the key.
+	 * @param ext
+	 *            pack extension of the stream, or null for pack data.
+	 * @since 4.10
+	 */
+	protected DfsStreamKey(int hash, @Nullable PackExt ext) {
 		// Multiply by 31 here so we can more directly combine with another
 		// value without doing the multiply there.
 		this.hash = hash * 31;
+		this.packExtPos = ext == null ? 0 : ext.getPosition();
 	}
 
 	@Override
@@ -90,8 +126,9 @@ private static final class ByteArrayDfsStreamKey extends DfsStreamKey {
 		private final DfsRepositoryDescription repo;
 		private final byte[] name;
 
-		ByteArrayDfsStreamKey(DfsRepositoryDescription repo, byte[] name) {
-			super(repo.hashCode() * 31 + Arrays.hashCode(name));
+		ByteArrayDfsStreamKey(DfsRepositoryDescription repo, byte[] name,
+				@Nullable PackExt ext) {
+			super(repo.hashCode() * 31 + Arrays.hashCode(name), ext);
 			this.repo = repo;
 			this.name = name;
 		}
@@ -112,7 +149,7 @@ static final class ForReverseIndex extends DfsStreamKey {
 		private final DfsStreamKey idxKey;
 
 		ForReverseIndex(DfsStreamKey idxKey) {
-			super(idxKey.hash + 1);
+			super(idxKey.hash + 1, PackExt.values()[idxKey.packExtPos]);
 			this.idxKey = idxKey;
 		}
 
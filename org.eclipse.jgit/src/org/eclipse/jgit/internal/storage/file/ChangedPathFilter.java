@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Bloom filter of the paths changed by a commit, in the format used by the
+ * commit graph of Git.
+ * <p>
+ * The keys of a commit are the paths of all files that differ from its first
+ * parent (or all files of a root commit) and all their leading directories.
+ * Each key sets {@link #NUM_HASHES} bits computed by double hashing with two
+ * seeded 32 bit murmur3 hashes of the path. A commit with more than
+ * {@link #MAX_CHANGED_PATHS} keys gets a filter with all bits set.
+ */
+class ChangedPathFilter {
+	/** Hash version of Git, which sign extends bytes above 0x7f. */
+	static final int HASH_VERSION_SIGNED = 1;
+
+	/** Hash version of Git with unsigned bytes. */
+	static final int HASH_VERSION_UNSIGNED = 2;
+
+	static final int NUM_HASHES = 7;
+
+	static final int BITS_PER_ENTRY = 10;
+
+	static final int MAX_CHANGED_PATHS = 512;
+
+	private static final int SEED0 = 0x293ae76f;
+
+	private static final int SEED1 = 0x7e646e2c;
+
+	/**
+	 * Compute the bit positions of a key, before reducing them to the filter
+	 * size.
+	 *
+	 * @param path
+	 *            the key.
+	 * @param numHashes
+	 *            number of bits set by each key.
+	 * @param version
+	 *            hash version of the filters.
+	 * @return the unreduced bit positions.
+	 */
+	static int[] keyHashes(byte[] path, int numHashes, int version) {
+		boolean signed = version == HASH_VERSION_SIGNED;
+		int h0 = murmur3(SEED0, path, signed);
+		int h1 = murmur3(SEED1, path, signed);
+		int[] r = new int[numHashes];
+		for (int i = 0; i < numHashes; i++)
+			r[i] = h0 + i * h1;
+		return r;
+	}
+
+	/**
+	 * Test a filter for a key.
+	 *
+	 * @param buf
+	 *            buffer holding the filter.
+	 * @param off
+	 *            position of the filter in {@code buf}.
+	 * @param len
+	 *            length of the filter in bytes.
+	 * @param hashes
+	 *            bit positions of the key, from {@link #keyHashes}.
+	 * @return false if the key is definitely not in the filter.
+	 */
+	static boolean maybeContains(ByteBuffer buf, int off, int len,
+			int[] hashes) {
+		long bits = len * 8L;
+		for (int h : hashes) {
+			long bit = (h & 0xffffffffL) % bits;
+			if ((buf.get(off + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Create the filter of a commit.
+	 *
+	 * @param keys
+	 *            changed paths of the commit and their leading directories,
+	 *            each only once.
+	 * @return the filter.
+	 */
+	static byte[] create(List<byte[]> keys) {
+		if (keys.size() > MAX_CHANGED_PATHS)
+			return new byte[] { (byte) 0xff };
+
+		int len = Math.max(1, (keys.size() * BITS_PER_ENTRY + 7) / 8);
+		byte[] filter = new byte[len];
+		long bits = len * 8L;
+		for (byte[] key : keys) {
+			for (int h : keyHashes(key, NUM_HASHES, HASH_VERSION_SIGNED)) {
+				long bit = (h & 0xffffffffL) % bits;
+				filter[(int) (bit >>> 3)] |= 1 << (bit & 7);
+			}
+		}
+		return filter;
+	}
+
+	private static int murmur3(int seed, byte[] data, boolean signed) {
+		final int c1 = 0xcc9e2d51;
+		final int c2 = 0x1b873593;
+		int mask = signed ? -1 : 0xff;
+		int h = seed;
+		int len4 = data.length / 4;
+		for (int i = 0; i < len4; i++) {
+			int p = 4 * i;
+			int k = (data[p] & mask) | (data[p + 1] & mask) << 8
+					| (data[p + 2] & mask) << 16 | (data[p + 3] & mask) << 24;
+			k *= c1;
+			k = Integer.rotateLeft(k, 15);
+			k *= c2;
+			h ^= k;
+			h = Integer.rotateLeft(h, 13);
+			h = h * 5 + 0xe6546b64;
+		}
+
+		int p = 4 * len4;
+		int k = 0;
+		switch (data.length & 3) {
+		case 3:
+			k ^= (data[p + 2] & mask) << 16;
+			//$FALL-THROUGH$
+		case 2:
+			k ^= (data[p + 1] & mask) << 8;
+			//$FALL-THROUGH$
+		case 1:
+			k ^= data[p] & mask;
+			k *= c1;
+			k = Integer.rotateLeft(k, 15);
+			k *= c2;
+			h ^= k;
+			break;
+		default:
+			break;
+		}
+
+		h ^= data.length;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Commit graph in the {@code objects/info/commit-graph} format of Git.
+ * <p>
+ * The file has a header, a table of chunks, and the chunks {@code OIDF}
+ * (fan-out), {@code OIDL} (commit names), {@code CDAT} (tree, first two
+ * parents, generation number and commit time of each commit) and optionally
+ * {@code EDGE} (further parents of octopus merges), followed by a SHA-1 of
+ * the content. The chunks {@code BIDX} and {@code BDAT} optionally hold a
+ * {@link ChangedPathFilter} for each commit.
+ */
+public class CommitGraphV1 implements CommitGraph {
+	/** Name of the file in the {@code objects/info} directory. */
+	public static final String FILE_NAME = "commit-graph"; //$NON-NLS-1$
+
+	static final int SIGNATURE = 0x43475048; // CGPH
+
+	static final byte VERSION = 1;
+
+	/** Object id version of SHA-1. */
+	static final byte OID_VERSION = 1;
+
+	static final int HEADER_LENGTH = 8;
+
+	static final int CHUNK_LOOKUP_WIDTH = 12;
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446; // OIDF
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c; // OIDL
+
+	static final int CHUNK_COMMIT_DATA = 0x43444154; // CDAT
+
+	static final int CHUNK_EXTRA_EDGES = 0x45444745; // EDGE
+
+	static final int CHUNK_BLOOM_INDEXES = 0x42494458; // BIDX
+
+	static final int CHUNK_BLOOM_DATA = 0x42444154; // BDAT
+
+	/** Length of the header of the Bloom data chunk. */
+	static final int BLOOM_HEADER_LENGTH = 12;
+
+	/** Width of a record of the commit data chunk. */
+	static final int COMMIT_DATA_WIDTH = Constants.OBJECT_ID_LENGTH + 16;
+
+	/** Parent position of a missing parent. */
+	static final int PARENT_NONE = 0x70000000;
+
+	/** Set on the second parent to index the extra edge chunk instead. */
+	static final int PARENT_OCTOPUS = 0x80000000;
+
+	private static final int FANOUT = 256;
+
+	private static final int[] NO_PARENTS = {};
+
+	/**
+	 * Open a commit graph file.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @param mmap
+	 *            true to map the file and read it in place, false to read it
+	 *            onto the heap.
+	 * @return the graph.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file cannot be read or is not a valid commit graph.
+	 */
+	public static CommitGraphV1 open(File file, boolean mmap)
+			throws IOException {
+		ByteBuffer buf;
+		if (mmap) {
+			try (FileInputStream in = new FileInputStream(file);
+					FileChannel fc = in.getChannel()) {
+				if (fc.size() > Integer.MAX_VALUE)
+					throw new IOException(
+							JGitText.get().indexFileIsTooLargeForJgit);
+				buf = fc.map(MapMode.READ_ONLY, 0, fc.size());
+			}
+		} else {
+			buf = ByteBuffer.wrap(IO.readFully(file));
+		}
+		return new CommitGraphV1(buf);
+	}
+
+	/**
+	 * Read a commit graph from a stream.
+	 *
+	 * @param in
+	 *            stream to read the graph from. It is read to its end, but
+	 *            not closed.
+	 * @param sizeHint
+	 *            expected size of the graph.
+	 * @return the graph.
+	 * @throws IOException
+	 *             the stream cannot be read or is not a valid commit graph.
+	 */
+	public static CommitGraphV1 read(InputStream in, int sizeHint)
+			throws IOException {
+		return new CommitGraphV1(IO.readWholeStream(in, sizeHint).slice());
+	}
+
+	private final ByteBuffer buf;
+
+	/** Number of commits before each bucket ends. */
+	private final int[] fanoutTable;
+
+	private final int commitCnt;
+
+	private final int oidLookup;
+
+	private final int commitData;
+
+	private final int extraEdges;
+
+	private final int bloomIndexes;
+
+	private final int bloomData;
+
+	private final int bloomHashVersion;
+
+	private final int bloomNumHashes;
+
+	private CommitGraphV1(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+		int end = buf.limit() - Constants.OBJECT_ID_LENGTH;
+		if (end < HEADER_LENGTH)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+		if (buf.getInt(0) != SIGNATURE || buf.get(4) != VERSION
+				|| buf.get(5) != OID_VERSION)
+			throw corrupt(buf.get(4));
+		int chunkCnt = buf.get(6) & 0xff;
+
+		int fanout = -1, lookup = -1, data = -1, edges = -1;
+		int bidx = -1, bdat = -1;
+		for (int i = 0; i < chunkCnt; i++) {
+			int p = HEADER_LENGTH + i * CHUNK_LOOKUP_WIDTH;
+			if (p + CHUNK_LOOKUP_WIDTH > end)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			long start = buf.getLong(p + 4);
+			if (start < HEADER_LENGTH || start > end)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			switch (buf.getInt(p)) {
+			case CHUNK_OID_FANOUT:
+				fanout = (int) start;
+				break;
+			case CHUNK_OID_LOOKUP:
+				lookup = (int) start;
+				break;
+			case CHUNK_COMMIT_DATA:
+				data = (int) start;
+				break;
+			case CHUNK_EXTRA_EDGES:
+				edges = (int) start;
+				break;
+			case CHUNK_BLOOM_INDEXES:
+				bidx = (int) start;
+				break;
+			case CHUNK_BLOOM_DATA:
+				bdat = (int) start;
+				break;
+			default:
+				// Chunks this version does not use are skipped.
+			}
+		}
+		if (fanout < 0 || lookup < 0 || data < 0)
+			throw corrupt(VERSION);
+		if (fanout + FANOUT * 4 > end)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+
+		fanoutTable = new int[FANOUT];
+		int prev = 0;
+		for (int k = 0; k < FANOUT; k++) {
+			int cnt = buf.getInt(fanout + 4 * k);
+			if (cnt < prev)
+				throw new IOException(MessageFormat.format(
+						JGitText.get().indexFileCorruptedNegativeBucketCount,
+						Long.valueOf(cnt - prev)));
+			fanoutTable[k] = cnt;
+			prev = cnt;
+		}
+		commitCnt = fanoutTable[FANOUT - 1];
+		if ((long) lookup + (long) commitCnt * Constants.OBJECT_ID_LENGTH > end
+				|| (long) data + (long) commitCnt * COMMIT_DATA_WIDTH > end)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+
+		oidLookup = lookup;
+		commitData = data;
+		extraEdges = edges;
+
+		// Filters are only used if their hashing is known.
+		int version = 0, numHashes = 0;
+		if (bidx >= 0 && bdat >= 0
+				&& (long) bidx + 4L * commitCnt <= end
+				&& bdat + BLOOM_HEADER_LENGTH <= end) {
+			version = buf.getInt(bdat);
+			numHashes = buf.getInt(bdat + 4);
+			if (commitCnt > 0 && (long) bdat + BLOOM_HEADER_LENGTH
+					+ (buf.getInt(bidx + 4 * (commitCnt - 1)) & 0xffffffffL) > end)
+				version = 0;
+		}
+		if (version == ChangedPathFilter.HASH_VERSION_SIGNED
+				|| version == ChangedPathFilter.HASH_VERSION_UNSIGNED) {
+			bloomIndexes = bidx;
+			bloomData = bdat + BLOOM_HEADER_LENGTH;
+			bloomHashVersion = version;
+			bloomNumHashes = numHashes;
+		} else {
+			bloomIndexes = -1;
+			bloomData = -1;
+			bloomHashVersion = 0;
+			bloomNumHashes = 0;
+		}
+	}
+
+	private static IOException corrupt(byte version) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().unknownIndexVersionOrCorruptIndex,
+				Integer.valueOf(version)));
+	}
+
+	@Override
+	public long getCommitCount() {
+		return commitCnt;
+	}
+
+	@Override
+	public int findPosition(AnyObjectId commit) {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		int levelOne = commit.getFirstByte();
+		int low = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		int high = fanoutTable[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			readId(oidLookup + mid * Constants.OBJECT_ID_LENGTH, tmp);
+			int cmp = commit.compareTo(tmp, 0);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	@Override
+	public void getObjectId(int position, MutableObjectId dst) {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		readId(oidLookup + position * Constants.OBJECT_ID_LENGTH, tmp);
+		dst.fromRaw(tmp);
+	}
+
+	@Override
+	public void getTree(int position, MutableObjectId dst) {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		readId(commitData + position * COMMIT_DATA_WIDTH, tmp);
+		dst.fromRaw(tmp);
+	}
+
+	@Override
+	public int[] getParents(int position) {
+		int p = commitData + position * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH;
+		int p1 = buf.getInt(p);
+		if (p1 == PARENT_NONE)
+			return NO_PARENTS;
+		int p2 = buf.getInt(p + 4);
+		if (p2 == PARENT_NONE)
+			return new int[] { p1 };
+		if ((p2 & PARENT_OCTOPUS) == 0)
+			return new int[] { p1, p2 };
+
+		int edge = extraEdges + 4 * (p2 & ~PARENT_OCTOPUS);
+		int cnt = 1;
+		while ((buf.getInt(edge + 4 * (cnt - 1)) & PARENT_OCTOPUS) == 0)
+			cnt++;
+		int[] r = new int[1 + cnt];
+		r[0] = p1;
+		for (int i = 0; i < cnt; i++)
+			r[1 + i] = buf.getInt(edge + 4 * i) & ~PARENT_OCTOPUS;
+		return r;
+	}
+
+	@Override
+	public long getCommitTime(int position) {
+		int p = commitData + position * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		long high = buf.getInt(p) & 3L;
+		return high << 32 | (buf.getInt(p + 4) & 0xffffffffL);
+	}
+
+	@Override
+	public int getGeneration(int position) {
+		int p = commitData + position * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		return buf.getInt(p) >>> 2;
+	}
+
+	@Override
+	public ChangedPathQuery newChangedPathQuery(byte[][] paths) {
+		if (bloomIndexes < 0)
+			return null;
+		final int[][] keys = new int[paths.length][];
+		for (int i = 0; i < paths.length; i++)
+			keys[i] = ChangedPathFilter.keyHashes(paths[i], bloomNumHashes,
+					bloomHashVersion);
+		return new ChangedPathQuery() {
+			@Override
+			public boolean maybeChanged(int position) {
+				int start = position > 0
+						? buf.getInt(bloomIndexes + 4 * (position - 1))
+						: 0;
+				int len = buf.getInt(bloomIndexes + 4 * position) - start;
+				if (len <= 0)
+					return true; // No filter was computed.
+				for (int[] key : keys) {
+					if (ChangedPathFilter.maybeContains(buf, bloomData + start,
+							len, key))
+						return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get the raw changed path filter of a commit, to copy it into a new
+	 * graph.
+	 *
+	 * @param position
+	 *            position of the commit.
+	 * @return the filter, or null if there is none or it uses other hashing
+	 *         than the filters written by {@link CommitGraphWriter}.
+	 */
+	byte[] getChangedPathFilter(int position) {
+		if (bloomHashVersion != ChangedPathFilter.HASH_VERSION_SIGNED
+				|| bloomNumHashes != ChangedPathFilter.NUM_HASHES)
+			return null;
+		int start = position > 0
+				? buf.getInt(bloomIndexes + 4 * (position - 1))
+				: 0;
+		int len = buf.getInt(bloomIndexes + 4 * position) - start;
+		if (len <= 0)
+			return null;
+		byte[] r = new byte[len];
+		for (int i = 0; i < len; i++)
+			r[i] = buf.get(bloomData + start + i);
+		return r;
+	}
+
+	private void readId(int pos, int[] dst) {
+		for (int i = 0; i < dst.length; i++)
+			dst[i] = buf.getInt(pos + 4 * i);
+	}
+}
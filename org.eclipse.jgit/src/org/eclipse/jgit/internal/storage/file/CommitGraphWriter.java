@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.BLOOM_HEADER_LENGTH;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.CHUNK_BLOOM_DATA;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.CHUNK_BLOOM_INDEXES;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.CHUNK_COMMIT_DATA;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.CHUNK_EXTRA_EDGES;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.CHUNK_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.CHUNK_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.COMMIT_DATA_WIDTH;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.HEADER_LENGTH;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.OID_VERSION;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.PARENT_NONE;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.PARENT_OCTOPUS;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.SIGNATURE;
+import static org.eclipse.jgit.internal.storage.file.CommitGraphV1.VERSION;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes a {@link CommitGraphV1} of the commits reachable from a set of tips.
+ * <p>
+ * The graph must not be written for a shallow repository, as the parents of
+ * its shallow commits would be left out.
+ * <p>
+ * If enabled, a {@link ChangedPathFilter} is stored for each commit. Filters
+ * found in the commit graph of the reader are copied, so only the commits
+ * added since the graph was written have to be diffed.
+ */
+public class CommitGraphWriter {
+	private final ObjectReader reader;
+
+	private boolean changedPaths;
+
+	private Node[] commits = {};
+
+	private int extraEdgeCnt;
+
+	private long bloomDataSize;
+
+	/**
+	 * Create a writer.
+	 *
+	 * @param reader
+	 *            reader to read the commits with.
+	 */
+	public CommitGraphWriter(ObjectReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @param write
+	 *            if true, changed path filters are written for the commits.
+	 *            Default is {@code false}. Must be set before
+	 *            {@link #prepare(ProgressMonitor, Collection)}.
+	 */
+	public void setChangedPaths(boolean write) {
+		changedPaths = write;
+	}
+
+	/**
+	 * Find the commits to write and compute their generation numbers.
+	 *
+	 * @param pm
+	 *            progress monitor.
+	 * @param tips
+	 *            objects the commits are reachable from. Tags are peeled and
+	 *            objects that are not commits are ignored.
+	 * @throws IOException
+	 *             a commit cannot be read.
+	 */
+	public void prepare(ProgressMonitor pm,
+			Collection<? extends AnyObjectId> tips) throws IOException {
+		ObjectIdOwnerMap<Node> nodes = new ObjectIdOwnerMap<>();
+		try (RevWalk rw = new RevWalk(reader)) {
+			rw.setRetainBody(false);
+			rw.sort(RevSort.TOPO);
+			rw.sort(RevSort.REVERSE, true);
+			for (AnyObjectId tip : tips) {
+				RevObject o = rw.peel(rw.parseAny(tip));
+				if (o instanceof RevCommit)
+					rw.markStart((RevCommit) o);
+			}
+
+			pm.beginTask(JGitText.get().computingCommitGraph,
+					ProgressMonitor.UNKNOWN);
+			extraEdgeCnt = 0;
+			RevCommit c;
+			while ((c = rw.next()) != null) {
+				// Parents come before their children in reverse topo order.
+				int gen = 0;
+				for (RevCommit p : c.getParents())
+					gen = Math.max(gen, nodes.get(p).generation);
+				Node n = new Node(c,
+						Math.min(gen + 1, CommitGraph.GENERATION_MAX));
+				nodes.add(n);
+				if (c.getParentCount() > 2)
+					extraEdgeCnt += c.getParentCount() - 1;
+				pm.update(1);
+			}
+			pm.endTask();
+		}
+
+		if (changedPaths)
+			computeChangedPaths(nodes);
+
+		commits = new Node[nodes.size()];
+		int i = 0;
+		for (Node n : nodes)
+			commits[i++] = n;
+		Arrays.sort(commits, new Comparator<Node>() {
+			@Override
+			public int compare(Node a, Node b) {
+				return a.compareTo(b);
+			}
+		});
+	}
+
+	private void computeChangedPaths(ObjectIdOwnerMap<Node> nodes)
+			throws IOException {
+		CommitGraph old = reader.getCommitGraph();
+		CommitGraphV1 src = old instanceof CommitGraphV1 ? (CommitGraphV1) old
+				: null;
+		bloomDataSize = 0;
+		try (TreeWalk tw = new TreeWalk(reader)) {
+			tw.setRecursive(true);
+			tw.setFilter(TreeFilter.ANY_DIFF);
+			for (Node n : nodes) {
+				if (src != null) {
+					int pos = src.findPosition(n);
+					if (pos >= 0)
+						n.filter = src.getChangedPathFilter(pos);
+				}
+				if (n.filter == null)
+					n.filter = ChangedPathFilter.create(changedPaths(tw, n.commit));
+				bloomDataSize += n.filter.length;
+			}
+		}
+	}
+
+	private static List<byte[]> changedPaths(TreeWalk tw, RevCommit c)
+			throws IOException {
+		tw.reset();
+		if (c.getParentCount() > 0)
+			tw.addTree(c.getParent(0).getTree());
+		else
+			tw.addTree(new EmptyTreeIterator());
+		tw.addTree(c.getTree());
+
+		List<byte[]> keys = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		while (tw.next() && keys.size() <= ChangedPathFilter.MAX_CHANGED_PATHS) {
+			byte[] path = tw.getRawPath();
+			int len = tw.getPathLength();
+			for (int i = 0; i < len; i++) {
+				if (path[i] == '/')
+					addKey(keys, seen, path, i);
+			}
+			addKey(keys, seen, path, len);
+		}
+		return keys;
+	}
+
+	private static void addKey(List<byte[]> keys, Set<String> seen,
+			byte[] path, int len) {
+		// ISO-8859-1 maps each byte to one char, so names are kept exactly.
+		if (seen.add(new String(path, 0, len, ISO_8859_1)))
+			keys.add(Arrays.copyOf(path, len));
+	}
+
+	/** @return number of commits to write. */
+	public long getCommitCount() {
+		return commits.length;
+	}
+
+	/**
+	 * Write the graph of the prepared commits.
+	 *
+	 * @param os
+	 *            stream to write to. It is not closed.
+	 * @throws IOException
+	 *             the stream cannot be written to.
+	 */
+	public void write(OutputStream os) throws IOException {
+		int[] ids = new int[6];
+		long[] sizes = new long[6];
+		int chunkCnt = 0;
+		ids[chunkCnt] = CHUNK_OID_FANOUT;
+		sizes[chunkCnt++] = 256 * 4;
+		ids[chunkCnt] = CHUNK_OID_LOOKUP;
+		sizes[chunkCnt++] = (long) commits.length * Constants.OBJECT_ID_LENGTH;
+		ids[chunkCnt] = CHUNK_COMMIT_DATA;
+		sizes[chunkCnt++] = (long) commits.length * COMMIT_DATA_WIDTH;
+		if (extraEdgeCnt > 0) {
+			ids[chunkCnt] = CHUNK_EXTRA_EDGES;
+			sizes[chunkCnt++] = (long) extraEdgeCnt * 4;
+		}
+		if (changedPaths) {
+			ids[chunkCnt] = CHUNK_BLOOM_INDEXES;
+			sizes[chunkCnt++] = (long) commits.length * 4;
+			ids[chunkCnt] = CHUNK_BLOOM_DATA;
+			sizes[chunkCnt++] = BLOOM_HEADER_LENGTH + bloomDataSize;
+		}
+		long[] starts = new long[chunkCnt + 1];
+		starts[0] = HEADER_LENGTH + (chunkCnt + 1) * CHUNK_LOOKUP_WIDTH;
+		for (int i = 0; i < chunkCnt; i++)
+			starts[i + 1] = starts[i] + sizes[i];
+
+		MessageDigest md = Constants.newMessageDigest();
+		OutputStream out = new DigestOutputStream(
+				new BufferedOutputStream(os), md);
+		byte[] buf = new byte[COMMIT_DATA_WIDTH];
+
+		NB.encodeInt32(buf, 0, SIGNATURE);
+		buf[4] = VERSION;
+		buf[5] = OID_VERSION;
+		buf[6] = (byte) chunkCnt;
+		buf[7] = 0;
+		out.write(buf, 0, HEADER_LENGTH);
+
+		for (int i = 0; i <= chunkCnt; i++) {
+			NB.encodeInt32(buf, 0, i < chunkCnt ? ids[i] : 0);
+			NB.encodeInt64(buf, 4, starts[i]);
+			out.write(buf, 0, CHUNK_LOOKUP_WIDTH);
+		}
+
+		int[] fanout = new int[256];
+		for (Node n : commits)
+			fanout[n.getFirstByte()]++;
+		for (int i = 1; i < fanout.length; i++)
+			fanout[i] += fanout[i - 1];
+		for (int cnt : fanout) {
+			NB.encodeInt32(buf, 0, cnt);
+			out.write(buf, 0, 4);
+		}
+
+		for (Node n : commits)
+			n.copyRawTo(out);
+
+		int edge = 0;
+		for (Node n : commits) {
+			RevCommit c = n.commit;
+			int parentCnt = c.getParentCount();
+			c.getTree().copyRawTo(buf, 0);
+			int p = Constants.OBJECT_ID_LENGTH;
+			NB.encodeInt32(buf, p, parentCnt > 0
+					? position(c.getParent(0)) : PARENT_NONE);
+			if (parentCnt > 2) {
+				NB.encodeInt32(buf, p + 4, PARENT_OCTOPUS | edge);
+				edge += parentCnt - 1;
+			} else {
+				NB.encodeInt32(buf, p + 4, parentCnt > 1
+						? position(c.getParent(1)) : PARENT_NONE);
+			}
+			long time = c.getCommitTime() & 0xffffffffL;
+			NB.encodeInt32(buf, p + 8,
+					n.generation << 2 | (int) (time >>> 32) & 3);
+			NB.encodeInt32(buf, p + 12, (int) time);
+			out.write(buf, 0, COMMIT_DATA_WIDTH);
+		}
+
+		for (Node n : commits) {
+			RevCommit c = n.commit;
+			int parentCnt = c.getParentCount();
+			if (parentCnt <= 2)
+				continue;
+			for (int i = 1; i < parentCnt; i++) {
+				int pos = position(c.getParent(i));
+				NB.encodeInt32(buf, 0,
+						i == parentCnt - 1 ? pos | PARENT_OCTOPUS : pos);
+				out.write(buf, 0, 4);
+			}
+		}
+
+		if (changedPaths) {
+			int end = 0;
+			for (Node n : commits) {
+				end += n.filter.length;
+				NB.encodeInt32(buf, 0, end);
+				out.write(buf, 0, 4);
+			}
+			NB.encodeInt32(buf, 0, ChangedPathFilter.HASH_VERSION_SIGNED);
+			NB.encodeInt32(buf, 4, ChangedPathFilter.NUM_HASHES);
+			NB.encodeInt32(buf, 8, ChangedPathFilter.BITS_PER_ENTRY);
+			out.write(buf, 0, BLOOM_HEADER_LENGTH);
+			for (Node n : commits)
+				out.write(n.filter);
+		}
+
+		out.flush();
+		os.write(md.digest());
+		os.flush();
+	}
+
+	private int position(AnyObjectId id) {
+		int low = 0;
+		int high = commits.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = commits[mid].compareTo(id);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp == 0)
+				return mid;
+			else
+				high = mid;
+		}
+		throw new IllegalStateException();
+	}
+
+	private static class Node extends ObjectIdOwnerMap.Entry {
+		final RevCommit commit;
+
+		final int generation;
+
+		byte[] filter;
+
+		Node(RevCommit commit, int generation) {
+			super(commit);
+			this.commit = commit;
+			this.generation = generation;
+		}
+	}
+}
@@ -301,12 +301,19 @@ private ExecutorService executor() {
 
 	private Collection<PackFile> doGc() throws IOException, ParseException {
 		if (automatic && !needGc()) {
+			// Indexing the packs added since the last gc is cheap enough
+			// to be done even when a full gc is not needed.
+			if (useMultiPackIndex())
+				writeMultiPackIndex();
 			return Collections.emptyList();
 		}
 		pm.start(6 /* tasks */);
 		packRefs();
 		// TODO: implement reflog_expire(pm, repo);
-		Collection<PackFile> newPacks = repack();
+		PackConfig cfg = (pconfig == null) ? new PackConfig(repo) : pconfig;
+		Collection<PackFile> newPacks = cfg.getGeometricRepackFactor() > 1
+				? repackGeometric(cfg.getGeometricRepackFactor())
+				: repack();
 		prune(Collections.<ObjectId> emptySet());
 		// TODO: implement rerere_gc(pm);
 		return newPacks;
@@ -320,15 +327,20 @@ private Collection<PackFile> doGc() throws IOException, ParseException {
 	 * @param reader
 	 * @param pack
 	 * @param existing
+	 * @param retained
 	 * @throws IOException
 	 */
-	private void loosen(ObjectDirectoryInserter inserter, ObjectReader reader, PackFile pack, HashSet<ObjectId> existing)
-			throws IOException {
-		for (PackIndex.MutableEntry entry : pack) {
+	private void loosen(ObjectDirectoryInserter inserter, ObjectReader reader,
+			PackFile pack, HashSet<ObjectId> existing,
+			List<ObjectIdSet> retained) throws IOException {
+		entryLoop: for (PackIndex.MutableEntry entry : pack) {
 			ObjectId oid = entry.toObjectId();
 			if (existing.contains(oid)) {
 				continue;
 			}
+			for (ObjectIdSet idx : retained)
+				if (idx.contains(oid))
+					continue entryLoop;
 			existing.add(oid);
 			ObjectLoader loader = reader.open(oid);
 			inserter.insert(loader.getType(),
@@ -347,15 +359,19 @@ private void loosen(ObjectDirectoryInserter inserter, ObjectReader reader, PackF
 	 * than the expirationDate will not be deleted nor preserved.
 	 * <p>
 	 * If we're not immediately expiring loose objects, loosen any objects
-	 * in the old pack files which aren't in the new pack files.
+	 * in the old pack files which aren't in the new pack files or in one of
+	 * the retained packs.
 	 *
 	 * @param oldPacks
 	 * @param newPacks
+	 * @param retained
+	 *            indexes of packs which are kept alongside the new pack files
 	 * @throws ParseException
 	 * @throws IOException
 	 */
 	private void deleteOldPacks(Collection<PackFile> oldPacks,
-			Collection<PackFile> newPacks) throws ParseException, IOException {
+			Collection<PackFile> newPacks, List<ObjectIdSet> retained)
+			throws ParseException, IOException {
 		HashSet<ObjectId> ids = new HashSet<>();
 		for (PackFile pack : newPacks) {
 			for (PackIndex.MutableEntry entry : pack) {
@@ -384,7 +400,7 @@ private void deleteOldPacks(Collection<PackFile> oldPacks,
 							oldPack.getPackFile()) < packExpireDate) {
 				oldPack.close();
 				if (shouldLoosen) {
-					loosen(inserter, reader, oldPack, ids);
+					loosen(inserter, reader, oldPack, ids, retained);
 				}
 				prunePack(oldName);
 			}
@@ -894,19 +910,312 @@ public Collection<PackFile> repack() throws IOException {
 				ret.add(txn);
 		}
 		try {
-			deleteOldPacks(toBeDeleted, ret);
+			deleteOldPacks(toBeDeleted, ret,
+					Collections.<ObjectIdSet> emptyList());
 		} catch (ParseException e) {
 			// TODO: the exception has to be wrapped into an IOException because
 			// throwing the ParseException directly would break the API, instead
 			// we should throw a ConfigInvalidException
 			throw new IOException(e);
 		}
+		finishRepack(refsBefore, time);
+		return ret;
+	}
+
+	/**
+	 * Rolls the loose objects and the smallest packs up into one new pack,
+	 * leaving the larger packs and their bitmaps as they are. Packs are rolled
+	 * up until the remaining packs, ordered by object count, each hold at
+	 * least {@code factor} times the objects of the next smaller one, the new
+	 * pack included. Unreachable objects are carried over; only a full
+	 * {@link #repack()} drops them, which is also done if every pack would
+	 * have to be rolled up.
+	 *
+	 * @param factor
+	 *            the geometric factor, greater than 1
+	 * @return a collection of the newly created pack files
+	 * @throws IOException
+	 */
+	private Collection<PackFile> repackGeometric(int factor)
+			throws IOException {
+		long time = System.currentTimeMillis();
+		Collection<Ref> refsBefore = getAllRefs();
+		ObjectDirectory odb = repo.getObjectDatabase();
+
+		List<ObjectIdSet> excluded = new ArrayList<>();
+		List<PackFile> packs = new ArrayList<>();
+		for (PackFile p : odb.getPacks()) {
+			checkCancelled();
+			if (p.shouldBeKept())
+				excluded.add(p.getIndex());
+			else
+				packs.add(p);
+		}
+		Map<PackFile, Long> counts = new HashMap<>();
+		for (PackFile p : packs)
+			counts.put(p, Long.valueOf(p.getObjectCount()));
+		Collections.sort(packs, new Comparator<PackFile>() {
+			@Override
+			public int compare(PackFile a, PackFile b) {
+				return counts.get(a).compareTo(counts.get(b));
+			}
+		});
+		long[] sizes = new long[packs.size()];
+		for (int i = 0; i < sizes.length; i++)
+			sizes[i] = counts.get(packs.get(i)).longValue();
+
+		List<ObjectId> loose = listLooseObjects();
+		int split = geometricSplit(sizes, loose.size(), factor);
+		if (split == packs.size())
+			return repack();
+		if (split < 2 && loose.isEmpty())
+			return Collections.emptyList();
+
+		List<PackFile> rolled = packs.subList(0, split);
+		for (PackFile p : packs.subList(split, packs.size()))
+			excluded.add(p.getIndex());
+
+		List<PackFile> ret = new ArrayList<>(1);
+		try (PackWriter pw = newPackWriter();
+				WindowCursor curs = new WindowCursor(odb);
+				RevWalk rw = new RevWalk(curs)) {
+			for (ObjectIdSet idx : excluded)
+				pw.excludeObjects(idx);
+			List<RevObject> objects = new ArrayList<>();
+			for (PackFile p : rolled)
+				listPackObjects(rw, curs, p, objects);
+			for (ObjectId id : loose) {
+				checkCancelled();
+				if (rw.lookupOrNull(id) == null)
+					objects.add(rw.lookupAny(id, curs.open(id).getType()));
+			}
+			pw.preparePack(objects.iterator());
+			PackFile pack = writePack(pw);
+			if (pack != null)
+				ret.add(pack);
+		}
+		try {
+			deleteOldPacks(rolled, ret, excluded);
+		} catch (ParseException e) {
+			throw new IOException(e);
+		}
+		finishRepack(refsBefore, time);
+		return ret;
+	}
+
+	/**
+	 * Find how many of the smallest packs have to be rolled up.
+	 *
+	 * @param sizes
+	 *            object counts of the packs, in ascending order
+	 * @param loose
+	 *            number of loose objects which also go into the new pack
+	 * @param factor
+	 *            the geometric factor
+	 * @return the number of packs, from the start of {@code sizes}, which
+	 *         have to be rolled up into one pack
+	 */
+	static int geometricSplit(long[] sizes, long loose, int factor) {
+		if (sizes.length == 0)
+			return 0;
+
+		// Find the smallest packs breaking the progression.
+		int split = sizes.length - 1;
+		while (split > 0 && sizes[split] >= factor * sizes[split - 1])
+			split--;
+		if (split > 0)
+			split++;
+
+		// The new pack may be big enough to break the progression of the
+		// larger packs; roll those up too. A pack exactly factor times as
+		// large as the new one keeps the progression.
+		long total = loose;
+		for (int i = 0; i < split; i++)
+			total += sizes[i];
+		while (split < sizes.length && sizes[split] < factor * total)
+			total += sizes[split++];
+		return split;
+	}
+
+	private void listPackObjects(RevWalk rw, WindowCursor curs, PackFile p,
+			List<RevObject> objects) throws IOException {
+		List<PackIndex.MutableEntry> entries = new ArrayList<>();
+		for (PackIndex.MutableEntry e : p)
+			entries.add(e.cloneEntry());
+		// Keep the order of the pack, which is by recency.
+		Collections.sort(entries, new Comparator<PackIndex.MutableEntry>() {
+			@Override
+			public int compare(PackIndex.MutableEntry a,
+					PackIndex.MutableEntry b) {
+				return Long.compare(a.getOffset(), b.getOffset());
+			}
+		});
+		for (PackIndex.MutableEntry e : entries) {
+			checkCancelled();
+			ObjectId id = e.toObjectId();
+			if (rw.lookupOrNull(id) != null)
+				continue;
+			int type = p.getObjectType(curs, e.getOffset());
+			objects.add(rw.lookupAny(id, type));
+		}
+	}
+
+	private List<ObjectId> listLooseObjects() throws IOException {
+		List<ObjectId> ids = new ArrayList<>();
+		File objects = repo.getObjectsDirectory();
+		String[] fanout = objects.list();
+		if (fanout == null)
+			return ids;
+		for (String d : fanout) {
+			checkCancelled();
+			if (d.length() != 2)
+				continue;
+			String[] entries = new File(objects, d).list();
+			if (entries == null)
+				continue;
+			for (String e : entries) {
+				if (e.length() != Constants.OBJECT_ID_STRING_LENGTH - 2)
+					continue;
+				try {
+					ids.add(ObjectId.fromString(d + e));
+				} catch (IllegalArgumentException notAnObject) {
+					// ignoring the file that does not represent loose object
+				}
+			}
+		}
+		return ids;
+	}
+
+	private void finishRepack(Collection<Ref> refsBefore, long time)
+			throws IOException {
 		prunePacked();
 		deleteOrphans();
+		if (useMultiPackIndex())
+			writeMultiPackIndex();
+		if (repo.getConfig().getBoolean(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, false))
+			writeCommitGraph(refsBefore);
 
 		lastPackedRefs = refsBefore;
 		lastRepackTime = time;
-		return ret;
+	}
+
+	/**
+	 * Write the multi-pack index of the packs of the repository.
+	 * <p>
+	 * If the existing index covers all packs but some, only the objects of
+	 * the packs it does not cover are read. With less than 2 packs the index
+	 * is not needed and is deleted.
+	 *
+	 * @throws IOException
+	 *             the pack indexes cannot be read or the multi-pack index
+	 *             cannot be written.
+	 * @since 4.10
+	 */
+	public void writeMultiPackIndex() throws IOException {
+		ObjectDirectory odb = repo.getObjectDatabase();
+		File packdir = new File(repo.getObjectsDirectory(), "pack"); //$NON-NLS-1$
+		File file = new File(packdir, MultiPackIndex.FILE_NAME);
+		Collection<PackFile> packs = odb.getPacks();
+		if (packs.size() < 2) {
+			FileUtils.delete(file, FileUtils.SKIP_MISSING);
+			return;
+		}
+
+		MultiPackIndex old = odb.getMultiPackIndex();
+		Set<String> covered = old != null
+				? new HashSet<>(old.getPackNames())
+				: Collections.<String> emptySet();
+		Map<String, Integer> ranks = new HashMap<>();
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		boolean added = false;
+		for (PackFile p : packs) {
+			checkCancelled();
+			String name = indexNameOf(p);
+			Integer rank = Integer.valueOf(ranks.size());
+			ranks.put(name, rank);
+			if (!covered.contains(name)) {
+				writer.addPack(name, rank.intValue(), p.getIndex());
+				added = true;
+			}
+		}
+		if (old != null) {
+			if (!added && covered.size() == ranks.size())
+				return;
+			writer.addMultiPackIndex(old, ranks);
+		}
+
+		LockFile lock = new LockFile(file);
+		if (!lock.lock())
+			return; // Another process is writing it.
+		try {
+			try (OutputStream out = lock.getOutputStream()) {
+				writer.write(out);
+			}
+			lock.commit();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write the commit graph of the commits reachable from the refs of the
+	 * repository to {@code objects/info/commit-graph}.
+	 * <p>
+	 * Changed path filters are included if {@code gc.writeChangedPaths} is
+	 * set. Nothing is written for a shallow repository.
+	 *
+	 * @throws IOException
+	 *             the commits cannot be read or the graph cannot be written.
+	 * @since 4.10
+	 */
+	public void writeCommitGraph() throws IOException {
+		writeCommitGraph(getAllRefs());
+	}
+
+	private void writeCommitGraph(Collection<Ref> refs) throws IOException {
+		ObjectDirectory odb = repo.getObjectDatabase();
+		if (!odb.getShallowCommits().isEmpty())
+			return;
+
+		Set<ObjectId> tips = new HashSet<>();
+		for (Ref ref : refs) {
+			if (ref.getObjectId() != null)
+				tips.add(ref.getObjectId());
+		}
+		File file = new File(new File(repo.getObjectsDirectory(), "info"), //$NON-NLS-1$
+				CommitGraphV1.FILE_NAME);
+		try (ObjectReader reader = odb.newReader()) {
+			CommitGraphWriter writer = new CommitGraphWriter(reader);
+			writer.setChangedPaths(repo.getConfig().getBoolean(
+					ConfigConstants.CONFIG_GC_SECTION,
+					ConfigConstants.CONFIG_KEY_WRITE_CHANGED_PATHS, false));
+			writer.prepare(pm, tips);
+			checkCancelled();
+
+			LockFile lock = new LockFile(file);
+			if (!lock.lock())
+				return; // Another process is writing it.
+			try {
+				try (OutputStream out = lock.getOutputStream()) {
+					writer.write(out);
+				}
+				lock.commit();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static String indexNameOf(PackFile p) {
+		String packName = p.getPackFile().getName();
+		return packName.substring(0, packName.length() - PACK_EXT.length())
+				+ INDEX_EXT;
+	}
+
+	private boolean useMultiPackIndex() {
+		return repo.getConfig().getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false);
 	}
 
 	private static boolean isHead(Ref ref) {
@@ -1077,6 +1386,28 @@ private PackFile writePack(@NonNull Set<? extends ObjectId> want,
 			Set<ObjectId> tagTargets, List<ObjectIdSet> excludeObjects)
 			throws IOException {
 		checkCancelled();
+		try (PackWriter pw = newPackWriter()) {
+			if (tagTargets != null) {
+				pw.setTagTargets(tagTargets);
+			}
+			if (excludeObjects != null)
+				for (ObjectIdSet idx : excludeObjects)
+					pw.excludeObjects(idx);
+			pw.preparePack(pm, want, have, PackWriter.NONE, tags);
+			return writePack(pw);
+		}
+	}
+
+	private PackWriter newPackWriter() {
+		PackWriter pw = new PackWriter(
+				(pconfig == null) ? new PackConfig(repo) : pconfig,
+				repo.newObjectReader());
+		pw.setDeltaBaseAsOffset(true);
+		pw.setReuseDeltaCommits(false);
+		return pw;
+	}
+
+	private PackFile writePack(PackWriter pw) throws IOException {
 		File tmpPack = null;
 		Map<PackExt, File> tmpExts = new TreeMap<>(
 				new Comparator<PackExt>() {
@@ -1095,19 +1426,7 @@ public int compare(PackExt o1, PackExt o2) {
 					}
 
 				});
-		try (PackWriter pw = new PackWriter(
-				(pconfig == null) ? new PackConfig(repo) : pconfig,
-				repo.newObjectReader())) {
-			// prepare the PackWriter
-			pw.setDeltaBaseAsOffset(true);
-			pw.setReuseDeltaCommits(false);
-			if (tagTargets != null) {
-				pw.setTagTargets(tagTargets);
-			}
-			if (excludeObjects != null)
-				for (ObjectIdSet idx : excludeObjects)
-					pw.excludeObjects(idx);
-			pw.preparePack(pm, want, have, PackWriter.NONE, tags);
+		try {
 			if (pw.getObjectCount() == 0)
 				return null;
 			checkCancelled();
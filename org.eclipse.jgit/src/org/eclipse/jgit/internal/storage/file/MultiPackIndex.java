@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Index of the objects of many packs, in one sorted table.
+ * <p>
+ * A multi-pack index maps every object of the packs it covers to the pack
+ * holding it and the object's offset in that pack, so an object is found
+ * with one binary search however many packs a repository has. An object
+ * stored in several packs is listed once.
+ * <p>
+ * The file uses the {@code objects/pack/multi-pack-index} format of Git: a
+ * header, a table of chunks, and the chunks {@code PNAM} (pack index names),
+ * {@code OIDF} (fan-out), {@code OIDL} (object names), {@code OOFF} (pack
+ * and offset of each object) and optionally {@code LOFF} (offsets that do
+ * not fit in 31 bits), followed by a SHA-1 of the content.
+ */
+public class MultiPackIndex {
+	/** Name of the file in the pack directory. */
+	public static final String FILE_NAME = "multi-pack-index"; //$NON-NLS-1$
+
+	static final int SIGNATURE = 0x4d494458; // MIDX
+
+	static final byte VERSION = 1;
+
+	/** Object id version of SHA-1. */
+	static final byte OID_VERSION = 1;
+
+	static final int HEADER_LENGTH = 12;
+
+	static final int CHUNK_LOOKUP_WIDTH = 12;
+
+	static final int CHUNK_PACK_NAMES = 0x504e414d; // PNAM
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446; // OIDF
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c; // OIDL
+
+	static final int CHUNK_OBJECT_OFFSETS = 0x4f4f4646; // OOFF
+
+	static final int CHUNK_LARGE_OFFSETS = 0x4c4f4646; // LOFF
+
+	/** Offsets with this bit set index the large offset chunk. */
+	static final long IS_LARGE = 1L << 31;
+
+	private static final int FANOUT = 256;
+
+	/**
+	 * Open a multi-pack index.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @param mmap
+	 *            true to map the file and read it in place, false to read it
+	 *            onto the heap.
+	 * @return the index.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file cannot be read or is not a valid multi-pack index.
+	 */
+	public static MultiPackIndex open(File file, boolean mmap)
+			throws IOException {
+		ByteBuffer buf;
+		if (mmap) {
+			try (FileInputStream in = new FileInputStream(file);
+					FileChannel fc = in.getChannel()) {
+				if (fc.size() > Integer.MAX_VALUE)
+					throw new IOException(
+							JGitText.get().indexFileIsTooLargeForJgit);
+				buf = fc.map(MapMode.READ_ONLY, 0, fc.size());
+			}
+		} else {
+			buf = ByteBuffer.wrap(IO.readFully(file));
+		}
+		try {
+			return new MultiPackIndex(buf);
+		} catch (IOException | IndexOutOfBoundsException e) {
+			IOException err = new IOException(MessageFormat.format(
+					JGitText.get().unreadablePackIndex,
+					file.getAbsolutePath()));
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	private final ByteBuffer buf;
+
+	private final List<String> packNames;
+
+	/** Number of objects before each bucket ends. */
+	private final int[] fanoutTable;
+
+	private final int objectCnt;
+
+	private final int oidLookup;
+
+	private final int objectOffsets;
+
+	private final int largeOffsets;
+
+	private MultiPackIndex(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+		if (buf.capacity() < HEADER_LENGTH + Constants.OBJECT_ID_LENGTH)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+		if (buf.getInt(0) != SIGNATURE || buf.get(4) != VERSION
+				|| buf.get(5) != OID_VERSION || buf.get(7) != 0)
+			throw corrupt(buf.get(4));
+		int chunkCnt = buf.get(6) & 0xff;
+		int packCnt = buf.getInt(8);
+		if (packCnt < 0)
+			throw corrupt(VERSION);
+
+		int names = -1, fanout = -1, lookup = -1, offsets = -1, large = -1;
+		int end = buf.capacity() - Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < chunkCnt; i++) {
+			int p = HEADER_LENGTH + i * CHUNK_LOOKUP_WIDTH;
+			int id = buf.getInt(p);
+			long start = buf.getLong(p + 4);
+			if (start < HEADER_LENGTH || start > end)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			switch (id) {
+			case CHUNK_PACK_NAMES:
+				names = (int) start;
+				break;
+			case CHUNK_OID_FANOUT:
+				fanout = (int) start;
+				break;
+			case CHUNK_OID_LOOKUP:
+				lookup = (int) start;
+				break;
+			case CHUNK_OBJECT_OFFSETS:
+				offsets = (int) start;
+				break;
+			case CHUNK_LARGE_OFFSETS:
+				large = (int) start;
+				break;
+			default:
+				// Chunks this version does not use are skipped.
+			}
+		}
+		if (names < 0 || fanout < 0 || lookup < 0 || offsets < 0)
+			throw corrupt(VERSION);
+
+		packNames = readPackNames(buf, names, packCnt, end);
+
+		fanoutTable = new int[FANOUT];
+		int prev = 0;
+		for (int k = 0; k < FANOUT; k++) {
+			int cnt = buf.getInt(fanout + 4 * k);
+			if (cnt < prev)
+				throw new IOException(MessageFormat.format(
+						JGitText.get().indexFileCorruptedNegativeBucketCount,
+						Long.valueOf(cnt - prev)));
+			fanoutTable[k] = cnt;
+			prev = cnt;
+		}
+		objectCnt = fanoutTable[FANOUT - 1];
+		if ((long) lookup + (long) objectCnt * Constants.OBJECT_ID_LENGTH > end
+				|| (long) offsets + (long) objectCnt * 8 > end)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+
+		// Lookups index the covered packs and the large offsets with these
+		// values; check them once instead of on every read.
+		for (int i = 0; i < objectCnt; i++) {
+			int packId = buf.getInt(offsets + 8 * i);
+			if (packId < 0 || packId >= packCnt)
+				throw corrupt(VERSION);
+			long ofs = buf.getInt(offsets + 8 * i + 4) & 0xffffffffL;
+			if ((ofs & IS_LARGE) != 0 && large >= 0
+					&& (long) large + 8 * ((ofs & ~IS_LARGE) + 1) > end)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+		}
+
+		oidLookup = lookup;
+		objectOffsets = offsets;
+		largeOffsets = large;
+	}
+
+	private static IOException corrupt(byte version) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().unknownIndexVersionOrCorruptIndex,
+				Integer.valueOf(version)));
+	}
+
+	private static List<String> readPackNames(ByteBuffer buf, int pos,
+			int packCnt, int end) throws IOException {
+		List<String> r = new ArrayList<>(packCnt);
+		StringBuilder name = new StringBuilder();
+		while (r.size() < packCnt) {
+			if (pos >= end)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			byte b = buf.get(pos++);
+			if (b == 0) {
+				r.add(name.toString());
+				name.setLength(0);
+			} else {
+				name.append((char) (b & 0xff));
+			}
+		}
+		return Collections.unmodifiableList(r);
+	}
+
+	/**
+	 * @return names of the indexes of the packs covered, such as
+	 *         {@code pack-1234...abcd.idx}, sorted. The position of a name is
+	 *         the id of the pack in this index.
+	 */
+	public List<String> getPackNames() {
+		return packNames;
+	}
+
+	/** @return number of objects in the index. */
+	public long getObjectCount() {
+		return objectCnt;
+	}
+
+	/**
+	 * Find an object.
+	 *
+	 * @param objId
+	 *            the object to look for.
+	 * @return position of the object in the index, or -1 if it is not in
+	 *         any of the packs covered.
+	 */
+	public int findPosition(AnyObjectId objId) {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		int levelOne = objId.getFirstByte();
+		int low = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		int high = fanoutTable[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			readName(mid, tmp);
+			int cmp = objId.compareTo(tmp, 0);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param position
+	 *            position of an object in the index.
+	 * @return name of the object.
+	 */
+	public ObjectId getObjectId(int position) {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		readName(position, tmp);
+		return ObjectId.fromRaw(tmp);
+	}
+
+	/**
+	 * @param position
+	 *            position of an object in the index.
+	 * @return id of the pack holding the object, a position in
+	 *         {@link #getPackNames()}.
+	 */
+	public int getPackId(int position) {
+		return buf.getInt(objectOffsets + 8 * position);
+	}
+
+	/**
+	 * @param position
+	 *            position of an object in the index.
+	 * @return offset of the object in its pack.
+	 */
+	public long getOffset(int position) {
+		long ofs = buf.getInt(objectOffsets + 8 * position + 4) & 0xffffffffL;
+		if ((ofs & IS_LARGE) != 0 && largeOffsets >= 0)
+			return buf.getLong(largeOffsets + 8 * (int) (ofs & ~IS_LARGE));
+		return ofs;
+	}
+
+	/**
+	 * Find objects matching the prefix abbreviation.
+	 *
+	 * @param matches
+	 *            set to add any located ObjectIds to.
+	 * @param id
+	 *            prefix to search for.
+	 * @param matchLimit
+	 *            maximum number of results to return.
+	 */
+	public void resolve(Set<ObjectId> matches, AbbreviatedObjectId id,
+			int matchLimit) {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		int levelOne = id.getFirstByte();
+		int first = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		int max = fanoutTable[levelOne];
+		int low = first;
+		int high = max;
+		while (low < high) {
+			int p = (low + high) >>> 1;
+			readName(p, tmp);
+			int cmp = id.prefixCompare(tmp, 0);
+			if (cmp < 0)
+				high = p;
+			else if (cmp == 0) {
+				while (first < p) {
+					readName(p - 1, tmp);
+					if (id.prefixCompare(tmp, 0) != 0)
+						break;
+					p--;
+				}
+				for (; p < max; p++) {
+					readName(p, tmp);
+					if (id.prefixCompare(tmp, 0) != 0)
+						break;
+					matches.add(ObjectId.fromRaw(tmp));
+					if (matches.size() > matchLimit)
+						break;
+				}
+				return;
+			} else
+				low = p + 1;
+		}
+	}
+
+	private void readName(int p, int[] dst) {
+		int pos = oidLookup + p * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < dst.length; i++)
+			dst[i] = buf.getInt(pos + 4 * i);
+	}
+}
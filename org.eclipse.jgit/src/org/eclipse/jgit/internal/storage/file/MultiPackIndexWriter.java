@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_LARGE_OFFSETS;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_OBJECT_OFFSETS;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.CHUNK_PACK_NAMES;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.HEADER_LENGTH;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.IS_LARGE;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.OID_VERSION;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.SIGNATURE;
+import static org.eclipse.jgit.internal.storage.file.MultiPackIndex.VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes a {@link MultiPackIndex}.
+ * <p>
+ * Objects are added from the indexes of single packs and from an existing
+ * multi-pack index, so a new index can be written by adding only the packs
+ * created since the previous one was written. An object found in several
+ * packs is written once, pointing to the pack with the lowest rank.
+ */
+class MultiPackIndexWriter {
+	private final List<Entry> entries = new ArrayList<>();
+
+	private final TreeSet<String> packNames = new TreeSet<>();
+
+	/**
+	 * Add all objects of a pack.
+	 *
+	 * @param idxName
+	 *            name of the index file of the pack, such as
+	 *            {@code pack-1234...abcd.idx}.
+	 * @param rank
+	 *            preference for the pack; for objects in several packs the
+	 *            pack with the lowest rank is used.
+	 * @param idx
+	 *            index of the pack.
+	 */
+	void addPack(String idxName, int rank, PackIndex idx) {
+		packNames.add(idxName);
+		for (PackIndex.MutableEntry e : idx)
+			entries.add(new Entry(e.toObjectId(), idxName, rank, e.getOffset()));
+	}
+
+	/**
+	 * Add all objects of an existing multi-pack index.
+	 *
+	 * @param midx
+	 *            the index.
+	 * @param ranks
+	 *            rank of each pack of the index, by index file name.
+	 */
+	void addMultiPackIndex(MultiPackIndex midx, Map<String, Integer> ranks) {
+		List<String> names = midx.getPackNames();
+		packNames.addAll(names);
+		int cnt = (int) midx.getObjectCount();
+		for (int i = 0; i < cnt; i++) {
+			String name = names.get(midx.getPackId(i));
+			Integer rank = ranks.get(name);
+			entries.add(new Entry(midx.getObjectId(i), name,
+					rank != null ? rank.intValue() : Integer.MAX_VALUE,
+					midx.getOffset(i)));
+		}
+	}
+
+	/**
+	 * Write the index.
+	 *
+	 * @param os
+	 *            stream to write to. It is not closed.
+	 * @throws IOException
+	 *             the stream cannot be written to.
+	 */
+	void write(OutputStream os) throws IOException {
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				int cmp = a.compareTo(b);
+				return cmp != 0 ? cmp : Integer.compare(a.rank, b.rank);
+			}
+		});
+		List<Entry> objects = new ArrayList<>(entries.size());
+		for (Entry e : entries) {
+			if (objects.isEmpty()
+					|| !AnyObjectId.equals(objects.get(objects.size() - 1), e))
+				objects.add(e);
+		}
+
+		Map<String, Integer> packIds = new HashMap<>();
+		int packNamesLength = 0;
+		for (String name : packNames) {
+			packIds.put(name, Integer.valueOf(packIds.size()));
+			packNamesLength += Constants.encode(name).length + 1;
+		}
+		packNamesLength = (packNamesLength + 3) & ~3;
+
+		int largeCnt = 0;
+		for (Entry e : objects) {
+			if (e.offset >= IS_LARGE)
+				largeCnt++;
+		}
+
+		int chunkCnt = largeCnt > 0 ? 5 : 4;
+		long[] starts = new long[chunkCnt + 1];
+		int[] ids = { CHUNK_PACK_NAMES, CHUNK_OID_FANOUT, CHUNK_OID_LOOKUP,
+				CHUNK_OBJECT_OFFSETS, CHUNK_LARGE_OFFSETS };
+		starts[0] = HEADER_LENGTH + (chunkCnt + 1) * CHUNK_LOOKUP_WIDTH;
+		starts[1] = starts[0] + packNamesLength;
+		starts[2] = starts[1] + 256 * 4;
+		starts[3] = starts[2] + (long) objects.size() * Constants.OBJECT_ID_LENGTH;
+		starts[4] = starts[3] + (long) objects.size() * 8;
+		if (largeCnt > 0)
+			starts[5] = starts[4] + (long) largeCnt * 8;
+
+		MessageDigest md = Constants.newMessageDigest();
+		OutputStream out = new DigestOutputStream(
+				new BufferedOutputStream(os), md);
+		byte[] buf = new byte[CHUNK_LOOKUP_WIDTH];
+
+		NB.encodeInt32(buf, 0, SIGNATURE);
+		buf[4] = VERSION;
+		buf[5] = OID_VERSION;
+		buf[6] = (byte) chunkCnt;
+		buf[7] = 0;
+		NB.encodeInt32(buf, 8, packNames.size());
+		out.write(buf, 0, HEADER_LENGTH);
+
+		for (int i = 0; i <= chunkCnt; i++) {
+			NB.encodeInt32(buf, 0, i < chunkCnt ? ids[i] : 0);
+			NB.encodeInt64(buf, 4, starts[i]);
+			out.write(buf, 0, CHUNK_LOOKUP_WIDTH);
+		}
+
+		int written = 0;
+		for (String name : packNames) {
+			byte[] raw = Constants.encode(name);
+			out.write(raw);
+			out.write(0);
+			written += raw.length + 1;
+		}
+		for (; written < packNamesLength; written++)
+			out.write(0);
+
+		int[] fanout = new int[256];
+		for (Entry e : objects)
+			fanout[e.getFirstByte()]++;
+		for (int i = 1; i < fanout.length; i++)
+			fanout[i] += fanout[i - 1];
+		for (int cnt : fanout) {
+			NB.encodeInt32(buf, 0, cnt);
+			out.write(buf, 0, 4);
+		}
+
+		for (Entry e : objects)
+			e.copyRawTo(out);
+
+		int large = 0;
+		for (Entry e : objects) {
+			NB.encodeInt32(buf, 0, packIds.get(e.packName).intValue());
+			if (e.offset >= IS_LARGE)
+				NB.encodeInt32(buf, 4, (int) (IS_LARGE | large++));
+			else
+				NB.encodeInt32(buf, 4, (int) e.offset);
+			out.write(buf, 0, 8);
+		}
+
+		for (Entry e : objects) {
+			if (e.offset >= IS_LARGE) {
+				NB.encodeInt64(buf, 0, e.offset);
+				out.write(buf, 0, 8);
+			}
+		}
+
+		out.flush();
+		os.write(md.digest());
+		os.flush();
+	}
+
+	private static class Entry extends ObjectId {
+		final String packName;
+
+		final int rank;
+
+		final long offset;
+
+		Entry(AnyObjectId id, String packName, int rank, long offset) {
+			super(id);
+			this.packName = packName;
+			this.rank = rank;
+			this.offset = offset;
+		}
+	}
+}
@@ -77,6 +77,7 @@
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
@@ -146,6 +147,8 @@ public class ObjectDirectory extends FileObjectDatabase {
 
 	private Set<ObjectId> shallowCommitsIds;
 
+	private volatile CommitGraphFile commitGraph = CommitGraphFile.NONE;
+
 	/**
 	 * Initialize a reference to an on-disk object directory.
 	 *
@@ -337,7 +340,19 @@ boolean hasPackedObject(AnyObjectId objectId) {
 		PackList pList;
 		do {
 			pList = packList.get();
-			for (PackFile p : pList.packs) {
+			PackFile[] packs = pList.uncovered;
+			MultiPackIndex midx = pList.midx;
+			if (midx != null) {
+				int pos = midx.findPosition(objectId);
+				if (pos >= 0) {
+					PackFile p = pList.midxPacks[midx.getPackId(pos)];
+					if (p.hasObjectAt(midx.getOffset(pos)))
+						return true;
+					// The copy indexed is corrupt, look in all packs.
+					packs = pList.packs;
+				}
+			}
+			for (PackFile p : packs) {
 				try {
 					if (p.hasObject(objectId))
 						return true;
@@ -367,7 +382,12 @@ private void resolve(Set<ObjectId> matches, AbbreviatedObjectId id,
 		PackList pList;
 		do {
 			pList = packList.get();
-			for (PackFile p : pList.packs) {
+			if (pList.midx != null) {
+				pList.midx.resolve(matches, id, RESOLVE_ABBREV_LIMIT);
+				if (matches.size() > RESOLVE_ABBREV_LIMIT)
+					return;
+			}
+			for (PackFile p : pList.uncovered) {
 				try {
 					p.resolve(matches, id, RESOLVE_ABBREV_LIMIT);
 					p.resetTransientErrorCount();
@@ -466,7 +486,27 @@ ObjectLoader openPackedObject(WindowCursor curs, AnyObjectId objectId) {
 		do {
 			SEARCH: for (;;) {
 				pList = packList.get();
-				for (PackFile p : pList.packs) {
+				PackFile[] packs = pList.uncovered;
+				MultiPackIndex midx = pList.midx;
+				int pos = midx != null ? midx.findPosition(objectId) : -1;
+				if (pos >= 0) {
+					PackFile p = pList.midxPacks[midx.getPackId(pos)];
+					try {
+						ObjectLoader ldr = p.getAt(curs, midx.getOffset(pos));
+						p.resetTransientErrorCount();
+						if (ldr != null)
+							return ldr;
+					} catch (PackMismatchException e) {
+						// Pack was modified; refresh the entire pack list.
+						if (searchPacksAgain(pList))
+							continue SEARCH;
+					} catch (IOException e) {
+						handlePackError(e, p);
+					}
+					// The copy indexed is unreadable, look in all packs.
+					packs = pList.packs;
+				}
+				for (PackFile p : packs) {
 					try {
 						ObjectLoader ldr = p.get(curs, objectId);
 						p.resetTransientErrorCount();
@@ -559,7 +599,29 @@ private long getPackedObjectSize(WindowCursor curs, AnyObjectId id) {
 		do {
 			SEARCH: for (;;) {
 				pList = packList.get();
-				for (PackFile p : pList.packs) {
+				PackFile[] packs = pList.uncovered;
+				MultiPackIndex midx = pList.midx;
+				int pos = midx != null ? midx.findPosition(id) : -1;
+				if (pos >= 0) {
+					PackFile p = pList.midxPacks[midx.getPackId(pos)];
+					long ofs = midx.getOffset(pos);
+					try {
+						if (p.hasObjectAt(ofs)) {
+							long len = p.getObjectSize(curs, ofs);
+							p.resetTransientErrorCount();
+							return len;
+						}
+					} catch (PackMismatchException e) {
+						// Pack was modified; refresh the entire pack list.
+						if (searchPacksAgain(pList))
+							continue SEARCH;
+					} catch (IOException e) {
+						handlePackError(e, p);
+					}
+					// The copy indexed is unreadable, look in all packs.
+					packs = pList.packs;
+				}
+				for (PackFile p : packs) {
 					try {
 						long len = p.getObjectSize(curs, id);
 						p.resetTransientErrorCount();
@@ -802,6 +864,31 @@ Set<ObjectId> getShallowCommits() throws IOException {
 		return shallowCommitsIds;
 	}
 
+	@Override
+	CommitGraph getCommitGraph() {
+		if (!config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, false))
+			return null;
+
+		File file = new File(infoDirectory, CommitGraphV1.FILE_NAME);
+		CommitGraphFile o = commitGraph;
+		if (!o.snapshot.isModified(file))
+			return o.graph;
+
+		FileSnapshot snapshot = FileSnapshot.save(file);
+		CommitGraph graph;
+		try {
+			graph = CommitGraphV1.open(file, WindowCache.isPackedIndexMMAP());
+		} catch (FileNotFoundException notFound) {
+			graph = null;
+		} catch (IOException e) {
+			LOG.warn(e.getMessage(), e);
+			graph = null;
+		}
+		commitGraph = new CommitGraphFile(graph, snapshot);
+		return graph;
+	}
+
 	private void insertPack(final PackFile pf) {
 		PackList o, n;
 		do {
@@ -823,7 +910,7 @@ private void insertPack(final PackFile pf) {
 			final PackFile[] newList = new PackFile[1 + oldList.length];
 			newList[0] = pf;
 			System.arraycopy(oldList, 0, newList, 1, oldList.length);
-			n = new PackList(o.snapshot, newList);
+			n = o.withPacks(newList);
 		} while (!packList.compareAndSet(o, n));
 	}
 
@@ -840,7 +927,7 @@ private void removePack(final PackFile deadPack) {
 			final PackFile[] newList = new PackFile[oldList.length - 1];
 			System.arraycopy(oldList, 0, newList, 0, j);
 			System.arraycopy(oldList, j + 1, newList, j, newList.length - j);
-			n = new PackList(o.snapshot, newList);
+			n = o.withPacks(newList);
 		} while (!packList.compareAndSet(o, n));
 		deadPack.close();
 	}
@@ -916,7 +1003,8 @@ private PackList scanPacksImpl(final PackList old) {
 		// the same as the set we were given. Instead of building a new object
 		// return the same collection.
 		//
-		if (!foundNew && forReuse.isEmpty() && snapshot.equals(old.snapshot)) {
+		if (!foundNew && forReuse.isEmpty() && snapshot.equals(old.snapshot)
+				&& !isMultiPackIndexModified(old)) {
 			old.snapshot.setClean(snapshot);
 			return old;
 		}
@@ -930,7 +1018,73 @@ private PackList scanPacksImpl(final PackList old) {
 
 		final PackFile[] r = list.toArray(new PackFile[list.size()]);
 		Arrays.sort(r, PackFile.SORT);
-		return new PackList(snapshot, r);
+		return openMultiPackIndex(old, snapshot, r);
+	}
+
+	private boolean useMultiPackIndex() {
+		return config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false);
+	}
+
+	private boolean isMultiPackIndexModified(PackList old) {
+		if (!useMultiPackIndex())
+			return old.midx != null;
+		return old.midxSnapshot == null || old.midxSnapshot.isModified(
+				new File(packDirectory, MultiPackIndex.FILE_NAME));
+	}
+
+	private PackList openMultiPackIndex(PackList old, FileSnapshot snapshot,
+			PackFile[] packs) {
+		if (!useMultiPackIndex())
+			return new PackList(snapshot, packs);
+
+		File file = new File(packDirectory, MultiPackIndex.FILE_NAME);
+		MultiPackIndex midx;
+		FileSnapshot midxSnapshot;
+		if (old.midx != null && !old.midxSnapshot.isModified(file)) {
+			midx = old.midx;
+			midxSnapshot = old.midxSnapshot;
+		} else {
+			midxSnapshot = FileSnapshot.save(file);
+			try {
+				midx = MultiPackIndex.open(file,
+						WindowCache.isPackedIndexMMAP());
+			} catch (FileNotFoundException notFound) {
+				return new PackList(snapshot, packs, null, midxSnapshot,
+						null);
+			} catch (IOException e) {
+				LOG.warn(e.getMessage(), e);
+				return new PackList(snapshot, packs, null, midxSnapshot,
+						null);
+			}
+		}
+
+		// The index is only used while all packs it covers are present.
+		Map<String, PackFile> byIndexName = new HashMap<>();
+		for (PackFile p : packs) {
+			String packName = p.getPackFile().getName();
+			String base = packName.substring(0,
+					packName.length() - PACK.getExtension().length());
+			byIndexName.put(base + INDEX.getExtension(), p);
+		}
+		List<String> names = midx.getPackNames();
+		PackFile[] midxPacks = new PackFile[names.size()];
+		for (int i = 0; i < midxPacks.length; i++) {
+			midxPacks[i] = byIndexName.get(names.get(i));
+			if (midxPacks[i] == null)
+				return new PackList(snapshot, packs, null, midxSnapshot,
+						null);
+		}
+		return new PackList(snapshot, packs, midx, midxSnapshot, midxPacks);
+	}
+
+	/**
+	 * @return the multi-pack index of the packs of this directory, or null if
+	 *         there is none or it is out of date. Only read if
+	 *         {@code core.multiPackIndex} is set.
+	 */
+	MultiPackIndex getMultiPackIndex() {
+		return scanPacks(packList.get()).midx;
 	}
 
 	private static Map<String, PackFile> reuseMap(final PackList old) {
@@ -1049,6 +1203,20 @@ public File fileFor(AnyObjectId objectId) {
 		return new File(new File(getDirectory(), d), f);
 	}
 
+	private static final class CommitGraphFile {
+		static final CommitGraphFile NONE = new CommitGraphFile(null,
+				FileSnapshot.DIRTY);
+
+		final CommitGraph graph;
+
+		final FileSnapshot snapshot;
+
+		CommitGraphFile(CommitGraph graph, FileSnapshot snapshot) {
+			this.graph = graph;
+			this.snapshot = snapshot;
+		}
+	}
+
 	private static final class PackList {
 		/** State just before reading the pack directory. */
 		final FileSnapshot snapshot;
@@ -1056,9 +1224,56 @@ private static final class PackList {
 		/** All known packs, sorted by {@link PackFile#SORT}. */
 		final PackFile[] packs;
 
+		/** Index of the objects of several packs, or null. */
+		final MultiPackIndex midx;
+
+		/** State of the multi-pack index file when it was last read. */
+		final FileSnapshot midxSnapshot;
+
+		/** Packs covered by {@link #midx}, by their id in the index. */
+		final PackFile[] midxPacks;
+
+		/** Packs not covered by {@link #midx}, sorted as {@link #packs}. */
+		final PackFile[] uncovered;
+
 		PackList(final FileSnapshot monitor, final PackFile[] packs) {
+			this(monitor, packs, null, null, null);
+		}
+
+		PackList(FileSnapshot monitor, PackFile[] packs, MultiPackIndex midx,
+				FileSnapshot midxSnapshot, PackFile[] midxPacks) {
 			this.snapshot = monitor;
 			this.packs = packs;
+			this.midx = midx;
+			this.midxSnapshot = midxSnapshot;
+			this.midxPacks = midxPacks;
+			if (midx == null) {
+				this.uncovered = packs;
+			} else {
+				List<PackFile> rest = new ArrayList<>();
+				for (PackFile p : packs) {
+					if (indexOf(midxPacks, p) < 0)
+						rest.add(p);
+				}
+				this.uncovered = rest.toArray(new PackFile[rest.size()]);
+			}
+		}
+
+		/**
+		 * @param packList
+		 *            packs replacing those of this list.
+		 * @return a list of the packs, keeping the multi-pack index if all
+		 *         packs it covers are still present.
+		 */
+		PackList withPacks(PackFile[] packList) {
+			if (midx != null) {
+				for (PackFile p : midxPacks) {
+					if (indexOf(packList, p) < 0)
+						return new PackList(snapshot, packList);
+				}
+			}
+			return new PackList(snapshot, packList, midx, midxSnapshot,
+					midxPacks);
 		}
 	}
 
@@ -180,7 +180,8 @@ private synchronized PackIndex idx() throws IOException {
 				throw new PackInvalidException(packFile);
 
 			try {
-				final PackIndex idx = PackIndex.open(extFile(INDEX));
+				final PackIndex idx = PackIndex.open(extFile(INDEX),
+						WindowCache.isPackedIndexMMAP());
 
 				if (packChecksum == null) {
 					packChecksum = idx.packChecksum;
@@ -275,6 +276,34 @@ ObjectLoader get(final WindowCursor curs, final AnyObjectId id)
 		return 0 < offset && !isCorrupt(offset) ? load(curs, offset) : null;
 	}
 
+	/**
+	 * Get an object from this pack by its offset, as found in a
+	 * {@link MultiPackIndex}.
+	 *
+	 * @param curs
+	 *            temporary working space associated with the calling thread.
+	 * @param offset
+	 *            offset of the object in the pack.
+	 * @return the object loader, or null if the object at the offset is known
+	 *         to be corrupt.
+	 * @throws IOException
+	 *             the pack file could not be read.
+	 */
+	ObjectLoader getAt(final WindowCursor curs, final long offset)
+			throws IOException {
+		return hasObjectAt(offset) ? load(curs, offset) : null;
+	}
+
+	/**
+	 * @param offset
+	 *            offset of an object in the pack.
+	 * @return true if the object at the offset can be read; false if it is
+	 *         known to be corrupt.
+	 */
+	boolean hasObjectAt(final long offset) {
+		return 0 < offset && !isCorrupt(offset);
+	}
+
 	void resolve(Set<ObjectId> matches, AbbreviatedObjectId id, int matchLimit)
 			throws IOException {
 		idx().resolve(matches, id, matchLimit);
@@ -94,6 +94,49 @@
 	 *             unrecognized data version, or unexpected data corruption.
 	 */
 	public static PackIndex open(final File idxFile) throws IOException {
+		return open(idxFile, false);
+	}
+
+	/**
+	 * Open an existing pack <code>.idx</code> file for reading.
+	 * <p>
+	 * The format of the file will be automatically detected and a proper access
+	 * implementation for that format will be constructed and returned to the
+	 * caller.
+	 * </p>
+	 *
+	 * @param idxFile
+	 *            existing pack .idx to read.
+	 * @param mmap
+	 *            if true, a version 2 index is memory mapped and read in place
+	 *            instead of being copied onto the heap. Other versions, and
+	 *            files too large to be mapped, are still read into memory.
+	 * @return access implementation for the requested file.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read due to security errors,
+	 *             unrecognized data version, or unexpected data corruption.
+	 * @since 4.10
+	 */
+	public static PackIndex open(final File idxFile, boolean mmap)
+			throws IOException {
+		if (mmap) {
+			try {
+				PackIndex idx = PackIndexV2Mapped.map(idxFile);
+				if (idx != null)
+					return idx;
+			} catch (FileNotFoundException notFound) {
+				throw notFound;
+			} catch (IOException ioe) {
+				final String path = idxFile.getAbsolutePath();
+				final IOException err;
+				err = new IOException(MessageFormat.format(JGitText.get().unreadablePackIndex, path));
+				err.initCause(ioe);
+				throw err;
+			}
+		}
+
 		final FileInputStream fd = new FileInputStream(idxFile);
 		try {
 			return read(fd);
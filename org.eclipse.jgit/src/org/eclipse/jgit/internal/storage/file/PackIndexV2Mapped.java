@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Pack index v2 served from a memory mapped file.
+ * <p>
+ * Unlike {@link PackIndexV2} nothing is copied onto the heap except the
+ * fan-out table; object names, CRCs and offsets are read from the mapping
+ * on each lookup. The operating system pages the file in and out as
+ * needed, so the heap does not grow with the number of objects in the open
+ * packs.
+ * <p>
+ * Only absolute reads of the buffer are used, so the index may be shared by
+ * threads without locking.
+ */
+class PackIndexV2Mapped extends PackIndex {
+	private static final long IS_O64 = 1L << 31;
+
+	private static final int FANOUT = 256;
+
+	private static final int HEADER = 8;
+
+	/** Position of the object names, after the header and fan-out. */
+	private static final int NAMES = HEADER + 4 * FANOUT;
+
+	/**
+	 * Map an index file.
+	 *
+	 * @param idxFile
+	 *            index to map.
+	 * @return the mapped index, or null if the file is not a v2 index or is
+	 *         too large to be mapped as one buffer.
+	 * @throws IOException
+	 *             the file cannot be read or is corrupt.
+	 */
+	static PackIndexV2Mapped map(File idxFile) throws IOException {
+		try (FileInputStream in = new FileInputStream(idxFile);
+				FileChannel fc = in.getChannel()) {
+			long size = fc.size();
+			if (size > Integer.MAX_VALUE)
+				return null;
+			MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, 0, size);
+			for (int i = 0; i < PackIndexWriter.TOC.length; i++) {
+				if (size <= i || buf.get(i) != PackIndexWriter.TOC[i])
+					return null;
+			}
+			if (size < NAMES)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			if (buf.getInt(4) != 2)
+				return null;
+			return new PackIndexV2Mapped(buf);
+		}
+	}
+
+	private final MappedByteBuffer buf;
+
+	/** Number of objects before each bucket ends. */
+	private final int[] fanoutTable;
+
+	private final int objectCnt;
+
+	private final int crcPos;
+
+	private final int offset32Pos;
+
+	private final int offset64Pos;
+
+	private final int offset64Cnt;
+
+	private PackIndexV2Mapped(MappedByteBuffer buf) throws IOException {
+		this.buf = buf;
+		int size = buf.capacity();
+		if (size < NAMES + 2 * Constants.OBJECT_ID_LENGTH)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+
+		fanoutTable = new int[FANOUT];
+		long prev = 0;
+		for (int k = 0; k < FANOUT; k++) {
+			long cnt = buf.getInt(HEADER + 4 * k) & 0xffffffffL;
+			if (cnt < prev)
+				throw new IOException(MessageFormat.format(
+						JGitText.get().indexFileCorruptedNegativeBucketCount,
+						Long.valueOf(cnt - prev)));
+			if (cnt > size / (Constants.OBJECT_ID_LENGTH + 8))
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			fanoutTable[k] = (int) cnt;
+			prev = cnt;
+		}
+		objectCnt = fanoutTable[FANOUT - 1];
+
+		crcPos = NAMES + objectCnt * Constants.OBJECT_ID_LENGTH;
+		offset32Pos = crcPos + objectCnt * 4;
+		offset64Pos = offset32Pos + objectCnt * 4;
+		int trailer = size - 2 * Constants.OBJECT_ID_LENGTH;
+		if (trailer < offset64Pos || (trailer - offset64Pos) % 8 != 0)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+		offset64Cnt = (trailer - offset64Pos) / 8;
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		for (int i = 0; i < packChecksum.length; i++)
+			packChecksum[i] = buf.get(trailer + i);
+	}
+
+	@Override
+	public long getObjectCount() {
+		return objectCnt;
+	}
+
+	@Override
+	public long getOffset64Count() {
+		return offset64Cnt;
+	}
+
+	@Override
+	public ObjectId getObjectId(long nthPosition) {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		readName((int) nthPosition, tmp);
+		return ObjectId.fromRaw(tmp);
+	}
+
+	@Override
+	long getOffset(long nthPosition) {
+		return offsetAt((int) nthPosition);
+	}
+
+	@Override
+	public long findOffset(AnyObjectId objId) {
+		int p = find(objId);
+		return p < 0 ? -1 : offsetAt(p);
+	}
+
+	@Override
+	public long findCRC32(AnyObjectId objId) throws MissingObjectException {
+		int p = find(objId);
+		if (p < 0)
+			throw new MissingObjectException(objId.copy(), "unknown"); //$NON-NLS-1$
+		return buf.getInt(crcPos + 4 * p) & 0xffffffffL;
+	}
+
+	@Override
+	public boolean hasCRC32Support() {
+		return true;
+	}
+
+	@Override
+	public Iterator<MutableEntry> iterator() {
+		return new EntriesIteratorMapped();
+	}
+
+	@Override
+	public void resolve(Set<ObjectId> matches, AbbreviatedObjectId id,
+			int matchLimit) throws IOException {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		int levelOne = id.getFirstByte();
+		int low = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		int max = fanoutTable[levelOne];
+		int high = max;
+		while (low < high) {
+			int p = (low + high) >>> 1;
+			readName(p, tmp);
+			int cmp = id.prefixCompare(tmp, 0);
+			if (cmp < 0)
+				high = p;
+			else if (cmp == 0) {
+				// We may have landed in the middle of the matches.  Move
+				// backwards to the start of matches, then walk forwards.
+				//
+				int first = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+				while (first < p) {
+					readName(p - 1, tmp);
+					if (id.prefixCompare(tmp, 0) != 0)
+						break;
+					p--;
+				}
+				for (; p < max; p++) {
+					readName(p, tmp);
+					if (id.prefixCompare(tmp, 0) != 0)
+						break;
+					matches.add(ObjectId.fromRaw(tmp));
+					if (matches.size() > matchLimit)
+						break;
+				}
+				return;
+			} else
+				low = p + 1;
+		}
+	}
+
+	/** @return position of the object in the index, or -1. */
+	private int find(AnyObjectId objId) {
+		int[] tmp = new int[Constants.OBJECT_ID_LENGTH / 4];
+		int levelOne = objId.getFirstByte();
+		int low = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		int high = fanoutTable[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			readName(mid, tmp);
+			int cmp = objId.compareTo(tmp, 0);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	private void readName(int p, int[] dst) {
+		int pos = NAMES + p * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < dst.length; i++)
+			dst[i] = buf.getInt(pos + 4 * i);
+	}
+
+	private long offsetAt(int p) {
+		long ofs = buf.getInt(offset32Pos + 4 * p) & 0xffffffffL;
+		if ((ofs & IS_O64) != 0)
+			return buf.getLong(offset64Pos + 8 * (int) (ofs & ~IS_O64));
+		return ofs;
+	}
+
+	private class EntriesIteratorMapped extends EntriesIterator {
+		final int[] name = new int[Constants.OBJECT_ID_LENGTH / 4];
+
+		int position;
+
+		@Override
+		protected MutableEntry initEntry() {
+			return new MutableEntry() {
+				@Override
+				protected void ensureId() {
+					readName(position - 1, name);
+					idBuffer.fromRaw(name);
+				}
+			};
+		}
+
+		@Override
+		public MutableEntry next() {
+			if (position >= objectCnt)
+				throw new NoSuchElementException();
+			entry.offset = offsetAt(position);
+			position++;
+			returnedNumber++;
+			return entry;
+		}
+	}
+}
@@ -136,6 +136,8 @@ private static final int bits(int newSize) {
 
 	private static volatile int streamFileThreshold;
 
+	private static volatile boolean packedIndexMMAP;
+
 	static {
 		reconfigure(new WindowCacheConfig());
 	}
@@ -162,6 +164,7 @@ public static void reconfigure(final WindowCacheConfig cfg) {
 			oc.removeAll();
 		cache = nc;
 		streamFileThreshold = cfg.getStreamFileThreshold();
+		packedIndexMMAP = cfg.isPackedIndexMMAP();
 		DeltaBaseCache.reconfigure(cfg);
 	}
 
@@ -169,6 +172,10 @@ static int getStreamFileThreshold() {
 		return streamFileThreshold;
 	}
 
+	static boolean isPackedIndexMMAP() {
+		return packedIndexMMAP;
+	}
+
 	static WindowCache getInstance() {
 		return cache;
 	}
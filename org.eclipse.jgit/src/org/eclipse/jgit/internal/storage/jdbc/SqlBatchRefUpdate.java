@@ -0,0 +1,221 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.LOCK_FAILURE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.NOT_ATTEMPTED;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_MISSING_OBJECT;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_NONFASTFORWARD;
+
+/**
+ * Applies all commands of a batch in one transaction of a
+ * {@link SqlRepository}.
+ * <p>
+ * Creates, updates and deletes each run as one JDBC batch, so a batch costs
+ * three round trips however many refs it changes. Every row compares the
+ * stored value of its ref with the expected old value; a command whose ref
+ * changed fails with {@code LOCK_FAILURE}. If the batch is atomic, any
+ * failure rolls back the transaction and aborts all commands.
+ */
+public class SqlBatchRefUpdate extends BatchRefUpdate {
+	private final SqlRefDatabase database;
+
+	SqlBatchRefUpdate(SqlRefDatabase database) {
+		super(database);
+		this.database = database;
+	}
+
+	@Override
+	public void execute(RevWalk walk, ProgressMonitor monitor, List<String> options) throws IOException {
+		List<ReceiveCommand> pending = ReceiveCommand.filter(getCommands(), NOT_ATTEMPTED);
+		if (pending.isEmpty()) {
+			return;
+		}
+		if (options != null) {
+			setPushOptions(options);
+		}
+
+		pending = check(walk, pending);
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		SqlRepository repository = database.getRepository();
+		try (SqlConnectionLease lease = repository.lease()) {
+			Connection connection = lease.getConnection();
+			boolean autoCommit = connection.getAutoCommit();
+			if (autoCommit) {
+				connection.setAutoCommit(false);
+			}
+			try {
+				List<ReceiveCommand> failed = apply(repository, pending);
+				if (isAtomic() && !failed.isEmpty()) {
+					connection.rollback();
+					for (ReceiveCommand cmd : failed) {
+						cmd.setResult(LOCK_FAILURE);
+					}
+					ReceiveCommand.abort(pending);
+					return;
+				}
+
+				if (failed.size() < pending.size()) {
+					database.changed();
+				}
+				connection.commit();
+				for (ReceiveCommand cmd : pending) {
+					cmd.setResult(failed.contains(cmd) ? LOCK_FAILURE : OK);
+				}
+			} catch (SQLException | RuntimeException e) {
+				lease.abort(e);
+				throw e;
+			} finally {
+				if (autoCommit) {
+					connection.setAutoCommit(true);
+				}
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Reject commands to missing objects and, unless allowed, non
+	 * fast-forward updates.
+	 *
+	 * @return the commands to apply, empty if an atomic batch was aborted.
+	 */
+	private List<ReceiveCommand> check(RevWalk walk, List<ReceiveCommand> commands) throws IOException {
+		List<ReceiveCommand> accepted = new ArrayList<>(commands.size());
+		for (ReceiveCommand cmd : commands) {
+			ReceiveCommand.Result rejection = null;
+			if (!cmd.getNewId().equals(ObjectId.zeroId())) {
+				try {
+					walk.parseAny(cmd.getNewId());
+				} catch (MissingObjectException e) {
+					rejection = REJECTED_MISSING_OBJECT;
+				}
+			}
+			if (rejection == null && !isAllowNonFastForwards()) {
+				cmd.updateType(walk);
+				if (cmd.getType() == ReceiveCommand.Type.UPDATE_NONFASTFORWARD) {
+					rejection = REJECTED_NONFASTFORWARD;
+				}
+			}
+
+			if (rejection == null) {
+				accepted.add(cmd);
+				continue;
+			}
+			cmd.setResult(rejection);
+			if (isAtomic()) {
+				ReceiveCommand.abort(commands);
+				return new ArrayList<>();
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * @return the commands whose ref did not have the expected value.
+	 */
+	private static List<ReceiveCommand> apply(SqlRepository repository, List<ReceiveCommand> commands)
+		throws SQLException {
+		SqlDriverAdapter adapter = repository.getAdapter();
+		List<ReceiveCommand> deletes = new ArrayList<>();
+		List<ReceiveCommand> updates = new ArrayList<>();
+		List<ReceiveCommand> creates = new ArrayList<>();
+		for (ReceiveCommand cmd : commands) {
+			if (cmd.getType() == ReceiveCommand.Type.DELETE) {
+				deletes.add(cmd);
+			} else if (cmd.getType() == ReceiveCommand.Type.CREATE) {
+				creates.add(cmd);
+			} else if (!cmd.getOldId().equals(cmd.getNewId())) {
+				updates.add(cmd);
+			}
+		}
+
+		List<ReceiveCommand> failed = new ArrayList<>();
+		if (!deletes.isEmpty()) {
+			PreparedStatement statement = adapter.createDeleteRefBatch();
+			for (ReceiveCommand cmd : deletes) {
+				adapter.createDeleteRefBatch(statement, cmd.getRefName(), cmd.getOldId());
+			}
+			execute(repository, statement, deletes, failed);
+		}
+		if (!updates.isEmpty()) {
+			PreparedStatement statement = adapter.createUpdateRefBatch();
+			for (ReceiveCommand cmd : updates) {
+				adapter.createUpdateRefBatch(statement, cmd.getRefName(), cmd.getOldId(), cmd.getNewId());
+			}
+			execute(repository, statement, updates, failed);
+		}
+		if (!creates.isEmpty()) {
+			PreparedStatement statement = adapter.createInsertRefBatch();
+			for (ReceiveCommand cmd : creates) {
+				adapter.createInsertRefBatch(statement, cmd.getRefName(), cmd.getNewId());
+			}
+			execute(repository, statement, creates, failed);
+		}
+		return failed;
+	}
+
+	private static void execute(
+		SqlRepository repository,
+		PreparedStatement statement,
+		List<ReceiveCommand> commands,
+		List<ReceiveCommand> failed
+	) throws SQLException {
+		int[] counts;
+		try {
+			counts = statement.executeBatch();
+		} finally {
+			statement.close();
+		}
+
+		for (int i = 0; i < commands.size(); i++) {
+			ReceiveCommand cmd = commands.get(i);
+			boolean applied;
+			if (i < counts.length && counts[i] != Statement.SUCCESS_NO_INFO) {
+				applied = counts[i] == 1;
+			} else {
+				// Some drivers do not report row counts of batches.
+				applied = isApplied(repository, cmd);
+			}
+			if (!applied) {
+				failed.add(cmd);
+			}
+		}
+	}
+
+	private static boolean isApplied(SqlRepository repository, ReceiveCommand cmd) throws SQLException {
+		// Read the row itself, the cached refs do not include this batch.
+		SqlDriverAdapter adapter = repository.getAdapter();
+		PreparedStatement statement = adapter.createReadRef(cmd.getRefName());
+		try (ResultSet results = statement.executeQuery()) {
+			if (cmd.getType() == ReceiveCommand.Type.DELETE) {
+				return !results.next();
+			}
+			return results.next()
+				&& !results.getBoolean(adapter.getRefIsSymbolicColumn())
+				&& cmd.getNewId().equals(adapter.readRefObjectId(results));
+		} finally {
+			statement.close();
+		}
+	}
+}
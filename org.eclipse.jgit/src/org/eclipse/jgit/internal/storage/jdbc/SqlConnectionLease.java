@@ -0,0 +1,190 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A connection of a {@link SqlRepository} reserved for one thread.
+ * <p>
+ * Leases are reentrant: while a thread holds one, further calls to
+ * {@link SqlRepository#lease()} on that thread share its connection, so a
+ * reader, an inserter and a ref update used together see the same
+ * transaction. The connection goes back to the
+ * {@link SqlConnectionProvider} when the last of them is closed, after
+ * committing any pending work. Work that failed is rolled back with
+ * {@link #abort(Throwable)} instead.
+ * <p>
+ * Prepared statements come from the {@link SqlStatementCache} of the
+ * connection, which outlives the lease.
+ * <p>
+ * A lease leaves its thread when its last use is closed, possibly by
+ * another thread, for example one closing a stream. From then on it cannot
+ * be retained anymore, and the thread gets a new lease.
+ */
+public final class SqlConnectionLease implements AutoCloseable {
+	private final SqlRepository repo;
+
+	private final Thread owner;
+
+	private final Connection connection;
+
+	private final SqlStatementCache statements;
+
+	private int useCount = 1;
+
+	/** Set when work failed while other uses of the lease remain. */
+	private boolean rollbackOnly;
+
+	SqlConnectionLease(SqlRepository repo, Thread owner, SqlStatementCache statements) {
+		this.repo = repo;
+		this.owner = owner;
+		this.connection = statements.getConnection();
+		this.statements = statements;
+	}
+
+	Thread getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Add a use of the lease.
+	 *
+	 * @return false if the last use was already closed; the lease must not
+	 *         be used anymore.
+	 */
+	synchronized boolean retain() {
+		if (useCount == 0) {
+			return false;
+		}
+		useCount++;
+		return true;
+	}
+
+	/** @return the leased connection. */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Prepare a statement on the leased connection, reusing a cached one if
+	 * it is not in use.
+	 *
+	 * @param sql
+	 *            statement text.
+	 * @return statement. Closing it returns it to the cache.
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return prepareStatement(sql, false);
+	}
+
+	/**
+	 * Prepare a statement like {@link #prepareStatement(String)}.
+	 *
+	 * @param holdLease
+	 *            if true the statement holds a use of the lease, released
+	 *            when the statement is closed.
+	 */
+	PreparedStatement prepareStatement(String sql, boolean holdLease) throws SQLException {
+		return statements.prepareStatement(sql, holdLease ? this : null);
+	}
+
+	/**
+	 * Commit pending work of the connection, unless it is in auto-commit
+	 * mode.
+	 *
+	 * @throws SQLException
+	 *             the commit failed, or work sharing the transaction was
+	 *             aborted.
+	 */
+	public void commit() throws SQLException {
+		synchronized (this) {
+			if (rollbackOnly) {
+				throw new SQLException("Transaction was rolled back after a failure");
+			}
+		}
+		if (!connection.getAutoCommit()) {
+			connection.commit();
+		}
+	}
+
+	/**
+	 * Roll back pending work of the connection after work done with this use
+	 * of the lease failed, unless the connection is in auto-commit mode.
+	 * <p>
+	 * The transaction is shared by all uses of the lease. While other uses
+	 * remain, their pending work is lost as well: {@link #commit()} fails,
+	 * and the last {@link #close()} rolls back instead of committing.
+	 *
+	 * @param failure
+	 *            the failure of the work. Errors of the rollback are added
+	 *            to it as suppressed exceptions.
+	 */
+	public void abort(Throwable failure) {
+		try {
+			if (connection.getAutoCommit()) {
+				return;
+			}
+			synchronized (this) {
+				if (useCount > 1) {
+					rollbackOnly = true;
+				}
+			}
+			connection.rollback();
+		} catch (SQLException e) {
+			failure.addSuppressed(e);
+		}
+	}
+
+	/**
+	 * Release this use of the lease. The last release commits, or rolls back
+	 * if work was aborted, and returns the connection to the provider.
+	 */
+	@Override
+	public void close() {
+		boolean commit;
+		synchronized (this) {
+			if (useCount == 0 || --useCount > 0) {
+				return;
+			}
+			commit = !rollbackOnly;
+			rollbackOnly = false;
+			// Leave the thread while no use can be added, see retain().
+			repo.forget(this);
+		}
+
+		try {
+			endTransaction(commit);
+		} finally {
+			repo.release(this);
+		}
+	}
+
+	/**
+	 * Commit or roll back pending work before the connection is released.
+	 * A connection whose commit failed is rolled back, so it does not go
+	 * back to the provider with its transaction still open.
+	 */
+	private void endTransaction(boolean commit) {
+		try {
+			if (connection.getAutoCommit()) {
+				return;
+			}
+			if (commit) {
+				connection.commit();
+			} else {
+				connection.rollback();
+			}
+		} catch (SQLException e) {
+			if (commit) {
+				try {
+					connection.rollback();
+				} catch (SQLException rollbackError) {
+					e.addSuppressed(rollbackError);
+				}
+			}
+			throw new RuntimeException(e);
+		}
+	}
+}
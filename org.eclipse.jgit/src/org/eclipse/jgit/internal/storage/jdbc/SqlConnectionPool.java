@@ -0,0 +1,162 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of JDBC connections.
+ * <p>
+ * At most {@code maxConnections} connections are open at any time. Idle
+ * connections are kept for reuse; callers wait up to the configured timeout
+ * for a connection when all of them are in use. As every thread leases its
+ * own connection, the pool should be larger than the number of threads a
+ * single request may use, such as the delta search threads of
+ * {@code PackWriter}.
+ */
+public class SqlConnectionPool implements SqlConnectionProvider {
+	/** Opens the physical connections of a pool. */
+	public interface ConnectionFactory {
+		/**
+		 * @return a new connection.
+		 * @throws SQLException
+		 */
+		Connection open() throws SQLException;
+	}
+
+	private final ConnectionFactory factory;
+
+	private final Semaphore permits;
+
+	private final long timeoutMillis;
+
+	private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+
+	private boolean closed;
+
+	/**
+	 * Create a pool opening connections with {@link DriverManager}.
+	 *
+	 * @param url
+	 *            JDBC URL of the database.
+	 * @param info
+	 *            connection properties, such as user and password.
+	 * @param maxConnections
+	 *            most connections open at the same time.
+	 * @param timeoutMillis
+	 *            longest time to wait for a connection.
+	 */
+	public SqlConnectionPool(
+		final String url,
+		final Properties info,
+		int maxConnections,
+		long timeoutMillis
+	) {
+		this(new ConnectionFactory() {
+			@Override
+			public Connection open() throws SQLException {
+				return DriverManager.getConnection(url, info);
+			}
+		}, maxConnections, timeoutMillis);
+	}
+
+	/**
+	 * @param factory
+	 *            opens new connections.
+	 * @param maxConnections
+	 *            most connections open at the same time.
+	 * @param timeoutMillis
+	 *            longest time to wait for a connection.
+	 */
+	public SqlConnectionPool(ConnectionFactory factory, int maxConnections, long timeoutMillis) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections must be positive");
+		}
+		this.factory = factory;
+		this.permits = new Semaphore(maxConnections, true);
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	@Override
+	public Connection acquire() throws SQLException {
+		try {
+			if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out waiting for a pooled connection");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(e);
+		}
+
+		try {
+			for (;;) {
+				Connection connection;
+				synchronized (this) {
+					if (closed) {
+						throw new SQLException("Connection pool is closed");
+					}
+					connection = idle.pollLast();
+				}
+				if (connection == null) {
+					return factory.open();
+				}
+				if (!connection.isClosed()) {
+					return connection;
+				}
+			}
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void release(Connection connection) throws SQLException {
+		try {
+			boolean keep;
+			synchronized (this) {
+				keep = !closed && !connection.isClosed();
+				if (keep) {
+					idle.addLast(connection);
+				}
+			}
+			if (!keep) {
+				connection.close();
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		List<Connection> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<>(idle);
+			idle.clear();
+		}
+
+		SQLException error = null;
+		for (Connection connection : toClose) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				if (error == null) {
+					error = e;
+				} else {
+					error.setNextException(e);
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Source of the connections a {@link SqlRepository} runs its statements on.
+ * <p>
+ * Connections are acquired by {@link SqlRepository#lease()} and handed back
+ * with {@link #release(Connection)} once the last lease of a thread is
+ * closed. Implementations must be thread-safe.
+ */
+public interface SqlConnectionProvider {
+	/**
+	 * @return a connection for the exclusive use of the caller, until it is
+	 *         released.
+	 * @throws SQLException
+	 *             no connection could be obtained.
+	 */
+	Connection acquire() throws SQLException;
+
+	/**
+	 * Return a connection obtained from {@link #acquire()}.
+	 *
+	 * @param connection
+	 *            the connection.
+	 * @throws SQLException
+	 */
+	void release(Connection connection) throws SQLException;
+
+	/**
+	 * Release resources held by the provider. Called when the repository is
+	 * closed.
+	 *
+	 * @throws SQLException
+	 */
+	void close() throws SQLException;
+
+	/**
+	 * Share one connection between all threads.
+	 * <p>
+	 * Threads are not given exclusive use of the connection: blocking them
+	 * would deadlock callers such as {@code PackWriter}, whose worker
+	 * threads open readers while the calling thread holds its lease. Their
+	 * statements are serialized by the driver instead, and share one
+	 * transaction. Use {@link #forDataSource(DataSource)} or a
+	 * {@link SqlConnectionPool} to serve concurrent requests. The
+	 * connection is not closed by {@link #close()}, it remains owned by the
+	 * caller.
+	 *
+	 * @param connection
+	 *            the connection.
+	 * @return provider handing out {@code connection}.
+	 */
+	static SqlConnectionProvider forConnection(final Connection connection) {
+		return new SqlConnectionProvider() {
+			@Override
+			public Connection acquire() {
+				return connection;
+			}
+
+			@Override
+			public void release(Connection c) {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Obtain connections from a {@link DataSource}, typically backed by the
+	 * connection pool of an application server. Released connections are
+	 * closed, which returns them to that pool.
+	 *
+	 * @param dataSource
+	 *            the data source.
+	 * @return provider obtaining connections from {@code dataSource}.
+	 */
+	static SqlConnectionProvider forDataSource(final DataSource dataSource) {
+		return new SqlConnectionProvider() {
+			@Override
+			public Connection acquire() throws SQLException {
+				return dataSource.getConnection();
+			}
+
+			@Override
+			public void release(Connection connection) throws SQLException {
+				connection.close();
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+}
@@ -0,0 +1,55 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte limited LRU cache of inflated delta bases.
+ * <p>
+ * Shared by all readers of one {@link SqlObjectDatabase}, so a chain of
+ * deltas only needs to be resolved from the database once while its bases
+ * are still cached.
+ */
+class SqlDeltaBaseCache {
+	private final long maxBytes;
+
+	private final LinkedHashMap<ObjectId, byte[]> table;
+
+	private long curBytes;
+
+	SqlDeltaBaseCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.table = new LinkedHashMap<>(64, 0.75f, true);
+	}
+
+	synchronized byte[] get(AnyObjectId id) {
+		return table.get(id);
+	}
+
+	synchronized void put(AnyObjectId id, byte[] data) {
+		if (data.length > maxBytes) {
+			return;
+		}
+
+		byte[] old = table.put(id.copy(), data);
+		if (old != null) {
+			curBytes -= old.length;
+		}
+		curBytes += data.length;
+
+		Iterator<Map.Entry<ObjectId, byte[]>> i = table.entrySet().iterator();
+		while (curBytes > maxBytes && i.hasNext()) {
+			curBytes -= i.next().getValue().length;
+			i.remove();
+		}
+	}
+
+	synchronized void clear() {
+		table.clear();
+		curBytes = 0;
+	}
+}
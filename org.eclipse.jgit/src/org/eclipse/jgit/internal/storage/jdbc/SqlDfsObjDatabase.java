@@ -0,0 +1,211 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase;
+import org.eclipse.jgit.internal.storage.dfs.DfsOutputStream;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackDescription;
+import org.eclipse.jgit.internal.storage.dfs.DfsReaderOptions;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.ReadableChannel;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Object database of a {@link SqlDfsRepository}.
+ * <p>
+ * A new pack is recorded as uncommitted as soon as it is named, its files
+ * are written chunk by chunk, and {@link #commitPackImpl} flips the pack to
+ * committed and deletes the packs it replaces in a single transaction.
+ */
+public class SqlDfsObjDatabase extends DfsObjDatabase {
+	private final SqlRepository sql;
+
+	private final int chunkSize;
+
+	SqlDfsObjDatabase(SqlDfsRepository repo, DfsReaderOptions options, int chunkSize) {
+		super(repo, options);
+		this.sql = repo.getSqlRepository();
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	protected DfsPackDescription newPack(PackSource source) throws IOException {
+		String name = "pack-" + UUID.randomUUID() + "-" + source.name();
+		SqlPack pack = new SqlPack(getRepository().getDescription(), name);
+		pack.setPackSource(source);
+		pack.setLastModified(System.currentTimeMillis());
+
+		sql.withLease(() -> {
+			execute(sql.getAdapter().createInsertPack(name, source.name(), pack.getLastModified()));
+			return null;
+		});
+		return pack;
+	}
+
+	@Override
+	protected void commitPackImpl(
+		Collection<DfsPackDescription> desc,
+		Collection<DfsPackDescription> replace
+	) throws IOException {
+		SqlDriverAdapter adapter = sql.getAdapter();
+		try (SqlConnectionLease lease = sql.lease()) {
+			Connection connection = lease.getConnection();
+			boolean autoCommit = connection.getAutoCommit();
+			if (autoCommit) {
+				connection.setAutoCommit(false);
+			}
+			try {
+				for (DfsPackDescription d : desc) {
+					execute(adapter.createCommitPack(
+						((SqlPack) d).name,
+						d.getObjectCount(),
+						d.getDeltaCount(),
+						d.getIndexVersion(),
+						d.getMinUpdateIndex(),
+						d.getMaxUpdateIndex()
+					));
+				}
+				if (replace != null) {
+					for (DfsPackDescription d : replace) {
+						delete(((SqlPack) d).name);
+					}
+				}
+				connection.commit();
+			} catch (SQLException | RuntimeException e) {
+				lease.abort(e);
+				throw e;
+			} finally {
+				if (autoCommit) {
+					connection.setAutoCommit(true);
+				}
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	protected void rollbackPack(Collection<DfsPackDescription> desc) {
+		try (SqlConnectionLease lease = sql.lease()) {
+			for (DfsPackDescription d : desc) {
+				delete(((SqlPack) d).name);
+			}
+			lease.commit();
+		} catch (IOException | SQLException e) {
+			// Best effort, the caller is already handling a failure.
+			// Uncommitted packs are never listed.
+		}
+	}
+
+	private void delete(String name) throws SQLException {
+		execute(sql.getAdapter().createDeletePackChunks(name));
+		execute(sql.getAdapter().createDeletePackFiles(name));
+		execute(sql.getAdapter().createDeletePack(name));
+	}
+
+	@Override
+	protected List<DfsPackDescription> listPacks() throws IOException {
+		SqlDriverAdapter adapter = sql.getAdapter();
+		Map<String, SqlPack> packs = new LinkedHashMap<>();
+
+		sql.withLease(() -> {
+			PreparedStatement statement = adapter.createListPacks();
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					String name = results.getString(adapter.getPackNameColumn());
+					SqlPack pack = packs.get(name);
+					if (pack == null) {
+						pack = new SqlPack(getRepository().getDescription(), name);
+						pack.setPackSource(PackSource.valueOf(results.getString(adapter.getPackSourceColumn())));
+						pack.setLastModified(results.getLong(adapter.getPackLastModifiedColumn()));
+						pack.setObjectCount(results.getLong(adapter.getPackObjectCountColumn()));
+						pack.setDeltaCount(results.getLong(adapter.getPackDeltaCountColumn()));
+						pack.setIndexVersion(results.getInt(adapter.getPackIndexVersionColumn()));
+						pack.setMinUpdateIndex(results.getLong(adapter.getPackMinUpdateIndexColumn()));
+						pack.setMaxUpdateIndex(results.getLong(adapter.getPackMaxUpdateIndexColumn()));
+						packs.put(name, pack);
+					}
+
+					PackExt ext = findExt(results.getString(adapter.getPackFileExtColumn()));
+					if (ext != null) {
+						pack.addFileExt(ext);
+						pack.setFileSize(ext, results.getLong(adapter.getPackFileSizeColumn()));
+						pack.setBlockSize(ext, results.getInt(adapter.getPackFileChunkSizeColumn()));
+					}
+				}
+			} finally {
+				statement.close();
+			}
+			return null;
+		});
+		return new ArrayList<DfsPackDescription>(packs.values());
+	}
+
+	private static PackExt findExt(String extension) {
+		for (PackExt ext : PackExt.values()) {
+			if (ext.getExtension().equals(extension)) {
+				return ext;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected ReadableChannel openFile(DfsPackDescription desc, PackExt ext)
+		throws FileNotFoundException, IOException {
+		SqlPack pack = (SqlPack) desc;
+		if (pack.hasFileExt(ext)) {
+			return new SqlPackChannel(sql, pack.name, ext.getExtension(),
+				pack.getFileSize(ext), pack.getBlockSize(ext));
+		}
+
+		// Files of a pack that is not committed yet are not listed.
+		return sql.withLease(() -> {
+			PreparedStatement statement = sql.getAdapter().createReadPackFile(pack.name, ext.getExtension());
+			try (ResultSet results = statement.executeQuery()) {
+				if (!results.next()) {
+					throw new FileNotFoundException(desc.getFileName(ext));
+				}
+				return new SqlPackChannel(sql, pack.name, ext.getExtension(),
+					results.getLong(sql.getAdapter().getPackFileSizeColumn()),
+					results.getInt(sql.getAdapter().getPackFileChunkSizeColumn()));
+			} finally {
+				statement.close();
+			}
+		});
+	}
+
+	@Override
+	protected DfsOutputStream writeFile(DfsPackDescription desc, PackExt ext) throws IOException {
+		return new SqlPackOutputStream(sql, ((SqlPack) desc).name, ext.getExtension(), chunkSize);
+	}
+
+	private static void execute(PreparedStatement statement) throws SQLException {
+		try {
+			statement.executeUpdate();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static class SqlPack extends DfsPackDescription {
+		final String name;
+
+		SqlPack(DfsRepositoryDescription repoDesc, String name) {
+			super(repoDesc, name);
+			this.name = name;
+		}
+	}
+}
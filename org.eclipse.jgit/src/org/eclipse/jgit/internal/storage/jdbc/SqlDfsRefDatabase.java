@@ -0,0 +1,146 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRefDatabase;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.util.RefList;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Ref database of a {@link SqlDfsRepository}, kept in the refs table of the
+ * underlying {@link SqlRepository}.
+ * <p>
+ * All refs are scanned with one query; updates compare the stored value in
+ * the same statement that changes it, so concurrent writers on other
+ * connections cannot be overwritten.
+ */
+public class SqlDfsRefDatabase extends DfsRefDatabase {
+	private final SqlRepository sql;
+
+	SqlDfsRefDatabase(SqlDfsRepository repository) {
+		super(repository);
+		this.sql = repository.getSqlRepository();
+	}
+
+	@Override
+	protected RefCache scanAllRefs() throws IOException {
+		SqlDriverAdapter adapter = sql.getAdapter();
+		RefList.Builder<Ref> ids = new RefList.Builder<>();
+		RefList.Builder<Ref> sym = new RefList.Builder<>();
+
+		sql.withLease(() -> {
+			PreparedStatement statement = adapter.createListRefs();
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					String name = results.getString(adapter.getRefNameColumn());
+					Ref ref;
+					if (results.getBoolean(adapter.getRefIsSymbolicColumn())) {
+						ref = new SymbolicRef(name, new ObjectIdRef.Unpeeled(
+							Ref.Storage.NEW,
+							adapter.readRefLink(results),
+							null
+						));
+						sym.add(ref);
+					} else {
+						ref = new ObjectIdRef.Unpeeled(
+							Ref.Storage.PACKED,
+							name,
+							adapter.readRefObjectId(results)
+						);
+					}
+					ids.add(ref);
+				}
+			} finally {
+				statement.close();
+			}
+			return null;
+		});
+
+		ids.sort();
+		sym.sort();
+		getRepository().getObjectDatabase().getCurrentPackList().markDirty();
+		return new RefCache(ids.toRefList(), sym.toRefList());
+	}
+
+	@Override
+	protected boolean compareAndPut(Ref oldRef, Ref newRef) throws IOException {
+		SqlDriverAdapter adapter = sql.getAdapter();
+		return sql.withLease(() -> {
+			boolean updated;
+			if (oldRef == null || oldRef.getStorage() == Ref.Storage.NEW) {
+				updated = SqlRefDatabase.insertRef(
+					sql,
+					newRef.getName(),
+					newRef.isSymbolic(),
+					SqlRefDatabase.targetOf(newRef)
+				);
+			} else {
+				PreparedStatement statement = adapter.createCompareAndSetRef(
+					newRef.getName(),
+					oldRef.isSymbolic(),
+					SqlRefDatabase.targetOf(oldRef),
+					newRef.isSymbolic(),
+					SqlRefDatabase.targetOf(newRef)
+				);
+				try {
+					updated = statement.executeUpdate() == 1;
+				} finally {
+					statement.close();
+				}
+			}
+			if (updated) {
+				changed();
+			}
+			return Boolean.valueOf(updated);
+		}).booleanValue();
+	}
+
+	@Override
+	protected boolean compareAndRemove(Ref oldRef) throws IOException {
+		if (oldRef.getStorage() == Ref.Storage.NEW) {
+			return false;
+		}
+
+		return sql.withLease(() -> {
+			PreparedStatement statement = sql.getAdapter().createCompareAndDeleteRef(
+				oldRef.getName(),
+				oldRef.isSymbolic(),
+				SqlRefDatabase.targetOf(oldRef)
+			);
+			boolean removed;
+			try {
+				removed = statement.executeUpdate() == 1;
+			} finally {
+				statement.close();
+			}
+			if (removed) {
+				changed();
+			}
+			return Boolean.valueOf(removed);
+		}).booleanValue();
+	}
+
+	/**
+	 * Count the change in the refs version, in the transaction of the
+	 * change, and commit it. {@link SqlRefDatabase} serves its cached refs
+	 * until the version changes.
+	 */
+	private void changed() throws SQLException {
+		sql.getRefDatabase().changed();
+		sql.getCurrentLease().commit();
+	}
+
+	/**
+	 * Peeled values are not stored; persisting them would cost a write for
+	 * every ref peeled by a reader.
+	 */
+	@Override
+	protected void cachePeeledState(Ref oldLeaf, Ref newLeaf) {
+	}
+}
@@ -0,0 +1,178 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsReaderOptions;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryBuilder;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A {@link DfsRepository} keeping its pack files in SQL tables.
+ * <p>
+ * Pack, index, bitmap and reftable files are split into rows of a fixed
+ * chunk size, so the regular DFS read path applies: blocks are cached in
+ * the {@code DfsBlockCache}, {@code PackWriter} reuses stored deltas and
+ * bitmaps, and {@code DfsGarbageCollector} repacks the repository. The
+ * chunk size is the preferred block size of the files; by default it
+ * matches the default block size of the cache, so one block is read with
+ * one row.
+ * <p>
+ * Connections, the SQL dialect and the refs table are those of the
+ * {@link SqlRepository} the repository is built on.
+ */
+public class SqlDfsRepository extends DfsRepository {
+	/** Default size of the rows pack files are split into. */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	/** Builder for SQL backed DFS repositories. */
+	public static class Builder extends DfsRepositoryBuilder<Builder, SqlDfsRepository> {
+		private SqlRepository sqlRepository;
+
+		private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+		public SqlRepository getSqlRepository() {
+			return sqlRepository;
+		}
+
+		/**
+		 * @param repository
+		 *            repository providing connections, dialect and refs.
+		 * @return {@code this}
+		 */
+		public Builder setSqlRepository(SqlRepository repository) {
+			sqlRepository = repository;
+			return self();
+		}
+
+		public int getChunkSize() {
+			return chunkSize;
+		}
+
+		/**
+		 * @param size
+		 *            size of the rows newly written files are split into.
+		 *            Files keep the chunk size they were written with.
+		 * @return {@code this}
+		 */
+		public Builder setChunkSize(int size) {
+			if (size <= 0) {
+				throw new IllegalArgumentException("chunk size must be positive");
+			}
+			chunkSize = size;
+			return self();
+		}
+
+		/**
+		 * Set the defaults of the DFS options. Unlike
+		 * {@link DfsRepositoryBuilder#setup()} no git directory is
+		 * required, the files are rows.
+		 */
+		@Override
+		public Builder setup() {
+			if (getReaderOptions() == null) {
+				setReaderOptions(new DfsReaderOptions());
+			}
+			if (getRepositoryDescription() == null) {
+				setRepositoryDescription(new DfsRepositoryDescription());
+			}
+			return self();
+		}
+
+		@Override
+		public SqlDfsRepository build() throws IOException {
+			if (sqlRepository == null) {
+				throw new IllegalArgumentException("No SQL repository configured");
+			}
+			return new SqlDfsRepository(setup());
+		}
+	}
+
+	private final SqlRepository sql;
+
+	private final SqlDfsObjDatabase objdb;
+
+	private final SqlDfsRefDatabase refdb;
+
+	SqlDfsRepository(Builder builder) {
+		super(builder);
+		sql = builder.getSqlRepository();
+		objdb = new SqlDfsObjDatabase(this, builder.getReaderOptions(), builder.getChunkSize());
+		refdb = new SqlDfsRefDatabase(this);
+	}
+
+	public SqlRepository getSqlRepository() {
+		return sql;
+	}
+
+	@Override
+	public SqlDfsObjDatabase getObjectDatabase() {
+		return objdb;
+	}
+
+	@Override
+	public SqlDfsRefDatabase getRefDatabase() {
+		return refdb;
+	}
+
+	/**
+	 * Create the tables of the repository that do not exist yet, register
+	 * the repository, and point {@code HEAD} at {@code master}.
+	 */
+	@Override
+	public void create(boolean bare) throws IOException {
+		if (!bare) {
+			throw new IOException("Non-bare Git repositories are not supported.");
+		}
+
+		sql.withLease(() -> {
+			SqlConnectionLease lease = sql.getCurrentLease();
+			SqlDriverAdapter adapter = sql.getAdapter();
+			if (!adapter.checkRefsTableExists()) {
+				execute(adapter.createRefsTable());
+			}
+			if (!adapter.checkPacksTableExists()) {
+				execute(adapter.createPacksTable());
+				execute(adapter.createPackFilesTable());
+				execute(adapter.createPackChunksTable());
+			}
+			adapter.registerRepository();
+			if (!adapter.checkRefsVersionTableExists()) {
+				execute(adapter.createRefsVersionTable());
+			}
+			if (!isRefsVersionInitialized(adapter)) {
+				execute(adapter.createInitRefsVersion());
+			}
+			lease.commit();
+
+			super.create(bare);
+			lease.commit();
+			return null;
+		});
+	}
+
+	/**
+	 * @return whether the refs version of the repository exists, which
+	 *         {@link SqlRepository} readers cache refs by.
+	 */
+	private static boolean isRefsVersionInitialized(SqlDriverAdapter adapter) throws SQLException {
+		PreparedStatement statement = adapter.createReadRefsVersion();
+		try (ResultSet results = statement.executeQuery()) {
+			return results.next();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static void execute(PreparedStatement statement) throws SQLException {
+		try {
+			statement.execute();
+		} finally {
+			statement.close();
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte limited cache of small inflated objects, shared by all readers of one
+ * {@link SqlObjectDatabase}.
+ * <p>
+ * Walks read the same commits and trees over and over; with this cache only
+ * the first read of an object goes to the database. Objects never change,
+ * so entries are only removed to make room.
+ * <p>
+ * The cache is split into segments selected by object id, each a least
+ * recently used list guarded by its own lock, so concurrent readers rarely
+ * wait for each other. Every segment holds an equal share of the limit.
+ */
+public class SqlObjectCache {
+	/** Number of segments, a power of 2. */
+	private static final int SEGMENTS = 16;
+
+	/** Estimated bytes used by an entry in addition to its data. */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private final long maxBytes;
+
+	private final int maxObjectSize;
+
+	private final Segment[] segments;
+
+	private final AtomicLong statHit = new AtomicLong();
+
+	private final AtomicLong statMiss = new AtomicLong();
+
+	private final AtomicLong statEvict = new AtomicLong();
+
+	/**
+	 * @param maxBytes
+	 *            most bytes held by the cache, including an estimate of the
+	 *            overhead of each entry.
+	 * @param maxObjectSize
+	 *            largest object cached.
+	 */
+	SqlObjectCache(long maxBytes, int maxObjectSize) {
+		this.maxBytes = maxBytes;
+		this.maxObjectSize = maxObjectSize;
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(maxBytes / SEGMENTS);
+		}
+	}
+
+	private Segment segment(AnyObjectId id) {
+		return segments[id.hashCode() & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * @param id
+	 *            object to look up.
+	 * @return the object, or null if it is not cached.
+	 */
+	Entry get(AnyObjectId id) {
+		Entry e = segment(id).get(id);
+		if (e != null) {
+			statHit.incrementAndGet();
+		} else {
+			statMiss.incrementAndGet();
+		}
+		return e;
+	}
+
+	/**
+	 * Add an object, unless it is larger than the objects this cache holds.
+	 *
+	 * @param id
+	 *            id of the object.
+	 * @param type
+	 *            type of the object.
+	 * @param data
+	 *            inflated content of the object. Must not be modified later.
+	 */
+	void put(AnyObjectId id, int type, byte[] data) {
+		if (data.length > maxObjectSize) {
+			return;
+		}
+		segment(id).put(id.copy(), new Entry(type, data));
+	}
+
+	/** Remove all objects. */
+	public void clear() {
+		for (Segment s : segments) {
+			s.clear();
+		}
+	}
+
+	/** @return total number of bytes in the cache. */
+	public long getCurrentSize() {
+		long size = 0;
+		for (Segment s : segments) {
+			size += s.getCurrentSize();
+		}
+		return size;
+	}
+
+	/** @return 0..100, defining how full the cache is. */
+	public long getFillPercentage() {
+		if (maxBytes <= 0) {
+			return 0;
+		}
+		return getCurrentSize() * 100 / maxBytes;
+	}
+
+	/** @return number of requests for objects in the cache. */
+	public long getHitCount() {
+		return statHit.get();
+	}
+
+	/** @return number of requests for objects not in the cache. */
+	public long getMissCount() {
+		return statMiss.get();
+	}
+
+	/** @return total number of requests (hit + miss). */
+	public long getTotalRequestCount() {
+		return getHitCount() + getMissCount();
+	}
+
+	/** @return 0..100, defining number of cache hits. */
+	public long getHitRatio() {
+		long hits = statHit.get();
+		long miss = statMiss.get();
+		long total = hits + miss;
+		if (total == 0) {
+			return 0;
+		}
+		return hits * 100 / total;
+	}
+
+	/** @return number of objects removed to make room for others. */
+	public long getEvictions() {
+		return statEvict.get();
+	}
+
+	/** A cached object. */
+	static class Entry {
+		final int type;
+
+		final byte[] data;
+
+		Entry(int type, byte[] data) {
+			this.type = type;
+			this.data = data;
+		}
+
+		long weight() {
+			return data.length + ENTRY_OVERHEAD;
+		}
+	}
+
+	private class Segment {
+		private final long maxBytes;
+
+		private final LinkedHashMap<ObjectId, Entry> table;
+
+		private long curBytes;
+
+		Segment(long maxBytes) {
+			this.maxBytes = maxBytes;
+			this.table = new LinkedHashMap<>(64, 0.75f, true);
+		}
+
+		synchronized Entry get(AnyObjectId id) {
+			return table.get(id);
+		}
+
+		synchronized void put(ObjectId id, Entry e) {
+			if (e.weight() > maxBytes) {
+				return;
+			}
+
+			Entry old = table.put(id, e);
+			if (old != null) {
+				curBytes -= old.weight();
+			}
+			curBytes += e.weight();
+
+			Iterator<Map.Entry<ObjectId, Entry>> i = table.entrySet().iterator();
+			while (curBytes > maxBytes && i.hasNext()) {
+				curBytes -= i.next().getValue().weight();
+				i.remove();
+				statEvict.incrementAndGet();
+			}
+		}
+
+		synchronized long getCurrentSize() {
+			return curBytes;
+		}
+
+		synchronized void clear() {
+			table.clear();
+			curBytes = 0;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.lib.InflaterCache;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Storage format of the content column of an object row.
+ * <p>
+ * The codec used for a row is recorded next to the row itself, so rows
+ * written with different codecs (or by older versions that did not compress
+ * at all) can be read from the same table. Additional codecs can be made
+ * available with {@link #register(SqlObjectCodec)}.
+ */
+public abstract class SqlObjectCodec {
+	private static final Map<Integer, SqlObjectCodec> BY_ID = new ConcurrentHashMap<>();
+	private static final Map<String, SqlObjectCodec> BY_NAME = new ConcurrentHashMap<>();
+
+	/** Content is stored as the raw, inflated object data. */
+	public static final SqlObjectCodec NONE = new SqlObjectCodec(0, "none") {
+		@Override
+		public OutputStream encode(OutputStream out, int level) {
+			return out;
+		}
+
+		@Override
+		public InputStream decode(InputStream in) {
+			return in;
+		}
+
+		@Override
+		public byte[] decode(byte[] content, int size) {
+			return content;
+		}
+
+		@Override
+		public byte[] decode(byte[] content) {
+			return content;
+		}
+	};
+
+	/** Content is stored as a zlib stream, as in a pack file entry. */
+	public static final SqlObjectCodec ZLIB = new SqlObjectCodec(1, "zlib") {
+		@Override
+		public OutputStream encode(OutputStream out, int level) {
+			final Deflater deflater = new Deflater(level);
+			return new DeflaterOutputStream(out, deflater, 8192) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						deflater.end();
+					}
+				}
+			};
+		}
+
+		@Override
+		public InputStream decode(InputStream in) {
+			final Inflater inflater = InflaterCache.get();
+			return new InflaterInputStream(in, inflater, 8192) {
+				private boolean released;
+
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						if (!released) {
+							released = true;
+							InflaterCache.release(inflater);
+						}
+					}
+				}
+			};
+		}
+	};
+
+	static {
+		register(NONE);
+		register(ZLIB);
+	}
+
+	/**
+	 * Make a codec available to all SQL repositories of this JVM.
+	 *
+	 * @param codec
+	 *            codec to register. Its id must not be used by a different
+	 *            codec already, as the id is persisted in object rows.
+	 */
+	public static void register(SqlObjectCodec codec) {
+		SqlObjectCodec prior = BY_ID.putIfAbsent(Integer.valueOf(codec.getId()), codec);
+		if (prior != null && prior != codec) {
+			throw new IllegalArgumentException(
+				"Codec id " + codec.getId() + " is already used by " + prior.getName());
+		}
+		BY_NAME.put(codec.getName(), codec);
+	}
+
+	/**
+	 * @param id
+	 *            id stored in the codec column.
+	 * @return the codec.
+	 * @throws IOException
+	 *             no codec with that id is registered.
+	 */
+	public static SqlObjectCodec forId(int id) throws IOException {
+		SqlObjectCodec codec = BY_ID.get(Integer.valueOf(id));
+		if (codec == null) {
+			throw new IOException("Unknown object codec " + id);
+		}
+		return codec;
+	}
+
+	/**
+	 * @param name
+	 *            configured codec name, case insensitive.
+	 * @return the codec, or {@code null} if none is registered by that name.
+	 */
+	public static SqlObjectCodec forName(String name) {
+		for (SqlObjectCodec codec : BY_NAME.values()) {
+			if (codec.getName().equalsIgnoreCase(name)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	private final int id;
+	private final String name;
+
+	protected SqlObjectCodec(int id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Wrap a stream to encode object data written to it.
+	 * <p>
+	 * Closing the returned stream finishes the encoding and closes
+	 * {@code out}.
+	 *
+	 * @param out
+	 *            receives the encoded content.
+	 * @param level
+	 *            compression level, as for {@link Deflater}.
+	 * @return stream accepting the raw object data.
+	 * @throws IOException
+	 */
+	public abstract OutputStream encode(OutputStream out, int level)
+		throws IOException;
+
+	/**
+	 * Wrap a stream of encoded content to return raw object data.
+	 *
+	 * @param in
+	 *            encoded content.
+	 * @return stream of the raw object data.
+	 * @throws IOException
+	 */
+	public abstract InputStream decode(InputStream in) throws IOException;
+
+	/**
+	 * Decode a fully loaded content column.
+	 *
+	 * @param content
+	 *            encoded content.
+	 * @param size
+	 *            inflated size of the object.
+	 * @return raw object data.
+	 * @throws IOException
+	 */
+	public byte[] decode(byte[] content, int size) throws IOException {
+		byte[] data = new byte[size];
+		try (InputStream in = decode(new ByteArrayInputStream(content))) {
+			IO.readFully(in, data, 0, size);
+		}
+		return data;
+	}
+
+	/**
+	 * Decode a fully loaded content column of unknown inflated size.
+	 *
+	 * @param content
+	 *            encoded content.
+	 * @return raw data.
+	 * @throws IOException
+	 */
+	public byte[] decode(byte[] content) throws IOException {
+		TemporaryBuffer.Heap buf = new TemporaryBuffer.Heap(Integer.MAX_VALUE);
+		try (InputStream in = decode(new ByteArrayInputStream(content))) {
+			buf.copy(in);
+		}
+		buf.close();
+		return buf.toByteArray();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
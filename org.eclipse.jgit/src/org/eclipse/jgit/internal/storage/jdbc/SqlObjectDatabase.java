@@ -1,10 +1,24 @@
 package org.eclipse.jgit.internal.storage.jdbc;
 
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
+import org.eclipse.jgit.internal.storage.pack.BinaryDelta;
+import org.eclipse.jgit.internal.storage.pack.CachedPack;
+import org.eclipse.jgit.internal.storage.pack.ObjectReuseAsIs;
+import org.eclipse.jgit.internal.storage.pack.ObjectToPack;
+import org.eclipse.jgit.internal.storage.pack.PackOutputStream;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.TemporaryBuffer;
 import org.eclipse.jgit.util.sha1.SHA1;
 
 import java.io.*;
@@ -13,38 +27,197 @@
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class SqlObjectDatabase extends ObjectDatabase {
+	/** Default of {@code sql.objectCacheLimit}. */
+	private static final long DEFAULT_OBJECT_CACHE_LIMIT = 32 * WindowCacheConfig.MB;
+
+	/** Default of {@code sql.objectCacheMaxObjectSize}. */
+	private static final int DEFAULT_OBJECT_CACHE_MAX_OBJECT_SIZE = 64 * WindowCacheConfig.KB;
+
 	private final SqlRepository parent;
 
+	private SqlObjectCodec objectCodec;
+	private SqlDeltaBaseCache deltaBaseCache;
+	private SqlObjectCache objectCache;
+	private boolean objectCacheConfigured;
+	private WindowCacheConfig windowCacheConfig;
+
 	public SqlObjectDatabase(SqlRepository parent) {
 		this.parent = parent;
 	}
 
-	@Override
-	public void create() throws IOException {
+	/**
+	 * Get the codec new objects are stored with.
+	 * <p>
+	 * Defaults to the codec named by {@code sql.objectCodec} in the
+	 * repository configuration, or {@link SqlObjectCodec#NONE}. Tables that
+	 * were created without a codec column always receive uncompressed rows.
+	 *
+	 * @return codec for newly inserted objects.
+	 * @throws IOException
+	 */
+	public SqlObjectCodec getObjectCodec() throws IOException {
 		try {
-			if (exists()) {
-				PreparedStatement dropTable = parent.getAdapter().createDropObjectsTable();
-				dropTable.execute();
+			if (!parent.getAdapter().hasObjectCodecColumn()) {
+				return SqlObjectCodec.NONE;
 			}
-
-			PreparedStatement create = parent.getAdapter().createObjectsTable();
-			create.execute();
 		} catch (SQLException e) {
 			throw new IOException(e);
 		}
+
+		if (objectCodec == null) {
+			String name = parent.getConfig().getString(
+				ConfigConstants.CONFIG_SQL_SECTION,
+				null,
+				ConfigConstants.CONFIG_KEY_OBJECT_CODEC
+			);
+
+			SqlObjectCodec codec = SqlObjectCodec.NONE;
+			if (name != null) {
+				codec = SqlObjectCodec.forName(name);
+				if (codec == null) {
+					throw new IOException("Unknown object codec " + name);
+				}
+			}
+			objectCodec = codec;
+		}
+		return objectCodec;
+	}
+
+	public void setObjectCodec(SqlObjectCodec objectCodec) {
+		this.objectCodec = objectCodec;
+	}
+
+	synchronized SqlDeltaBaseCache getDeltaBaseCache() {
+		if (deltaBaseCache == null) {
+			deltaBaseCache = new SqlDeltaBaseCache(getWindowCacheConfig().getDeltaBaseCacheLimit());
+		}
+		return deltaBaseCache;
+	}
+
+	/**
+	 * Get the cache of small objects shared by the readers of this database.
+	 * <p>
+	 * Its size is set by {@code sql.objectCacheLimit}, in bytes, and the
+	 * largest object it holds by {@code sql.objectCacheMaxObjectSize}. A
+	 * limit of 0 disables the cache.
+	 *
+	 * @return the cache, or null if it is disabled.
+	 */
+	public synchronized SqlObjectCache getObjectCache() {
+		if (!objectCacheConfigured) {
+			long limit = parent.getConfig().getLong(
+				ConfigConstants.CONFIG_SQL_SECTION,
+				ConfigConstants.CONFIG_KEY_OBJECT_CACHE_LIMIT,
+				DEFAULT_OBJECT_CACHE_LIMIT
+			);
+			int maxObjectSize = parent.getConfig().getInt(
+				ConfigConstants.CONFIG_SQL_SECTION,
+				ConfigConstants.CONFIG_KEY_OBJECT_CACHE_MAX_OBJECT_SIZE,
+				DEFAULT_OBJECT_CACHE_MAX_OBJECT_SIZE
+			);
+			if (limit > 0) {
+				objectCache = new SqlObjectCache(limit, maxObjectSize);
+			}
+			objectCacheConfigured = true;
+		}
+		return objectCache;
+	}
+
+	synchronized WindowCacheConfig getWindowCacheConfig() {
+		if (windowCacheConfig == null) {
+			windowCacheConfig = new WindowCacheConfig().fromConfig(parent.getConfig());
+		}
+		return windowCacheConfig;
+	}
+
+	/**
+	 * Lease a connection for an object reader or inserter, which cannot
+	 * report an {@link IOException} from its constructor.
+	 */
+	private SqlConnectionLease leaseForStream() {
+		try {
+			return parent.lease();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Register the repository, creating the tables it shares with the other
+	 * repositories of the schema if they do not exist yet.
+	 * <p>
+	 * Tables of a schema that holds a single repository are replaced.
+	 *
+	 * @throws IllegalStateException
+	 *             the repository already exists.
+	 */
+	@Override
+	public void create() throws IOException {
+		parent.withLease(() -> {
+			SqlDriverAdapter adapter = parent.getAdapter();
+			if (adapter.checkObjectsTableExists() && !adapter.hasRepositoryColumn()) {
+				execute(adapter.createDropObjectsTable());
+				if (adapter.checkRefsTableExists()) {
+					execute(adapter.createDropRefsTable());
+				}
+				if (adapter.checkRefsVersionTableExists()) {
+					execute(adapter.createDropRefsVersionTable());
+				}
+				adapter.resetSchemaVersion();
+			}
+
+			if (adapter.checkRepositoryExists() && adapter.checkObjectsTableExists()) {
+				throw new IllegalStateException(MessageFormat.format(
+					JGitText.get().repositoryAlreadyExists, adapter.getRepositoryName()));
+			}
+
+			if (!adapter.checkObjectsTableExists()) {
+				execute(adapter.createObjectsTable());
+				for (String sql : adapter.getPartitionDefinitions(adapter.getObjectsTableName())) {
+					execute(parent.prepareStatement(sql));
+				}
+				execute(adapter.createObjectsMetaIndex());
+			}
+			if (!adapter.checkRepositoryObjectsTableExists()) {
+				execute(adapter.createRepositoryObjectsTable());
+				for (String sql : adapter.getPartitionDefinitions(adapter.getRepositoryObjectsTableName())) {
+					execute(parent.prepareStatement(sql));
+				}
+			}
+			adapter.writeSchemaVersion(SqlDriverAdapter.SCHEMA_VERSION);
+			adapter.registerRepository();
+			return null;
+		});
+	}
+
+	private static void execute(PreparedStatement statement) throws SQLException {
+		try {
+			statement.execute();
+		} finally {
+			statement.close();
+		}
 	}
 
 	@Override
 	public boolean exists() {
 		try {
-			return parent.getAdapter().checkObjectsTableExists();
-		} catch (SQLException e) {
+			return parent.withLease(() -> Boolean.valueOf(parent.getAdapter().checkObjectsTableExists()
+				&& parent.getAdapter().checkRepositoryExists())).booleanValue();
+		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
@@ -61,31 +234,77 @@ public ObjectReader newReader() {
 
 	@Override
 	public void close() {
+		SqlConnectionLease lease = parent.getCurrentLease();
+		if (lease == null) {
+			return;
+		}
 		try {
-			if (!parent.getConnection().getAutoCommit()) {
-				parent.getConnection().commit();
-			}
+			lease.commit();
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
 	public long getObjectCount() throws IOException {
-		try {
+		return parent.withLease(() -> {
 			PreparedStatement statement = parent.getAdapter().createObjectCount();
-			ResultSet results = statement.executeQuery();
-
-			if (!results.next()) {
-				return -1;
+			try (ResultSet results = statement.executeQuery()) {
+				if (!results.next()) {
+					return Long.valueOf(-1);
+				}
+				return Long.valueOf(results.getLong(1));
+			} finally {
+				statement.close();
 			}
+		}).longValue();
+	}
 
-			return results.getLong(1);
-		} catch (SQLException e) {
-			throw new IOException(e);
+	/**
+	 * Reads objects of the SQL repository.
+	 * <p>
+	 * Multi-object requests ({@link #open(Iterable, boolean)},
+	 * {@link #getObjectSize(Iterable, boolean)} and {@link #prefetch(Iterable)})
+	 * are answered in batches of {@link SqlDriverAdapter#getMaxBatchSize()}
+	 * ids per query. Objects up to the stream file threshold are read with
+	 * their content, so opening them costs a single round trip.
+	 * <p>
+	 * Unless {@code sql.treeReadAhead} is false, opening a tree prefetches
+	 * its direct subtrees in one query, as a recursive {@code TreeWalk} will
+	 * open them next.
+	 * <p>
+	 * {@code PackWriter} copies rows encoded with {@link SqlObjectCodec#ZLIB}
+	 * into packs as they are stored, see {@link SqlObjectRepresentation}.
+	 * <p>
+	 * A reader holds a connection lease of its thread until it is closed.
+	 */
+	public class SqlObjectReader extends ObjectReader implements ObjectReuseAsIs {
+		/** Most objects kept prefetched but not yet opened. */
+		private static final int MAX_PREFETCHED = 4096;
+
+		private final boolean treeReadAhead;
+
+		private SqlConnectionLease lease;
+
+		private final Map<AnyObjectId, SqlObjectLoader> prefetched =
+			new LinkedHashMap<AnyObjectId, SqlObjectLoader>() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<AnyObjectId, SqlObjectLoader> eldest) {
+					return size() > MAX_PREFETCHED;
+				}
+			};
+
+		SqlObjectReader() {
+			lease = leaseForStream();
+			streamFileThreshold = getWindowCacheConfig().getStreamFileThreshold();
+			treeReadAhead = parent.getConfig().getBoolean(
+				ConfigConstants.CONFIG_SQL_SECTION,
+				ConfigConstants.CONFIG_KEY_TREE_READ_AHEAD,
+				true
+			);
 		}
-	}
 
-	public class SqlObjectReader extends ObjectReader {
 		@Override
 		public ObjectReader newReader() {
 			return new SqlObjectReader();
@@ -94,17 +313,21 @@ public ObjectReader newReader() {
 		@Override
 		public Collection<ObjectId> resolve(AbbreviatedObjectId id) throws IOException {
 			try {
-				PreparedStatement statement = parent.getAdapter().createFindAbbreviatedObject(
-					id.name()
-				);
+				PreparedStatement statement = parent.getAdapter().createFindAbbreviatedObject(id);
 
 				ArrayList<ObjectId> ids = new ArrayList<>();
 				ResultSet results = statement.executeQuery();
 
 				while (results.next()) {
-					String oid = results.getString(1);
-					ids.add(ObjectId.fromString(oid));
+					ObjectId oid = parent.getAdapter().readObjectId(
+						results,
+						parent.getAdapter().getObjectHashColumn()
+					);
+					if (id.prefixCompare(oid) == 0) {
+						ids.add(oid);
+					}
 				}
+				statement.close();
 				return ids;
 			} catch (SQLException e) {
 				throw new IOException(e);
@@ -113,43 +336,619 @@ public Collection<ObjectId> resolve(AbbreviatedObjectId id) throws IOException {
 
 		@Override
 		public ObjectLoader open(AnyObjectId objectId, int typeHint) throws IOException {
-			SqlObjectLoader loader = new SqlObjectLoader(objectId, typeHint);
-			loader.loadCache();
+			SqlObjectLoader loader = prefetched.remove(objectId);
+			if (loader == null) {
+				loader = readObjects(Collections.singletonList(objectId)).get(objectId);
+				if (loader == null) {
+					if (typeHint == OBJ_ANY) {
+						throw new MissingObjectException(objectId.copy(), "unknown");
+					}
+					throw new MissingObjectException(objectId.copy(), typeHint);
+				}
+			}
+
+			if (typeHint != OBJ_ANY && loader.getType() != typeHint) {
+				throw new IncorrectObjectTypeException(objectId.copy(), typeHint);
+			}
+			if (treeReadAhead && loader.getType() == Constants.OBJ_TREE && loader.hasContent()) {
+				prefetchSubtrees(loader.getCachedBytes());
+			}
 			return loader;
 		}
 
+		@Override
+		public <T extends ObjectId> AsyncObjectLoaderQueue<T> open(
+			Iterable<T> objectIds,
+			final boolean reportMissing
+		) {
+			final Iterator<T> idItr = objectIds.iterator();
+			return new AsyncObjectLoaderQueue<T>() {
+				private final ArrayDeque<T> pending = new ArrayDeque<>();
+
+				private Map<AnyObjectId, SqlObjectLoader> loaded;
+
+				private T cur;
+
+				private SqlObjectLoader curLoader;
+
+				@Override
+				public boolean next() throws IOException {
+					for (;;) {
+						if (pending.isEmpty() && !fill()) {
+							return false;
+						}
+						cur = pending.removeFirst();
+						curLoader = loaded.get(cur);
+						if (curLoader != null) {
+							return true;
+						}
+						if (reportMissing) {
+							throw new MissingObjectException(cur, "unknown");
+						}
+					}
+				}
+
+				private boolean fill() throws IOException {
+					List<T> batch = nextBatch(idItr);
+					if (batch.isEmpty()) {
+						return false;
+					}
+
+					List<T> want = new ArrayList<>(batch.size());
+					loaded = new HashMap<>();
+					for (T id : batch) {
+						SqlObjectLoader loader = prefetched.remove(id);
+						if (loader != null) {
+							loaded.put(id, loader);
+						} else {
+							want.add(id);
+						}
+					}
+					if (!want.isEmpty()) {
+						loaded.putAll(readObjects(want));
+					}
+					pending.addAll(batch);
+					return true;
+				}
+
+				@Override
+				public T getCurrent() {
+					return cur;
+				}
+
+				@Override
+				public ObjectId getObjectId() {
+					return cur;
+				}
+
+				@Override
+				public ObjectLoader open() throws IOException {
+					return curLoader;
+				}
+
+				@Override
+				public boolean cancel(boolean mayInterruptIfRunning) {
+					return true;
+				}
+
+				@Override
+				public void release() {
+				}
+			};
+		}
+
+		/**
+		 * Read objects ahead of their use by this reader.
+		 * <p>
+		 * Objects are fetched in batches and held until they are opened
+		 * through this reader, which then needs no further round trip.
+		 * Unknown ids are ignored.
+		 *
+		 * @param objectIds
+		 *            objects that are likely to be opened soon.
+		 * @throws IOException
+		 */
+		public void prefetch(Iterable<? extends AnyObjectId> objectIds) throws IOException {
+			Iterator<? extends AnyObjectId> idItr = objectIds.iterator();
+			while (idItr.hasNext()) {
+				List<AnyObjectId> want = new ArrayList<>();
+				for (AnyObjectId id : nextBatch(idItr)) {
+					if (!prefetched.containsKey(id)) {
+						want.add(id);
+					}
+				}
+				if (!want.isEmpty()) {
+					prefetched.putAll(readObjects(want));
+				}
+			}
+		}
+
+		private void prefetchSubtrees(byte[] tree) throws IOException {
+			List<ObjectId> subtrees = new ArrayList<>();
+			CanonicalTreeParser p = new CanonicalTreeParser();
+			p.reset(tree);
+			while (!p.eof()) {
+				if (FileMode.TREE.equals(p.getEntryRawMode())) {
+					subtrees.add(p.getEntryObjectId());
+				}
+				p.next(1);
+			}
+			prefetch(subtrees);
+		}
+
+		private <T extends AnyObjectId> List<T> nextBatch(Iterator<? extends T> idItr) {
+			int max = parent.getAdapter().getMaxBatchSize();
+			List<T> batch = new ArrayList<>(max);
+			while (batch.size() < max && idItr.hasNext()) {
+				batch.add(idItr.next());
+			}
+			return batch;
+		}
+
+		private Map<AnyObjectId, SqlObjectLoader> readObjects(
+			Collection<? extends AnyObjectId> objectIds
+		) throws IOException {
+			Map<AnyObjectId, SqlObjectLoader> loaders = new HashMap<>();
+			SqlObjectCache cache = getObjectCache();
+			if (cache != null) {
+				List<AnyObjectId> missing = new ArrayList<>(objectIds.size());
+				for (AnyObjectId id : objectIds) {
+					SqlObjectCache.Entry e = cache.get(id);
+					if (e != null) {
+						loaders.put(id, new SqlObjectLoader(id, e));
+					} else {
+						missing.add(id);
+					}
+				}
+				if (missing.isEmpty()) {
+					return loaders;
+				}
+				objectIds = missing;
+			}
+
+			try {
+				PreparedStatement statement = parent.getAdapter().createReadObjects(
+					objectIds,
+					getStreamFileThreshold()
+				);
+				try (ResultSet results = statement.executeQuery()) {
+					while (results.next()) {
+						ObjectId id = parent.getAdapter().readObjectId(
+							results,
+							parent.getAdapter().getObjectHashColumn()
+						);
+						loaders.put(id, new SqlObjectLoader(id, results, getStreamFileThreshold()));
+					}
+				} finally {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+			return loaders;
+		}
+
+		@Override
+		public boolean has(AnyObjectId objectId) throws IOException {
+			if (prefetched.containsKey(objectId)) {
+				return true;
+			}
+			try {
+				PreparedStatement statement = parent.getAdapter().createHasObject(objectId);
+				try (ResultSet results = statement.executeQuery()) {
+					return results.next();
+				} finally {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public long getObjectSize(AnyObjectId objectId, int typeHint) throws IOException {
+			SqlObjectLoader loader = prefetched.get(objectId);
+			if (loader != null) {
+				if (typeHint != OBJ_ANY && loader.getType() != typeHint) {
+					throw new IncorrectObjectTypeException(objectId.copy(), typeHint);
+				}
+				return loader.getSize();
+			}
+			try {
+				PreparedStatement statement = parent.getAdapter().createReadObjectSize(objectId);
+				try (ResultSet results = statement.executeQuery()) {
+					if (!results.next()) {
+						if (typeHint == OBJ_ANY) {
+							throw new MissingObjectException(objectId.copy(), "unknown");
+						}
+						throw new MissingObjectException(objectId.copy(), typeHint);
+					}
+
+					int type = results.getInt(parent.getAdapter().getObjectTypeColumn());
+					if (typeHint != OBJ_ANY && type != typeHint) {
+						throw new IncorrectObjectTypeException(objectId.copy(), typeHint);
+					}
+					return results.getLong(parent.getAdapter().getObjectSizeColumn());
+				} finally {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public <T extends ObjectId> AsyncObjectSizeQueue<T> getObjectSize(
+			Iterable<T> objectIds,
+			final boolean reportMissing
+		) {
+			final Iterator<T> idItr = objectIds.iterator();
+			return new AsyncObjectSizeQueue<T>() {
+				private final ArrayDeque<T> pending = new ArrayDeque<>();
+
+				private final Map<AnyObjectId, Long> sizes = new HashMap<>();
+
+				private T cur;
+
+				private long sz;
+
+				@Override
+				public boolean next() throws IOException {
+					for (;;) {
+						if (pending.isEmpty() && !fill()) {
+							return false;
+						}
+						cur = pending.removeFirst();
+						Long size = sizes.get(cur);
+						if (size != null) {
+							sz = size.longValue();
+							return true;
+						}
+						if (reportMissing) {
+							throw new MissingObjectException(cur, "unknown");
+						}
+					}
+				}
+
+				private boolean fill() throws IOException {
+					List<T> batch = nextBatch(idItr);
+					if (batch.isEmpty()) {
+						return false;
+					}
+
+					sizes.clear();
+					List<T> want = new ArrayList<>(batch.size());
+					for (T id : batch) {
+						SqlObjectLoader loader = prefetched.get(id);
+						if (loader != null) {
+							sizes.put(id, Long.valueOf(loader.getSize()));
+						} else {
+							want.add(id);
+						}
+					}
+					if (!want.isEmpty()) {
+						readSizes(want);
+					}
+					pending.addAll(batch);
+					return true;
+				}
+
+				private void readSizes(List<T> want) throws IOException {
+					try {
+						PreparedStatement statement = parent.getAdapter().createReadObjectSizes(want);
+						try (ResultSet results = statement.executeQuery()) {
+							while (results.next()) {
+								sizes.put(
+									parent.getAdapter().readObjectId(
+										results,
+										parent.getAdapter().getObjectHashColumn()
+									),
+									Long.valueOf(results.getLong(parent.getAdapter().getObjectSizeColumn()))
+								);
+							}
+						} finally {
+							statement.close();
+						}
+					} catch (SQLException e) {
+						throw new IOException(e);
+					}
+				}
+
+				@Override
+				public T getCurrent() {
+					return cur;
+				}
+
+				@Override
+				public ObjectId getObjectId() {
+					return cur;
+				}
+
+				@Override
+				public long getSize() {
+					return sz;
+				}
+
+				@Override
+				public boolean cancel(boolean mayInterruptIfRunning) {
+					return true;
+				}
+
+				@Override
+				public void release() {
+				}
+			};
+		}
+
 		@Override
 		public Set<ObjectId> getShallowCommits() throws IOException {
 			return new HashSet<>();
 		}
 
+		@Override
+		public ObjectToPack newObjectToPack(AnyObjectId objectId, int type) {
+			return new ObjectToPack(objectId, type);
+		}
+
+		@Override
+		public void selectObjectRepresentation(
+			PackWriter packer,
+			ProgressMonitor monitor,
+			Iterable<ObjectToPack> objects
+		) throws IOException {
+			Iterator<ObjectToPack> idItr = objects.iterator();
+			while (idItr.hasNext()) {
+				Map<AnyObjectId, ObjectToPack> batch = new HashMap<>();
+				for (ObjectToPack otp : nextBatch(idItr)) {
+					batch.put(otp, otp);
+				}
+
+				try {
+					PreparedStatement statement = parent.getAdapter().createReadObjectRepresentations(batch.keySet());
+					try (ResultSet results = statement.executeQuery()) {
+						while (results.next()) {
+							ObjectToPack otp = batch.get(parent.getAdapter().readObjectId(
+								results,
+								parent.getAdapter().getObjectHashColumn()
+							));
+							if (otp == null) {
+								continue;
+							}
+
+							packer.select(otp, new SqlObjectRepresentation(
+								SqlObjectCodec.forId(results.getInt(parent.getAdapter().getObjectCodecColumn())),
+								parent.getAdapter().readObjectId(results, parent.getAdapter().getObjectBaseColumn()),
+								results.getLong(parent.getAdapter().getObjectContentLengthColumn())
+							));
+							monitor.update(1);
+						}
+					} finally {
+						statement.close();
+					}
+				} catch (SQLException e) {
+					throw new IOException(e);
+				}
+			}
+		}
+
+		@Override
+		public void writeObjects(PackOutputStream out, List<ObjectToPack> list) throws IOException {
+			for (ObjectToPack otp : list) {
+				out.writeObject(otp);
+			}
+		}
+
+		/**
+		 * Copy the row of a {@link SqlObjectCodec#ZLIB} encoded object into
+		 * the pack. The row is spooled first, so that a row that changed
+		 * since it was selected is reported before the header is written.
+		 */
+		@Override
+		public void copyObjectAsIs(PackOutputStream out, ObjectToPack otp, boolean validate)
+			throws IOException, StoredObjectRepresentationNotAvailableException {
+			TemporaryBuffer.LocalFile content = new TemporaryBuffer.LocalFile(null, getStreamFileThreshold());
+			try {
+				long size;
+				try {
+					PreparedStatement statement = parent.getAdapter().createReadObject(otp);
+					try (ResultSet results = statement.executeQuery()) {
+						if (!results.next()) {
+							throw new StoredObjectRepresentationNotAvailableException(otp);
+						}
+
+						int codec = results.getInt(parent.getAdapter().getObjectCodecColumn());
+						ObjectId base = parent.getAdapter().readObjectId(
+							results,
+							parent.getAdapter().getObjectBaseColumn()
+						);
+						if (codec != SqlObjectCodec.ZLIB.getId()
+							|| (otp.isDeltaRepresentation() ? !otp.getDeltaBaseId().equals(base) : base != null)) {
+							throw new StoredObjectRepresentationNotAvailableException(otp);
+						}
+
+						size = results.getLong(parent.getAdapter().getObjectSizeColumn());
+						try (InputStream in = results.getBinaryStream(parent.getAdapter().getObjectContentColumn())) {
+							content.copy(in);
+						}
+						content.close();
+					} finally {
+						statement.close();
+					}
+				} catch (SQLException e) {
+					throw new IOException(e);
+				}
+
+				// The pack header of a delta holds the inflated size of the
+				// delta, which is not stored.
+				if (otp.isDeltaRepresentation() || validate) {
+					long inflated = inflatedLength(content);
+					if (!otp.isDeltaRepresentation() && inflated != size) {
+						throw new StoredObjectRepresentationNotAvailableException(otp);
+					}
+					size = inflated;
+				}
+
+				out.writeHeader(otp, size);
+				content.writeTo(out, null);
+			} finally {
+				content.destroy();
+			}
+		}
+
+		private long inflatedLength(TemporaryBuffer content) throws IOException {
+			try (InputStream in = SqlObjectCodec.ZLIB.decode(content.openInputStream())) {
+				byte[] buf = new byte[8192];
+				long length = 0;
+				int n;
+				while ((n = in.read(buf)) > 0) {
+					length += n;
+				}
+				return length;
+			}
+		}
+
+		/**
+		 * SQL repositories store objects as rows, never as packs, so there is
+		 * nothing that could be sent as it is.
+		 * <p>
+		 * {@link #copyPackAsIs(PackOutputStream, CachedPack)} is only invoked
+		 * for packs returned from here; keep the two methods in step if rows
+		 * are ever grouped into stored packs.
+		 */
+		@Override
+		public Collection<CachedPack> getCachedPacksAndUpdate(BitmapBuilder needBitmap) {
+			return Collections.emptyList();
+		}
+
+		/**
+		 * Never reached: {@link #getCachedPacksAndUpdate(BitmapBuilder)}
+		 * returns no packs, so PackWriter has none to hand back. A pack from
+		 * another reader cannot be read through this connection.
+		 */
+		@Override
+		public void copyPackAsIs(PackOutputStream out, CachedPack pack) throws IOException {
+			throw new IOException("Cached pack " + pack
+				+ " is not stored in " + parent.getAdapter().getRepositoryName());
+		}
+
 		@Override
 		public void close() {
+			prefetched.clear();
+			if (lease != null) {
+				lease.close();
+				lease = null;
+			}
 		}
 	}
 
 	public class SqlObjectLoader extends ObjectLoader {
+		/** Longest delta chain followed before the rows are assumed corrupt. */
+		private static final int MAX_CHAIN_LENGTH = 1024;
+
 		private final AnyObjectId objectId;
 		private final int typeHint;
+		private final int chainLength;
 
 		private int cachedType;
 		private long cachedSize;
+		private SqlObjectCodec cachedCodec;
 		private byte[] cachedBlobData;
+		private byte[] cachedEncodedData;
+		private ObjectId deltaBase;
 
 		private boolean cacheLoaded = false;
 
+		/** Whether the object may be added to the shared object cache. */
+		private boolean shared;
+
 		public SqlObjectLoader(AnyObjectId objectId, int typeHint) {
+			this(objectId, typeHint, 0);
+		}
+
+		private SqlObjectLoader(AnyObjectId objectId, int typeHint, int chainLength) {
 			this.objectId = objectId;
 			this.typeHint = typeHint;
+			this.chainLength = chainLength;
 
 			cachedBlobData = null;
 		}
 
+		/**
+		 * Create a loader from a row of
+		 * {@link SqlDriverAdapter#createReadObjects(Collection, long)}.
+		 */
+		SqlObjectLoader(ObjectId objectId, ResultSet row, long maxContentSize)
+			throws SQLException, IOException {
+			this(objectId, Constants.OBJ_BAD, 0);
+
+			cachedType = row.getInt(parent.getAdapter().getObjectTypeColumn());
+			cachedSize = row.getLong(parent.getAdapter().getObjectSizeColumn());
+			cacheLoaded = true;
+			shared = true;
+
+			if (cachedSize <= maxContentSize) {
+				cachedCodec = SqlObjectCodec.forId(row.getInt(parent.getAdapter().getObjectCodecColumn()));
+				deltaBase = parent.getAdapter().readObjectId(row, parent.getAdapter().getObjectBaseColumn());
+
+				byte[] content = row.getBytes(parent.getAdapter().getObjectContentColumn());
+				if (deltaBase == null && cachedCodec == SqlObjectCodec.NONE) {
+					cachedBlobData = share(content);
+				} else {
+					cachedEncodedData = content;
+				}
+			}
+		}
+
+		/** Create a loader for an object of the shared object cache. */
+		SqlObjectLoader(AnyObjectId objectId, SqlObjectCache.Entry e) {
+			this(objectId, Constants.OBJ_BAD, 0);
+
+			cachedType = e.type;
+			cachedSize = e.data.length;
+			cachedBlobData = e.data;
+			cacheLoaded = true;
+		}
+
+		/**
+		 * Add the inflated content of the object to the shared object
+		 * cache. Only objects the repository was found to have are added,
+		 * not the delta bases they were resolved from.
+		 *
+		 * @return {@code data}
+		 */
+		private byte[] share(byte[] data) {
+			if (shared) {
+				SqlObjectCache cache = getObjectCache();
+				if (cache != null) {
+					cache.put(objectId, cachedType, data);
+				}
+				shared = false;
+			}
+			return data;
+		}
+
+		/** @return whether the content was read along with the metadata. */
+		boolean hasContent() {
+			return cachedBlobData != null || cachedEncodedData != null;
+		}
+
+		private byte[] inflateCached() throws IOException {
+			byte[] data;
+			if (deltaBase != null) {
+				data = BinaryDelta.apply(resolveBase(deltaBase), cachedCodec.decode(cachedEncodedData));
+			} else {
+				data = cachedCodec.decode(cachedEncodedData, (int) cachedSize);
+			}
+			cachedEncodedData = null;
+			deltaBase = null;
+			return data;
+		}
+
 		private void loadCache() throws IOException {
 			try {
-				PreparedStatement statement = parent.getAdapter().createReadObjectMeta(
-					objectId.name()
-				);
+				// Loaders are opened for objects the repository has, or for
+				// delta bases, which any repository of the network may have.
+				PreparedStatement statement = parent.getAdapter().createReadObjectMeta(objectId);
 				ResultSet results = statement.executeQuery();
 				if (!results.next()) {
 					if (typeHint == Constants.OBJ_BAD) {
@@ -192,8 +991,32 @@ public long getSize() {
 			return cachedSize;
 		}
 
+		/**
+		 * Objects larger than {@code core.streamFileThreshold} are only
+		 * available through {@link #openStream()}, unless their content was
+		 * already read.
+		 */
+		@Override
+		public boolean isLarge() {
+			return cachedBlobData == null
+				&& cachedEncodedData == null
+				&& getSize() > getWindowCacheConfig().getStreamFileThreshold();
+		}
+
 		@Override
 		public byte[] getCachedBytes() throws LargeObjectException {
+			if (isLarge()) {
+				throw new LargeObjectException(objectId.toObjectId());
+			}
+
+			if (cachedBlobData == null && cachedEncodedData != null) {
+				try {
+					cachedBlobData = share(inflateCached());
+				} catch (IOException e) {
+					throw new LargeObjectException();
+				}
+			}
+
 			if (cachedBlobData == null) {
 				try {
 					ByteBuffer buffer = IO.readWholeStream(openStream(), (int) getSize());
@@ -207,47 +1030,128 @@ public byte[] getCachedBytes() throws LargeObjectException {
 
 		@Override
 		public ObjectStream openStream() throws IOException {
+			if (deltaBase != null) {
+				cachedBlobData = share(inflateCached());
+			}
+
 			if (cachedBlobData != null) {
 				return new ObjectStream.SmallStream(getType(), getCachedBytes());
 			}
 
-			try {
-				PreparedStatement statement = parent.getAdapter().createReadObject(
-					objectId.name()
+			if (cachedEncodedData != null) {
+				return new ObjectStream.Filter(
+					cachedType,
+					cachedSize,
+					cachedCodec.decode(new ByteArrayInputStream(cachedEncodedData))
 				);
+			}
+
+			try {
+				PreparedStatement statement = parent.getAdapter().createReadObject(objectId);
 				ResultSet results = statement.executeQuery();
 				if (!results.next()) {
 					throw new MissingObjectException(objectId.toObjectId(), typeHint);
 				}
 
+				cacheLoaded = true;
+				cachedSize = results.getLong(parent.getAdapter().getObjectSizeColumn());
+				cachedType = results.getInt(parent.getAdapter().getObjectTypeColumn());
+				cachedCodec = SqlObjectCodec.forId(results.getInt(parent.getAdapter().getObjectCodecColumn()));
+
+				ObjectId base = parent.getAdapter().readObjectId(
+					results,
+					parent.getAdapter().getObjectBaseColumn()
+				);
+				if (base != null) {
+					byte[] delta = cachedCodec.decode(
+						results.getBytes(parent.getAdapter().getObjectContentColumn())
+					);
+					statement.close();
+					cachedBlobData = BinaryDelta.apply(resolveBase(base), delta);
+					return new ObjectStream.SmallStream(cachedType, cachedBlobData);
+				}
+
+				if (cachedSize > getWindowCacheConfig().getStreamFileThreshold()) {
+					// Stream the content; the statement stays open until
+					// the caller closes the stream.
+					InputStream content = new StatementInputStream(
+						results.getBinaryStream(parent.getAdapter().getObjectContentColumn()),
+						statement
+					);
+					return new ObjectStream.Filter(
+						cachedType,
+						cachedSize,
+						cachedCodec.decode(content)
+					);
+				}
+
+				if (cachedCodec != SqlObjectCodec.NONE) {
+					// Encoded rows are much smaller than the object, so
+					// keep them in memory and only inflate when needed.
+					cachedEncodedData = results.getBytes(parent.getAdapter().getObjectContentColumn());
+					statement.close();
+					return new ObjectStream.Filter(
+						cachedType,
+						cachedSize,
+						cachedCodec.decode(new ByteArrayInputStream(cachedEncodedData))
+					);
+				}
 
 				if (parent.getAdapter().canUseBlob()) {
 					Blob blob = results.getBlob(parent.getAdapter().getObjectContentColumn());
-					cacheLoaded = true;
-					cachedSize = blob.length();
-					cachedType = results.getInt(parent.getAdapter().getObjectTypeColumn());
 					return new BlobObjectStream(
 						blob,
 						statement,
 						cachedType
 					);
 				} else {
-					byte[] bytes = results.getBytes(parent.getAdapter().getObjectContentColumn());
-					cacheLoaded = true;
-					cachedSize = bytes.length;
-					cachedType = results.getInt(parent.getAdapter().getObjectTypeColumn());
-					cachedBlobData = bytes;
+					cachedBlobData = results.getBytes(parent.getAdapter().getObjectContentColumn());
 					return new ObjectStream.SmallStream(cachedType, cachedBlobData);
 				}
 			} catch (SQLException e) {
 				throw new IOException(e);
 			}
 		}
+
+		private byte[] resolveBase(ObjectId baseId) throws IOException {
+			SqlDeltaBaseCache cache = getDeltaBaseCache();
+			byte[] base = cache.get(baseId);
+			if (base != null) {
+				return base;
+			}
+
+			if (chainLength >= MAX_CHAIN_LENGTH) {
+				throw new IOException("Delta chain of " + objectId.name() + " is too long");
+			}
+
+			SqlObjectLoader loader = new SqlObjectLoader(baseId, Constants.OBJ_BAD, chainLength + 1);
+			try (ObjectStream in = loader.openStream()) {
+				base = IO.readWholeStream(in, (int) in.getSize()).array();
+			}
+			cache.put(baseId, base);
+			return base;
+		}
 	}
 
 	public class SqlObjectInserter extends ObjectInserter {
+		private final int compression = parent.getConfig().get(CoreConfig.KEY).getCompression();
+
+		private final int streamFileThreshold = getWindowCacheConfig().getStreamFileThreshold();
+
 		private PreparedStatement cachedStatement;
 
+		/** Batch recording the inserted objects as present in the repository. */
+		private PreparedStatement membershipStatement;
+
+		/** Lease of the pending rows; taken again if used after close(). */
+		private SqlConnectionLease lease = leaseForStream();
+
+		private void retainLease() {
+			if (lease == null) {
+				lease = leaseForStream();
+			}
+		}
+
 		void writeHeader(OutputStream out, final int type, long len)
 				throws IOException {
 			out.write(Constants.encodedTypeString(type));
@@ -258,60 +1162,208 @@ void writeHeader(OutputStream out, final int type, long len)
 
 		@Override
 		public ObjectId insert(int objectType, long length, InputStream in) throws IOException {
+			if (length > streamFileThreshold) {
+				return insertLarge(objectType, length, in);
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			SqlObjectCodec codec = getObjectCodec();
+			ObjectId id = encode(objectType, length, in, codec, out);
 			try {
-				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				addRow(id, objectType, length, codec, new ByteArrayInputStream(out.toByteArray()));
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+			return id;
+		}
 
-				SHA1 sha = digest();
-				SHA1OutputStream shaOut = new SHA1OutputStream(out, sha);
-				shaOut.setWriteToSecondary(false);
+		/**
+		 * Insert an object larger than {@code core.streamFileThreshold}. The
+		 * encoded content is spooled to a temporary file and streamed to the
+		 * database, so the object is never held in memory.
+		 */
+		private ObjectId insertLarge(int objectType, long length, InputStream in) throws IOException {
+			TemporaryBuffer.LocalFile out = new TemporaryBuffer.LocalFile(null, streamFileThreshold);
+			try {
+				SqlObjectCodec codec = getObjectCodec();
+				ObjectId id = encode(objectType, length, in, codec, out);
 
-				writeHeader(shaOut, objectType, length);
-				{
-					shaOut.setWriteToSecondary(true);
-					int nRead;
-					byte[] data = buffer();
+				try (InputStream content = out.openInputStream()) {
+					streamRow(id, objectType, length, codec, content, out.length());
+				}
+				return id;
+			} catch (SQLException e) {
+				throw new IOException(e);
+			} finally {
+				out.destroy();
+			}
+		}
 
-					while ((nRead = in.read(data, 0, data.length)) != -1) {
-						shaOut.write(data, 0, nRead);
+		/**
+		 * Insert a row whose content is already encoded with {@code codec},
+		 * as received in a pack.
+		 *
+		 * @param id
+		 *            id of the object, not verified against the content.
+		 * @param objectType
+		 *            type of the object.
+		 * @param length
+		 *            inflated size of the object.
+		 * @param codec
+		 *            codec the content is encoded with.
+		 * @param content
+		 *            encoded content.
+		 * @throws IOException
+		 */
+		void insertEncoded(
+			AnyObjectId id,
+			int objectType,
+			long length,
+			SqlObjectCodec codec,
+			TemporaryBuffer content
+		) throws IOException {
+			try {
+				if (content.length() <= streamFileThreshold) {
+					// The batch reads the stream when it is executed.
+					addRow(id, objectType, length, codec, new ByteArrayInputStream(content.toByteArray()));
+				} else {
+					try (InputStream in = content.openInputStream()) {
+						streamRow(id, objectType, length, codec, in, content.length());
 					}
-					shaOut.flush();
 				}
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		}
 
-				byte[] bytes = out.toByteArray();
-				ObjectId id = sha.toObjectId();
-
-				if (parent.getAdapter().doesSupportBatchInsertObject()) {
-					if (cachedStatement == null) {
-						cachedStatement = parent.getAdapter().createInsertObjectBatch();
-					}
+		/** Add a small row to the pending batch, or insert it if batches are not supported. */
+		private void addRow(
+			AnyObjectId id,
+			int objectType,
+			long length,
+			SqlObjectCodec codec,
+			InputStream content
+		) throws SQLException {
+			retainLease();
+			if (parent.getAdapter().doesSupportBatchInsertObject()) {
+				if (cachedStatement == null) {
+					cachedStatement = parent.getAdapter().createInsertObjectBatch();
+				}
 
-					parent.getAdapter().createInsertObjectBatch(
-						cachedStatement,
-						id.name(),
-						objectType,
-						new ByteArrayInputStream(bytes)
-					);
-				} else {
-					PreparedStatement statement = parent.getAdapter().createInsertObject(
-						id.name(),
-						objectType,
-						new ByteArrayInputStream(bytes)
-					);
+				parent.getAdapter().createInsertObjectBatch(
+					cachedStatement,
+					id,
+					objectType,
+					length,
+					codec.getId(),
+					content
+				);
+			} else {
+				PreparedStatement statement = parent.getAdapter().createInsertObject(
+					id,
+					objectType,
+					length,
+					codec.getId(),
+					content
+				);
 
-					if (statement.executeUpdate() != 1) {
-						throw new SQLException("Failed to insert object " + id.name());
-					}
+				try {
+					checkInserted(id, statement.executeUpdate());
+				} finally {
 					statement.close();
 				}
-				return id;
-			} catch (SQLException e) {
-				throw new IOException(e);
 			}
+			addMembership(id);
+		}
+
+		/**
+		 * Fail if an object row was not inserted, unless the database
+		 * ignores rows the network of the repository already has.
+		 */
+		private void checkInserted(AnyObjectId id, int count) throws SQLException {
+			if (count != 1 && !parent.getAdapter().isIgnoringExistingObjects()) {
+				throw new SQLException("Failed to insert object " + id.name());
+			}
+		}
+
+		/**
+		 * Record an inserted object as present in the repository, if it
+		 * shares the objects table with the other repositories of its network.
+		 */
+		private void addMembership(AnyObjectId id) throws SQLException {
+			SqlDriverAdapter adapter = parent.getAdapter();
+			if (!adapter.isSharingObjects()) {
+				return;
+			}
+			if (membershipStatement == null) {
+				membershipStatement = adapter.createInsertRepositoryObjectBatch();
+			}
+			adapter.createInsertRepositoryObjectBatch(membershipStatement, id);
+		}
+
+		/** Insert a row now, streaming its content to the database. */
+		private void streamRow(
+			AnyObjectId id,
+			int objectType,
+			long length,
+			SqlObjectCodec codec,
+			InputStream content,
+			long contentLength
+		) throws SQLException {
+			retainLease();
+			PreparedStatement statement = parent.getAdapter().createInsertObjectStream(
+				id,
+				objectType,
+				length,
+				codec.getId(),
+				content,
+				contentLength
+			);
+
+			try {
+				checkInserted(id, statement.executeUpdate());
+			} finally {
+				statement.close();
+			}
+			addMembership(id);
+		}
+
+		/**
+		 * Copy an object to {@code out} in the encoding of {@code codec}.
+		 *
+		 * @return the id of the object.
+		 */
+		private ObjectId encode(
+			int objectType,
+			long length,
+			InputStream in,
+			SqlObjectCodec codec,
+			OutputStream out
+		) throws IOException {
+			SHA1 sha = digest();
+			SHA1OutputStream shaOut = new SHA1OutputStream(
+				codec.encode(out, compression),
+				sha
+			);
+			shaOut.setWriteToSecondary(false);
+
+			writeHeader(shaOut, objectType, length);
+			{
+				shaOut.setWriteToSecondary(true);
+				int nRead;
+				byte[] data = buffer();
+
+				while ((nRead = in.read(data, 0, data.length)) != -1) {
+					shaOut.write(data, 0, nRead);
+				}
+				shaOut.close();
+			}
+			return sha.toObjectId();
 		}
 
 		@Override
 		public PackParser newPackParser(InputStream in) throws IOException {
-			return null;
+			return new SqlPackParser(parent, this, in);
 		}
 
 		@Override
@@ -322,32 +1374,70 @@ public ObjectReader newReader() {
 		@Override
 		public void flush() throws IOException {
 			try {
-				if (!parent.getConnection().getAutoCommit()) {
-					parent.getConnection().commit();
+				if (cachedStatement != null) {
+					PreparedStatement batch = cachedStatement;
+					cachedStatement = null;
+					try {
+						batch.executeBatch();
+					} finally {
+						batch.close();
+					}
+				}
+				if (membershipStatement != null) {
+					PreparedStatement batch = membershipStatement;
+					membershipStatement = null;
+					try {
+						batch.executeBatch();
+					} finally {
+						batch.close();
+					}
+				}
+				if (lease != null) {
+					lease.commit();
 				}
 			} catch (SQLException e) {
+				if (lease != null) {
+					lease.abort(e);
+				}
 				throw new IOException(e);
 			}
+		}
 
-			if (cachedStatement == null) {
+		@Override
+		public void close() {
+			if (lease == null) {
 				return;
 			}
-
 			try {
-				cachedStatement.executeBatch();
-			} catch (SQLException e) {
-				throw new IOException(e);
+				flush();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				lease.close();
+				lease = null;
 			}
+		}
+	}
 
-			cachedStatement = null;
+	/** Closes the statement of a query when its content stream is closed. */
+	private static class StatementInputStream extends FilterInputStream {
+		private final PreparedStatement statement;
+
+		StatementInputStream(InputStream in, PreparedStatement statement) {
+			super(in);
+			this.statement = statement;
 		}
 
 		@Override
-		public void close() {
+		public void close() throws IOException {
 			try {
-				flush();
-			} catch (IOException e) {
-				throw new RuntimeException(e);
+				super.close();
+			} finally {
+				try {
+					statement.close();
+				} catch (SQLException e) {
+					throw new IOException(e);
+				}
 			}
 		}
 	}
@@ -0,0 +1,55 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.internal.storage.pack.StoredObjectRepresentation;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * How an object row is stored, as seen by {@code PackWriter}.
+ * <p>
+ * Rows encoded with {@link SqlObjectCodec#ZLIB} hold exactly the data of a
+ * pack entry, so they can be copied into a pack without inflating them.
+ * Rows with any other codec must be inflated and compressed again.
+ */
+class SqlObjectRepresentation extends StoredObjectRepresentation {
+	final int format;
+
+	final long length;
+
+	final ObjectId baseId;
+
+	SqlObjectRepresentation(SqlObjectCodec codec, ObjectId baseId, long length) {
+		if (codec != SqlObjectCodec.ZLIB) {
+			this.format = FORMAT_OTHER;
+		} else if (baseId != null) {
+			this.format = PACK_DELTA;
+		} else {
+			this.format = PACK_WHOLE;
+		}
+		this.baseId = baseId;
+		this.length = length;
+	}
+
+	@Override
+	public int getFormat() {
+		return format;
+	}
+
+	@Override
+	public int getWeight() {
+		return (int) Math.min(length, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ObjectId getDeltaBase() {
+		return baseId;
+	}
+
+	/**
+	 * Whole rows may never have been compared with other objects, unlike
+	 * the rows {@link SqlRepack} stored as a delta.
+	 */
+	@Override
+	public boolean wasDeltaAttempted() {
+		return format == PACK_DELTA;
+	}
+}
@@ -0,0 +1,152 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.internal.storage.dfs.ReadableChannel;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a pack file stored as chunk rows.
+ * <p>
+ * A read fetches all chunks it spans, plus the chunks covered by the
+ * read-ahead size, with a single range query. Chunks fetched ahead are kept
+ * until the next query.
+ */
+class SqlPackChannel implements ReadableChannel {
+	private final SqlRepository sql;
+
+	private final String pack;
+
+	private final String ext;
+
+	private final long size;
+
+	private final int chunkSize;
+
+	private final Map<Integer, byte[]> chunks = new HashMap<>();
+
+	private int readAheadChunks;
+
+	private long position;
+
+	private boolean open = true;
+
+	SqlPackChannel(SqlRepository sql, String pack, String ext, long size, int chunkSize) {
+		this.sql = sql;
+		this.pack = pack;
+		this.ext = ext;
+		this.size = size;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= size) {
+			return -1;
+		}
+
+		int n = (int) Math.min(dst.remaining(), size - position);
+		if (n == 0) {
+			return 0;
+		}
+		int first = chunkOf(position);
+		int last = chunkOf(position + n - 1);
+		if (!chunks.containsKey(first) || !chunks.containsKey(last)) {
+			int end = chunkOf(size - 1);
+			load(first, (int) Math.min((long) last + readAheadChunks, end));
+		}
+
+		int read = 0;
+		while (read < n) {
+			byte[] data = chunks.get(chunkOf(position));
+			int offset = (int) (position % chunkSize);
+			int count = Math.min(n - read, data.length - offset);
+			dst.put(data, offset, count);
+			position += count;
+			read += count;
+		}
+		return read;
+	}
+
+	private int chunkOf(long offset) {
+		return (int) (offset / chunkSize);
+	}
+
+	private void load(int first, int last) throws IOException {
+		chunks.clear();
+		SqlDriverAdapter adapter = sql.getAdapter();
+		sql.withLease(() -> {
+			PreparedStatement statement = adapter.createReadPackChunks(pack, ext, first, last);
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					chunks.put(
+						results.getInt(adapter.getPackChunkColumn()),
+						results.getBytes(adapter.getPackChunkDataColumn())
+					);
+				}
+			} finally {
+				statement.close();
+			}
+			return null;
+		});
+
+		for (int chunk = first; chunk <= last; chunk++) {
+			if (!chunks.containsKey(chunk)) {
+				throw new EOFException("Missing chunk " + chunk + " of " + pack + "." + ext);
+			}
+		}
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public void position(long newPosition) throws IOException {
+		ensureOpen();
+		position = newPosition;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	@Override
+	public int blockSize() {
+		return chunkSize;
+	}
+
+	@Override
+	public void setReadAheadBytes(int bufferSize) throws IOException {
+		readAheadChunks = Math.max(0, bufferSize / chunkSize);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		chunks.clear();
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsOutputStream;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes a pack file as chunk rows.
+ * <p>
+ * Full chunks are inserted as they are filled; the last, shorter chunk and
+ * the row describing the file are written on {@link #close()}. Readers do
+ * not see the rows before the pack they belong to is committed.
+ */
+class SqlPackOutputStream extends DfsOutputStream {
+	private final SqlRepository sql;
+
+	private final String pack;
+
+	private final String ext;
+
+	private final byte[] buffer;
+
+	private int length;
+
+	private int chunk;
+
+	private boolean closed;
+
+	SqlPackOutputStream(SqlRepository sql, String pack, String ext, int chunkSize) {
+		this.sql = sql;
+		this.pack = pack;
+		this.ext = ext;
+		this.buffer = new byte[chunkSize];
+	}
+
+	@Override
+	public int blockSize() {
+		return buffer.length;
+	}
+
+	@Override
+	public void write(byte[] buf, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, buffer.length - length);
+			System.arraycopy(buf, off, buffer, length, n);
+			length += n;
+			off += n;
+			len -= n;
+			if (length == buffer.length) {
+				writeChunk();
+			}
+		}
+	}
+
+	private void writeChunk() throws IOException {
+		sql.withLease(() -> {
+			execute(sql.getAdapter().createInsertPackChunk(pack, ext, chunk, buffer, length));
+			return null;
+		});
+		chunk++;
+		length = 0;
+	}
+
+	@Override
+	public int read(long position, ByteBuffer buf) throws IOException {
+		long written = (long) chunk * buffer.length;
+		if (position >= written) {
+			int offset = (int) (position - written);
+			int n = Math.min(buf.remaining(), length - offset);
+			if (n <= 0) {
+				return -1;
+			}
+			buf.put(buffer, offset, n);
+			return n;
+		}
+
+		int index = (int) (position / buffer.length);
+		int offset = (int) (position % buffer.length);
+		SqlDriverAdapter adapter = sql.getAdapter();
+		return sql.withLease(() -> {
+			PreparedStatement statement = adapter.createReadPackChunks(pack, ext, index, index);
+			try (ResultSet results = statement.executeQuery()) {
+				if (!results.next()) {
+					return Integer.valueOf(-1);
+				}
+				byte[] data = results.getBytes(adapter.getPackChunkDataColumn());
+				int n = Math.min(buf.remaining(), data.length - offset);
+				buf.put(data, offset, n);
+				return Integer.valueOf(n);
+			} finally {
+				statement.close();
+			}
+		}).intValue();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		long size = (long) chunk * buffer.length + length;
+		if (length > 0) {
+			writeChunk();
+		}
+		sql.withLease(() -> {
+			execute(sql.getAdapter().createInsertPackFile(pack, ext, size, buffer.length));
+			return null;
+		});
+	}
+
+	private static void execute(PreparedStatement statement) throws SQLException {
+		try {
+			statement.executeUpdate();
+		} finally {
+			statement.close();
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.PackLock;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Parses a pack stream into object rows of a {@link SqlRepository}.
+ * <p>
+ * The stream is spooled to a temporary file, which is only read back to
+ * resolve deltas. Whole objects are stored as they arrive: if new rows are
+ * compressed with {@link SqlObjectCodec#ZLIB} the deflated data of the pack
+ * becomes the row content unchanged, otherwise it is re-encoded. Objects
+ * that were sent as deltas are stored whole.
+ * <p>
+ * Rows are inserted in batches of {@link
+ * org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter#getMaxBatchSize()}.
+ * Before a batch is inserted one query finds the objects the database
+ * already has; those are compared with the received content instead of
+ * inserted again. Each batch is committed by flushing the inserter.
+ */
+class SqlPackParser extends PackParser {
+	private final SqlRepository repo;
+
+	private final SqlObjectDatabase.SqlObjectInserter inserter;
+
+	private final CRC32 crc = new CRC32();
+
+	private final List<PendingObject> pending = new ArrayList<>();
+
+	/** Objects of this pack already queued. */
+	private final ObjectIdSubclassMap<ObjectId> queued = new ObjectIdSubclassMap<>();
+
+	private File tmpPack;
+
+	private RandomAccessFile out;
+
+	private ObjectReader reader;
+
+	/** Deflated data of the whole object being read, or null. */
+	private TemporaryBuffer.LocalFile wholeData;
+
+	private long wholeSize;
+
+	/** Last whole object, already queued with its deflated data. */
+	private PackedObjectInfo lastWhole;
+
+	SqlPackParser(SqlRepository repo, SqlObjectDatabase.SqlObjectInserter inserter, InputStream in) {
+		super(repo.getObjectDatabase(), in);
+		this.repo = repo;
+		this.inserter = inserter;
+
+		// Duplicates are compared with the stored objects once per batch,
+		// rather than with one query per object.
+		setCheckObjectCollisions(false);
+	}
+
+	@Override
+	public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
+		throws IOException {
+		tmpPack = File.createTempFile("incoming_", ".pack");
+		try {
+			out = new RandomAccessFile(tmpPack, "rw");
+			reader = repo.getObjectDatabase().newReader();
+
+			super.parse(receiving, resolving);
+			insertPending();
+			return null;
+		} finally {
+			for (PendingObject obj : pending) {
+				obj.destroy();
+			}
+			pending.clear();
+			if (wholeData != null) {
+				wholeData.destroy();
+				wholeData = null;
+			}
+			if (reader != null) {
+				reader.close();
+				reader = null;
+			}
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} finally {
+				if (!tmpPack.delete() && tmpPack.exists()) {
+					tmpPack.deleteOnExit();
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void onPackHeader(long objCnt) throws IOException {
+		// Ignored, the count is not required.
+	}
+
+	@Override
+	protected void onBeginWholeObject(long streamPosition, int type, long inflatedSize)
+		throws IOException {
+		crc.reset();
+		wholeSize = inflatedSize;
+		wholeData = new TemporaryBuffer.LocalFile(
+			null,
+			repo.getObjectDatabase().getWindowCacheConfig().getStreamFileThreshold()
+		);
+	}
+
+	@Override
+	protected void onEndWholeObject(PackedObjectInfo info) throws IOException {
+		info.setCRC((int) crc.getValue());
+
+		TemporaryBuffer.LocalFile data = wholeData;
+		wholeData = null;
+		data.close();
+		lastWhole = info;
+		add(new PendingObject(info, info.getType(), wholeSize, data, null));
+	}
+
+	@Override
+	protected void onBeginOfsDelta(long deltaStreamPosition, long baseStreamPosition, long inflatedSize)
+		throws IOException {
+		crc.reset();
+	}
+
+	@Override
+	protected void onBeginRefDelta(long deltaStreamPosition, AnyObjectId baseId, long inflatedSize)
+		throws IOException {
+		crc.reset();
+	}
+
+	@Override
+	protected UnresolvedDelta onEndDelta() throws IOException {
+		UnresolvedDelta delta = new UnresolvedDelta();
+		delta.setCRC((int) crc.getValue());
+		return delta;
+	}
+
+	@Override
+	protected void onInflatedObjectData(PackedObjectInfo obj, int typeCode, byte[] data)
+		throws IOException {
+		// Whole objects were queued with their deflated data already.
+		if (obj == lastWhole) {
+			return;
+		}
+		add(new PendingObject(obj, typeCode, data.length, null, data));
+	}
+
+	@Override
+	protected void onObjectHeader(Source src, byte[] raw, int pos, int len) throws IOException {
+		crc.update(raw, pos, len);
+	}
+
+	@Override
+	protected void onObjectData(Source src, byte[] raw, int pos, int len) throws IOException {
+		crc.update(raw, pos, len);
+		if (src == Source.INPUT && wholeData != null) {
+			wholeData.write(raw, pos, len);
+		}
+	}
+
+	@Override
+	protected void onStoreStream(byte[] raw, int pos, int len) throws IOException {
+		out.write(raw, pos, len);
+	}
+
+	@Override
+	protected void onPackFooter(byte[] hash) throws IOException {
+		// Nothing is kept of the pack itself.
+	}
+
+	@Override
+	protected boolean onAppendBase(int typeCode, byte[] data, PackedObjectInfo info) throws IOException {
+		// The base of a thin pack delta is already in the database.
+		return false;
+	}
+
+	@Override
+	protected void onEndThinPack() throws IOException {
+		// Nothing to complete, the objects are not kept as a pack.
+	}
+
+	@Override
+	protected ObjectTypeAndSize seekDatabase(PackedObjectInfo obj, ObjectTypeAndSize info)
+		throws IOException {
+		out.seek(obj.getOffset());
+		crc.reset();
+		return readObjectHeader(info);
+	}
+
+	@Override
+	protected ObjectTypeAndSize seekDatabase(UnresolvedDelta delta, ObjectTypeAndSize info)
+		throws IOException {
+		out.seek(delta.getOffset());
+		crc.reset();
+		return readObjectHeader(info);
+	}
+
+	@Override
+	protected int readDatabase(byte[] dst, int pos, int cnt) throws IOException {
+		return out.read(dst, pos, cnt);
+	}
+
+	@Override
+	protected boolean checkCRC(int oldCRC) {
+		return oldCRC == (int) crc.getValue();
+	}
+
+	private void add(PendingObject obj) throws IOException {
+		if (queued.contains(obj.id)) {
+			// Sent twice in the same pack.
+			obj.destroy();
+			return;
+		}
+		queued.add(obj.id);
+
+		pending.add(obj);
+		if (pending.size() >= repo.getAdapter().getMaxBatchSize()) {
+			insertPending();
+		}
+	}
+
+	/**
+	 * Insert the queued objects the database does not have yet, and
+	 * commit them.
+	 */
+	private void insertPending() throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		Map<ObjectId, Integer> existing = findExisting();
+		for (PendingObject obj : pending) {
+			Integer type = existing.get(obj.id);
+			if (type != null) {
+				checkCollision(obj, type.intValue());
+			} else if (obj.deflated == null) {
+				inserter.insert(obj.type, obj.inflated);
+			} else if (repo.getObjectDatabase().getObjectCodec() == SqlObjectCodec.ZLIB) {
+				inserter.insertEncoded(obj.id, obj.type, obj.size, SqlObjectCodec.ZLIB, obj.deflated);
+			} else {
+				try (InputStream in = SqlObjectCodec.ZLIB.decode(obj.deflated.openInputStream())) {
+					inserter.insert(obj.type, obj.size, in);
+				}
+			}
+			obj.destroy();
+		}
+		pending.clear();
+		inserter.flush();
+	}
+
+	/** @return type of each queued object the database already has. */
+	private Map<ObjectId, Integer> findExisting() throws IOException {
+		List<ObjectId> ids = new ArrayList<>(pending.size());
+		for (PendingObject obj : pending) {
+			ids.add(obj.id);
+		}
+
+		Map<ObjectId, Integer> existing = new HashMap<>();
+		try {
+			PreparedStatement statement = repo.getAdapter().createReadObjectSizes(ids);
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					existing.put(
+						repo.getAdapter().readObjectId(results, repo.getAdapter().getObjectHashColumn()),
+						Integer.valueOf(results.getInt(repo.getAdapter().getObjectTypeColumn()))
+					);
+				}
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+		return existing;
+	}
+
+	private void checkCollision(PendingObject obj, int storedType) throws IOException {
+		ObjectLoader loader = reader.open(obj.id);
+		if (storedType != obj.type || loader.getSize() != obj.size) {
+			throw new IOException(MessageFormat.format(JGitText.get().collisionOn, obj.id.name()));
+		}
+
+		try (InputStream have = loader.openStream(); InputStream got = obj.openInflated()) {
+			byte[] a = buffer();
+			byte[] b = new byte[a.length];
+			int n;
+			while ((n = got.read(a)) > 0) {
+				IO.readFully(have, b, 0, n);
+				for (int i = 0; i < n; i++) {
+					if (a[i] != b[i]) {
+						throw new IOException(MessageFormat.format(JGitText.get().collisionOn, obj.id.name()));
+					}
+				}
+			}
+		}
+	}
+
+	/** An object of the pack waiting to be inserted. */
+	private static class PendingObject {
+		final ObjectId id;
+
+		final int type;
+
+		final long size;
+
+		/** Deflated data of an object that was whole in the pack. */
+		final TemporaryBuffer deflated;
+
+		/** Data of an object that was a delta in the pack. */
+		final byte[] inflated;
+
+		PendingObject(PackedObjectInfo info, int type, long size, TemporaryBuffer deflated, byte[] inflated) {
+			this.id = info.copy();
+			this.type = type;
+			this.size = size;
+			this.deflated = deflated;
+			this.inflated = inflated;
+		}
+
+		InputStream openInflated() throws IOException {
+			if (deflated != null) {
+				return SqlObjectCodec.ZLIB.decode(deflated.openInputStream());
+			}
+			return new ByteArrayInputStream(inflated);
+		}
+
+		void destroy() {
+			if (deflated != null) {
+				deflated.destroy();
+			}
+		}
+	}
+}
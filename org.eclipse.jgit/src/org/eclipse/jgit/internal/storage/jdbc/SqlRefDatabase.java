@@ -1,41 +1,74 @@
 package org.eclipse.jgit.internal.storage.jdbc;
 
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
 import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.util.RefList;
+import org.eclipse.jgit.util.RefMap;
 
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Refs of a {@link SqlRepository}.
+ * <p>
+ * All refs are read with a single query and kept as an immutable snapshot.
+ * Every ref change increments the counter in the refs version table, so a
+ * reader only reads the counter to find out whether its snapshot is still
+ * current.
+ */
 public class SqlRefDatabase extends RefDatabase {
 	private final SqlRepository parent;
 
+	private volatile Snapshot snapshot;
+
 	public SqlRefDatabase(SqlRepository parent) {
 		this.parent = parent;
 	}
 
 	@Override
 	public void create() throws IOException {
-		try {
-			if (parent.getAdapter().checkRefsTableExists()) {
-				PreparedStatement drop = parent.getAdapter().createDropRefsTable();
-				drop.execute();
+		parent.withLease(() -> {
+			SqlDriverAdapter adapter = parent.getAdapter();
+			if (!adapter.hasRepositoryColumn()) {
+				// Tables of a schema holding a single repository are replaced.
+				if (adapter.checkRefsTableExists()) {
+					execute(adapter.createDropRefsTable());
+				}
+				if (adapter.checkRefsVersionTableExists()) {
+					execute(adapter.createDropRefsVersionTable());
+				}
 			}
 
-			PreparedStatement create = parent.getAdapter().createRefsTable();
-			create.execute();
-		} catch (SQLException e) {
-			throw new IOException(e);
+			if (!adapter.checkRefsTableExists()) {
+				execute(adapter.createRefsTable());
+			}
+			if (!adapter.checkRefsVersionTableExists()) {
+				execute(adapter.createRefsVersionTable());
+			}
+			execute(adapter.createInitRefsVersion());
+			snapshot = null;
+			return null;
+		});
+	}
+
+	private static void execute(PreparedStatement statement) throws SQLException {
+		try {
+			statement.execute();
+		} finally {
+			statement.close();
 		}
 	}
 
 	@Override
 	public boolean isNameConflicting(String name) throws IOException {
-		try {
+		return parent.withLease(() -> {
 			PreparedStatement statement = parent.getAdapter().createReadRef(name);
 			ResultSet results = statement.executeQuery();
 			boolean conflicts = false;
@@ -43,10 +76,8 @@ public boolean isNameConflicting(String name) throws IOException {
 				conflicts = true;
 			}
 			statement.close();
-			return conflicts;
-		} catch (SQLException e) {
-			throw new IOException(e);
-		}
+			return Boolean.valueOf(conflicts);
+		}).booleanValue();
 	}
 
 	@Override
@@ -57,7 +88,21 @@ public RefUpdate newUpdate(String name, boolean detach) throws IOException {
 			ref = new ObjectIdRef.Unpeeled(Ref.Storage.NEW, name, null);
 		}
 
-		return new SqlRefUpdate(ref, this);
+		SqlRefUpdate update = new SqlRefUpdate(ref, this);
+		if (detach && ref.isSymbolic()) {
+			update.setDetachingSymbolicRef();
+		}
+		return update;
+	}
+
+	@Override
+	public boolean performsAtomicTransactions() {
+		return true;
+	}
+
+	@Override
+	public BatchRefUpdate newBatchUpdate() {
+		return new SqlBatchRefUpdate(this);
 	}
 
 	@Override
@@ -67,64 +112,126 @@ public RefRename newRename(String fromName, String toName) throws IOException {
 
 	@Override
 	public Ref getRef(String name) throws IOException {
-		try {
-			PreparedStatement statement = parent.getAdapter().createReadRef(name);
-			ResultSet results = statement.executeQuery();
+		Snapshot refs = read();
+		Ref ref = refs.sym.get(name);
+		return ref != null ? ref : refs.ids.get(name);
+	}
 
-			if (!results.next()) {
-				statement.close();
-				return null;
+	@Override
+	public Map<String, Ref> getRefs(String prefix) throws IOException {
+		Snapshot refs = read();
+		return new RefMap(prefix, refs.ids, RefList.emptyList(), refs.sym);
+	}
+
+	/**
+	 * Return the current refs, from the cached snapshot if no ref changed
+	 * since it was read.
+	 */
+	private Snapshot read() throws IOException {
+		SqlDriverAdapter adapter = parent.getAdapter();
+		return parent.withLease(() -> {
+			boolean versioned = adapter.hasRefsVersion();
+			long version = -1;
+			if (versioned) {
+				version = readVersion();
+				Snapshot cached = snapshot;
+				if (cached != null && cached.version == version) {
+					return cached;
+				}
+			}
+
+			Snapshot refs = scan(version);
+			if (versioned) {
+				snapshot = refs;
 			}
+			return refs;
+		});
+	}
 
-			boolean symbolic = results.getBoolean(parent.getAdapter().getRefIsSymbolicColumn());
-			String target = results.getString(parent.getAdapter().getRefTargetColumn());
+	private long readVersion() throws SQLException {
+		PreparedStatement statement = parent.getAdapter().createReadRefsVersion();
+		try (ResultSet results = statement.executeQuery()) {
+			return results.next() ? results.getLong(1) : 0;
+		} finally {
 			statement.close();
+		}
+	}
 
-			if (symbolic) {
-				Ref targetRef = getRef(target);
-				if (targetRef == null) {
-					return new SymbolicRef(name, new ObjectIdRef.Unpeeled(
-						Ref.Storage.LOOSE,
-						target,
+	private Snapshot scan(long version) throws SQLException {
+		SqlDriverAdapter adapter = parent.getAdapter();
+		RefList.Builder<Ref> ids = new RefList.Builder<>();
+		List<Ref> symbolic = new ArrayList<>();
+
+		PreparedStatement statement = adapter.createListRefs();
+		try (ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				String name = results.getString(adapter.getRefNameColumn());
+				Ref ref;
+				if (results.getBoolean(adapter.getRefIsSymbolicColumn())) {
+					ref = new SymbolicRef(name, new ObjectIdRef.Unpeeled(
+						Ref.Storage.NEW,
+						adapter.readRefLink(results),
 						null
 					));
+					symbolic.add(ref);
+				} else {
+					ref = new SqlObjectIdRef(
+						Ref.Storage.LOOSE,
+						name,
+						adapter.readRefObjectId(results)
+					);
 				}
-				return new SymbolicRef(name, targetRef);
-			} else {
-				return new SqlObjectIdRef(
-					Ref.Storage.LOOSE,
-					name,
-					ObjectId.fromString(target)
-				);
+				ids.add(ref);
 			}
-		} catch (SQLException e) {
-			throw new IOException(e);
+		} finally {
+			statement.close();
 		}
+		ids.sort();
+
+		RefList<Ref> all = ids.toRefList();
+		RefList.Builder<Ref> sym = new RefList.Builder<>(symbolic.size());
+		for (Ref ref : symbolic) {
+			sym.add(resolve(ref, all, 0));
+		}
+		sym.sort();
+		return new Snapshot(version, all, sym.toRefList());
 	}
 
-	@Override
-	public Map<String, Ref> getRefs(String prefix) throws IOException {
-		try {
-			PreparedStatement statement = parent.getAdapter().createReadRefs(prefix);
-			ResultSet results = statement.executeQuery();
+	private static Ref resolve(Ref ref, RefList<Ref> refs, int depth) {
+		if (!ref.isSymbolic()) {
+			return ref;
+		}
 
-			if (!results.next()) {
-				statement.close();
-				return new HashMap<>();
-			}
+		Ref target = refs.get(ref.getTarget().getName());
+		if (target == null || depth >= MAX_SYMBOLIC_REF_DEPTH) {
+			return ref;
+		}
+		return new SymbolicRef(ref.getName(), resolve(target, refs, depth + 1));
+	}
+
+	/**
+	 * Count a ref change in the current transaction, invalidating the
+	 * snapshots of all readers.
+	 */
+	void changed() throws SQLException {
+		snapshot = null;
+		if (!parent.getAdapter().hasRefsVersion()) {
+			return;
+		}
 
-			HashMap<String, Ref> refs = new HashMap<>();
-			do {
-				String name = results.getString(parent.getAdapter().getRefNameColumn());
-				refs.put(name, getRef(name));
-			} while(results.next());
+		PreparedStatement statement = parent.getAdapter().createIncrementRefsVersion();
+		try {
+			statement.executeUpdate();
+		} finally {
 			statement.close();
-			return refs;
-		} catch (SQLException e) {
-			throw new IOException(e);
 		}
 	}
 
+	@Override
+	public void refresh() {
+		snapshot = null;
+	}
+
 	@Override
 	public List<Ref> getAdditionalRefs() throws IOException {
 		return new ArrayList<>();
@@ -137,10 +244,12 @@ public Ref peel(Ref ref) throws IOException {
 
 	@Override
 	public void close() {
+		SqlConnectionLease lease = parent.getCurrentLease();
+		if (lease == null) {
+			return;
+		}
 		try {
-			if (!parent.getConnection().getAutoCommit()) {
-				parent.getConnection().commit();
-			}
+			lease.commit();
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
@@ -149,4 +258,66 @@ public void close() {
 	public SqlRepository getRepository() {
 		return parent;
 	}
+
+	/**
+	 * Insert a ref unless it already exists.
+	 * <p>
+	 * A failed statement aborts the whole transaction on some databases, so
+	 * the insert runs in a savepoint when the connection is not in
+	 * auto-commit mode.
+	 *
+	 * @return false if the ref already exists.
+	 */
+	static boolean insertRef(SqlRepository repository, String name, boolean symbolic, String target)
+		throws SQLException {
+		try (SqlConnectionLease lease = repository.acquireLease()) {
+			Connection connection = lease.getConnection();
+			Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+			PreparedStatement statement = repository.getAdapter().createRef(name, symbolic, target);
+			try {
+				statement.executeUpdate();
+			} catch (SQLException e) {
+				if (!repository.getAdapter().isConstraintViolation(e)) {
+					throw e;
+				}
+				if (savepoint != null) {
+					connection.rollback(savepoint);
+				}
+				return false;
+			} finally {
+				statement.close();
+			}
+			if (savepoint != null) {
+				connection.releaseSavepoint(savepoint);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return the value stored in the target column of a ref: the name of
+	 *         the ref it links to, or its object id.
+	 */
+	static String targetOf(Ref ref) {
+		if (ref.isSymbolic()) {
+			return ref.getTarget().getName();
+		}
+		return ref.getObjectId() != null ? ref.getObjectId().name() : null;
+	}
+
+	private static class Snapshot {
+		final long version;
+
+		/** All refs, symbolic refs not resolved. */
+		final RefList<Ref> ids;
+
+		/** Symbolic refs, resolved. */
+		final RefList<Ref> sym;
+
+		Snapshot(long version, RefList<Ref> ids, RefList<Ref> sym) {
+			this.version = version;
+			this.ids = ids;
+			this.sym = sym;
+		}
+	}
 }
@@ -6,12 +6,20 @@
 
 import java.io.IOException;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 
+/**
+ * Updates a single ref of a {@link SqlRepository}.
+ * <p>
+ * No lock is taken. Instead every statement compares the stored value of
+ * the ref with the value read when the update was created, and the update
+ * fails with {@link Result#LOCK_FAILURE} if another writer changed it in
+ * the meantime.
+ */
 public class SqlRefUpdate extends RefUpdate {
 	private final SqlRefDatabase database;
 
+	private Ref dstRef;
+
 	public SqlRefUpdate(final Ref ref, final SqlRefDatabase database) {
 		super(ref);
 		this.database = database;
@@ -29,6 +37,16 @@ protected SqlRepository getRepository() {
 
 	@Override
 	protected boolean tryLock(boolean deref) throws IOException {
+		dstRef = getRef();
+		if (deref) {
+			dstRef = dstRef.getLeaf();
+		}
+
+		if (dstRef.isSymbolic()) {
+			setOldObjectId(null);
+		} else {
+			setOldObjectId(dstRef.getObjectId());
+		}
 		return true;
 	}
 
@@ -38,91 +56,70 @@ protected void unlock() {
 
 	@Override
 	protected Result doUpdate(Result status) throws IOException {
-		try {
-			PreparedStatement statement = getRepository().getAdapter().createReadRef(getName());
-			ResultSet results = statement.executeQuery();
-			boolean exists = results.next();
-			results.close();
-
-			if (exists) {
-				statement = getRepository().getAdapter().createUpdateRef(
-					getName(),
-					getRef().isSymbolic(),
-					getNewObjectId().name()
-				);
-
-				if (statement.executeUpdate() == 0) {
-					return Result.NO_CHANGE;
-				} else {
-					return status;
-				}
-			} else {
-				statement = getRepository().getAdapter().createRef(
-					getName(),
-					getRef().isSymbolic(),
-					getNewObjectId().name()
-				);
-
-				if (statement.executeUpdate() == 0) {
-					return Result.REJECTED;
-				} else {
-					return status;
-				}
-			}
-		} catch (SQLException e) {
-			throw new IOException(e);
+		if (status == Result.NO_CHANGE) {
+			return status;
 		}
+		return store(false, getNewObjectId().name(), status);
 	}
 
 	@Override
 	protected Result doDelete(Result status) throws IOException {
-		try {
-			PreparedStatement statement = getRepository().getAdapter().createDeleteRef(
-				getName()
+		if (dstRef.getStorage() == Ref.Storage.NEW) {
+			return status;
+		}
+
+		return getRepository().withLease(() -> {
+			PreparedStatement statement = getRepository().getAdapter().createCompareAndDeleteRef(
+				dstRef.getName(),
+				dstRef.isSymbolic(),
+				SqlRefDatabase.targetOf(dstRef)
 			);
 
-			statement.setString(1, getRef().getName());
-			if (statement.executeUpdate() == 0) {
-				return Result.REJECTED;
+			try {
+				if (statement.executeUpdate() == 0) {
+					return Result.LOCK_FAILURE;
+				}
+			} finally {
+				statement.close();
 			}
+			database.changed();
 			return status;
-		} catch (SQLException e) {
-			throw new IOException(e);
-		}
+		});
 	}
 
 	@Override
 	protected Result doLink(String target) throws IOException {
-		try {
-			PreparedStatement statement = getRepository().getAdapter().createReadRef(getName());
-			ResultSet results = statement.executeQuery();
-			boolean exists = results.next();
-			results.close();
-
-			if (exists) {
-				statement = getRepository().getAdapter().createUpdateRef(
-					getName(),
-					true,
-					target
-				);
+		Result status = dstRef.getStorage() == Ref.Storage.NEW ? Result.NEW : Result.FORCED;
+		return store(true, target, status);
+	}
 
-				if (statement.executeUpdate() == 0) {
-					return Result.REJECTED;
+	private Result store(boolean symbolic, String target, Result status) throws IOException {
+		return getRepository().withLease(() -> {
+			if (dstRef.getStorage() == Ref.Storage.NEW) {
+				if (!SqlRefDatabase.insertRef(getRepository(), dstRef.getName(), symbolic, target)) {
+					return Result.LOCK_FAILURE;
 				}
-				return Result.NEW;
-			} else {
-				statement = getRepository().getAdapter().createLinkRef(
-					getName(),
-					target
-				);
+				database.changed();
+				return status;
+			}
+
+			PreparedStatement statement = getRepository().getAdapter().createCompareAndSetRef(
+				dstRef.getName(),
+				dstRef.isSymbolic(),
+				SqlRefDatabase.targetOf(dstRef),
+				symbolic,
+				target
+			);
 
+			try {
 				if (statement.executeUpdate() == 0) {
-					return Result.REJECTED;
+					return Result.LOCK_FAILURE;
 				}
-				return Result.NEW;
+			} finally {
+				statement.close();
 			}
-		} catch (SQLException e) {
-			throw new IOException(e);
-		}
+			database.changed();
+			return status;
+		});
 	}
 }
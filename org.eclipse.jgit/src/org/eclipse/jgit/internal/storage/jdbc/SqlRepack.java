@@ -0,0 +1,300 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.pack.DeltaIndex;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Re-deltifies the object rows of a {@link SqlRepository}.
+ * <p>
+ * Reachable objects are ordered the same way {@code PackWriter} orders them
+ * for delta search (type, path hash, then descending size), and each object
+ * is compared against a sliding window of its predecessors. Objects that
+ * compress well against a predecessor are rewritten as a delta row pointing
+ * at it; all others are stored whole. Window size, maximum chain depth and
+ * the size above which objects are never deltified come from
+ * {@link PackConfig}.
+ * <p>
+ * Rows only ever refer to bases that were placed earlier in the same run,
+ * so the rewritten rows cannot form a cycle. Rows whose representation does
+ * not change are not written.
+ */
+public class SqlRepack {
+	private final SqlRepository repo;
+
+	private PackConfig packConfig;
+
+	private ProgressMonitor pm = NullProgressMonitor.INSTANCE;
+
+	private int rowsWritten;
+
+	private int deltasWritten;
+
+	public SqlRepack(SqlRepository repo) {
+		this.repo = repo;
+		this.packConfig = new PackConfig(repo);
+	}
+
+	public SqlRepack setPackConfig(PackConfig packConfig) {
+		this.packConfig = packConfig;
+		return this;
+	}
+
+	public SqlRepack setProgressMonitor(ProgressMonitor pm) {
+		this.pm = pm != null ? pm : NullProgressMonitor.INSTANCE;
+		return this;
+	}
+
+	/** @return number of rows rewritten by the last {@link #repack()}. */
+	public int getRowsWritten() {
+		return rowsWritten;
+	}
+
+	/** @return number of rows stored as a delta by the last {@link #repack()}. */
+	public int getDeltasWritten() {
+		return deltasWritten;
+	}
+
+	public void repack() throws IOException {
+		try (SqlConnectionLease lease = repo.lease()) {
+			try {
+				repack(lease);
+			} catch (IOException | RuntimeException e) {
+				lease.abort(e);
+				throw e;
+			}
+		}
+	}
+
+	private void repack(SqlConnectionLease lease) throws IOException {
+		try {
+			if (!repo.getAdapter().hasObjectDeltaColumns()) {
+				throw new IOException("Objects table " + repo.getAdapter().getObjectsTableName() +
+					" cannot store deltas");
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+
+		rowsWritten = 0;
+		deltasWritten = 0;
+
+		try (ObjectReader reader = repo.newObjectReader()) {
+			List<Entry> entries = findObjects(reader);
+			Collections.sort(entries, DELTA_ORDER);
+			searchAndWrite(reader, entries);
+		}
+
+		try {
+			lease.commit();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private List<Entry> findObjects(ObjectReader reader) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+
+		pm.beginTask("Counting objects", ProgressMonitor.UNKNOWN);
+		try (ObjectWalk walk = new ObjectWalk(reader)) {
+			for (Ref ref : repo.getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+				if (ref.getObjectId() != null) {
+					walk.markStart(walk.parseAny(ref.getObjectId()));
+				}
+			}
+
+			RevObject o;
+			while ((o = walk.next()) != null) {
+				entries.add(new Entry(o, o.getType(), 0));
+				pm.update(1);
+			}
+			while ((o = walk.nextObject()) != null) {
+				entries.add(new Entry(o, o.getType(), walk.getPathHashCode()));
+				pm.update(1);
+			}
+		}
+
+		for (Entry e : entries) {
+			readRow(e);
+		}
+		pm.endTask();
+		return entries;
+	}
+
+	private void readRow(Entry e) throws IOException {
+		try {
+			PreparedStatement statement = repo.getAdapter().createReadObjectMeta(e.id);
+			try (ResultSet results = statement.executeQuery()) {
+				if (!results.next()) {
+					throw new MissingObjectException(e.id, e.type);
+				}
+				e.size = results.getLong(repo.getAdapter().getObjectSizeColumn());
+				e.currentBase = repo.getAdapter().readObjectId(
+					results,
+					repo.getAdapter().getObjectBaseColumn()
+				);
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException err) {
+			throw new IOException(err);
+		}
+	}
+
+	private void searchAndWrite(ObjectReader reader, List<Entry> entries)
+		throws IOException {
+		int window = packConfig.getDeltaSearchWindowSize();
+		int maxDepth = packConfig.getMaxDeltaDepth();
+		int bigFileThreshold = packConfig.getBigFileThreshold();
+		SqlObjectCodec codec = repo.getObjectDatabase().getObjectCodec();
+
+		ArrayDeque<Entry> candidates = new ArrayDeque<>(window + 1);
+
+		pm.beginTask("Compressing objects", entries.size());
+		for (Entry e : entries) {
+			pm.update(1);
+
+			if (!candidates.isEmpty() && candidates.peekLast().type != e.type) {
+				candidates.clear();
+			}
+
+			if (e.size > bigFileThreshold) {
+				if (e.currentBase != null) {
+					writeWhole(reader, e, codec);
+				}
+				continue;
+			}
+
+			e.data = reader.open(e.id, e.type).getCachedBytes(Integer.MAX_VALUE);
+
+			Entry best = null;
+			byte[] bestDelta = null;
+			int limit = (int) (e.size / 2);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+			Iterator<Entry> i = candidates.descendingIterator();
+			while (i.hasNext() && limit > 0) {
+				Entry base = i.next();
+				if (base.depth >= maxDepth || base.size < e.size / 16) {
+					continue;
+				}
+
+				out.reset();
+				if (base.index().encode(out, e.data, limit)) {
+					best = base;
+					bestDelta = out.toByteArray();
+					limit = bestDelta.length - 1;
+				}
+			}
+
+			if (best != null) {
+				e.depth = best.depth + 1;
+				if (!best.id.equals(e.currentBase)) {
+					write(e, codec, bestDelta, best.id);
+					deltasWritten++;
+				}
+			} else if (e.currentBase != null) {
+				write(e, codec, e.data, null);
+			}
+
+			candidates.addLast(e);
+			if (candidates.size() > window) {
+				candidates.removeFirst().release();
+			}
+		}
+		pm.endTask();
+	}
+
+	private void writeWhole(ObjectReader reader, Entry e, SqlObjectCodec codec)
+		throws IOException {
+		write(e, codec, reader.open(e.id, e.type).getCachedBytes(Integer.MAX_VALUE), null);
+	}
+
+	private void write(Entry e, SqlObjectCodec codec, byte[] data, ObjectId base)
+		throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length);
+		try (OutputStream out = codec.encode(buf, packConfig.getCompressionLevel())) {
+			out.write(data);
+		}
+
+		try {
+			PreparedStatement statement = repo.getAdapter().createUpdateObjectContent(
+				e.id,
+				codec.getId(),
+				buf.toByteArray(),
+				base
+			);
+			try {
+				if (statement.executeUpdate() != 1) {
+					throw new SQLException("Failed to update object " + e.id.name());
+				}
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException err) {
+			throw new IOException(err);
+		}
+		e.currentBase = base;
+		rowsWritten++;
+	}
+
+	private static final Comparator<Entry> DELTA_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if (a.type != b.type) {
+				return a.type < b.type ? -1 : 1;
+			}
+			if (a.pathHash != b.pathHash) {
+				return Integer.compareUnsigned(a.pathHash, b.pathHash);
+			}
+			return Long.compare(b.size, a.size);
+		}
+	};
+
+	private static class Entry {
+		final ObjectId id;
+		final int type;
+		final int pathHash;
+
+		long size;
+		ObjectId currentBase;
+		int depth;
+
+		byte[] data;
+		private DeltaIndex index;
+
+		Entry(AnyObjectId id, int type, int pathHash) {
+			this.id = id.copy();
+			this.type = type;
+			this.pathHash = pathHash;
+		}
+
+		DeltaIndex index() {
+			if (index == null) {
+				index = new DeltaIndex(data);
+			}
+			return index;
+		}
+
+		void release() {
+			data = null;
+			index = null;
+		}
+	}
+}
@@ -8,14 +8,45 @@
 import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
 import org.eclipse.jgit.internal.storage.jdbc.adapter.SqliteAdapter;
 import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.storage.jdbc.SqlRepositoryBuilder;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
-
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Git repository stored in SQL tables.
+ * <p>
+ * The repository is safe to share between threads. Each thread runs its
+ * statements on a connection leased from the repository's
+ * {@link SqlConnectionProvider}, see {@link #lease()}.
+ */
 public class SqlRepository extends Repository {
+	/**
+	 * Work run while the calling thread holds a lease.
+	 *
+	 * @param <T>
+	 *            type of the result.
+	 * @see SqlRepository#withLease(LeasedWork)
+	 */
+	public interface LeasedWork<T> {
+		/**
+		 * @return result of the work.
+		 * @throws IOException
+		 * @throws SQLException
+		 */
+		T run() throws IOException, SQLException;
+	}
+
 	private static SqlDriverAdapter detectAdapter(Connection connection) {
 		try {
 			String name = connection.getMetaData().getDriverName().toLowerCase();
@@ -31,10 +62,35 @@ private static SqlDriverAdapter detectAdapter(Connection connection) {
 		return new MySqlLikeAdapter();
 	}
 
-	private final Connection connection;
+	private static SqlDriverAdapter detectAdapter(SqlConnectionProvider provider) {
+		try {
+			Connection connection = provider.acquire();
+			try {
+				return detectAdapter(connection);
+			} finally {
+				provider.release(connection);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private final SqlConnectionProvider connectionProvider;
+	private final ConcurrentHashMap<Thread, SqlConnectionLease> leases = new ConcurrentHashMap<>();
+	private final Map<Connection, SqlStatementCache> statementCaches = new IdentityHashMap<>();
+	private final int statementCacheSize;
 	private final SqlDriverAdapter adapter;
 	private final SqlObjectDatabase objectDatabase;
 	private final SqlRefDatabase refDatabase;
+	private final StoredConfig config = new StoredConfig() {
+		@Override
+		public void load() {
+		}
+
+		@Override
+		public void save() {
+		}
+	};
 
 	public SqlRepository(Connection connection) {
 		this(connection, detectAdapter(connection));
@@ -49,41 +105,191 @@ public SqlRepository(Connection connection, SqlDriverAdapter adapter) {
 	}
 
 	public SqlRepository(Connection connection, SqlDriverAdapter adapter, BaseRepositoryBuilder builder) {
+		this(SqlConnectionProvider.forConnection(connection), adapter, builder, 64);
+	}
+
+	public SqlRepository(SqlRepositoryBuilder builder) {
+		this(
+			builder.getConnectionProvider(),
+			builder.getAdapter() != null
+				? builder.getAdapter()
+				: detectAdapter(builder.getConnectionProvider()),
+			builder,
+			builder.getStatementCacheSize()
+		);
+
+		adapter.setRepositoryName(builder.getRepositoryName());
+		adapter.setForkOf(builder.getForkOf());
+		adapter.setPartitions(builder.getPartitions());
+	}
+
+	private SqlRepository(
+		SqlConnectionProvider connectionProvider,
+		SqlDriverAdapter adapter,
+		BaseRepositoryBuilder builder,
+		int statementCacheSize
+	) {
 		super(builder);
 
-		this.connection = connection;
+		this.connectionProvider = connectionProvider;
+		this.statementCacheSize = statementCacheSize;
 		this.adapter = adapter;
 		this.objectDatabase = new SqlObjectDatabase(this);
 		this.refDatabase = new SqlRefDatabase(this);
 
 		adapter.setRepository(this);
+	}
+
+	/**
+	 * Lease a connection for the current thread.
+	 * <p>
+	 * If the thread already holds a lease it is shared, otherwise a
+	 * connection is acquired from the {@link SqlConnectionProvider}. All
+	 * statements of the repository run on the connection leased by the
+	 * calling thread.
+	 *
+	 * @return the lease, to be closed when the caller is done.
+	 * @throws IOException
+	 *             no connection could be obtained.
+	 */
+	public SqlConnectionLease lease() throws IOException {
+		try {
+			return acquireLease();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/** Like {@link #lease()}, reporting failures as they are. */
+	SqlConnectionLease acquireLease() throws SQLException {
+		Thread thread = Thread.currentThread();
+		SqlConnectionLease lease = leases.get(thread);
+		if (lease != null && lease.retain()) {
+			return lease;
+		}
+
+		// Only this thread adds its lease, and a lease that can no longer
+		// be retained has already left the map or is about to.
+		Connection connection = connectionProvider.acquire();
 		try {
 			adapter.applyToConnection(connection);
+		} catch (SQLException e) {
+			connectionProvider.release(connection);
+			throw e;
+		}
+		lease = new SqlConnectionLease(this, thread, getStatementCache(connection));
+		leases.put(thread, lease);
+		return lease;
+	}
+
+	/**
+	 * Run work on the connection leased by the calling thread, leasing one
+	 * for the duration of the work if the thread holds none.
+	 * <p>
+	 * If the work fails its pending writes are rolled back, together with
+	 * those of other work sharing the lease, see
+	 * {@link SqlConnectionLease#abort(Throwable)}.
+	 *
+	 * @param work
+	 *            work to run.
+	 * @return result of the work.
+	 * @throws IOException
+	 *             no connection could be obtained, or the work failed.
+	 *             {@link SQLException}s are wrapped.
+	 */
+	public <T> T withLease(LeasedWork<T> work) throws IOException {
+		SqlConnectionLease lease = lease();
+		try {
+			return work.run();
+		} catch (SQLException e) {
+			lease.abort(e);
+			throw new IOException(e);
+		} catch (IOException | RuntimeException | Error e) {
+			lease.abort(e);
+			throw e;
+		} finally {
+			lease.close();
+		}
+	}
+
+	/** Remove a lease whose last use was closed from its thread. */
+	void forget(SqlConnectionLease lease) {
+		leases.remove(lease.getOwner(), lease);
+	}
+
+	void release(SqlConnectionLease lease) {
+		Connection connection = lease.getConnection();
+		try {
+			connectionProvider.release(connection);
+			if (connection.isClosed()) {
+				dropStatementCache(connection);
+			}
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * @return the statement cache of a connection, kept from one lease of
+	 *         the connection to the next until the connection is closed.
+	 */
+	private SqlStatementCache getStatementCache(Connection connection) throws SQLException {
+		List<SqlStatementCache> stale = new ArrayList<>();
+		SqlStatementCache cache;
+		synchronized (statementCaches) {
+			cache = statementCaches.get(connection);
+			if (cache == null) {
+				// A new connection may replace one the provider closed
+				// while it was idle.
+				for (Iterator<SqlStatementCache> i = statementCaches.values().iterator(); i.hasNext();) {
+					SqlStatementCache other = i.next();
+					if (other.getConnection().isClosed()) {
+						stale.add(other);
+						i.remove();
+					}
+				}
+				cache = new SqlStatementCache(connection, statementCacheSize);
+				statementCaches.put(connection, cache);
+			}
+		}
+		for (SqlStatementCache other : stale) {
+			other.close();
+		}
+		return cache;
+	}
+
+	private void dropStatementCache(Connection connection) {
+		SqlStatementCache cache;
+		synchronized (statementCaches) {
+			cache = statementCaches.remove(connection);
+		}
+		if (cache != null) {
+			cache.close();
+		}
+	}
+
+	/** @return the lease of the current thread, or null. */
+	SqlConnectionLease getCurrentLease() {
+		return leases.get(Thread.currentThread());
+	}
+
 	@Override
 	public void create(boolean bare) throws IOException {
 		if (!bare) {
 			throw new IOException("Non-bare Git repositories are not supported.");
 		}
 
-		objectDatabase.create();
-		refDatabase.create();
+		withLease(() -> {
+			objectDatabase.create();
+			refDatabase.create();
 
-		RefUpdate head = updateRef(Constants.HEAD);
-		head.disableRefLog();
-		head.link(Constants.R_HEADS + Constants.MASTER);
+			RefUpdate head = updateRef(Constants.HEAD);
+			head.disableRefLog();
+			head.link(Constants.R_HEADS + Constants.MASTER);
 
-		try {
-			if (!connection.getAutoCommit()) {
-				connection.commit();
-			}
-		} catch (SQLException e) {
-			throw new IOException(e);
-		}
+			getCurrentLease().commit();
+			return null;
+		});
 	}
 
 	@Override
@@ -98,15 +304,7 @@ public SqlRefDatabase getRefDatabase() {
 
 	@Override
 	public StoredConfig getConfig() {
-		return new StoredConfig() {
-			@Override
-			public void load() {
-			}
-
-			@Override
-			public void save() {
-			}
-		};
+		return config;
 	}
 
 	@Override
@@ -127,8 +325,39 @@ public ReflogReader getReflogReader(String refName) throws IOException {
 		return null;
 	}
 
-	public Connection getConnection() {
-		return connection;
+	/**
+	 * Prepare a statement on the connection leased by the current thread,
+	 * using its statement cache.
+	 * <p>
+	 * A thread without a lease gets one for the lifetime of the statement,
+	 * released when the statement is closed.
+	 *
+	 * @param sql
+	 *            statement text.
+	 * @return statement. Closing it returns it to the cache.
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		SqlConnectionLease lease = getCurrentLease();
+		if (lease != null && lease.retain()) {
+			try {
+				return lease.prepareStatement(sql);
+			} finally {
+				lease.close();
+			}
+		}
+
+		lease = acquireLease();
+		try {
+			return lease.prepareStatement(sql, true);
+		} catch (SQLException | RuntimeException e) {
+			lease.close();
+			throw e;
+		}
+	}
+
+	public SqlConnectionProvider getConnectionProvider() {
+		return connectionProvider;
 	}
 
 	public SqlDriverAdapter getAdapter() {
@@ -139,9 +368,40 @@ public long getNumberOfObjects() throws IOException {
 		return getObjectDatabase().getObjectCount();
 	}
 
+	/**
+	 * Upgrade the tables of this repository to the current schema version.
+	 *
+	 * @return the schema version the repository was upgraded from.
+	 * @throws IOException
+	 */
+	public int upgradeSchema() throws IOException {
+		return withLease(adapter::upgradeSchema).intValue();
+	}
+
 	public void createIfNotExists() throws IOException {
-		if (!getObjectDatabase().exists()) {
-			create(true);
+		withLease(() -> {
+			if (!getObjectDatabase().exists()) {
+				create(true);
+			}
+			return null;
+		});
+	}
+
+	@Override
+	protected void doClose() {
+		super.doClose();
+		List<SqlStatementCache> caches;
+		synchronized (statementCaches) {
+			caches = new ArrayList<>(statementCaches.values());
+			statementCaches.clear();
+		}
+		for (SqlStatementCache cache : caches) {
+			cache.close();
+		}
+		try {
+			connectionProvider.close();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -0,0 +1,177 @@
+package org.eclipse.jgit.internal.storage.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepared statements of one connection, cached by their SQL.
+ * <p>
+ * The cache lives as long as the connection, not as a lease of it: a
+ * pooled connection keeps its statements from one lease to the next, and
+ * they are closed together with the connection. Closing a cached statement
+ * returns it to the cache; a statement that is still in use is never handed
+ * out twice, also when threads share the connection.
+ */
+final class SqlStatementCache {
+	private final Connection connection;
+
+	private final Map<String, CachedStatement> statements;
+
+	private boolean closed;
+
+	SqlStatementCache(Connection connection, final int cacheSize) {
+		this.connection = connection;
+		this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+				if (size() <= cacheSize) {
+					return false;
+				}
+				eldest.getValue().evict();
+				return true;
+			}
+		};
+	}
+
+	Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Prepare a statement, reusing a cached one if it is not in use.
+	 *
+	 * @param sql
+	 *            statement text.
+	 * @param holder
+	 *            lease whose use the statement holds, released when the
+	 *            statement is closed; null if it holds none.
+	 * @return statement. Closing it returns it to the cache.
+	 * @throws SQLException
+	 */
+	synchronized PreparedStatement prepareStatement(String sql, SqlConnectionLease holder) throws SQLException {
+		CachedStatement cached = statements.get(sql);
+		if (cached == null && !closed) {
+			cached = new CachedStatement(connection.prepareStatement(sql));
+			statements.put(sql, cached);
+		} else if (cached == null || cached.inUse) {
+			// Not cached; it is closed when given back.
+			cached = new CachedStatement(connection.prepareStatement(sql));
+			cached.evicted = true;
+		}
+		cached.inUse = true;
+		cached.holder = holder;
+		return cached.proxy;
+	}
+
+	/**
+	 * Close the cached statements. Statements in use are closed when they
+	 * are given back.
+	 */
+	void close() {
+		List<CachedStatement> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<>(statements.values());
+			statements.clear();
+		}
+		for (CachedStatement cached : toClose) {
+			cached.evict();
+		}
+	}
+
+	private class CachedStatement implements InvocationHandler {
+		final PreparedStatement statement;
+
+		final PreparedStatement proxy;
+
+		boolean inUse;
+
+		boolean evicted;
+
+		SqlConnectionLease holder;
+
+		CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+			this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class },
+				this
+			);
+		}
+
+		@Override
+		public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+			if (method.getParameterCount() == 0) {
+				switch (method.getName()) {
+				case "close":
+					giveBack();
+					return null;
+				case "isClosed":
+					synchronized (SqlStatementCache.this) {
+						return Boolean.valueOf(!inUse || statement.isClosed());
+					}
+				}
+			}
+
+			try {
+				return method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		private void giveBack() throws SQLException {
+			boolean close;
+			SqlConnectionLease release;
+			synchronized (SqlStatementCache.this) {
+				if (!inUse) {
+					return;
+				}
+				inUse = false;
+				close = evicted;
+				release = holder;
+				holder = null;
+			}
+
+			try {
+				if (close) {
+					statement.close();
+				} else {
+					statement.clearParameters();
+					statement.clearBatch();
+				}
+			} finally {
+				if (release != null) {
+					release.close();
+				}
+			}
+		}
+
+		void evict() {
+			synchronized (SqlStatementCache.this) {
+				evicted = true;
+				if (inUse) {
+					// Closed when given back.
+					return;
+				}
+			}
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				// Nothing else holds the statement; its resources are
+				// freed with the connection.
+			}
+		}
+	}
+}
@@ -1,14 +1,26 @@
 package org.eclipse.jgit.internal.storage.jdbc.adapter;
 
+import org.eclipse.jgit.internal.storage.jdbc.SqlConnectionLease;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.util.StringUtils;
 
 import java.io.InputStream;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class MySqlLikeAdapter extends SqlDriverAdapter {
+	@Override
 	protected String quote(String n) {
 		return '`' + n + '`';
 	}
@@ -33,231 +45,1060 @@ protected String getRefType() {
 		return "VARCHAR(512)";
 	}
 
+	protected String getObjectIdType() {
+		return "BINARY(20)";
+	}
+
+	/**
+	 * @param expression SQL expression yielding hex text
+	 * @return SQL expression yielding the raw bytes it encodes.
+	 */
+	protected String hexToBinary(String expression) {
+		return "UNHEX(" + expression + ")";
+	}
+
+	/**
+	 * @return false if the database has no function to decode hex text, and
+	 *         ids have to be decoded while the rows are copied.
+	 */
+	protected boolean canDecodeHex() {
+		return true;
+	}
+
+	/**
+	 * @return column type of ids and names compared byte by byte.
+	 */
+	protected String getAsciiType() throws SQLException {
+		if (isRealMySql()) {
+			return getHashType() + " CHARACTER SET ascii COLLATE ascii_bin";
+		}
+		return getHashType();
+	}
+
 	@Override
-	public boolean checkObjectsTableExists() throws SQLException {
-		ResultSet results = getRepository().getConnection().prepareStatement(
+	protected boolean checkTableExists(String name) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
 			"SHOW TABLES"
-		).executeQuery();
+		);
+		try (ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				if (name.equalsIgnoreCase(results.getString(1))) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			statement.close();
+		}
+	}
+
+	protected String createInsertObjectQuery() throws SQLException {
+		if (isIgnoringExistingObjects()) {
+			return insertIgnoringQuery(
+				getObjectsTableName(),
+				columnNames(getObjectHashColumn(), getObjectTypeColumn(), getObjectContentColumn(),
+					getObjectSizeColumn(), getObjectCodecColumn(), getRepositoryColumn()),
+				6
+			);
+		}
+
+		if (hasObjectCodecColumn()) {
+			return "INSERT INTO " + quote(getObjectsTableName()) + " (" +
+				columnNames(getObjectHashColumn(), getObjectTypeColumn(), getObjectContentColumn(),
+					getObjectSizeColumn(), getObjectCodecColumn()) +
+				") VALUES (?, ?, ?, ?, ?)";
+		}
 
-		while (results.next()) {
-			if (getObjectsTableName().equalsIgnoreCase(results.getString(1))) {
-				results.close();
-				return true;
+		return "INSERT INTO " + quote(getObjectsTableName()) + " (" +
+			columnNames(getObjectHashColumn(), getObjectTypeColumn(), getObjectContentColumn()) +
+			") VALUES (?, ?, ?)";
+	}
+
+	/**
+	 * Bind the size and codec of a new object row, if the table has them,
+	 * and the network the row belongs to.
+	 */
+	protected void bindObjectSizeAndCodec(PreparedStatement statement, long size, int codec) throws SQLException {
+		if (hasObjectCodecColumn()) {
+			statement.setLong(4, size);
+			statement.setInt(5, codec);
+			if (hasRepositoryColumn()) {
+				statement.setLong(6, getNetworkId());
 			}
+		} else if (codec != 0) {
+			throw new SQLException("Objects table " + getObjectsTableName() + " cannot store encoded objects");
+		}
+	}
+
+	/**
+	 * @return expression selecting the inflated size of an object row.
+	 */
+	protected String objectSizeExpression() throws SQLException {
+		if (hasObjectCodecColumn()) {
+			return quote(getObjectSizeColumn());
 		}
+		return "LENGTH(" + quote(getObjectContentColumn()) + ") AS " + quote(getObjectSizeColumn());
+	}
 
-		results.close();
-		return false;
+	/**
+	 * @return expression selecting the codec of an object row.
+	 */
+	protected String objectCodecExpression() throws SQLException {
+		if (hasObjectCodecColumn()) {
+			return quote(getObjectCodecColumn());
+		}
+		return "0 AS " + quote(getObjectCodecColumn());
 	}
 
-	@Override
-	public boolean checkRefsTableExists() throws SQLException {
-		ResultSet results = getRepository().getConnection().prepareStatement(
-			"SHOW TABLES"
-		).executeQuery();
+	/**
+	 * @return expression selecting the delta base of an object row.
+	 */
+	protected String objectBaseExpression() throws SQLException {
+		if (hasObjectDeltaColumns()) {
+			return quote(getObjectBaseColumn());
+		}
+		return "NULL AS " + quote(getObjectBaseColumn());
+	}
 
-		while (results.next()) {
-			if (getRefsTableName().equalsIgnoreCase(results.getString(1))) {
-				results.close();
-				return true;
-			}
+	/**
+	 * @param visible
+	 *            true to read the objects the repository has, false to read
+	 *            any object of its network.
+	 * @return FROM clause reading the objects table as {@code o}. A
+	 *         repository sharing its network reads only the objects listed
+	 *         for it in the repository objects table, which takes the
+	 *         parameter bound first by {@link #bindObjectScope}.
+	 */
+	protected String objectsFrom(boolean visible) throws SQLException {
+		String from = " FROM " + quote(getObjectsTableName()) + " o";
+		if (visible && isSharingObjects()) {
+			from += " JOIN " + quote(getRepositoryObjectsTableName()) + " r ON r." +
+				quote(getObjectHashColumn()) + " = " + objectHash() +
+				" AND r." + quote(getRepositoryColumn()) + " = ?";
+		}
+		return from;
+	}
+
+	/**
+	 * @return condition, followed by {@code AND}, restricting the rows of
+	 *         {@link #objectsFrom(boolean)} to those of the network of the
+	 *         repository. Empty if the schema holds a single repository.
+	 */
+	protected String objectScope() throws SQLException {
+		if (hasRepositoryColumn()) {
+			return "o." + quote(getRepositoryColumn()) + " = ? AND ";
 		}
+		return "";
+	}
 
-		results.close();
-		return false;
+	/**
+	 * @return the hash column of {@link #objectsFrom(boolean)}.
+	 */
+	protected String objectHash() {
+		return "o." + quote(getObjectHashColumn());
+	}
+
+	/**
+	 * Bind the parameters of {@link #objectsFrom(boolean)} and
+	 * {@link #objectScope()}, starting at parameter {@code index}.
+	 *
+	 * @return index of the next parameter.
+	 */
+	protected int bindObjectScope(PreparedStatement statement, int index, boolean visible) throws SQLException {
+		if (visible && isSharingObjects()) {
+			statement.setLong(index++, getRepositoryId());
+		}
+		if (hasRepositoryColumn()) {
+			statement.setLong(index++, getNetworkId());
+		}
+		return index;
+	}
+
+	/**
+	 * @return condition, followed by {@code AND}, restricting a table with a
+	 *         repository column to the rows of the repository. Empty if the
+	 *         schema holds a single repository.
+	 */
+	protected String repositoryCondition() throws SQLException {
+		if (hasRepositoryColumn()) {
+			return quote(getRepositoryColumn()) + " = ? AND ";
+		}
+		return "";
+	}
+
+	/**
+	 * Bind the parameter of {@link #repositoryCondition()}, or of a
+	 * repository column, starting at parameter {@code index}.
+	 *
+	 * @return index of the next parameter.
+	 */
+	protected int bindRepository(PreparedStatement statement, int index) throws SQLException {
+		if (hasRepositoryColumn()) {
+			statement.setLong(index++, getRepositoryId());
+		}
+		return index;
 	}
 
 	@Override
 	public PreparedStatement createInsertObjectBatch() throws SQLException {
-		String query = "INSERT INTO " + quote(getObjectsTableName()) + " (" +
-			columnNames(getObjectHashColumn(), getObjectTypeColumn(), getObjectContentColumn()) +
-			") VALUES (?, ?, ?)";
-
-		return getRepository().getConnection().prepareStatement(
-			query
+		return getRepository().prepareStatement(
+			createInsertObjectQuery()
 		);
 	}
 
 	@Override
-	public void createInsertObjectBatch(PreparedStatement statement, String hash, int type, InputStream stream) throws SQLException {
-		statement.setString(1, hash);
+	public void createInsertObjectBatch(PreparedStatement statement, AnyObjectId id, int type, long size, int codec, InputStream stream) throws SQLException {
+		bindObjectId(statement, 1, id);
 		statement.setInt(2, type);
 		statement.setBlob(3, stream);
+		bindObjectSizeAndCodec(statement, size, codec);
 		statement.addBatch();
-		statement.clearParameters();
 	}
 
 	@Override
-	public PreparedStatement createReadObjectMeta(String hash) throws SQLException {
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
+	public PreparedStatement createInsertObjectStream(
+		AnyObjectId id,
+		int type,
+		long size,
+		int codec,
+		InputStream stream,
+		long length
+	) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			createInsertObjectQuery()
+		);
+
+		bindObjectId(statement, 1, id);
+		statement.setInt(2, type);
+		statement.setBinaryStream(3, stream, length);
+		bindObjectSizeAndCodec(statement, size, codec);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createReadObjectMeta(AnyObjectId id) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
 			"SELECT " +
-				quote(getObjectTypeColumn()) + ", LENGTH(" + quote(getObjectContentColumn()) +
-				") AS " + quote(getObjectSizeColumn()) + " FROM " + quote(getObjectsTableName()) +
-				" WHERE " + quote(getObjectHashColumn()) + " = ?"
+				quote(getObjectTypeColumn()) + ", " + objectSizeExpression() + ", " +
+				objectCodecExpression() + ", " + objectBaseExpression() +
+				objectsFrom(false) + " WHERE " + objectScope() + objectHash() + " = ?"
 		);
 
-		statement.setString(1, hash);
+		bindObjectId(statement, bindObjectScope(statement, 1, false), id);
 		return statement;
 	}
 
 	@Override
-	public PreparedStatement createReadObject(String hash) throws SQLException {
+	public PreparedStatement createReadObject(AnyObjectId id) throws SQLException {
 		String query =
 			"SELECT " + quote(getObjectTypeColumn()) +
-				", LENGTH(" + quote(getObjectContentColumn()) +
-				") AS " + quote(getObjectSizeColumn()) + ", " + quote(getObjectContentColumn()) + " FROM " +
-				quote(getObjectsTableName()) + " WHERE " + quote(getObjectHashColumn()) + " = ?";
+				", " + objectSizeExpression() + ", " + objectCodecExpression() +
+				", " + objectBaseExpression() +
+				", " + quote(getObjectContentColumn()) +
+				objectsFrom(false) + " WHERE " + objectScope() + objectHash() + " = ?";
+
+		PreparedStatement statement = getRepository().prepareStatement(query);
+
+		bindObjectId(statement, bindObjectScope(statement, 1, false), id);
+		return statement;
+	}
+
+	/**
+	 * @return {@code (?, ?, ...)} with {@code count} parameters.
+	 */
+	protected String parameterList(int count) {
+		StringBuilder list = new StringBuilder(count * 3 + 1);
+		list.append('(');
+		for (int i = 0; i < count; i++) {
+			list.append(i == 0 ? "?" : ", ?");
+		}
+		return list.append(')').toString();
+	}
+
+	@Override
+	public PreparedStatement createReadObjects(
+		Collection<? extends AnyObjectId> ids,
+		long maxContentSize
+	) throws SQLException {
+		String size = hasObjectCodecColumn()
+			? quote(getObjectSizeColumn())
+			: "LENGTH(" + quote(getObjectContentColumn()) + ")";
+		String query =
+			"SELECT " + objectHash() + ", " + quote(getObjectTypeColumn()) +
+				", " + objectSizeExpression() + ", " + objectCodecExpression() +
+				", " + objectBaseExpression() +
+				", CASE WHEN " + size + " <= ? THEN " + quote(getObjectContentColumn()) +
+				" END AS " + quote(getObjectContentColumn()) +
+				objectsFrom(true) + " WHERE " + objectScope() +
+				objectHash() + " IN " + parameterList(ids.size());
+
+		PreparedStatement statement = getRepository().prepareStatement(query);
+
+		statement.setLong(1, maxContentSize);
+		int index = bindObjectScope(statement, 2, true);
+		for (AnyObjectId id : ids) {
+			bindObjectId(statement, index++, id);
+		}
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createReadObjectSizes(Collection<? extends AnyObjectId> ids) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + objectHash() + ", " + quote(getObjectTypeColumn()) +
+				", " + objectSizeExpression() +
+				objectsFrom(true) + " WHERE " + objectScope() +
+				objectHash() + " IN " + parameterList(ids.size())
+		);
 
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(query);
+		int index = bindObjectScope(statement, 1, true);
+		for (AnyObjectId id : ids) {
+			bindObjectId(statement, index++, id);
+		}
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createReadObjectRepresentations(Collection<? extends AnyObjectId> ids) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + objectHash() + ", " + quote(getObjectTypeColumn()) +
+				", " + objectSizeExpression() + ", " + objectCodecExpression() +
+				", " + objectBaseExpression() +
+				", LENGTH(" + quote(getObjectContentColumn()) + ") AS " + quote(getObjectContentLengthColumn()) +
+				objectsFrom(false) + " WHERE " + objectScope() +
+				objectHash() + " IN " + parameterList(ids.size())
+		);
+
+		int index = bindObjectScope(statement, 1, false);
+		for (AnyObjectId id : ids) {
+			bindObjectId(statement, index++, id);
+		}
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createReadObjectSize(AnyObjectId id) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + quote(getObjectTypeColumn()) + ", " + objectSizeExpression() +
+				objectsFrom(true) + " WHERE " + objectScope() + objectHash() + " = ?"
+		);
 
-		statement.setString(1, hash);
+		bindObjectId(statement, bindObjectScope(statement, 1, true), id);
 		return statement;
 	}
 
 	@Override
-	public PreparedStatement createFindAbbreviatedObject(String prefix) throws SQLException {
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
-			"SELECT " + quote(getObjectHashColumn()) +
-				" FROM " + quote(getObjectsTableName()) + " WHERE " +
-				quote(getObjectHashColumn()) + " LIKE ?"
+	public PreparedStatement createHasObject(AnyObjectId id) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT 1" + objectsFrom(true) + " WHERE " + objectScope() + objectHash() + " = ?"
 		);
 
-		statement.setString(1, prefix + "%");
+		bindObjectId(statement, bindObjectScope(statement, 1, true), id);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createFindAbbreviatedObject(AbbreviatedObjectId prefix) throws SQLException {
+		if (!usesBinaryObjectIds()) {
+			PreparedStatement statement = getRepository().prepareStatement(
+				"SELECT " + objectHash() + objectsFrom(true) + " WHERE " +
+					objectScope() + objectHash() + " LIKE ?"
+			);
+
+			statement.setString(bindObjectScope(statement, 1, true), prefix.name() + "%");
+			return statement;
+		}
+
+		byte[] upper = abbreviationUpperBound(prefix);
+		String query = "SELECT " + objectHash() + objectsFrom(true) + " WHERE " +
+			objectScope() + objectHash() + " >= ?";
+		if (upper != null) {
+			query += " AND " + objectHash() + " < ?";
+		}
+
+		PreparedStatement statement = getRepository().prepareStatement(query);
+		int index = bindObjectScope(statement, 1, true);
+		statement.setBytes(index, abbreviationLowerBound(prefix));
+		if (upper != null) {
+			statement.setBytes(index + 1, upper);
+		}
 		return statement;
 	}
 
 	@Override
 	public PreparedStatement createObjectCount() throws SQLException {
-		return getRepository().getConnection().prepareStatement(
-			"SELECT COUNT(*) AS count FROM " + quote(getObjectsTableName())
+		String query = "SELECT COUNT(*) AS count" + objectsFrom(true);
+		if (hasRepositoryColumn()) {
+			query += " WHERE o." + quote(getRepositoryColumn()) + " = ?";
+		}
+
+		PreparedStatement statement = getRepository().prepareStatement(query);
+		bindObjectScope(statement, 1, true);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createUpdateObjectContent(
+		AnyObjectId id,
+		int codec,
+		byte[] content,
+		AnyObjectId base
+	) throws SQLException {
+		if (!hasObjectDeltaColumns()) {
+			throw new SQLException("Objects table " + getObjectsTableName() + " cannot store deltas");
+		}
+
+		PreparedStatement statement = getRepository().prepareStatement(
+			"UPDATE " + quote(getObjectsTableName()) + " SET " +
+				quote(getObjectContentColumn()) + " = ?, " +
+				quote(getObjectCodecColumn()) + " = ?, " +
+				quote(getObjectBaseColumn()) + " = ? WHERE " +
+				(hasRepositoryColumn() ? quote(getRepositoryColumn()) + " = ? AND " : "") +
+				quote(getObjectHashColumn()) + " = ?"
 		);
+
+		statement.setBytes(1, content);
+		statement.setInt(2, codec);
+		bindObjectId(statement, 3, base);
+		int index = 4;
+		if (hasRepositoryColumn()) {
+			statement.setLong(index++, getNetworkId());
+		}
+		bindObjectId(statement, index, id);
+		return statement;
+	}
+
+	/**
+	 * Bind the target of a ref, either a ref name or an object id, starting
+	 * at parameter {@code index}.
+	 *
+	 * @return index of the next parameter.
+	 */
+	protected int bindRefTarget(PreparedStatement statement, int index, boolean symbolic, String target) throws SQLException {
+		if (!usesBinaryObjectIds()) {
+			statement.setString(index, target);
+			return index + 1;
+		}
+
+		if (symbolic) {
+			bindObjectId(statement, index, null);
+			statement.setString(index + 1, target);
+		} else {
+			bindObjectId(statement, index, ObjectId.fromString(target));
+			statement.setNull(index + 1, Types.VARCHAR);
+		}
+		return index + 2;
+	}
+
+	/**
+	 * @return the columns {@link #bindRefTarget} binds.
+	 */
+	protected String[] refTargetColumns() throws SQLException {
+		if (usesBinaryObjectIds()) {
+			return new String[] { getRefTargetColumn(), getRefLinkColumn() };
+		}
+		return new String[] { getRefTargetColumn() };
+	}
+
+	protected String refColumnNames() throws SQLException {
+		List<String> names = new ArrayList<>();
+		names.add(getRefNameColumn());
+		names.add(getRefIsSymbolicColumn());
+		names.addAll(Arrays.asList(refTargetColumns()));
+		return columnNames(names.toArray(new String[0]));
+	}
+
+	/**
+	 * @return the columns a new ref row sets, the columns of
+	 *         {@link #refColumnNames()} followed by the repository.
+	 */
+	protected String[] refInsertColumns() throws SQLException {
+		List<String> names = new ArrayList<>();
+		names.add(getRefNameColumn());
+		names.add(getRefIsSymbolicColumn());
+		names.addAll(Arrays.asList(refTargetColumns()));
+		if (hasRepositoryColumn()) {
+			names.add(getRepositoryColumn());
+		}
+		return names.toArray(new String[0]);
+	}
+
+	/**
+	 * Bind a new ref row of {@link #refInsertColumns()}.
+	 */
+	protected void bindRefInsert(PreparedStatement statement, String name, boolean symbolic, String target) throws SQLException {
+		statement.setString(1, name);
+		statement.setBoolean(2, symbolic);
+		bindRepository(statement, bindRefTarget(statement, 3, symbolic, target));
 	}
 
 	@Override
 	public PreparedStatement createUpdateRef(String name, boolean symbolic, String target) throws SQLException {
-		String query = "UPDATE " + quote(getRefsTableName()) + " SET "
-			+ quote(getRefTargetColumn()) + " = ?, " + quote(getRefIsSymbolicColumn()) +
-			" = ? WHERE " + quote(getRefNameColumn()) + " = ?";
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(query);
-		statement.setString(1, target);
-		statement.setBoolean(2, symbolic);
-		statement.setString(3, name);
+		String query = "UPDATE " + quote(getRefsTableName()) + " SET ";
+		for (String column : refTargetColumns()) {
+			query += quote(column) + " = ?, ";
+		}
+		query += quote(getRefIsSymbolicColumn()) + " = ? WHERE " + repositoryCondition() +
+			quote(getRefNameColumn()) + " = ?";
+
+		PreparedStatement statement = getRepository().prepareStatement(query);
+		int index = bindRefTarget(statement, 1, symbolic, target);
+		statement.setBoolean(index++, symbolic);
+		statement.setString(bindRepository(statement, index), name);
 		return statement;
 	}
 
 	@Override
 	public PreparedStatement createRef(String name, boolean symbolic, String target) throws SQLException {
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
-			"INSERT INTO " + quote(getRefsTableName()) + " (" + columnNames(
-				getRefNameColumn(),
-				getRefTargetColumn(),
-				getRefIsSymbolicColumn()
-			) + ") VALUES (?, ?, ?)"
+		String[] columns = refInsertColumns();
+		PreparedStatement statement = getRepository().prepareStatement(
+			"INSERT INTO " + quote(getRefsTableName()) + " (" + columnNames(columns) +
+				") VALUES " + parameterList(columns.length)
 		);
-		statement.setString(1, name);
-		statement.setString(2, target);
-		statement.setBoolean(3, symbolic);
+
+		bindRefInsert(statement, name, symbolic, target);
 		return statement;
 	}
 
-	private boolean isRealMySql() throws SQLException {
-		return getRepository().getConnection().getMetaData().getDriverName().contains("MySQL");
+	protected boolean isRealMySql() throws SQLException {
+		try (SqlConnectionLease lease = lease()) {
+			return lease.getConnection().getMetaData().getDriverName().contains("MySQL");
+		}
+	}
+
+	/**
+	 * @param table name of the table to create
+	 * @param repositories true to create the table of
+	 *        {@link #SCHEMA_REPOSITORIES}, keyed by repository and hash.
+	 * @return statement creating an objects table.
+	 */
+	protected String objectsTableDefinition(String table, boolean repositories) throws SQLException {
+		String columns =
+			quote(getObjectTypeColumn()) + " SMALLINT NOT NULL," +
+			quote(getObjectContentColumn()) + " " + getBlobType() + " NOT NULL," +
+			quote(getObjectSizeColumn()) + " BIGINT NOT NULL," +
+			quote(getObjectCodecColumn()) + " SMALLINT NOT NULL DEFAULT 0," +
+			quote(getObjectBaseColumn()) + " " + getObjectIdType() + " NULL";
+		if (!repositories) {
+			return "CREATE TABLE " + quote(table) + " (" +
+				quote(getObjectHashColumn()) + " " + getObjectIdType() + " NOT NULL PRIMARY KEY," +
+				columns + ")";
+		}
+
+		return "CREATE TABLE " + quote(table) + " (" +
+			quote(getRepositoryColumn()) + " BIGINT NOT NULL DEFAULT 0," +
+			quote(getObjectHashColumn()) + " " + getObjectIdType() + " NOT NULL," +
+			columns + "," +
+			"PRIMARY KEY (" + columnNames(getRepositoryColumn(), getObjectHashColumn()) + ")" +
+			")";
+	}
+
+	/**
+	 * @param table name of the table to create
+	 * @param repositories true to create the table of
+	 *        {@link #SCHEMA_REPOSITORIES}, keyed by repository and name.
+	 * @return statement creating a refs table.
+	 */
+	protected String refsTableDefinition(String table, boolean repositories) throws SQLException {
+		String columns =
+			quote(getRefIsSymbolicColumn()) + " BOOLEAN NOT NULL," +
+			quote(getRefTargetColumn()) + " " + getObjectIdType() + " NULL," +
+			quote(getRefLinkColumn()) + " " + getRefType() + " NULL";
+		if (!repositories) {
+			return "CREATE TABLE " + quote(table) + " (" +
+				quote(getRefNameColumn()) + " " + getAsciiType() + " NOT NULL PRIMARY KEY," +
+				columns + ")";
+		}
+
+		return "CREATE TABLE " + quote(table) + " (" +
+			quote(getRepositoryColumn()) + " BIGINT NOT NULL DEFAULT 0," +
+			quote(getRefNameColumn()) + " " + getAsciiType() + " NOT NULL," +
+			columns + "," +
+			"PRIMARY KEY (" + columnNames(getRepositoryColumn(), getRefNameColumn()) + ")" +
+			")";
+	}
+
+	/**
+	 * @return clause partitioning a new table by its repository column into
+	 *         {@link #getPartitions()} partitions, or the empty string.
+	 */
+	protected String partitionClause() throws SQLException {
+		if (getPartitions() > 0 && isRealMySql()) {
+			return " PARTITION BY KEY (" + quote(getRepositoryColumn()) + ") PARTITIONS " + getPartitions();
+		}
+		return "";
 	}
 
 	@Override
 	public PreparedStatement createObjectsTable() throws SQLException {
-		String query = "CREATE TABLE " + quote(getObjectsTableName()) + " (" +
-			"" + quote(getObjectHashColumn()) + " " + getHashType();
+		return getRepository().prepareStatement(
+			objectsTableDefinition(getObjectsTableName(), true) + partitionClause()
+		);
+	}
 
-		if (isRealMySql()) {
-			query += " CHARACTER SET ascii COLLATE ascii_bin";
+	/**
+	 * @return definition of the id column of the repositories table, an
+	 *         identity column whose generated values start above
+	 *         {@link #DEFAULT_REPOSITORY_ID}.
+	 */
+	protected String repositoryIdColumnDefinition() {
+		return quote(getRepositoryIdColumn()) + " BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY";
+	}
+
+	protected String repositoriesTableDefinition() throws SQLException {
+		return "CREATE TABLE " + quote(getRepositoriesTableName()) + " (" +
+			repositoryIdColumnDefinition() + "," +
+			quote(getRepositoryNameColumn()) + " " + getAsciiType() + " NOT NULL UNIQUE," +
+			quote(getRepositoryNetworkColumn()) + " BIGINT NOT NULL" +
+			")";
+	}
+
+	protected String repositoryObjectsTableDefinition() throws SQLException {
+		return "CREATE TABLE " + quote(getRepositoryObjectsTableName()) + " (" +
+			quote(getRepositoryColumn()) + " BIGINT NOT NULL," +
+			quote(getObjectHashColumn()) + " " + getObjectIdType() + " NOT NULL," +
+			"PRIMARY KEY (" + columnNames(getRepositoryColumn(), getObjectHashColumn()) + ")" +
+			")";
+	}
+
+	@Override
+	public PreparedStatement createRepositoriesTable() throws SQLException {
+		return getRepository().prepareStatement(
+			repositoriesTableDefinition()
+		);
+	}
+
+	@Override
+	public PreparedStatement createRepositoryObjectsTable() throws SQLException {
+		return getRepository().prepareStatement(
+			repositoryObjectsTableDefinition() + partitionClause()
+		);
+	}
+
+	@Override
+	public PreparedStatement createReadRepository(String name) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + columnNames(getRepositoryIdColumn(), getRepositoryNetworkColumn()) +
+				" FROM " + quote(getRepositoriesTableName()) +
+				" WHERE " + quote(getRepositoryNameColumn()) + " = ?"
+		);
+
+		statement.setString(1, name);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createInsertRepository(String name, long network) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"INSERT INTO " + quote(getRepositoriesTableName()) + " (" +
+				columnNames(getRepositoryNameColumn(), getRepositoryNetworkColumn()) + ") VALUES (?, ?)"
+		);
+
+		statement.setString(1, name);
+		statement.setLong(2, network < 0 ? -1 : network);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createInitRepository(String name) throws SQLException {
+		if (name.isEmpty()) {
+			return getRepository().prepareStatement(initDefaultRepositoryQuery());
+		}
+
+		// The repository starts a network of its own unless it is a fork.
+		String network = quote(getRepositoryNetworkColumn());
+		PreparedStatement statement = getRepository().prepareStatement(
+			"UPDATE " + quote(getRepositoriesTableName()) + " SET " + network + " = " +
+				quote(getRepositoryIdColumn()) + " WHERE " + quote(getRepositoryNameColumn()) + " = ?" +
+				" AND " + network + " < 0"
+		);
+
+		statement.setString(1, name);
+		return statement;
+	}
+
+	/**
+	 * Statement moving the repository without a name to
+	 * {@link #DEFAULT_REPOSITORY_ID}. Identity columns do not accept that id
+	 * on insert in every database, MySQL generates a new one for 0, but all
+	 * of them accept it on update.
+	 */
+	protected String initDefaultRepositoryQuery() {
+		String network = quote(getRepositoryNetworkColumn());
+		return "UPDATE " + quote(getRepositoriesTableName()) + " SET " +
+			quote(getRepositoryIdColumn()) + " = " + DEFAULT_REPOSITORY_ID + ", " +
+			network + " = CASE WHEN " + network + " < 0 THEN " + DEFAULT_REPOSITORY_ID + " ELSE " + network + " END" +
+			" WHERE " + quote(getRepositoryNameColumn()) + " = ''";
+	}
+
+	@Override
+	public PreparedStatement createCopyRepositoryObjects(long from) throws SQLException {
+		String repository = quote(getRepositoryColumn());
+		PreparedStatement statement = getRepository().prepareStatement(
+			"INSERT INTO " + quote(getRepositoryObjectsTableName()) + " (" +
+				columnNames(getRepositoryColumn(), getObjectHashColumn()) +
+				") SELECT ?, " + quote(getObjectHashColumn()) + " FROM " + quote(getRepositoryObjectsTableName()) +
+				" WHERE " + repository + " = ?"
+		);
+
+		statement.setLong(1, getRepositoryId());
+		statement.setLong(2, from);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createInsertRepositoryObjectBatch() throws SQLException {
+		return getRepository().prepareStatement(
+			insertIgnoringQuery(getRepositoryObjectsTableName(),
+				columnNames(getRepositoryColumn(), getObjectHashColumn()), 2)
+		);
+	}
+
+	@Override
+	public void createInsertRepositoryObjectBatch(PreparedStatement statement, AnyObjectId id) throws SQLException {
+		statement.setLong(1, getRepositoryId());
+		bindObjectId(statement, 2, id);
+		statement.addBatch();
+	}
+
+	/**
+	 * @param repositories true to index the objects table of
+	 *        {@link #SCHEMA_REPOSITORIES}.
+	 * @return statement creating the index that covers object metadata.
+	 */
+	protected String objectsMetaIndexDefinition(boolean repositories) {
+		String columns = columnNames(getObjectHashColumn(), getObjectTypeColumn(), getObjectSizeColumn());
+		if (repositories) {
+			columns = quote(getRepositoryColumn()) + "," + columns;
 		}
+		return "CREATE INDEX " + quote(getObjectsMetaIndexName()) + " ON " +
+			quote(getObjectsTableName()) + " (" + columns + ")";
+	}
 
-		query += " NOT NULL PRIMARY KEY," +
-			"" + quote(getObjectTypeColumn()) + " SMALLINT NOT NULL," +
-			"" + quote(getObjectContentColumn()) + " " + getBlobType() + " NOT NULL" +
+	@Override
+	public PreparedStatement createObjectsMetaIndex() throws SQLException {
+		return getRepository().prepareStatement(
+			objectsMetaIndexDefinition(true)
+		);
+	}
+
+	protected String refsVersionTableDefinition(boolean repositories) {
+		if (repositories) {
+			return "CREATE TABLE " + quote(getRefsVersionTableName()) + " (" +
+				quote(getRepositoryColumn()) + " BIGINT NOT NULL PRIMARY KEY," +
+				quote(getRefsVersionColumn()) + " BIGINT NOT NULL" +
+				")";
+		}
+		return "CREATE TABLE " + quote(getRefsVersionTableName()) + " (" +
+			quote(getRefsVersionColumn()) + " BIGINT NOT NULL" +
 			")";
+	}
+
+	protected String initRefsVersionQuery() {
+		return "INSERT INTO " + quote(getRefsVersionTableName()) + " (" + quote(getRefsVersionColumn()) + ") VALUES (0)";
+	}
+
+	@Override
+	public PreparedStatement createRefsVersionTable() throws SQLException {
+		return getRepository().prepareStatement(
+			refsVersionTableDefinition(true)
+		);
+	}
+
+	@Override
+	public PreparedStatement createDropRefsVersionTable() throws SQLException {
+		return getRepository().prepareStatement(
+			"DROP TABLE " + quote(getRefsVersionTableName())
+		);
+	}
+
+	@Override
+	public PreparedStatement createInitRefsVersion() throws SQLException {
+		if (!hasRepositoryColumn()) {
+			return getRepository().prepareStatement(
+				initRefsVersionQuery()
+			);
+		}
+
+		PreparedStatement statement = getRepository().prepareStatement(
+			"INSERT INTO " + quote(getRefsVersionTableName()) + " (" +
+				columnNames(getRefsVersionColumn(), getRepositoryColumn()) + ") VALUES (0, ?)"
+		);
+		bindRepository(statement, 1);
+		return statement;
+	}
 
-		return getRepository().getConnection().prepareStatement(query);
+	/**
+	 * @return {@code WHERE} clause restricting a table with a repository
+	 *         column to the rows of the repository, or the empty string.
+	 */
+	protected String repositoryWhere() throws SQLException {
+		if (hasRepositoryColumn()) {
+			return " WHERE " + quote(getRepositoryColumn()) + " = ?";
+		}
+		return "";
+	}
+
+	@Override
+	public PreparedStatement createReadRefsVersion() throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + quote(getRefsVersionColumn()) + " FROM " + quote(getRefsVersionTableName()) +
+				repositoryWhere()
+		);
+		bindRepository(statement, 1);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createIncrementRefsVersion() throws SQLException {
+		String version = quote(getRefsVersionColumn());
+		PreparedStatement statement = getRepository().prepareStatement(
+			"UPDATE " + quote(getRefsVersionTableName()) + " SET " + version + " = " + version + " + 1" +
+				repositoryWhere()
+		);
+		bindRepository(statement, 1);
+		return statement;
 	}
 
 	@Override
 	public PreparedStatement createRefsTable() throws SQLException {
-		String query = "CREATE TABLE " + quote(getRefsTableName()) + " (" +
-			quote(getRefNameColumn()) + " " + getHashType();
+		return getRepository().prepareStatement(
+			refsTableDefinition(getRefsTableName(), true)
+		);
+	}
 
-		if (isRealMySql()) {
-			query += " CHARACTER SET ascii COLLATE ascii_bin";
+	@Override
+	protected void upgradeSchema(Statement statement, int fromVersion) throws SQLException {
+		if (fromVersion == SCHEMA_DELTA && !canDecodeHex()) {
+			upgradeToBinaryIds(statement);
+		} else {
+			super.upgradeSchema(statement, fromVersion);
+		}
+	}
+
+	/**
+	 * Same upgrade as the {@link #SCHEMA_DELTA} statements of
+	 * {@link #getSchemaUpgrade(int)}, decoding the hex ids in Java.
+	 */
+	private void upgradeToBinaryIds(Statement statement) throws SQLException {
+		String objects = quote(getObjectsTableName());
+		String refs = quote(getRefsTableName());
+		String newObjects = getObjectsTableName() + "_new";
+		String newRefs = getRefsTableName() + "_new";
+		String objectColumns = columnNames(getObjectHashColumn(), getObjectTypeColumn(),
+			getObjectContentColumn(), getObjectSizeColumn(), getObjectCodecColumn(), getObjectBaseColumn());
+		String refColumns = columnNames(getRefNameColumn(), getRefIsSymbolicColumn(),
+			getRefTargetColumn(), getRefLinkColumn());
+
+		statement.execute(objectsTableDefinition(newObjects, false));
+		try (PreparedStatement insert = getRepository().prepareStatement(
+				"INSERT INTO " + quote(newObjects) + " (" + objectColumns + ") VALUES " + parameterList(6));
+			 ResultSet rows = statement.executeQuery("SELECT " + objectColumns + " FROM " + objects)) {
+			while (rows.next()) {
+				insert.setBytes(1, hexToBytes(rows.getString(1)));
+				insert.setInt(2, rows.getInt(2));
+				insert.setBytes(3, rows.getBytes(3));
+				insert.setLong(4, rows.getLong(4));
+				insert.setInt(5, rows.getInt(5));
+				insert.setBytes(6, hexToBytes(rows.getString(6)));
+				insert.executeUpdate();
+			}
 		}
+		statement.execute("DROP TABLE " + objects);
+		statement.execute("ALTER TABLE " + quote(newObjects) + " RENAME TO " + objects);
 
-		query += " NOT NULL PRIMARY KEY," +
-			quote(getRefIsSymbolicColumn()) + " BOOLEAN NOT NULL," +
-			quote(getRefTargetColumn()) + " " + getRefType() + " NOT NULL" +
-			")";
+		statement.execute(refsTableDefinition(newRefs, false));
+		try (PreparedStatement insert = getRepository().prepareStatement(
+				"INSERT INTO " + quote(newRefs) + " (" + refColumns + ") VALUES " + parameterList(4));
+			 ResultSet rows = statement.executeQuery("SELECT " + columnNames(getRefNameColumn(),
+				 getRefIsSymbolicColumn(), getRefTargetColumn()) + " FROM " + refs)) {
+			while (rows.next()) {
+				boolean symbolic = rows.getBoolean(2);
+				String target = rows.getString(3);
+				insert.setString(1, rows.getString(1));
+				insert.setBoolean(2, symbolic);
+				insert.setBytes(3, symbolic ? null : hexToBytes(target));
+				insert.setString(4, symbolic ? target : null);
+				insert.executeUpdate();
+			}
+		}
+		statement.execute("DROP TABLE " + refs);
+		statement.execute("ALTER TABLE " + quote(newRefs) + " RENAME TO " + refs);
+	}
 
-		return getRepository().getConnection().prepareStatement(query);
+	private static byte[] hexToBytes(String hex) {
+		if (hex == null) {
+			return null;
+		}
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		ObjectId.fromString(hex).copyRawTo(raw, 0);
+		return raw;
+	}
+
+	@Override
+	protected List<String> getSchemaUpgrade(int fromVersion) throws SQLException {
+		String objects = quote(getObjectsTableName());
+		String refs = quote(getRefsTableName());
+
+		switch (fromVersion) {
+		case SCHEMA_TEXT_IDS:
+			return Arrays.asList(
+				"ALTER TABLE " + objects + " ADD COLUMN " + quote(getObjectSizeColumn()) +
+					" BIGINT NOT NULL DEFAULT 0",
+				"UPDATE " + objects + " SET " + quote(getObjectSizeColumn()) +
+					" = LENGTH(" + quote(getObjectContentColumn()) + ")",
+				"ALTER TABLE " + objects + " ADD COLUMN " + quote(getObjectCodecColumn()) +
+					" SMALLINT NOT NULL DEFAULT 0"
+			);
+
+		case SCHEMA_CODEC:
+			return Collections.singletonList(
+				"ALTER TABLE " + objects + " ADD COLUMN " + quote(getObjectBaseColumn()) +
+					" " + getAsciiType() + " NULL"
+			);
+
+		case SCHEMA_DELTA: {
+			String newObjects = getObjectsTableName() + "_new";
+			String newRefs = getRefsTableName() + "_new";
+			String symbolic = quote(getRefIsSymbolicColumn());
+			String target = quote(getRefTargetColumn());
+
+			return Arrays.asList(
+				objectsTableDefinition(newObjects, false),
+				"INSERT INTO " + quote(newObjects) + " (" +
+					columnNames(getObjectHashColumn(), getObjectTypeColumn(), getObjectContentColumn(),
+						getObjectSizeColumn(), getObjectCodecColumn(), getObjectBaseColumn()) +
+					") SELECT " + hexToBinary(quote(getObjectHashColumn())) + ", " +
+					columnNames(getObjectTypeColumn(), getObjectContentColumn(),
+						getObjectSizeColumn(), getObjectCodecColumn()) + ", " +
+					hexToBinary(quote(getObjectBaseColumn())) + " FROM " + objects,
+				"DROP TABLE " + objects,
+				"ALTER TABLE " + quote(newObjects) + " RENAME TO " + objects,
+
+				refsTableDefinition(newRefs, false),
+				"INSERT INTO " + quote(newRefs) + " (" +
+					columnNames(getRefNameColumn(), getRefIsSymbolicColumn(),
+						getRefTargetColumn(), getRefLinkColumn()) +
+					") SELECT " + quote(getRefNameColumn()) + ", " + symbolic +
+					", CASE WHEN " + symbolic + " THEN NULL ELSE " + hexToBinary(target) + " END" +
+					", CASE WHEN " + symbolic + " THEN " + target + " ELSE NULL END" +
+					" FROM " + refs,
+				"DROP TABLE " + refs,
+				"ALTER TABLE " + quote(newRefs) + " RENAME TO " + refs
+			);
+		}
+
+		case SCHEMA_BINARY_IDS:
+			return Collections.singletonList(objectsMetaIndexDefinition(false));
+
+		case SCHEMA_META_INDEX:
+			return Arrays.asList(
+				refsVersionTableDefinition(false),
+				initRefsVersionQuery()
+			);
+
+		case SCHEMA_REFS_VERSION: {
+			// The rows of the existing repository become those of the
+			// repository without a name.
+			String newObjects = getObjectsTableName() + "_new";
+			String newRefs = getRefsTableName() + "_new";
+			String objectColumns = columnNames(getObjectHashColumn(), getObjectTypeColumn(),
+				getObjectContentColumn(), getObjectSizeColumn(), getObjectCodecColumn(), getObjectBaseColumn());
+			String refColumns = columnNames(getRefNameColumn(), getRefIsSymbolicColumn(),
+				getRefTargetColumn(), getRefLinkColumn());
+			String addRepository = " ADD COLUMN " + quote(getRepositoryColumn()) +
+				" BIGINT NOT NULL DEFAULT " + DEFAULT_REPOSITORY_ID;
+
+			List<String> upgrade = new ArrayList<>(Arrays.asList(
+				repositoriesTableDefinition(),
+				"INSERT INTO " + quote(getRepositoriesTableName()) + " (" +
+					columnNames(getRepositoryNameColumn(), getRepositoryNetworkColumn()) + ") VALUES ('', -1)",
+				initDefaultRepositoryQuery(),
+
+				objectsTableDefinition(newObjects, true),
+				"INSERT INTO " + quote(newObjects) + " (" + objectColumns + ", " + quote(getRepositoryColumn()) +
+					") SELECT " + objectColumns + ", " + DEFAULT_REPOSITORY_ID + " FROM " + objects,
+				"DROP TABLE " + objects,
+				"ALTER TABLE " + quote(newObjects) + " RENAME TO " + objects,
+				objectsMetaIndexDefinition(true),
+				repositoryObjectsTableDefinition(),
+				"INSERT INTO " + quote(getRepositoryObjectsTableName()) + " (" +
+					columnNames(getRepositoryColumn(), getObjectHashColumn()) +
+					") SELECT " + DEFAULT_REPOSITORY_ID + ", " + quote(getObjectHashColumn()) + " FROM " + objects,
+
+				refsTableDefinition(newRefs, true),
+				"INSERT INTO " + quote(newRefs) + " (" + refColumns + ", " + quote(getRepositoryColumn()) +
+					") SELECT " + refColumns + ", " + DEFAULT_REPOSITORY_ID + " FROM " + refs,
+				"DROP TABLE " + refs,
+				"ALTER TABLE " + quote(newRefs) + " RENAME TO " + refs,
+
+				"ALTER TABLE " + quote(getRefsVersionTableName()) + addRepository
+			));
+			if (checkPacksTableExists()) {
+				upgrade.add("ALTER TABLE " + quote(getPacksTableName()) + addRepository);
+			}
+			return upgrade;
+		}
+
+		default:
+			throw new SQLException("Cannot upgrade schema version " + fromVersion);
+		}
 	}
 
 	@Override
 	public PreparedStatement createDropObjectsTable() throws SQLException {
-		return getRepository().getConnection().prepareStatement(
+		return getRepository().prepareStatement(
 			"DROP TABLE " + quote(getObjectsTableName())
 		);
 	}
 
 	@Override
 	public PreparedStatement createDropRefsTable() throws SQLException {
-		return getRepository().getConnection().prepareStatement(
+		return getRepository().prepareStatement(
 			"DROP TABLE " + quote(getRefsTableName())
 		);
 	}
 
 	@Override
 	public PreparedStatement createReadRef(String name) throws SQLException {
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
-			"SELECT " + columnNames(
-				getRefTargetColumn(),
-				getRefIsSymbolicColumn(),
-				getRefNameColumn()
-			) + " FROM " + quote(getRefsTableName()) + " WHERE " + quote(getRefNameColumn()) + " = ?"
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + refColumnNames() + " FROM " + quote(getRefsTableName()) +
+				" WHERE " + repositoryCondition() + quote(getRefNameColumn()) + " = ?"
 		);
 
-		statement.setString(1, name);
+		statement.setString(bindRepository(statement, 1), name);
 		return statement;
 	}
 
 	@Override
 	public PreparedStatement createReadRefs(String prefix) throws SQLException {
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
-			"SELECT " + columnNames(
-				getRefNameColumn(),
-				getRefTargetColumn(),
-				getRefIsSymbolicColumn()
-			) + " FROM " + quote(getRefsTableName()) + " WHERE " + quote(getRefNameColumn()) + " LIKE ?"
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + refColumnNames() + " FROM " + quote(getRefsTableName()) +
+				" WHERE " + repositoryCondition() + quote(getRefNameColumn()) + " LIKE ?"
 		);
 
-		statement.setString(1, prefix + "%");
+		statement.setString(bindRepository(statement, 1), prefix + "%");
 		return statement;
 	}
 
 	@Override
 	public PreparedStatement createListRefs() throws SQLException {
-		return getRepository().getConnection().prepareStatement(
-			"SELECT " + columnNames(
-				getRefNameColumn(),
-				getRefTargetColumn(),
-				getRefIsSymbolicColumn()
-			) + " FROM " + quote(getRefsTableName())
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + refColumnNames() + " FROM " + quote(getRefsTableName()) + repositoryWhere()
 		);
+
+		bindRepository(statement, 1);
+		return statement;
 	}
 
 	@Override
 	public PreparedStatement createDeleteRef(String name) throws SQLException {
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
-			"DELETE FROM " + quote(getRefsTableName()) + " WHERE " + quote(getRefNameColumn()) + " = ?"
+		PreparedStatement statement = getRepository().prepareStatement(
+			"DELETE FROM " + quote(getRefsTableName()) + " WHERE " + repositoryCondition() +
+				quote(getRefNameColumn()) + " = ?"
 		);
 
-		statement.setString(1, name);
+		statement.setString(bindRepository(statement, 1), name);
 		return statement;
 	}
 
@@ -265,4 +1106,361 @@ public PreparedStatement createDeleteRef(String name) throws SQLException {
 	public PreparedStatement createLinkRef(String name, String target) throws SQLException {
 		return createRef(name, true, target);
 	}
+
+	/**
+	 * @return condition on the current target of a ref, with one parameter
+	 *         bound by {@link #bindRefTargetCondition}.
+	 */
+	protected String refTargetCondition(boolean symbolic) throws SQLException {
+		if (usesBinaryObjectIds() && symbolic) {
+			return quote(getRefLinkColumn()) + " = ?";
+		}
+		return quote(getRefTargetColumn()) + " = ?";
+	}
+
+	protected void bindRefTargetCondition(PreparedStatement statement, int index, boolean symbolic, String target) throws SQLException {
+		if (usesBinaryObjectIds() && !symbolic) {
+			bindObjectId(statement, index, ObjectId.fromString(target));
+		} else {
+			statement.setString(index, target);
+		}
+	}
+
+	protected String compareAndSetRefQuery(boolean oldSymbolic) throws SQLException {
+		String query = "UPDATE " + quote(getRefsTableName()) + " SET ";
+		for (String column : refTargetColumns()) {
+			query += quote(column) + " = ?, ";
+		}
+		return query + quote(getRefIsSymbolicColumn()) + " = ? WHERE " + repositoryCondition() +
+			quote(getRefNameColumn()) + " = ?" +
+			" AND " + quote(getRefIsSymbolicColumn()) + " = ? AND " + refTargetCondition(oldSymbolic);
+	}
+
+	protected String compareAndDeleteRefQuery(boolean oldSymbolic) throws SQLException {
+		return "DELETE FROM " + quote(getRefsTableName()) + " WHERE " + repositoryCondition() +
+			quote(getRefNameColumn()) + " = ?" +
+			" AND " + quote(getRefIsSymbolicColumn()) + " = ? AND " + refTargetCondition(oldSymbolic);
+	}
+
+	private void bindCompareAndDeleteRef(
+		PreparedStatement statement,
+		String name,
+		boolean oldSymbolic,
+		String oldTarget
+	) throws SQLException {
+		int index = bindRepository(statement, 1);
+		statement.setString(index++, name);
+		statement.setBoolean(index++, oldSymbolic);
+		bindRefTargetCondition(statement, index, oldSymbolic, oldTarget);
+	}
+
+	/**
+	 * @param table table to insert into
+	 * @param columns quoted column names
+	 * @param count number of columns
+	 * @return statement inserting a row unless its key already exists, in
+	 *         which case it updates no row.
+	 */
+	protected String insertIgnoringQuery(String table, String columns, int count) {
+		return "INSERT IGNORE INTO " + quote(table) + " (" + columns + ") VALUES " + parameterList(count);
+	}
+
+	@Override
+	public PreparedStatement createCompareAndSetRef(
+		String name,
+		boolean oldSymbolic,
+		String oldTarget,
+		boolean symbolic,
+		String target
+	) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			compareAndSetRefQuery(oldSymbolic)
+		);
+		bindCompareAndSetRef(statement, name, oldSymbolic, oldTarget, symbolic, target);
+		return statement;
+	}
+
+	private void bindCompareAndSetRef(
+		PreparedStatement statement,
+		String name,
+		boolean oldSymbolic,
+		String oldTarget,
+		boolean symbolic,
+		String target
+	) throws SQLException {
+		int index = bindRefTarget(statement, 1, symbolic, target);
+		statement.setBoolean(index++, symbolic);
+		index = bindRepository(statement, index);
+		statement.setString(index++, name);
+		statement.setBoolean(index++, oldSymbolic);
+		bindRefTargetCondition(statement, index, oldSymbolic, oldTarget);
+	}
+
+	@Override
+	public PreparedStatement createCompareAndDeleteRef(
+		String name,
+		boolean oldSymbolic,
+		String oldTarget
+	) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			compareAndDeleteRefQuery(oldSymbolic)
+		);
+
+		bindCompareAndDeleteRef(statement, name, oldSymbolic, oldTarget);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createInsertRefBatch() throws SQLException {
+		String[] columns = refInsertColumns();
+		return getRepository().prepareStatement(
+			insertIgnoringQuery(getRefsTableName(), columnNames(columns), columns.length)
+		);
+	}
+
+	@Override
+	public void createInsertRefBatch(PreparedStatement statement, String name, AnyObjectId id) throws SQLException {
+		bindRefInsert(statement, name, false, id.name());
+		statement.addBatch();
+	}
+
+	@Override
+	public PreparedStatement createUpdateRefBatch() throws SQLException {
+		return getRepository().prepareStatement(
+			compareAndSetRefQuery(false)
+		);
+	}
+
+	@Override
+	public void createUpdateRefBatch(
+		PreparedStatement statement,
+		String name,
+		AnyObjectId oldId,
+		AnyObjectId newId
+	) throws SQLException {
+		bindCompareAndSetRef(statement, name, false, oldId.name(), false, newId.name());
+		statement.addBatch();
+	}
+
+	@Override
+	public PreparedStatement createDeleteRefBatch() throws SQLException {
+		return getRepository().prepareStatement(
+			compareAndDeleteRefQuery(false)
+		);
+	}
+
+	@Override
+	public void createDeleteRefBatch(PreparedStatement statement, String name, AnyObjectId oldId) throws SQLException {
+		bindCompareAndDeleteRef(statement, name, false, oldId.name());
+		statement.addBatch();
+	}
+
+	@Override
+	public PreparedStatement createPacksTable() throws SQLException {
+		return getRepository().prepareStatement(
+			"CREATE TABLE " + quote(getPacksTableName()) + " (" +
+				quote(getPackNameColumn()) + " " + getAsciiType() + " NOT NULL PRIMARY KEY," +
+				quote(getPackSourceColumn()) + " VARCHAR(32) NOT NULL," +
+				quote(getPackCommittedColumn()) + " BOOLEAN NOT NULL," +
+				quote(getPackLastModifiedColumn()) + " BIGINT NOT NULL," +
+				quote(getPackObjectCountColumn()) + " BIGINT NOT NULL DEFAULT 0," +
+				quote(getPackDeltaCountColumn()) + " BIGINT NOT NULL DEFAULT 0," +
+				quote(getPackIndexVersionColumn()) + " INTEGER NOT NULL DEFAULT 0," +
+				quote(getPackMinUpdateIndexColumn()) + " BIGINT NOT NULL DEFAULT 0," +
+				quote(getPackMaxUpdateIndexColumn()) + " BIGINT NOT NULL DEFAULT 0," +
+				quote(getRepositoryColumn()) + " BIGINT NOT NULL DEFAULT 0" +
+				")"
+		);
+	}
+
+	@Override
+	public PreparedStatement createPackFilesTable() throws SQLException {
+		return getRepository().prepareStatement(
+			"CREATE TABLE " + quote(getPackFilesTableName()) + " (" +
+				quote(getPackFilePackColumn()) + " " + getAsciiType() + " NOT NULL," +
+				quote(getPackFileExtColumn()) + " VARCHAR(16) NOT NULL," +
+				quote(getPackFileSizeColumn()) + " BIGINT NOT NULL," +
+				quote(getPackFileChunkSizeColumn()) + " INTEGER NOT NULL," +
+				"PRIMARY KEY (" + columnNames(getPackFilePackColumn(), getPackFileExtColumn()) + ")" +
+				")"
+		);
+	}
+
+	@Override
+	public PreparedStatement createPackChunksTable() throws SQLException {
+		return getRepository().prepareStatement(
+			"CREATE TABLE " + quote(getPackChunksTableName()) + " (" +
+				quote(getPackFilePackColumn()) + " " + getAsciiType() + " NOT NULL," +
+				quote(getPackFileExtColumn()) + " VARCHAR(16) NOT NULL," +
+				quote(getPackChunkColumn()) + " INTEGER NOT NULL," +
+				quote(getPackChunkDataColumn()) + " " + getBlobType() + " NOT NULL," +
+				"PRIMARY KEY (" +
+				columnNames(getPackFilePackColumn(), getPackFileExtColumn(), getPackChunkColumn()) + ")" +
+				")"
+		);
+	}
+
+	@Override
+	public PreparedStatement createInsertPack(String name, String source, long lastModified) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"INSERT INTO " + quote(getPacksTableName()) + " (" +
+				columnNames(getPackNameColumn(), getPackSourceColumn(), getPackCommittedColumn(),
+					getPackLastModifiedColumn(), getRepositoryColumn()) +
+				") VALUES (?, ?, ?, ?, ?)"
+		);
+
+		statement.setString(1, name);
+		statement.setString(2, source);
+		statement.setBoolean(3, false);
+		statement.setLong(4, lastModified);
+		statement.setLong(5, getRepositoryId());
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createCommitPack(
+		String name,
+		long objectCount,
+		long deltaCount,
+		int indexVersion,
+		long minUpdateIndex,
+		long maxUpdateIndex
+	) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"UPDATE " + quote(getPacksTableName()) + " SET " +
+				quote(getPackCommittedColumn()) + " = ?, " +
+				quote(getPackObjectCountColumn()) + " = ?, " +
+				quote(getPackDeltaCountColumn()) + " = ?, " +
+				quote(getPackIndexVersionColumn()) + " = ?, " +
+				quote(getPackMinUpdateIndexColumn()) + " = ?, " +
+				quote(getPackMaxUpdateIndexColumn()) + " = ?" +
+				" WHERE " + quote(getPackNameColumn()) + " = ?"
+		);
+
+		statement.setBoolean(1, true);
+		statement.setLong(2, objectCount);
+		statement.setLong(3, deltaCount);
+		statement.setInt(4, indexVersion);
+		statement.setLong(5, minUpdateIndex);
+		statement.setLong(6, maxUpdateIndex);
+		statement.setString(7, name);
+		return statement;
+	}
+
+	private PreparedStatement createDeleteByPack(String table, String column, String name) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"DELETE FROM " + quote(table) + " WHERE " + quote(column) + " = ?"
+		);
+
+		statement.setString(1, name);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createDeletePack(String name) throws SQLException {
+		return createDeleteByPack(getPacksTableName(), getPackNameColumn(), name);
+	}
+
+	@Override
+	public PreparedStatement createDeletePackFiles(String name) throws SQLException {
+		return createDeleteByPack(getPackFilesTableName(), getPackFilePackColumn(), name);
+	}
+
+	@Override
+	public PreparedStatement createDeletePackChunks(String name) throws SQLException {
+		return createDeleteByPack(getPackChunksTableName(), getPackFilePackColumn(), name);
+	}
+
+	@Override
+	public PreparedStatement createListPacks() throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT p." + quote(getPackNameColumn()) +
+				", p." + quote(getPackSourceColumn()) +
+				", p." + quote(getPackLastModifiedColumn()) +
+				", p." + quote(getPackObjectCountColumn()) +
+				", p." + quote(getPackDeltaCountColumn()) +
+				", p." + quote(getPackIndexVersionColumn()) +
+				", p." + quote(getPackMinUpdateIndexColumn()) +
+				", p." + quote(getPackMaxUpdateIndexColumn()) +
+				", f." + quote(getPackFileExtColumn()) +
+				", f." + quote(getPackFileSizeColumn()) +
+				", f." + quote(getPackFileChunkSizeColumn()) +
+				" FROM " + quote(getPacksTableName()) + " p JOIN " + quote(getPackFilesTableName()) + " f" +
+				" ON f." + quote(getPackFilePackColumn()) + " = p." + quote(getPackNameColumn()) +
+				" WHERE p." + quote(getPackCommittedColumn()) + " = ?" +
+				" AND p." + quote(getRepositoryColumn()) + " = ?"
+		);
+
+		statement.setBoolean(1, true);
+		statement.setLong(2, getRepositoryId());
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createInsertPackFile(String pack, String ext, long size, int chunkSize) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"INSERT INTO " + quote(getPackFilesTableName()) + " (" +
+				columnNames(getPackFilePackColumn(), getPackFileExtColumn(), getPackFileSizeColumn(),
+					getPackFileChunkSizeColumn()) +
+				") VALUES (?, ?, ?, ?)"
+		);
+
+		statement.setString(1, pack);
+		statement.setString(2, ext);
+		statement.setLong(3, size);
+		statement.setInt(4, chunkSize);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createReadPackFile(String pack, String ext) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + columnNames(getPackFileSizeColumn(), getPackFileChunkSizeColumn()) +
+				" FROM " + quote(getPackFilesTableName()) +
+				" WHERE " + quote(getPackFilePackColumn()) + " = ? AND " + quote(getPackFileExtColumn()) + " = ?"
+		);
+
+		statement.setString(1, pack);
+		statement.setString(2, ext);
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createInsertPackChunk(
+		String pack,
+		String ext,
+		int chunk,
+		byte[] data,
+		int length
+	) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"INSERT INTO " + quote(getPackChunksTableName()) + " (" +
+				columnNames(getPackFilePackColumn(), getPackFileExtColumn(), getPackChunkColumn(),
+					getPackChunkDataColumn()) +
+				") VALUES (?, ?, ?, ?)"
+		);
+
+		statement.setString(1, pack);
+		statement.setString(2, ext);
+		statement.setInt(3, chunk);
+		statement.setBytes(4, length == data.length ? data : Arrays.copyOf(data, length));
+		return statement;
+	}
+
+	@Override
+	public PreparedStatement createReadPackChunks(String pack, String ext, int first, int last) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
+			"SELECT " + columnNames(getPackChunkColumn(), getPackChunkDataColumn()) +
+				" FROM " + quote(getPackChunksTableName()) +
+				" WHERE " + quote(getPackFilePackColumn()) + " = ? AND " + quote(getPackFileExtColumn()) + " = ?" +
+				" AND " + quote(getPackChunkColumn()) + " BETWEEN ? AND ?" +
+				" ORDER BY " + quote(getPackChunkColumn())
+		);
+
+		statement.setString(1, pack);
+		statement.setString(2, ext);
+		statement.setInt(3, first);
+		statement.setInt(4, last);
+		return statement;
+	}
 }
@@ -1,5 +1,6 @@
 package org.eclipse.jgit.internal.storage.jdbc.adapter;
 
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.util.IO;
 
 import java.io.IOException;
@@ -8,6 +9,8 @@
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PostgresAdapter extends MySqlLikeAdapter {
 	@Override
@@ -25,72 +28,91 @@ protected String getRefType() {
 		return "TEXT";
 	}
 
+	@Override
+	protected String repositoryIdColumnDefinition() {
+		return quote(getRepositoryIdColumn()) + " BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY";
+	}
+
 	@Override
 	public void applyToConnection(Connection connection) throws SQLException {
 		connection.setAutoCommit(false);
 	}
 
 	@Override
-	protected String getBlobType() {
-		return "BYTEA";
+	protected String insertIgnoringQuery(String table, String columns, int count) {
+		return "INSERT INTO " + quote(table) + " (" + columns + ") VALUES " + parameterList(count) +
+			" ON CONFLICT DO NOTHING";
 	}
 
 	@Override
-	public boolean checkObjectsTableExists() throws SQLException {
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
-			"SELECT tablename FROM pg_catalog.pg_tables WHERE tablename=?"
-		);
+	protected String partitionClause() {
+		if (getPartitions() > 0) {
+			return " PARTITION BY HASH (" + quote(getRepositoryColumn()) + ")";
+		}
+		return "";
+	}
 
-		statement.setString(1, getObjectsTableName());
+	@Override
+	public List<String> getPartitionDefinitions(String table) {
+		List<String> definitions = new ArrayList<>(getPartitions());
+		for (int i = 0; i < getPartitions(); i++) {
+			definitions.add("CREATE TABLE " + quote(table + "_p" + i) + " PARTITION OF " + quote(table) +
+				" FOR VALUES WITH (MODULUS " + getPartitions() + ", REMAINDER " + i + ")");
+		}
+		return definitions;
+	}
 
-		ResultSet results = statement.executeQuery();
+	@Override
+	protected String getBlobType() {
+		return "BYTEA";
+	}
 
-		while (results.next()) {
-			if (getObjectsTableName().equalsIgnoreCase(results.getString(1))) {
-				results.close();
-				return true;
-			}
-		}
+	@Override
+	protected String getObjectIdType() {
+		return "BYTEA";
+	}
 
-		results.close();
-		return false;
+	@Override
+	protected String hexToBinary(String expression) {
+		return "decode(" + expression + ", 'hex')";
 	}
 
 	@Override
-	public boolean checkRefsTableExists() throws SQLException {
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
+	protected boolean checkTableExists(String name) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
 			"SELECT tablename FROM pg_catalog.pg_tables WHERE tablename=?"
 		);
 
-		statement.setString(1, getRefsTableName());
-
-		ResultSet results = statement.executeQuery();
-
-		while (results.next()) {
-			if (getRefsTableName().equalsIgnoreCase(results.getString(1))) {
-				results.close();
-				return true;
+		statement.setString(1, name);
+		try (ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				if (name.equalsIgnoreCase(results.getString(1))) {
+					return true;
+				}
 			}
+			return false;
+		} finally {
+			statement.close();
 		}
-
-		results.close();
-		return false;
 	}
 
 	@Override
 	public void createInsertObjectBatch(
 		PreparedStatement statement,
-		String hash,
+		AnyObjectId id,
 		int type,
+		long size,
+		int codec,
 		InputStream stream
 	) throws SQLException {
-		statement.setString(1, hash);
+		bindObjectId(statement, 1, id);
 		statement.setInt(2, type);
 		try {
 			statement.setBytes(3, IO.readWholeStream(stream, 0).array());
 		} catch (IOException e) {
 			throw new SQLException(e);
 		}
+		bindObjectSizeAndCodec(statement, size, codec);
 		statement.addBatch();
 		statement.clearParameters();
 	}
@@ -1,19 +1,96 @@
 package org.eclipse.jgit.internal.storage.jdbc.adapter;
 
+import org.eclipse.jgit.internal.storage.jdbc.SqlConnectionLease;
 import org.eclipse.jgit.internal.storage.jdbc.SqlRepository;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public abstract class SqlDriverAdapter {
+	/** Object ids and ref targets are hex text, objects are stored raw. */
+	public static final int SCHEMA_TEXT_IDS = 1;
+
+	/** Object rows record their inflated size and content codec. */
+	public static final int SCHEMA_CODEC = 2;
+
+	/** Object rows may be a delta against a base row. */
+	public static final int SCHEMA_DELTA = 3;
+
+	/** Object ids and ref targets are stored as 20 raw bytes. */
+	public static final int SCHEMA_BINARY_IDS = 4;
+
+	/** Object type and size are covered by an index on the object id. */
+	public static final int SCHEMA_META_INDEX = 5;
+
+	/** Ref changes increment a counter, so readers can cache refs. */
+	public static final int SCHEMA_REFS_VERSION = 6;
+
+	/** Rows belong to a repository, so one schema holds many repositories. */
+	public static final int SCHEMA_REPOSITORIES = 7;
+
+	/** Schema version of newly created repositories. */
+	public static final int SCHEMA_VERSION = SCHEMA_REPOSITORIES;
+
+	/**
+	 * Id of the repository that has no name. Tables upgraded from a schema
+	 * holding a single repository keep their rows under this id.
+	 */
+	public static final long DEFAULT_REPOSITORY_ID = 0;
+
 	private SqlRepository repository;
+	private volatile int schemaVersion;
+
+	private String repositoryName = "";
+	private String forkOf;
+	private int partitions;
+
+	private volatile long repositoryId = -1;
+	private volatile long networkId = -1;
 
 	public void applyToConnection(Connection connection) throws SQLException {}
 
-	public abstract boolean checkObjectsTableExists() throws SQLException;
-	public abstract boolean checkRefsTableExists() throws SQLException;
+	protected abstract boolean checkTableExists(String name) throws SQLException;
+
+	public boolean checkObjectsTableExists() throws SQLException {
+		return checkTableExists(getObjectsTableName());
+	}
+
+	public boolean checkRefsTableExists() throws SQLException {
+		return checkTableExists(getRefsTableName());
+	}
+
+	public boolean checkRefsVersionTableExists() throws SQLException {
+		return checkTableExists(getRefsVersionTableName());
+	}
+
+	public boolean checkPacksTableExists() throws SQLException {
+		return checkTableExists(getPacksTableName());
+	}
+
+	public boolean checkRepositoriesTableExists() throws SQLException {
+		return checkTableExists(getRepositoriesTableName());
+	}
+
+	public boolean checkRepositoryObjectsTableExists() throws SQLException {
+		return checkTableExists(getRepositoryObjectsTableName());
+	}
 
 	/**
 	 * Create insert object prepared statement.
@@ -23,8 +100,10 @@ public void applyToConnection(Connection connection) throws SQLException {}
 
 	public abstract void createInsertObjectBatch(
 		PreparedStatement statement,
-		String hash,
+		AnyObjectId id,
 		int type,
+		long size,
+		int codec,
 		InputStream stream
 	) throws SQLException;
 
@@ -32,9 +111,26 @@ public boolean doesSupportBatchInsertObject() {
 		return true;
 	}
 
+	/**
+	 * Creates a statement inserting one object whose content is streamed
+	 * from {@code stream} rather than held in memory.
+	 * @param length number of bytes {@code stream} provides
+	 * @return statement
+	 */
+	public abstract PreparedStatement createInsertObjectStream(
+		AnyObjectId id,
+		int type,
+		long size,
+		int codec,
+		InputStream stream,
+		long length
+	) throws SQLException;
+
 	public PreparedStatement createInsertObject(
-		String hash,
+		AnyObjectId id,
 		int type,
+		long size,
+		int codec,
 		InputStream stream
 	) throws SQLException {
 		if (doesSupportBatchInsertObject()) {
@@ -48,32 +144,196 @@ public PreparedStatement createInsertObject(
 	/**
 	 * Creates a statement that reads object metadata
 	 * (excluding the content) using the given parameters.
-	 * @param hash object hash
+	 * @param id object id
 	 * @return statement
 	 */
 	public abstract PreparedStatement createReadObjectMeta(
-		String hash
+		AnyObjectId id
 	)  throws SQLException;
 
 	public abstract PreparedStatement createReadObject(
-		String hash
+		AnyObjectId id
+	) throws SQLException;
+
+	/**
+	 * Creates a statement that reads only the type and inflated size of an
+	 * object. On current schemas it is answered from the covering
+	 * (hash, type, size) index without reading the object row.
+	 * @param id object id
+	 * @return statement
+	 */
+	public abstract PreparedStatement createReadObjectSize(
+		AnyObjectId id
+	) throws SQLException;
+
+	/**
+	 * Creates a statement reading several objects in one round trip.
+	 * <p>
+	 * Each row has the columns of {@link #createReadObject(AnyObjectId)}
+	 * plus the object id. The content column is null for objects larger
+	 * than {@code maxContentSize}; callers read those individually.
+	 *
+	 * @param ids
+	 *            object ids, at most {@link #getMaxBatchSize()}.
+	 * @param maxContentSize
+	 *            largest inflated size whose content is returned.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createReadObjects(
+		Collection<? extends AnyObjectId> ids,
+		long maxContentSize
+	) throws SQLException;
+
+	/**
+	 * Creates a statement reading the id, type and size of several objects
+	 * in one round trip.
+	 * @param ids object ids, at most {@link #getMaxBatchSize()}.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createReadObjectSizes(
+		Collection<? extends AnyObjectId> ids
+	) throws SQLException;
+
+	/**
+	 * Creates a statement reading how several objects are stored, without
+	 * their content.
+	 * <p>
+	 * Each row has the object id, type, size, codec and delta base, plus
+	 * the length of the stored content in
+	 * {@link #getObjectContentLengthColumn()}.
+	 * @param ids object ids, at most {@link #getMaxBatchSize()}.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createReadObjectRepresentations(
+		Collection<? extends AnyObjectId> ids
+	) throws SQLException;
+
+	/**
+	 * Largest number of object ids bound to one batched read. Kept well
+	 * below the bind parameter limits of the supported databases.
+	 * @return batch size
+	 */
+	public int getMaxBatchSize() {
+		return 256;
+	}
+
+	/**
+	 * Creates a statement that returns a row if the object exists.
+	 * @param id object id
+	 * @return statement
+	 */
+	public abstract PreparedStatement createHasObject(
+		AnyObjectId id
 	) throws SQLException;
 
+	/**
+	 * Creates a statement listing the ids of all objects starting with
+	 * {@code prefix}. With binary ids this is a range scan of the primary
+	 * key, callers must still filter the results by the prefix.
+	 * @param prefix abbreviated object id
+	 * @return statement
+	 */
 	public abstract PreparedStatement createFindAbbreviatedObject(
-		String prefix
+		AbbreviatedObjectId prefix
 	) throws SQLException;
 
 	public abstract PreparedStatement createObjectCount() throws SQLException;
 
+	/**
+	 * Creates a statement that replaces the stored representation of an
+	 * existing object, either with the whole object ({@code base} is null)
+	 * or with a delta against the object {@code base}.
+	 *
+	 * @param id object id
+	 * @param codec codec {@code content} is encoded with
+	 * @param content encoded object data or delta
+	 * @param base id of the delta base, or null
+	 * @return statement
+	 */
+	public abstract PreparedStatement createUpdateObjectContent(
+		AnyObjectId id,
+		int codec,
+		byte[] content,
+		AnyObjectId base
+	) throws SQLException;
+
 	public abstract PreparedStatement createUpdateRef(String name, boolean symbolic, String target) throws SQLException;
 	public abstract PreparedStatement createRef(String name, boolean symbolic, String target) throws SQLException;
 
 	public abstract PreparedStatement createObjectsTable() throws SQLException;
+	public abstract PreparedStatement createRepositoriesTable() throws SQLException;
+	public abstract PreparedStatement createRepositoryObjectsTable() throws SQLException;
+	public abstract PreparedStatement createObjectsMetaIndex() throws SQLException;
 	public abstract PreparedStatement createRefsTable() throws SQLException;
 
 	public abstract PreparedStatement createDropObjectsTable() throws SQLException;
 	public abstract PreparedStatement createDropRefsTable() throws SQLException;
 
+	// Repositories sharing one schema, used once the schema is at
+	// SCHEMA_REPOSITORIES. Every other table has a repository column, which
+	// the statements of this adapter bind to the id of getRepositoryName().
+	// Forks share the object rows of their network, the objects table is
+	// keyed by the network id; the repository objects table lists the
+	// objects each repository of the network has.
+
+	/**
+	 * Creates a statement reading the id and network of the repository
+	 * named {@code name}.
+	 * @param name repository name
+	 * @return statement
+	 */
+	public abstract PreparedStatement createReadRepository(String name) throws SQLException;
+
+	/**
+	 * Creates a statement registering a repository. Its id is assigned by
+	 * the identity column of the repositories table, so concurrent
+	 * registrations never pick the same id; see
+	 * {@link #createInitRepository(String)}.
+	 * @param name repository name
+	 * @param network id of the network the repository shares objects with,
+	 *        or -1 to start a network of its own.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createInsertRepository(String name, long network) throws SQLException;
+
+	/**
+	 * Creates a statement completing the registration of a repository
+	 * inserted by {@link #createInsertRepository(String, long)}: the
+	 * repository without a name gets {@link #DEFAULT_REPOSITORY_ID}, and a
+	 * repository starting a network of its own becomes the network.
+	 * @param name repository name
+	 * @return statement
+	 */
+	public abstract PreparedStatement createInitRepository(String name) throws SQLException;
+
+	/**
+	 * Creates a statement giving the fork the objects of the repository it
+	 * was forked from.
+	 * @param from id of the repository forked from
+	 * @return statement
+	 */
+	public abstract PreparedStatement createCopyRepositoryObjects(long from) throws SQLException;
+
+	/**
+	 * Creates a statement recording objects as present in the repository,
+	 * ignoring objects it already has. Rows are added like
+	 * {@link #createInsertObjectBatch(PreparedStatement, AnyObjectId, int, long, int, InputStream)}.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createInsertRepositoryObjectBatch() throws SQLException;
+	public abstract void createInsertRepositoryObjectBatch(PreparedStatement statement, AnyObjectId id) throws SQLException;
+
+	/**
+	 * Statements creating the partitions of a table created with
+	 * {@link #setPartitions(int)} partitions, for databases that need them
+	 * created explicitly.
+	 * @param table name of the partitioned table
+	 * @return statements to execute after creating the table.
+	 */
+	public List<String> getPartitionDefinitions(String table) throws SQLException {
+		return Collections.emptyList();
+	}
+
 	public abstract PreparedStatement createReadRef(String name) throws SQLException;
 	public abstract PreparedStatement createReadRefs(String prefix) throws SQLException;
 	public abstract PreparedStatement createListRefs() throws SQLException;
@@ -81,10 +341,193 @@ public abstract PreparedStatement createFindAbbreviatedObject(
 
 	public abstract PreparedStatement createLinkRef(String name, String target) throws SQLException;
 
+	// The refs version table holds a single counter, incremented in the
+	// transaction of every ref change. Readers compare it with the version
+	// of their cached refs.
+
+	public abstract PreparedStatement createRefsVersionTable() throws SQLException;
+	public abstract PreparedStatement createDropRefsVersionTable() throws SQLException;
+	public abstract PreparedStatement createInitRefsVersion() throws SQLException;
+	public abstract PreparedStatement createReadRefsVersion() throws SQLException;
+	public abstract PreparedStatement createIncrementRefsVersion() throws SQLException;
+
+	/**
+	 * Creates a statement updating a ref only if it still has the given
+	 * value. It updates one row if the ref matched.
+	 *
+	 * @param name ref name
+	 * @param oldSymbolic whether the ref is expected to be symbolic
+	 * @param oldTarget expected target ref name or object id
+	 * @param symbolic whether the new value is symbolic
+	 * @param target new target ref name or object id
+	 * @return statement
+	 */
+	public abstract PreparedStatement createCompareAndSetRef(
+		String name,
+		boolean oldSymbolic,
+		String oldTarget,
+		boolean symbolic,
+		String target
+	) throws SQLException;
+
+	/**
+	 * Creates a statement deleting a ref only if it still has the given
+	 * value. It deletes one row if the ref matched.
+	 *
+	 * @param name ref name
+	 * @param oldSymbolic whether the ref is expected to be symbolic
+	 * @param oldTarget expected target ref name or object id
+	 * @return statement
+	 */
+	public abstract PreparedStatement createCompareAndDeleteRef(
+		String name,
+		boolean oldSymbolic,
+		String oldTarget
+	) throws SQLException;
+
+	// Batched ref updates, used by SqlBatchRefUpdate. Like
+	// createInsertObjectBatch, the overloads taking a statement add one row
+	// to the batch. Each row updates exactly one row of the refs table if
+	// the ref had the expected value, and none otherwise.
+
+	/**
+	 * Creates a statement inserting refs that do not exist yet. Inserting
+	 * an existing ref must update no row rather than fail.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createInsertRefBatch() throws SQLException;
+	public abstract void createInsertRefBatch(PreparedStatement statement, String name, AnyObjectId id) throws SQLException;
+
+	public abstract PreparedStatement createUpdateRefBatch() throws SQLException;
+	public abstract void createUpdateRefBatch(
+		PreparedStatement statement,
+		String name,
+		AnyObjectId oldId,
+		AnyObjectId newId
+	) throws SQLException;
+
+	public abstract PreparedStatement createDeleteRefBatch() throws SQLException;
+	public abstract void createDeleteRefBatch(PreparedStatement statement, String name, AnyObjectId oldId) throws SQLException;
+
+	// Pack chunk storage, used by SqlDfsRepository. Pack files are split
+	// into rows of a fixed chunk size; a pack becomes visible to readers
+	// once its row in the packs table is committed.
+
+	public abstract PreparedStatement createPacksTable() throws SQLException;
+	public abstract PreparedStatement createPackFilesTable() throws SQLException;
+	public abstract PreparedStatement createPackChunksTable() throws SQLException;
+
+	/**
+	 * Creates a statement recording a new, uncommitted pack.
+	 * @param name pack name
+	 * @param source name of the {@code PackSource}
+	 * @param lastModified creation time, in milliseconds
+	 * @return statement
+	 */
+	public abstract PreparedStatement createInsertPack(
+		String name,
+		String source,
+		long lastModified
+	) throws SQLException;
+
+	/**
+	 * Creates a statement making a pack visible, recording the statistics
+	 * of its description.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createCommitPack(
+		String name,
+		long objectCount,
+		long deltaCount,
+		int indexVersion,
+		long minUpdateIndex,
+		long maxUpdateIndex
+	) throws SQLException;
+
+	public abstract PreparedStatement createDeletePack(String name) throws SQLException;
+	public abstract PreparedStatement createDeletePackFiles(String name) throws SQLException;
+	public abstract PreparedStatement createDeletePackChunks(String name) throws SQLException;
+
+	/**
+	 * Creates a statement listing the files of all committed packs, one row
+	 * per file with the columns of the pack joined in.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createListPacks() throws SQLException;
+
+	public abstract PreparedStatement createInsertPackFile(
+		String pack,
+		String ext,
+		long size,
+		int chunkSize
+	) throws SQLException;
+
+	public abstract PreparedStatement createReadPackFile(String pack, String ext) throws SQLException;
+
+	public abstract PreparedStatement createInsertPackChunk(
+		String pack,
+		String ext,
+		int chunk,
+		byte[] data,
+		int length
+	) throws SQLException;
+
+	/**
+	 * Creates a statement reading the chunks {@code first} to {@code last}
+	 * (inclusive) of a pack file, in order.
+	 * @return statement
+	 */
+	public abstract PreparedStatement createReadPackChunks(
+		String pack,
+		String ext,
+		int first,
+		int last
+	) throws SQLException;
+
+	/**
+	 * Statements that upgrade the schema by exactly one version.
+	 *
+	 * @param fromVersion
+	 *            current version of the schema.
+	 * @return statements to execute, in order.
+	 */
+	protected abstract List<String> getSchemaUpgrade(int fromVersion) throws SQLException;
+
+	/**
+	 * Upgrade the schema by exactly one version, executing the statements of
+	 * {@link #getSchemaUpgrade(int)}.
+	 *
+	 * @param statement
+	 *            statement to execute the upgrade with.
+	 * @param fromVersion
+	 *            current version of the schema.
+	 */
+	protected void upgradeSchema(Statement statement, int fromVersion) throws SQLException {
+		for (String sql : getSchemaUpgrade(fromVersion)) {
+			statement.execute(sql);
+		}
+	}
+
 	public String getObjectHashColumn() {
 		return "hash";
 	}
 
+	public String getRepositoryColumn() {
+		return "repository";
+	}
+
+	public String getRepositoryIdColumn() {
+		return "id";
+	}
+
+	public String getRepositoryNameColumn() {
+		return "name";
+	}
+
+	public String getRepositoryNetworkColumn() {
+		return "network";
+	}
+
 	public String getObjectTypeColumn() {
 		return "type";
 	}
@@ -97,6 +540,22 @@ public String getObjectContentColumn() {
 		return "content";
 	}
 
+	public String getObjectCodecColumn() {
+		return "codec";
+	}
+
+	public String getObjectBaseColumn() {
+		return "base";
+	}
+
+	/**
+	 * @return label of the stored content length selected by
+	 *         {@link #createReadObjectRepresentations(Collection)}.
+	 */
+	public String getObjectContentLengthColumn() {
+		return "content_length";
+	}
+
 	public String getRefNameColumn() {
 		return "name";
 	}
@@ -109,14 +568,118 @@ public String getRefTargetColumn() {
 		return "target";
 	}
 
+	public String getRefLinkColumn() {
+		return "link";
+	}
+
+	public String getRefsVersionColumn() {
+		return "version";
+	}
+
+	public String getSchemaVersionColumn() {
+		return "version";
+	}
+
+	public String getPackNameColumn() {
+		return "name";
+	}
+
+	public String getPackSourceColumn() {
+		return "source";
+	}
+
+	public String getPackCommittedColumn() {
+		return "committed";
+	}
+
+	public String getPackLastModifiedColumn() {
+		return "last_modified";
+	}
+
+	public String getPackObjectCountColumn() {
+		return "object_count";
+	}
+
+	public String getPackDeltaCountColumn() {
+		return "delta_count";
+	}
+
+	public String getPackIndexVersionColumn() {
+		return "index_version";
+	}
+
+	public String getPackMinUpdateIndexColumn() {
+		return "min_update_index";
+	}
+
+	public String getPackMaxUpdateIndexColumn() {
+		return "max_update_index";
+	}
+
+	public String getPackFilePackColumn() {
+		return "pack";
+	}
+
+	public String getPackFileExtColumn() {
+		return "ext";
+	}
+
+	public String getPackFileSizeColumn() {
+		return "size";
+	}
+
+	public String getPackFileChunkSizeColumn() {
+		return "chunk_size";
+	}
+
+	public String getPackChunkColumn() {
+		return "chunk";
+	}
+
+	public String getPackChunkDataColumn() {
+		return "data";
+	}
+
 	public String getObjectsTableName() {
 		return "git.objects";
 	}
 
+	public String getRepositoriesTableName() {
+		return "git.repositories";
+	}
+
+	public String getRepositoryObjectsTableName() {
+		return "git.repository_objects";
+	}
+
 	public String getRefsTableName() {
 		return "git.refs";
 	}
 
+	public String getRefsVersionTableName() {
+		return "git.refs_version";
+	}
+
+	public String getSchemaTableName() {
+		return "git.schema";
+	}
+
+	public String getPacksTableName() {
+		return "git.packs";
+	}
+
+	public String getPackFilesTableName() {
+		return "git.pack_files";
+	}
+
+	public String getPackChunksTableName() {
+		return "git.pack_chunks";
+	}
+
+	public String getObjectsMetaIndexName() {
+		return getObjectsTableName() + "_meta";
+	}
+
 	public void setRepository(SqlRepository repository) {
 		this.repository = repository;
 	}
@@ -125,7 +688,459 @@ public SqlRepository getRepository() {
 		return repository;
 	}
 
+	/**
+	 * Lease a connection of the repository for the calling thread.
+	 *
+	 * @return the lease, to be closed when done.
+	 */
+	protected SqlConnectionLease lease() throws SQLException {
+		try {
+			return getRepository().lease();
+		} catch (IOException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            name of the repository in a schema holding several, or the
+	 *            empty string for the repository without a name.
+	 */
+	public void setRepositoryName(String name) {
+		repositoryName = name != null ? name : "";
+		repositoryId = -1;
+		networkId = -1;
+	}
+
+	public String getRepositoryName() {
+		return repositoryName;
+	}
+
+	/**
+	 * @param name
+	 *            name of the repository a new repository is forked from. It
+	 *            joins the network of that repository when it is created,
+	 *            sharing its object rows. Null to create a repository with
+	 *            objects of its own.
+	 */
+	public void setForkOf(String name) {
+		forkOf = name;
+	}
+
+	public String getForkOf() {
+		return forkOf;
+	}
+
+	/**
+	 * @param partitions
+	 *            number of partitions, by repository, of the objects tables
+	 *            created from now on; 0 to not partition them. Ignored by
+	 *            databases without native partitioning.
+	 */
+	public void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * @return id of the repository rows are read and written for.
+	 * @throws SQLException
+	 *             the repository is not registered.
+	 */
+	public long getRepositoryId() throws SQLException {
+		if (repositoryId < 0) {
+			if (!findRepository()) {
+				throw new SQLException("Repository \"" + repositoryName + "\" does not exist");
+			}
+		}
+		return repositoryId;
+	}
+
+	/**
+	 * @return id of the network whose object rows the repository reads.
+	 *         Repositories that are not forks are their own network.
+	 */
+	public long getNetworkId() throws SQLException {
+		getRepositoryId();
+		return networkId;
+	}
+
+	/**
+	 * @return true if the objects of the repository are those recorded for it
+	 *         in the repository objects table. This holds for every repository
+	 *         of a schema holding several, the root of a network included:
+	 *         the objects table also has the rows its forks added.
+	 */
+	public boolean isSharingObjects() throws SQLException {
+		return hasRepositoryColumn();
+	}
+
+	/**
+	 * @return true if the repository is registered, or the schema holds a
+	 *         single repository.
+	 */
+	public boolean checkRepositoryExists() throws SQLException {
+		if (!hasRepositoryColumn()) {
+			return true;
+		}
+		return repositoryId >= 0 || (checkRepositoriesTableExists() && findRepository());
+	}
+
+	private boolean findRepository() throws SQLException {
+		PreparedStatement statement = createReadRepository(repositoryName);
+		try (ResultSet results = statement.executeQuery()) {
+			if (!results.next()) {
+				return false;
+			}
+			networkId = results.getLong(getRepositoryNetworkColumn());
+			repositoryId = results.getLong(getRepositoryIdColumn());
+			return true;
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Register the repository, creating the repositories table if needed. A
+	 * fork also receives the objects of the repository it is forked from.
+	 *
+	 * @return id of the repository.
+	 */
+	public long registerRepository() throws SQLException {
+		if (!checkRepositoriesTableExists()) {
+			execute(createRepositoriesTable());
+		}
+		if (findRepository()) {
+			return repositoryId;
+		}
+
+		long network = -1;
+		long from = -1;
+		if (forkOf != null) {
+			PreparedStatement statement = createReadRepository(forkOf);
+			try (ResultSet results = statement.executeQuery()) {
+				if (!results.next()) {
+					throw new SQLException("Repository \"" + forkOf + "\" does not exist");
+				}
+				network = results.getLong(getRepositoryNetworkColumn());
+				from = results.getLong(getRepositoryIdColumn());
+			} finally {
+				statement.close();
+			}
+		}
+
+		execute(createInsertRepository(repositoryName, network));
+		execute(createInitRepository(repositoryName));
+		if (!findRepository()) {
+			throw new SQLException("Repository \"" + repositoryName + "\" was not registered");
+		}
+		if (from >= 0) {
+			execute(createCopyRepositoryObjects(from));
+		}
+		return repositoryId;
+	}
+
+	private static void execute(PreparedStatement statement) throws SQLException {
+		try {
+			statement.execute();
+		} finally {
+			statement.close();
+		}
+	}
+
 	public boolean canUseBlob() {
 		return true;
 	}
+
+	/**
+	 * Get the schema version of the repository tables.
+	 * <p>
+	 * Repositories created before the schema was versioned have no schema
+	 * table; their version is derived from the columns of the objects table.
+	 *
+	 * @return one of the {@code SCHEMA_*} versions.
+	 */
+	public int getSchemaVersion() throws SQLException {
+		if (schemaVersion == 0) {
+			schemaVersion = readSchemaVersion();
+		}
+		return schemaVersion;
+	}
+
+	private int readSchemaVersion() throws SQLException {
+		if (!checkObjectsTableExists()) {
+			return SCHEMA_VERSION;
+		}
+
+		try (SqlConnectionLease lease = lease()) {
+			return readSchemaVersion(lease.getConnection());
+		}
+	}
+
+	private int readSchemaVersion(Connection connection) throws SQLException {
+		if (checkTableExists(getSchemaTableName())) {
+			try (Statement statement = connection.createStatement();
+				 ResultSet results = statement.executeQuery(
+					 "SELECT MAX(" + quote(getSchemaVersionColumn()) + ") FROM " +
+						 quote(getSchemaTableName()))) {
+				if (results.next() && results.getInt(1) > 0) {
+					return results.getInt(1);
+				}
+			}
+		}
+
+		Set<String> columns = new HashSet<>();
+		DatabaseMetaData meta = connection.getMetaData();
+		try (ResultSet results = meta.getColumns(null, null, getObjectsTableName(), null)) {
+			while (results.next()) {
+				columns.add(results.getString("COLUMN_NAME").toLowerCase());
+			}
+		}
+
+		if (columns.contains(getObjectBaseColumn().toLowerCase())) {
+			return SCHEMA_DELTA;
+		} else if (columns.contains(getObjectCodecColumn().toLowerCase())) {
+			return SCHEMA_CODEC;
+		}
+		return SCHEMA_TEXT_IDS;
+	}
+
+	/**
+	 * Forget the cached schema version, for example after the tables have
+	 * been (re)created.
+	 */
+	public void resetSchemaVersion() {
+		schemaVersion = 0;
+	}
+
+	/**
+	 * Record the schema version of the repository tables.
+	 *
+	 * @param version
+	 *            version the tables now conform to.
+	 */
+	public void writeSchemaVersion(int version) throws SQLException {
+		try (SqlConnectionLease lease = lease();
+			 Statement statement = lease.getConnection().createStatement()) {
+			if (!checkTableExists(getSchemaTableName())) {
+				statement.execute("CREATE TABLE " + quote(getSchemaTableName()) + " (" +
+					quote(getSchemaVersionColumn()) + " INTEGER NOT NULL)");
+			}
+			statement.executeUpdate("DELETE FROM " + quote(getSchemaTableName()));
+			statement.executeUpdate("INSERT INTO " + quote(getSchemaTableName()) + " (" +
+				quote(getSchemaVersionColumn()) + ") VALUES (" + version + ")");
+		}
+		schemaVersion = version;
+	}
+
+	/**
+	 * Upgrade the repository tables to {@link #SCHEMA_VERSION}, one version
+	 * at a time. Does nothing if the schema is already current.
+	 * <p>
+	 * Each version is recorded in the transaction of its step. Some
+	 * databases, such as MySQL, commit DDL statements immediately, so a
+	 * failed step cannot roll back those before it; an upgrade run again
+	 * resumes at the failed step instead of repeating them.
+	 *
+	 * @return the version the schema was upgraded from.
+	 */
+	public int upgradeSchema() throws SQLException {
+		int from = getSchemaVersion();
+		if (from >= SCHEMA_VERSION) {
+			return from;
+		}
+
+		try (SqlConnectionLease lease = lease()) {
+			for (int version = from; version < SCHEMA_VERSION; version++) {
+				try {
+					try (Statement statement = lease.getConnection().createStatement()) {
+						upgradeSchema(statement, version);
+					}
+					writeSchemaVersion(version + 1);
+					lease.commit();
+				} catch (SQLException | RuntimeException e) {
+					lease.abort(e);
+					resetSchemaVersion();
+					throw e;
+				}
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Whether the objects table records the size and codec of each row.
+	 * <p>
+	 * Tables created before object compression was supported lack both
+	 * columns. Their rows are always stored uncompressed, and new rows
+	 * written to them are also stored uncompressed.
+	 *
+	 * @return true if the codec and size columns are present.
+	 */
+	public boolean hasObjectCodecColumn() throws SQLException {
+		return getSchemaVersion() >= SCHEMA_CODEC;
+	}
+
+	/**
+	 * Whether object rows can be stored as a delta against another row.
+	 * <p>
+	 * Tables created before delta storage was supported lack the base
+	 * column, and always hold whole objects.
+	 *
+	 * @return true if the base column is present.
+	 */
+	public boolean hasObjectDeltaColumns() throws SQLException {
+		return getSchemaVersion() >= SCHEMA_DELTA;
+	}
+
+	/**
+	 * @return true if object ids and ref targets are stored as raw bytes
+	 *         rather than hex text.
+	 */
+	public boolean usesBinaryObjectIds() throws SQLException {
+		return getSchemaVersion() >= SCHEMA_BINARY_IDS;
+	}
+
+	/**
+	 * @return true if ref changes are counted in the refs version table.
+	 */
+	public boolean hasRefsVersion() throws SQLException {
+		return getSchemaVersion() >= SCHEMA_REFS_VERSION;
+	}
+
+	/**
+	 * @return true if rows belong to a repository, rather than the schema
+	 *         holding a single repository.
+	 */
+	public boolean hasRepositoryColumn() throws SQLException {
+		return getSchemaVersion() >= SCHEMA_REPOSITORIES;
+	}
+
+	/**
+	 * Whether inserting an object that is already stored updates no row
+	 * instead of failing. Repositories of a network insert objects the
+	 * network may already have.
+	 *
+	 * @return true if existing objects are ignored.
+	 */
+	public boolean isIgnoringExistingObjects() throws SQLException {
+		return hasRepositoryColumn();
+	}
+
+	protected abstract String quote(String name);
+
+	/**
+	 * @param e error raised by a statement
+	 * @return true if the statement violated a unique or primary key
+	 *         constraint, such as inserting a ref that already exists.
+	 */
+	public boolean isConstraintViolation(SQLException e) {
+		if (e instanceof SQLIntegrityConstraintViolationException) {
+			return true;
+		}
+		String state = e.getSQLState();
+		return state != null && state.startsWith("23");
+	}
+
+	/**
+	 * Bind an object id in the representation of the current schema.
+	 *
+	 * @param statement statement to bind to
+	 * @param index parameter index
+	 * @param id object id, or null
+	 */
+	public void bindObjectId(PreparedStatement statement, int index, AnyObjectId id) throws SQLException {
+		if (usesBinaryObjectIds()) {
+			if (id == null) {
+				statement.setNull(index, Types.BINARY);
+			} else {
+				byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+				id.copyRawTo(raw, 0);
+				statement.setBytes(index, raw);
+			}
+		} else {
+			if (id == null) {
+				statement.setNull(index, Types.VARCHAR);
+			} else {
+				statement.setString(index, id.name());
+			}
+		}
+	}
+
+	/**
+	 * Read an object id in the representation of the current schema.
+	 *
+	 * @param results result set positioned on a row
+	 * @param column column holding the id
+	 * @return the id, or null if the column is NULL.
+	 */
+	public ObjectId readObjectId(ResultSet results, String column) throws SQLException {
+		if (usesBinaryObjectIds()) {
+			byte[] raw = results.getBytes(column);
+			return raw != null ? ObjectId.fromRaw(raw) : null;
+		}
+		String hex = results.getString(column);
+		return hex != null ? ObjectId.fromString(hex) : null;
+	}
+
+	/**
+	 * @param results result set of a ref query positioned on a symbolic ref
+	 * @return name of the ref it points to.
+	 */
+	public String readRefLink(ResultSet results) throws SQLException {
+		if (usesBinaryObjectIds()) {
+			return results.getString(getRefLinkColumn());
+		}
+		return results.getString(getRefTargetColumn());
+	}
+
+	/**
+	 * @param results result set of a ref query positioned on a non-symbolic
+	 *                ref
+	 * @return object id the ref points to.
+	 */
+	public ObjectId readRefObjectId(ResultSet results) throws SQLException {
+		return readObjectId(results, getRefTargetColumn());
+	}
+
+	/**
+	 * @param prefix abbreviated id
+	 * @return smallest raw object id starting with {@code prefix}.
+	 */
+	protected static byte[] abbreviationLowerBound(AbbreviatedObjectId prefix) {
+		StringBuilder hex = new StringBuilder(Constants.OBJECT_ID_STRING_LENGTH);
+		hex.append(prefix.name());
+		while (hex.length() < Constants.OBJECT_ID_STRING_LENGTH) {
+			hex.append('0');
+		}
+
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		ObjectId.fromString(hex.toString()).copyRawTo(raw, 0);
+		return raw;
+	}
+
+	/**
+	 * @param prefix abbreviated id
+	 * @return smallest raw object id greater than every id starting with
+	 *         {@code prefix}, or null if there is none.
+	 */
+	protected static byte[] abbreviationUpperBound(AbbreviatedObjectId prefix) {
+		char[] hex = prefix.name().toCharArray();
+		int i = hex.length - 1;
+		while (i >= 0 && hex[i] == 'f') {
+			hex[i--] = '0';
+		}
+		if (i < 0) {
+			return null;
+		}
+		hex[i] = Character.forDigit(Character.digit(hex[i], 16) + 1, 16);
+
+		return abbreviationLowerBound(AbbreviatedObjectId.fromString(new String(hex)));
+	}
 }
@@ -1,5 +1,6 @@
 package org.eclipse.jgit.internal.storage.jdbc.adapter;
 
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.util.IO;
 
 import java.io.IOException;
@@ -11,37 +12,48 @@
 
 public class SqliteAdapter extends MySqlLikeAdapter {
 	@Override
-	public boolean checkObjectsTableExists() throws SQLException {
-		ResultSet results = getRepository().getConnection().prepareStatement(
-			"SELECT name FROM sqlite_master WHERE type = 'table'"
-		).executeQuery();
+	protected String getObjectIdType() {
+		return "BLOB";
+	}
 
-		while (results.next()) {
-			if (getObjectsTableName().equalsIgnoreCase(results.getString(1))) {
-				results.close();
-				return true;
-			}
-		}
+	@Override
+	protected String repositoryIdColumnDefinition() {
+		// Only an INTEGER PRIMARY KEY is assigned by SQLite.
+		return quote(getRepositoryIdColumn()) + " INTEGER PRIMARY KEY AUTOINCREMENT";
+	}
 
-		results.close();
+	@Override
+	protected boolean canDecodeHex() {
+		// unhex() only exists since SQLite 3.41.
 		return false;
 	}
 
 	@Override
-	public boolean checkRefsTableExists() throws SQLException {
-		ResultSet results = getRepository().getConnection().prepareStatement(
+	protected boolean checkTableExists(String name) throws SQLException {
+		PreparedStatement statement = getRepository().prepareStatement(
 			"SELECT name FROM sqlite_master WHERE type = 'table'"
-		).executeQuery();
-
-		while (results.next()) {
-			if (getRefsTableName().equalsIgnoreCase(results.getString(1))) {
-				results.close();
-				return true;
+		);
+		try (ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				if (name.equalsIgnoreCase(results.getString(1))) {
+					return true;
+				}
 			}
+			return false;
+		} finally {
+			statement.close();
 		}
+	}
 
-		results.close();
-		return false;
+	@Override
+	protected String insertIgnoringQuery(String table, String columns, int count) {
+		return "INSERT OR IGNORE INTO " + quote(table) + " (" + columns + ") VALUES " + parameterList(count);
+	}
+
+	@Override
+	public boolean isConstraintViolation(SQLException e) {
+		// The driver reports SQLITE_CONSTRAINT without an SQL state.
+		return super.isConstraintViolation(e) || e.getErrorCode() == 19;
 	}
 
 	@Override
@@ -51,23 +63,22 @@ public boolean doesSupportBatchInsertObject() {
 
 	@Override
 	public PreparedStatement createInsertObject(
-		String hash,
+		AnyObjectId id,
 		int type,
+		long size,
+		int codec,
 		InputStream stream
 	) throws SQLException {
-		String query = "INSERT INTO " + quote(getObjectsTableName()) + " (" +
-			columnNames(getObjectHashColumn(), getObjectTypeColumn(), getObjectContentColumn()) +
-			") VALUES (?, ?, ?)";
-
-		PreparedStatement statement = getRepository().getConnection().prepareStatement(
-			query
+		PreparedStatement statement = getRepository().prepareStatement(
+			createInsertObjectQuery()
 		);
 
 		try {
 			ByteBuffer buffer = IO.readWholeStream(stream, 0);
-			statement.setString(1, hash);
+			bindObjectId(statement, 1, id);
 			statement.setInt(2, type);
 			statement.setBytes(3, buffer.array());
+			bindObjectSizeAndCodec(statement, size, codec);
 		} catch (IOException e) {
 			throw new SQLException(e);
 		}
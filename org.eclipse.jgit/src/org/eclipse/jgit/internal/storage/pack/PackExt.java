@@ -62,6 +62,13 @@ public class PackExt {
 	/** A reftable file. */
 	public static final PackExt REFTABLE = newPackExt("ref"); //$NON-NLS-1$
 
+	/**
+	 * A commit graph file.
+	 *
+	 * @since 4.10
+	 */
+	public static final PackExt COMMIT_GRAPH = newPackExt("graph"); //$NON-NLS-1$
+
 	/** @return all of the PackExt values. */
 	public static PackExt[] values() {
 		return VALUES;
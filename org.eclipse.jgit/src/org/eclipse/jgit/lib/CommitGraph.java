@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017, The JGit project
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+/**
+ * Graph of the commits of a repository, stored apart from the commits.
+ * <p>
+ * For each commit the graph holds its tree, parents, commit time and
+ * generation number, so history can be walked without reading the commit
+ * objects. Commits are identified by their position in the graph.
+ * <p>
+ * The generation number of a commit without parents is 1; for other commits
+ * it is 1 more than the largest generation number of the parents. A commit
+ * can therefore only reach commits with a lower generation number.
+ *
+ * @since 4.10
+ */
+public interface CommitGraph {
+	/** Generation number of commits that are not in a graph. */
+	int GENERATION_UNKNOWN = 0;
+
+	/**
+	 * Largest generation number that is stored. Commits deeper in history
+	 * are given this number too, so they cannot be ordered by it.
+	 */
+	int GENERATION_MAX = 0x3fffffff;
+
+	/** @return number of commits in the graph. */
+	long getCommitCount();
+
+	/**
+	 * Find a commit.
+	 *
+	 * @param commit
+	 *            name of the commit.
+	 * @return position of the commit in the graph, or -1 if it is not in the
+	 *         graph.
+	 */
+	int findPosition(AnyObjectId commit);
+
+	/**
+	 * @param position
+	 *            position of a commit.
+	 * @param dst
+	 *            receives the name of the commit.
+	 */
+	void getObjectId(int position, MutableObjectId dst);
+
+	/**
+	 * @param position
+	 *            position of a commit.
+	 * @param dst
+	 *            receives the name of the tree of the commit.
+	 */
+	void getTree(int position, MutableObjectId dst);
+
+	/**
+	 * @param position
+	 *            position of a commit.
+	 * @return positions of the parents of the commit, in order.
+	 */
+	int[] getParents(int position);
+
+	/**
+	 * @param position
+	 *            position of a commit.
+	 * @return committer time of the commit, in seconds since the epoch.
+	 */
+	long getCommitTime(int position);
+
+	/**
+	 * @param position
+	 *            position of a commit.
+	 * @return generation number of the commit.
+	 */
+	int getGeneration(int position);
+
+	/**
+	 * Prepare to test the changed path filters of commits for some paths.
+	 *
+	 * @param paths
+	 *            paths to test for, with {@code '/'} separators and without
+	 *            a trailing {@code '/'}. A path matches changes to itself and
+	 *            to anything below it.
+	 * @return the query, or null if the graph has no changed path filters.
+	 */
+	ChangedPathQuery newChangedPathQuery(byte[][] paths);
+
+	/** Test of the changed path filters of commits for a set of paths. */
+	interface ChangedPathQuery {
+		/**
+		 * @param position
+		 *            position of a commit.
+		 * @return false if the commit definitely did not change any of the
+		 *         paths compared to its first parent, or compared to the
+		 *         empty tree if it is a root commit; true if it may have.
+		 */
+		boolean maybeChanged(int position);
+	}
+}
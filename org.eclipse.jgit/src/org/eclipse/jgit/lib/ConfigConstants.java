@@ -65,6 +65,12 @@ public class ConfigConstants {
 	/** The "dfs" section */
 	public static final String CONFIG_DFS_SECTION = "dfs";
 
+	/**
+	 * The "sql" section
+	 * @since 4.10
+	 */
+	public static final String CONFIG_SQL_SECTION = "sql";
+
 	/**
 	 * The "receive" section
 	 * @since 4.6
@@ -188,6 +194,27 @@ public class ConfigConstants {
 	 */
 	public static final String CONFIG_KEY_CONCURRENCY_LEVEL = "concurrencyLevel";
 
+	/**
+	 * The "shardCount" key
+	 *
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_SHARD_COUNT = "shardCount";
+
+	/**
+	 * The "cacheHotMax" key
+	 *
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_CACHE_HOT_MAX = "cacheHotMax";
+
+	/**
+	 * The "scanResistant" key
+	 *
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_SCAN_RESISTANT = "scanResistant";
+
 	/** The "deltaBaseCacheLimit" key */
 	public static final String CONFIG_KEY_DELTA_BASE_CACHE_LIMIT = "deltaBaseCacheLimit";
 
@@ -389,6 +416,12 @@ public class ConfigConstants {
 	 */
 	public static final String CONFIG_KEY_STREAM_BUFFER = "streamBuffer";
 
+	/**
+	 * The "streamPrefetchBlocks" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_STREAM_PREFETCH_BLOCKS = "streamPrefetchBlocks";
+
 	/**
 	 * The "streamRatio" key
 	 * @since 4.0
@@ -413,4 +446,52 @@ public class ConfigConstants {
 	 * @since 4.7
 	 */
 	public static final String CONFIG_KEY_RECURSE_SUBMODULES = "recurseSubmodules";
+
+	/**
+	 * The "objectCodec" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_OBJECT_CODEC = "objectCodec";
+
+	/**
+	 * The "treeReadAhead" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_TREE_READ_AHEAD = "treeReadAhead";
+
+	/**
+	 * The "objectCacheLimit" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_OBJECT_CACHE_LIMIT = "objectCacheLimit";
+
+	/**
+	 * The "objectCacheMaxObjectSize" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_OBJECT_CACHE_MAX_OBJECT_SIZE = "objectCacheMaxObjectSize";
+
+	/**
+	 * The "multiPackIndex" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_MULTI_PACK_INDEX = "multiPackIndex";
+
+	/**
+	 * The "commitGraph" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_COMMIT_GRAPH = "commitGraph";
+
+	/**
+	 * The "writeCommitGraph" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_WRITE_COMMIT_GRAPH = "writeCommitGraph";
+
+	/**
+	 * The "writeChangedPaths" key
+	 * @since 4.10
+	 */
+	public static final String CONFIG_KEY_WRITE_CHANGED_PATHS = "writeChangedPaths";
 }
@@ -441,6 +441,18 @@ public BitmapIndex getBitmapIndex() throws IOException {
 		return null;
 	}
 
+	/**
+	 * A graph of the commits that can be used to speed up RevWalks.
+	 *
+	 * @return the graph or null if one does not exist.
+	 * @throws IOException
+	 *             when the graph fails to load
+	 * @since 4.10
+	 */
+	public CommitGraph getCommitGraph() throws IOException {
+		return null;
+	}
+
 	/**
 	 * @return the {@link ObjectInserter} from which this reader was created
 	 *         using {@code inserter.newReader()}, or null if this reader was not
@@ -578,6 +590,11 @@ public BitmapIndex getBitmapIndex() throws IOException {
 			return delegate().getBitmapIndex();
 		}
 
+		@Override
+		public CommitGraph getCommitGraph() throws IOException {
+			return delegate().getCommitGraph();
+		}
+
 		@Override
 		@Nullable
 		public ObjectInserter getCreatedFromInserter() {
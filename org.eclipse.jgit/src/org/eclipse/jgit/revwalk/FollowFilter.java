@@ -116,6 +116,11 @@ public boolean shouldBeRecursive() {
 		return path.shouldBeRecursive() || ANY_DIFF.shouldBeRecursive();
 	}
 
+	@Override
+	public byte[][] getPathsBestEffort() {
+		return path.getPathsBestEffort();
+	}
+
 	@Override
 	public TreeFilter clone() {
 		return new FollowFilter(path.clone(), cfg);
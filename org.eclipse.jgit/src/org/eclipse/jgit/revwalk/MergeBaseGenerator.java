@@ -50,6 +50,7 @@
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.CommitGraph;
 
 /**
  * Computes the merge base(s) of the starting commits.
@@ -146,7 +147,18 @@ private RevCommit _next() throws MissingObjectException,
 				return null;
 			}
 
-			for (final RevCommit p : c.parents) {
+			// Below the generation searched for by isMergedInto nothing
+			// can reach it, so the walk need not continue into history.
+			int minGen = walker.minGeneration;
+			boolean prune = minGen != CommitGraph.GENERATION_UNKNOWN
+					&& minGen < CommitGraph.GENERATION_MAX;
+			if (prune) {
+				int gen = walker.getGeneration(c);
+				prune = gen != CommitGraph.GENERATION_UNKNOWN && gen < minGen;
+			}
+
+			for (final RevCommit p : prune ? RevCommit.NO_PARENTS
+					: c.parents) {
 				if ((p.flags & IN_PENDING) != 0)
 					continue;
 				if ((p.flags & PARSED) == 0)
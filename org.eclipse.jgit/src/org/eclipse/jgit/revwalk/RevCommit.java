@@ -58,6 +58,7 @@
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -137,6 +138,9 @@ public static RevCommit parse(RevWalk rw, byte[] raw) throws IOException {
 
 	int inDegree;
 
+	/** Generation number from the commit graph, if known. */
+	int generation = CommitGraph.GENERATION_UNKNOWN;
+
 	private byte[] buffer;
 
 	/**
@@ -152,6 +156,17 @@ protected RevCommit(final AnyObjectId id) {
 	@Override
 	void parseHeaders(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		if (!walk.isRetainBody()) {
+			// Without the body everything needed is in the commit graph.
+			CommitGraph graph = walk.commitGraph();
+			if (graph != null) {
+				int pos = graph.findPosition(this);
+				if (pos >= 0) {
+					parseCommitGraph(walk, graph, pos);
+					return;
+				}
+			}
+		}
 		parseCanonical(walk, walk.getCachedBytes(this));
 	}
 
@@ -220,6 +235,35 @@ else if (nParents == 1) {
 		flags |= PARSED;
 	}
 
+	void parseCommitGraph(RevWalk walk, CommitGraph graph, int pos)
+			throws IOException {
+		if (!walk.shallowCommitsInitialized)
+			walk.initializeShallowCommits();
+
+		final MutableObjectId idBuffer = walk.idBuffer;
+		graph.getTree(pos, idBuffer);
+		tree = walk.lookupTree(idBuffer);
+
+		if (parents == null) {
+			int[] pp = graph.getParents(pos);
+			if (pp.length == 0)
+				parents = NO_PARENTS;
+			else {
+				RevCommit[] pList = new RevCommit[pp.length];
+				for (int i = 0; i < pp.length; i++) {
+					graph.getObjectId(pp[i], idBuffer);
+					pList[i] = walk.lookupCommit(idBuffer);
+				}
+				parents = pList;
+			}
+		}
+
+		// In 2038 commitTime will overflow unless it is changed to long.
+		commitTime = (int) graph.getCommitTime(pos);
+		generation = graph.getGeneration(pos);
+		flags |= PARSED;
+	}
+
 	@Override
 	public final int getType() {
 		return Constants.OBJ_COMMIT;
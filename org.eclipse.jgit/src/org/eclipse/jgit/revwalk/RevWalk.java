@@ -61,6 +61,7 @@
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
@@ -198,6 +199,17 @@ public class RevWalk implements Iterable<RevCommit>, AutoCloseable {
 
 	boolean shallowCommitsInitialized;
 
+	/**
+	 * Generation number of the commit searched for by
+	 * {@link #isMergedInto(RevCommit, RevCommit)}, or
+	 * {@link CommitGraph#GENERATION_UNKNOWN}.
+	 */
+	int minGeneration = CommitGraph.GENERATION_UNKNOWN;
+
+	private CommitGraph commitGraph;
+
+	private boolean commitGraphLoaded;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 *
@@ -396,6 +408,14 @@ public void markUninteresting(final RevCommit c)
 	public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
+		// A commit only reaches commits of lower generation.
+		int baseGen = getGeneration(base);
+		int tipGen = getGeneration(tip);
+		if (base != tip && baseGen != CommitGraph.GENERATION_UNKNOWN
+				&& tipGen != CommitGraph.GENERATION_UNKNOWN
+				&& baseGen < CommitGraph.GENERATION_MAX && baseGen >= tipGen)
+			return false;
+
 		final RevFilter oldRF = filter;
 		final TreeFilter oldTF = treeFilter;
 		try {
@@ -405,6 +425,7 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 			treeFilter = TreeFilter.ALL;
 			markStart(tip);
 			markStart(base);
+			minGeneration = baseGen;
 			RevCommit mergeBase;
 			while ((mergeBase = next()) != null)
 				if (mergeBase == base)
@@ -413,6 +434,7 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		} finally {
 			filter = oldRF;
 			treeFilter = oldTF;
+			minGeneration = CommitGraph.GENERATION_UNKNOWN;
 		}
 	}
 
@@ -855,9 +877,18 @@ public RevTag parseTag(final AnyObjectId id) throws MissingObjectException,
 	public RevObject parseAny(final AnyObjectId id)
 			throws MissingObjectException, IOException {
 		RevObject r = objects.get(id);
-		if (r == null)
+		if (r == null) {
+			if (!retainBody) {
+				CommitGraph graph = commitGraph();
+				int pos = graph != null ? graph.findPosition(id) : -1;
+				if (pos >= 0) {
+					RevCommit c = lookupCommit(id);
+					c.parseCommitGraph(this, graph, pos);
+					return c;
+				}
+			}
 			r = parseNew(id, reader.open(id));
-		else
+		} else
 			parseHeaders(r);
 		return r;
 	}
@@ -1305,6 +1336,8 @@ public void dispose() {
 		queue = new DateRevQueue();
 		pending = new StartGenerator(this);
 		shallowCommitsInitialized = false;
+		commitGraph = null;
+		commitGraphLoaded = false;
 	}
 
 	/**
@@ -1428,6 +1461,45 @@ public void assumeShallow(Collection<? extends ObjectId> ids) {
 			lookupCommit(id).parents = RevCommit.NO_PARENTS;
 	}
 
+	/**
+	 * Get the commit graph of the reader, loading it on first use.
+	 *
+	 * @return the graph, or null if the reader has none.
+	 * @throws IOException
+	 *             the graph cannot be read.
+	 */
+	CommitGraph commitGraph() throws IOException {
+		if (!commitGraphLoaded) {
+			commitGraphLoaded = true;
+			if (reader != null)
+				commitGraph = reader.getCommitGraph();
+		}
+		return commitGraph;
+	}
+
+	/**
+	 * Get the generation number of a commit from the commit graph.
+	 *
+	 * @param c
+	 *            the commit.
+	 * @return generation number of the commit, or
+	 *         {@link CommitGraph#GENERATION_UNKNOWN} if it is not in the
+	 *         graph.
+	 * @throws IOException
+	 *             the graph cannot be read.
+	 */
+	int getGeneration(RevCommit c) throws IOException {
+		if (c.generation == CommitGraph.GENERATION_UNKNOWN) {
+			CommitGraph graph = commitGraph();
+			if (graph != null) {
+				int pos = graph.findPosition(c);
+				if (pos >= 0)
+					c.generation = graph.getGeneration(pos);
+			}
+		}
+		return c.generation;
+	}
+
 	void initializeShallowCommits() throws IOException {
 		if (shallowCommitsInitialized)
 			throw new IllegalStateException(
@@ -54,6 +54,9 @@
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StopWalkException;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.CommitGraph.ChangedPathQuery;
+import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.TreeWalk;
@@ -63,7 +66,10 @@
  * Filter applying a {@link TreeFilter} against changed paths in each commit.
  * <p>
  * Each commit is differenced concurrently against all of its parents to look
- * for tree entries that are interesting to the {@link TreeFilter}.
+ * for tree entries that are interesting to the {@link TreeFilter}. Commits
+ * with at most one parent are skipped without reading trees if the changed
+ * path filters of the commit graph show none of the paths of the
+ * {@link TreeFilter} changed.
  *
  * @since 3.5
  */
@@ -75,6 +81,13 @@ public class TreeRevFilter extends RevFilter {
 	private final int rewriteFlag;
 	private final TreeWalk pathFilter;
 
+	private final MutableObjectId idBuffer = new MutableObjectId();
+
+	/** Filter {@link #query} was created for. */
+	private TreeFilter queryFilter;
+
+	private ChangedPathQuery query;
+
 	/**
 	 * Create a {@link RevFilter} from a {@link TreeFilter}.
 	 *
@@ -134,6 +147,13 @@ public boolean include(final RevWalk walker, final RevCommit c)
 		//
 		final RevCommit[] pList = c.parents;
 		final int nParents = pList.length;
+		if (nParents <= 1 && isUnchanged(walker, c)) {
+			// None of our paths changed, as if the trees were compared.
+			//
+			c.flags |= rewriteFlag;
+			return false;
+		}
+
 		final TreeWalk tw = pathFilter;
 		final ObjectId[] trees = new ObjectId[nParents + 1];
 		for (int i = 0; i < nParents; i++) {
@@ -265,6 +285,46 @@ public boolean requiresCommitBody() {
 		return false;
 	}
 
+	/**
+	 * Check the changed path filter of the commit graph for a commit with at
+	 * most one parent.
+	 *
+	 * @return true if the commit definitely did not change the paths of the
+	 *         tree filter; false if the trees need to be compared.
+	 */
+	private boolean isUnchanged(RevWalk walker, RevCommit c)
+			throws IOException {
+		CommitGraph graph = walker.commitGraph();
+		if (graph == null)
+			return false;
+
+		TreeFilter f = pathFilter.getFilter();
+		if (f != queryFilter) {
+			// A FollowFilter is replaced after each rename.
+			byte[][] paths = f.getPathsBestEffort();
+			query = paths != null ? graph.newChangedPathQuery(paths) : null;
+			queryFilter = f;
+		}
+		if (query == null)
+			return false;
+
+		int pos = graph.findPosition(c);
+		if (pos < 0)
+			return false;
+
+		// The filter is relative to the first parent in the graph, which
+		// must still be the parent of the commit in this walk.
+		int[] parents = graph.getParents(pos);
+		if (parents.length != c.parents.length)
+			return false;
+		if (parents.length == 1) {
+			graph.getObjectId(parents[0], idBuffer);
+			if (!idBuffer.equals(c.parents[0]))
+				return false;
+		}
+		return !query.maybeChanged(pos);
+	}
+
 	private void updateFollowFilter(ObjectId[] trees, DiffConfig cfg)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			CorruptObjectException, IOException {
@@ -63,6 +63,8 @@ public class WindowCacheConfig {
 
 	private boolean packedGitMMAP;
 
+	private boolean packedIndexMMAP;
+
 	private int deltaBaseCacheLimit;
 
 	private int streamFileThreshold;
@@ -73,6 +75,7 @@ public WindowCacheConfig() {
 		packedGitLimit = 10 * MB;
 		packedGitWindowSize = 8 * KB;
 		packedGitMMAP = false;
+		packedIndexMMAP = false;
 		deltaBaseCacheLimit = 10 * MB;
 		streamFileThreshold = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
 	}
@@ -146,6 +149,29 @@ public void setPackedGitMMAP(final boolean usemmap) {
 		packedGitMMAP = usemmap;
 	}
 
+	/**
+	 * @return true if pack indexes are memory mapped and read in place; false
+	 *         if they are read onto the heap when first used. <b>Default
+	 *         false.</b>
+	 * @since 4.10
+	 */
+	public boolean isPackedIndexMMAP() {
+		return packedIndexMMAP;
+	}
+
+	/**
+	 * @param usemmap
+	 *            true to memory map pack indexes and read them in place, so
+	 *            the heap used by open packs does not grow with the number
+	 *            of objects they hold; false to read each index onto the
+	 *            heap when it is first used. Mapped files cannot be deleted
+	 *            on some platforms until the mapping is garbage collected.
+	 * @since 4.10
+	 */
+	public void setPackedIndexMMAP(final boolean usemmap) {
+		packedIndexMMAP = usemmap;
+	}
+
 	/**
 	 * @return maximum number of bytes to cache in delta base cache for
 	 *         inflated, recently accessed objects, without delta chains.
@@ -200,6 +226,8 @@ public WindowCacheConfig fromConfig(final Config rc) {
 				"core", null, "packedgitwindowsize", getPackedGitWindowSize())); //$NON-NLS-1$ //$NON-NLS-2$
 		setPackedGitMMAP(rc.getBoolean(
 				"core", null, "packedgitmmap", isPackedGitMMAP())); //$NON-NLS-1$ //$NON-NLS-2$
+		setPackedIndexMMAP(rc.getBoolean(
+				"core", null, "packedindexmmap", isPackedIndexMMAP())); //$NON-NLS-1$ //$NON-NLS-2$
 		setDeltaBaseCacheLimit(rc.getInt(
 				"core", null, "deltabasecachelimit", getDeltaBaseCacheLimit())); //$NON-NLS-1$ //$NON-NLS-2$
 
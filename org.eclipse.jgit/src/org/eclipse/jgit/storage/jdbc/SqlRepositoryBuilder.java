@@ -1,55 +1,285 @@
 package org.eclipse.jgit.storage.jdbc;
 
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.internal.storage.jdbc.SqlConnectionPool;
+import org.eclipse.jgit.internal.storage.jdbc.SqlConnectionProvider;
 import org.eclipse.jgit.internal.storage.jdbc.SqlRepository;
+import org.eclipse.jgit.internal.storage.jdbc.adapter.SqlDriverAdapter;
 import org.eclipse.jgit.lib.BaseRepositoryBuilder;
-import org.eclipse.jgit.lib.Repository;
 
+import javax.sql.DataSource;
+import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.util.Properties;
 
-public class SqlRepositoryBuilder extends BaseRepositoryBuilder<SqlRepositoryBuilder, Repository> {
-	private Connection connection;
+/**
+ * Constructs a {@link SqlRepository}.
+ * <p>
+ * Connections come from, in order of preference, an explicit
+ * {@link SqlConnectionProvider}, a {@link DataSource}, a single
+ * {@link Connection} shared by all threads, or a {@link SqlConnectionPool}
+ * opened on the configured database URL.
+ */
+public class SqlRepositoryBuilder extends BaseRepositoryBuilder<SqlRepositoryBuilder, SqlRepository> {
+	private SqlConnectionProvider connectionProvider;
 
 	private String url;
 	private String username;
 	private String password;
 
+	private Properties connectionProperties;
+
+	private int maxConnections = 8;
+
+	private long connectionTimeout = 30000;
+
+	private int statementCacheSize = 64;
+
+	private SqlDriverAdapter adapter;
+
+	private String repositoryName = "";
+
+	private String forkOf;
+
+	private int partitions;
+
+	@Override
+	public SqlRepository build() throws IOException {
+		SqlRepository repo = new SqlRepository(setup());
+		if (isMustExist() && !repo.getObjectDatabase().exists()) {
+			repo.close();
+			throw new RepositoryNotFoundException(url != null ? url : "jdbc");
+		}
+		return repo;
+	}
+
 	@Override
-	public Repository build() throws IOException {
-		if (connection == null) {
-			try {
-				connection = DriverManager.getConnection(
-					url,
-					username,
-					password
-				);
-			} catch (SQLException e) {
-				throw new IOException(e);
+	public SqlRepositoryBuilder setup() throws IllegalArgumentException, IOException {
+		setBare();
+		if (connectionProvider == null) {
+			if (url == null) {
+				throw new IllegalArgumentException("No JDBC connection, data source or URL configured");
+			}
+			Properties info = new Properties();
+			if (connectionProperties != null) {
+				info.putAll(connectionProperties);
+			}
+			if (username != null) {
+				info.setProperty("user", username);
 			}
+			if (password != null) {
+				info.setProperty("password", password);
+			}
+			connectionProvider = new SqlConnectionPool(url, info, maxConnections, connectionTimeout);
 		}
+		return self();
+	}
+
+	public SqlConnectionProvider getConnectionProvider() {
+		return connectionProvider;
+	}
 
-		return new SqlRepository(connection, this);
+	public SqlRepositoryBuilder setConnectionProvider(SqlConnectionProvider provider) {
+		connectionProvider = provider;
+		return self();
 	}
 
+	/**
+	 * Share a single connection between all threads using the repository.
+	 *
+	 * @param connection
+	 *            the connection. It is not closed with the repository.
+	 * @return {@code this}
+	 */
 	public SqlRepositoryBuilder setConnection(Connection connection) {
-		this.connection = connection;
-		return this;
+		return setConnectionProvider(SqlConnectionProvider.forConnection(connection));
 	}
 
+	public SqlRepositoryBuilder setDataSource(DataSource dataSource) {
+		return setConnectionProvider(SqlConnectionProvider.forDataSource(dataSource));
+	}
+
+	public String getDatabaseUrl() {
+		return url;
+	}
+
+	/**
+	 * Open pooled connections to a JDBC URL if no other connection source
+	 * is set.
+	 *
+	 * @param url
+	 *            JDBC URL of the database.
+	 * @return {@code this}
+	 */
 	public SqlRepositoryBuilder setDatabaseUrl(String url) {
 		this.url = url;
-		return this;
+		return self();
 	}
 
 	public SqlRepositoryBuilder setDatabaseUsername(String username) {
 		this.username = username;
-		return this;
+		return self();
 	}
 
 	public SqlRepositoryBuilder setDatabasePassword(String password) {
 		this.password = password;
-		return this;
+		return self();
+	}
+
+	public Properties getConnectionProperties() {
+		return connectionProperties;
+	}
+
+	/**
+	 * @param properties
+	 *            properties of the pooled connections. The user name and
+	 *            password, if set, take precedence.
+	 * @return {@code this}
+	 */
+	public SqlRepositoryBuilder setConnectionProperties(Properties properties) {
+		connectionProperties = properties;
+		return self();
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @param max
+	 *            most connections the pool opened for
+	 *            {@link #setDatabaseUrl(String)} keeps at the same time.
+	 * @return {@code this}
+	 */
+	public SqlRepositoryBuilder setMaxConnections(int max) {
+		maxConnections = max;
+		return self();
+	}
+
+	public long getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	/**
+	 * @param millis
+	 *            longest time to wait for a pooled connection.
+	 * @return {@code this}
+	 */
+	public SqlRepositoryBuilder setConnectionTimeout(long millis) {
+		connectionTimeout = millis;
+		return self();
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * @param size
+	 *            most prepared statements cached per connection, 0
+	 *            disables the cache.
+	 * @return {@code this}
+	 */
+	public SqlRepositoryBuilder setStatementCacheSize(int size) {
+		statementCacheSize = size;
+		return self();
+	}
+
+	public SqlDriverAdapter getAdapter() {
+		return adapter;
+	}
+
+	/**
+	 * @param adapter
+	 *            adapter for the database dialect. Detected from the driver
+	 *            name if not set.
+	 * @return {@code this}
+	 */
+	public SqlRepositoryBuilder setAdapter(SqlDriverAdapter adapter) {
+		this.adapter = adapter;
+		return self();
+	}
+
+	public String getRepositoryName() {
+		return repositoryName;
+	}
+
+	/**
+	 * @param name
+	 *            name of the repository among those sharing the database
+	 *            schema. The empty string, the default, names the repository
+	 *            of a schema upgraded from one holding a single repository.
+	 * @return {@code this}
+	 */
+	public SqlRepositoryBuilder setRepositoryName(String name) {
+		repositoryName = name;
+		return self();
+	}
+
+	public String getForkOf() {
+		return forkOf;
+	}
+
+	/**
+	 * @param name
+	 *            name of the repository a repository created by this builder
+	 *            is forked from. The fork starts with the objects of that
+	 *            repository and shares their rows instead of copying them.
+	 * @return {@code this}
+	 */
+	public SqlRepositoryBuilder setForkOf(String name) {
+		forkOf = name;
+		return self();
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * @param partitions
+	 *            number of partitions, by repository, of the objects tables
+	 *            when they are created; 0 to not partition them. Only used
+	 *            by MySQL and PostgreSQL.
+	 * @return {@code this}
+	 */
+	public SqlRepositoryBuilder setPartitions(int partitions) {
+		this.partitions = partitions;
+		return self();
+	}
+
+	// SQL repositories have no local files.
+
+	@Override
+	public SqlRepositoryBuilder setGitDir(File gitDir) {
+		if (gitDir != null) {
+			throw new IllegalArgumentException();
+		}
+		return self();
+	}
+
+	@Override
+	public SqlRepositoryBuilder setObjectDirectory(File objectDirectory) {
+		if (objectDirectory != null) {
+			throw new IllegalArgumentException();
+		}
+		return self();
+	}
+
+	@Override
+	public SqlRepositoryBuilder setWorkTree(File workTree) {
+		if (workTree != null) {
+			throw new IllegalArgumentException();
+		}
+		return self();
+	}
+
+	@Override
+	public SqlRepositoryBuilder setIndexFile(File indexFile) {
+		if (indexFile != null) {
+			throw new IllegalArgumentException();
+		}
+		return self();
 	}
 }
@@ -88,6 +88,13 @@ public class PackConfig {
 	 */
 	public static final boolean DEFAULT_PRUNE_PRESERVED = false;
 
+	/**
+	 * Default value of the geometric repack factor option: {@value}
+	 * @see #setGeometricRepackFactor(int)
+	 * @since 4.10
+	 */
+	public static final int DEFAULT_GEOMETRIC_REPACK_FACTOR = 0;
+
 	/**
 	 * Default value of delta compress option: {@value}
 	 *
@@ -262,6 +269,8 @@ public class PackConfig {
 
 	private boolean singlePack;
 
+	private int geometricRepackFactor = DEFAULT_GEOMETRIC_REPACK_FACTOR;
+
 	/** Create a default configuration. */
 	public PackConfig() {
 		// Fields are initialized to defaults.
@@ -323,6 +332,7 @@ public PackConfig(PackConfig cfg) {
 		this.bitmapInactiveBranchAgeInDays = cfg.bitmapInactiveBranchAgeInDays;
 		this.cutDeltaChains = cfg.cutDeltaChains;
 		this.singlePack = cfg.singlePack;
+		this.geometricRepackFactor = cfg.geometricRepackFactor;
 	}
 
 	/**
@@ -581,6 +591,40 @@ public void setSinglePack(boolean single) {
 		singlePack = single;
 	}
 
+	/**
+	 * Get the factor of the geometric progression kept by an incremental
+	 * repack during garbage collection.
+	 *
+	 * Default setting: {@value #DEFAULT_GEOMETRIC_REPACK_FACTOR}
+	 *
+	 * @return the geometric factor; 0 or 1 if every garbage collection
+	 *         repacks all objects.
+	 * @since 4.10
+	 */
+	public int getGeometricRepackFactor() {
+		return geometricRepackFactor;
+	}
+
+	/**
+	 * Set the factor of the geometric progression kept by an incremental
+	 * repack during garbage collection.
+	 * <p>
+	 * With a factor greater than 1 garbage collection only rolls the loose
+	 * objects and the smallest packs up into a new pack, until every pack
+	 * holds at least {@code factor} times as many objects as the next smaller
+	 * pack. Larger packs and their bitmaps are not rewritten.
+	 * Otherwise all reachable objects are repacked.
+	 *
+	 * Default setting: {@value #DEFAULT_GEOMETRIC_REPACK_FACTOR}
+	 *
+	 * @param factor
+	 *            the geometric factor; 0 or 1 to always repack all objects.
+	 * @since 4.10
+	 */
+	public void setGeometricRepackFactor(int factor) {
+		geometricRepackFactor = factor;
+	}
+
 	/**
 	 * Get the number of objects to try when looking for a delta base.
 	 *
@@ -1055,6 +1099,8 @@ public void fromConfig(final Config rc) {
 				rc.getBoolean("pack", "cutdeltachains", getCutDeltaChains())); //$NON-NLS-1$ //$NON-NLS-2$
 		setSinglePack(
 				rc.getBoolean("pack", "singlepack", getSinglePack())); //$NON-NLS-1$ //$NON-NLS-2$
+		setGeometricRepackFactor(rc.getInt("pack", "geometricrepackfactor", //$NON-NLS-1$ //$NON-NLS-2$
+				getGeometricRepackFactor()));
 		setBuildBitmaps(
 				rc.getBoolean("pack", "buildbitmaps", isBuildBitmaps())); //$NON-NLS-1$ //$NON-NLS-2$
 		setBitmapContiguousCommitCount(
@@ -1103,6 +1149,8 @@ public String toString() {
 		b.append(", bitmapInactiveBranchAge=") //$NON-NLS-1$
 				.append(getBitmapInactiveBranchAgeInDays());
 		b.append(", singlePack=").append(getSinglePack()); //$NON-NLS-1$
+		b.append(", geometricRepackFactor=") //$NON-NLS-1$
+				.append(getGeometricRepackFactor());
 		return b.toString();
 	}
 }
@@ -1,18 +1,20 @@
 package org.eclipse.jgit.transport;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.LogCommand;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NotSupportedException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.storage.file.PackLock;
 import org.eclipse.jgit.internal.storage.jdbc.SqlRepository;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.lib.*;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.util.TemporaryBuffer;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.sql.Connection;
@@ -187,11 +189,23 @@ public void close() {
 	}
 
 	class SqlPushConnection extends SqlConnection implements PushConnection {
+		/** Objects checked against and sent to the database at a time. */
+		private static final int SEND_BATCH_SIZE = 256;
+
 		@Override
 		public void push(ProgressMonitor monitor, Map<String, RemoteRefUpdate> refUpdates) throws TransportException {
 			push(monitor, refUpdates, null);
 		}
 
+		/**
+		 * Send the objects the database lacks, then update all refs in one
+		 * transaction.
+		 * <p>
+		 * The ref tips already in the database are uninteresting roots of
+		 * the object walk, so only history newer than them is visited. The
+		 * remaining objects are checked against the database and inserted
+		 * in batches, which bounds the memory used by large pushes.
+		 */
 		@Override
 		public void push(ProgressMonitor monitor, Map<String, RemoteRefUpdate> refUpdates, OutputStream out) throws TransportException {
 			if (local == null) {
@@ -199,201 +213,210 @@ public void push(ProgressMonitor monitor, Map<String, RemoteRefUpdate> refUpdate
 			}
 
 			try {
-				ObjectReader reader = local.getObjectDatabase().newReader();
-
-				Set<ObjectId> objects = new HashSet<>();
-
-				long totalObjectCount = sql.getNumberOfObjects();
+				sendObjects(monitor, refUpdates.values());
+				updateRefs(monitor, refUpdates.values());
+			} catch (IOException e) {
+				throw new TransportException("Failed to push.", e);
+			}
+		}
 
-				monitor.beginTask("Counting Objects",refUpdates.size());
-				for (String key : refUpdates.keySet()) {
-					RemoteRefUpdate update = refUpdates.get(key);
-					ObjectId id = update.getNewObjectId();
-					ObjectId oldId = update.getExpectedOldObjectId();
+		private void sendObjects(ProgressMonitor monitor, Collection<RemoteRefUpdate> updates) throws IOException {
+			try (ObjectReader localReader = local.newObjectReader();
+				 ObjectWalk walk = new ObjectWalk(localReader);
+				 ObjectReader sqlReader = getSqlRepository().newObjectReader();
+				 ObjectInserter inserter = getSqlRepository().newObjectInserter()) {
+				walk.setRetainBody(false);
+
+				boolean hasWants = false;
+				for (RemoteRefUpdate update : updates) {
+					if (!update.isDelete()) {
+						walk.markStart(walk.parseAny(update.getNewObjectId()));
+						hasWants = true;
+					}
+				}
+				if (!hasWants) {
+					return;
+				}
 
-					if (AnyObjectId.equals(ObjectId.zeroId(), id)) {
-						RefUpdate refUpdate = getSqlRepository().updateRef(key);
-						refUpdate.delete();
+				for (Ref ref : getRefs()) {
+					if (ref.getObjectId() == null) {
 						continue;
 					}
-
-					LogCommand log = Git.wrap(local).log();
-					log.add(id);
-
-					for (RevCommit commit : log.call()) {
-						if (monitor.isCancelled()) {
-							return;
-						}
-
-						RevTree tree = commit.getTree();
-						TreeWalk walk = new TreeWalk(local);
-						walk.addTree(tree);
-						walk.setRecursive(true);
-						walk.setPostOrderTraversal(true);
-
-						while (walk.next()) {
-							ObjectId treeId = walk.getObjectId(0);
-
-							if (sqlNeedsObject(treeId, totalObjectCount)) {
-								objects.add(treeId.copy());
-							}
-						}
-
-						if (sqlNeedsObject(tree, totalObjectCount)) {
-							objects.add(tree.copy());
-						}
-
-						if (sqlNeedsObject(commit, totalObjectCount)) {
-							objects.add(commit.copy());
-						}
-
-						if (oldId != null && oldId.name().equals(commit.name())) {
-							break;
-						}
+					try {
+						walk.markUninteresting(walk.parseAny(ref.getObjectId()));
+					} catch (MissingObjectException e) {
+						// Not known locally, so it cannot limit the walk.
 					}
+				}
 
-					monitor.update(1);
+				monitor.beginTask("Sending objects", ProgressMonitor.UNKNOWN);
+				List<ObjectId> batch = new ArrayList<>(SEND_BATCH_SIZE);
+				RevObject o;
+				while ((o = walk.next()) != null) {
+					batch.add(o.copy());
+					if (batch.size() == SEND_BATCH_SIZE) {
+						send(monitor, batch, localReader, sqlReader, inserter);
+					}
 				}
+				while ((o = walk.nextObject()) != null) {
+					batch.add(o.copy());
+					if (batch.size() == SEND_BATCH_SIZE) {
+						send(monitor, batch, localReader, sqlReader, inserter);
+					}
+				}
+				send(monitor, batch, localReader, sqlReader, inserter);
 				monitor.endTask();
+			}
+		}
 
-				ObjectInserter inserter = getSqlRepository().newObjectInserter();
-				monitor.beginTask("Sending Objects", objects.size());
-				for (ObjectId send : objects) {
-					ObjectLoader loader = reader.open(send);
+		private void send(
+			ProgressMonitor monitor,
+			List<ObjectId> batch,
+			ObjectReader localReader,
+			ObjectReader sqlReader,
+			ObjectInserter inserter
+		) throws IOException {
+			if (batch.isEmpty()) {
+				return;
+			}
 
-					inserter.insert(loader.getType(), loader.getSize(), loader.openStream());
-					monitor.update(1);
+			Set<ObjectId> present = new HashSet<>();
+			AsyncObjectSizeQueue<ObjectId> sizes = sqlReader.getObjectSize(batch, false);
+			try {
+				while (sizes.next()) {
+					present.add(sizes.getObjectId().copy());
 				}
-				monitor.endTask();
+			} finally {
+				sizes.release();
+			}
 
-				monitor.beginTask("Writing Objects", 1);
-				inserter.flush();
-				inserter.close();
-				reader.close();
+			for (ObjectId id : batch) {
+				if (present.contains(id)) {
+					continue;
+				}
+				ObjectLoader loader = localReader.open(id);
+				try (ObjectStream in = loader.openStream()) {
+					inserter.insert(loader.getType(), loader.getSize(), in);
+				}
 				monitor.update(1);
+			}
+			inserter.flush();
+			batch.clear();
+		}
 
-				for (String refName : refUpdates.keySet()) {
-					RemoteRefUpdate update = refUpdates.get(refName);
-					RefUpdate refUpdate = getSqlRepository().updateRef(refName);
-
-					refUpdate.setNewObjectId(update.getNewObjectId());
-					refUpdate.setExpectedOldObjectId(update.getExpectedOldObjectId());
-					refUpdate.setForceUpdate(update.isForceUpdate());
+		/**
+		 * Apply all ref updates with a single {@link BatchRefUpdate}, which
+		 * runs in one database transaction. It is all-or-nothing if the
+		 * push is atomic.
+		 */
+		private void updateRefs(ProgressMonitor monitor, Collection<RemoteRefUpdate> updates) throws IOException {
+			BatchRefUpdate batch = getSqlRepository().getRefDatabase().newBatchUpdate();
+			batch.setAtomic(isPushAtomic());
+			// Non fast-forward updates were already rejected unless forced.
+			batch.setAllowNonFastForwards(true);
+
+			Map<ReceiveCommand, RemoteRefUpdate> commands = new LinkedHashMap<>();
+			for (RemoteRefUpdate update : updates) {
+				ObjectId oldId = update.getExpectedOldObjectId();
+				if (oldId == null) {
+					Ref advertised = getRef(update.getRemoteName());
+					oldId = advertised != null && advertised.getObjectId() != null
+						? advertised.getObjectId()
+						: ObjectId.zeroId();
+				}
+				ObjectId newId = update.isDelete() ? ObjectId.zeroId() : update.getNewObjectId();
 
-					RefUpdate.Result result = refUpdate.update();
+				ReceiveCommand cmd = new ReceiveCommand(oldId, newId, update.getRemoteName());
+				commands.put(cmd, update);
+				batch.addCommand(cmd);
+			}
 
-					if (result == RefUpdate.Result.FAST_FORWARD ||
-						result == RefUpdate.Result.NEW) {
-						update.setStatus(RemoteRefUpdate.Status.OK);
-					}
+			try (RevWalk walk = new RevWalk(getSqlRepository())) {
+				batch.execute(walk, monitor);
+			}
 
-					if (result == RefUpdate.Result.NO_CHANGE) {
-						update.setStatus(RemoteRefUpdate.Status.UP_TO_DATE);
-					}
+			for (Map.Entry<ReceiveCommand, RemoteRefUpdate> e : commands.entrySet()) {
+				ReceiveCommand cmd = e.getKey();
+				RemoteRefUpdate update = e.getValue();
+				switch (cmd.getResult()) {
+				case OK:
+					update.setStatus(RemoteRefUpdate.Status.OK);
+					break;
+				case LOCK_FAILURE:
+					update.setStatus(RemoteRefUpdate.Status.REJECTED_REMOTE_CHANGED);
+					break;
+				case REJECTED_NONFASTFORWARD:
+					update.setStatus(RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD);
+					break;
+				default:
+					update.setStatus(RemoteRefUpdate.Status.REJECTED_OTHER_REASON);
+					update.setMessage(cmd.getMessage() != null ? cmd.getMessage() : cmd.getResult().name());
+					break;
 				}
-				monitor.endTask();
-			} catch (Exception e) {
-				throw new TransportException("Failed to push.", e);
 			}
 		}
-
-		public boolean sqlNeedsObject(ObjectId id, long objectCount) {
-			return objectCount == 0 || !getSqlRepository().hasObject(id);
-		}
 	}
 
 	class SqlFetchConnection extends SqlConnection implements FetchConnection {
+		private String lockMessage;
+
+		private final List<PackLock> packLocks = new ArrayList<>();
+
 		@Override
 		public void fetch(ProgressMonitor monitor, Collection<Ref> want, Set<ObjectId> have) throws TransportException {
 			fetch(monitor, want, have, null);
 		}
 
+		/**
+		 * Copy the objects reachable from {@code want} but not from
+		 * {@code have} into the local repository, as a single pack.
+		 * <p>
+		 * {@link PackWriter} walks the objects once, with the haves marked
+		 * uninteresting, so a fetch only reads the new commits and the
+		 * trees that changed. Deltas are not searched, the pack does not
+		 * leave the machine.
+		 */
 		@Override
 		public void fetch(ProgressMonitor monitor, Collection<Ref> want, Set<ObjectId> have, OutputStream out) throws TransportException {
 			if (local == null) {
 				throw new TransportException("JDBC transport does not work without a local repository.");
 			}
 
-			ObjectReader reader = getSqlRepository()
-				.getObjectDatabase()
-				.newCachedDatabase()
-				.newReader();
-			ObjectInserter inserter = local.newObjectInserter();
-			Set<ObjectId> objects = new HashSet<>();
-
-			try {
-				long potentialObjectCount = 1;
-
-				try {
-					potentialObjectCount = getSqlRepository().getNumberOfObjects();
-				} catch (IOException ignored) {
-				}
-
-				monitor.beginTask("Resolving Objects", (int) potentialObjectCount);
-
-				int lastSize = 0;
-
-				monitor.update(0);
-
-				{
-					RevWalk revWalk = new RevWalk(getSqlRepository());
-					List<RevCommit> commitStarts = new ArrayList<>();
-					for (Ref ref : want) {
-						commitStarts.add(revWalk.lookupCommit(ref.getObjectId()));
-					}
-
-					revWalk.markStart(commitStarts);
-
-					for (RevCommit commit : revWalk) {
-						if (monitor.isCancelled()) {
-							return;
-						}
-
-						RevTree tree = commit.getTree();
-						TreeWalk walk = new TreeWalk(reader);
-						walk.addTree(tree);
-						walk.setRecursive(true);
-						walk.setPostOrderTraversal(true);
-
-						while (walk.next()) {
-							ObjectId treeId = walk.getObjectId(0);
-							if (localDoesNotHaveObject(treeId)) {
-								objects.add(treeId);
-							}
-						}
-
-						if (localDoesNotHaveObject(commit)) {
-							objects.add(commit);
-						}
+			Set<ObjectId> wantIds = new HashSet<>();
+			for (Ref ref : want) {
+				wantIds.add(ref.getObjectId());
+			}
 
-						walk.close();
+			PackConfig config = new PackConfig(local);
+			config.setDeltaCompress(false);
 
-						int diff = objects.size() - lastSize;
-						monitor.update(diff);
-						lastSize = objects.size();
+			TemporaryBuffer.LocalFile pack = new TemporaryBuffer.LocalFile(null);
+			try {
+				try (ObjectReader reader = getSqlRepository().newObjectReader();
+					 PackWriter writer = new PackWriter(config, reader)) {
+					writer.preparePack(monitor, wantIds, have != null ? have : PackWriter.NONE);
+					if (writer.getObjectCount() == 0) {
+						return;
 					}
-
-					revWalk.close();
+					writer.writePack(monitor, monitor, pack);
 				}
-				monitor.endTask();
-
-				monitor.beginTask("Download Objects", objects.size());
-				for (ObjectId id : objects) {
-					if (monitor.isCancelled()) {
-						return;
+				pack.close();
+
+				try (ObjectInserter inserter = local.newObjectInserter();
+					 InputStream in = pack.openInputStream()) {
+					PackParser parser = inserter.newPackParser(in);
+					parser.setAllowThin(false);
+					parser.setLockMessage(lockMessage);
+					PackLock lock = parser.parse(monitor);
+					if (lock != null) {
+						packLocks.add(lock);
 					}
-
-					ObjectLoader loader = reader.open(id);
-					inserter.insert(loader.getType(), loader.getBytes());
-					monitor.update(1);
+					inserter.flush();
 				}
-
-				inserter.flush();
-				inserter.close();
-				reader.close();
-				monitor.endTask();
-			} catch (Exception e) {
+			} catch (IOException e) {
 				throw new TransportException("Failed to fetch.", e);
+			} finally {
+				pack.destroy();
 			}
 		}
 
@@ -409,15 +432,12 @@ public boolean didFetchTestConnectivity() {
 
 		@Override
 		public void setPackLockMessage(String message) {
+			lockMessage = message;
 		}
 
 		@Override
 		public Collection<PackLock> getPackLocks() {
-			return Collections.emptyList();
-		}
-
-		public boolean localDoesNotHaveObject(ObjectId objectId) {
-			return local == null || !local.hasObject(objectId);
+			return packLocks;
 		}
 	}
 }
@@ -154,6 +154,12 @@ public boolean shouldBeRecursive() {
 			return a.shouldBeRecursive() || b.shouldBeRecursive();
 		}
 
+		@Override
+		public byte[][] getPathsBestEffort() {
+			byte[][] r = a.getPathsBestEffort();
+			return r != null ? r : b.getPathsBestEffort();
+		}
+
 		@Override
 		public TreeFilter clone() {
 			return new Binary(a.clone(), b.clone());
@@ -205,6 +211,16 @@ public boolean shouldBeRecursive() {
 			return false;
 		}
 
+		@Override
+		public byte[][] getPathsBestEffort() {
+			for (final TreeFilter f : subfilters) {
+				byte[][] r = f.getPathsBestEffort();
+				if (r != null)
+					return r;
+			}
+			return null;
+		}
+
 		@Override
 		public TreeFilter clone() {
 			final TreeFilter[] s = new TreeFilter[subfilters.length];
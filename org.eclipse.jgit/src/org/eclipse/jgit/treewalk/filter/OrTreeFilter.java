@@ -112,6 +112,24 @@ public static TreeFilter create(final Collection<TreeFilter> list) {
 		return new List(subfilters);
 	}
 
+	private static byte[][] concat(TreeFilter[] filters) {
+		byte[][][] all = new byte[filters.length][][];
+		int cnt = 0;
+		for (int i = 0; i < filters.length; i++) {
+			all[i] = filters[i].getPathsBestEffort();
+			if (all[i] == null)
+				return null;
+			cnt += all[i].length;
+		}
+		byte[][] r = new byte[cnt][];
+		int n = 0;
+		for (byte[][] paths : all) {
+			System.arraycopy(paths, 0, r, n, paths.length);
+			n += paths.length;
+		}
+		return r;
+	}
+
 	private static class Binary extends OrTreeFilter {
 		private final TreeFilter a;
 
@@ -152,6 +170,11 @@ public boolean shouldBeRecursive() {
 			return a.shouldBeRecursive() || b.shouldBeRecursive();
 		}
 
+		@Override
+		public byte[][] getPathsBestEffort() {
+			return concat(new TreeFilter[] { a, b });
+		}
+
 		@Override
 		public TreeFilter clone() {
 			return new Binary(a.clone(), b.clone());
@@ -203,6 +226,11 @@ public boolean shouldBeRecursive() {
 			return false;
 		}
 
+		@Override
+		public byte[][] getPathsBestEffort() {
+			return concat(subfilters);
+		}
+
 		@Override
 		public TreeFilter clone() {
 			final TreeFilter[] s = new TreeFilter[subfilters.length];
@@ -95,6 +95,11 @@ public String getPath() {
 		return pathStr;
 	}
 
+	@Override
+	public byte[][] getPathsBestEffort() {
+		return new byte[][] { pathRaw };
+	}
+
 	@Override
 	public boolean include(final TreeWalk walker) {
 		return matchFilter(walker) <= 0;
@@ -168,6 +168,11 @@ public boolean shouldBeRecursive() {
 			return path.shouldBeRecursive();
 		}
 
+		@Override
+		public byte[][] getPathsBestEffort() {
+			return new byte[][] { raw };
+		}
+
 		@Override
 		public TreeFilter clone() {
 			return this;
@@ -263,6 +268,11 @@ public boolean shouldBeRecursive() {
 			return !prefixes.isEmpty();
 		}
 
+		@Override
+		public byte[][] getPathsBestEffort() {
+			return fullpaths.toArray();
+		}
+
 		@Override
 		public TreeFilter clone() {
 			return this;
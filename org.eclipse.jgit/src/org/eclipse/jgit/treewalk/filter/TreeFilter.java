@@ -240,6 +240,22 @@ public int matchFilter(final TreeWalk walker)
 	 */
 	public abstract boolean shouldBeRecursive();
 
+	/**
+	 * Get the paths this filter limits the walk to, if it knows them.
+	 * <p>
+	 * Every entry included by the filter is one of the paths, or lies below
+	 * one of them. This allows a {@link org.eclipse.jgit.revwalk.RevWalk} to
+	 * consult the changed path filters of a commit graph before it compares
+	 * trees.
+	 *
+	 * @return paths with {@code '/'} separators and no trailing {@code '/'},
+	 *         or null if the filter is not limited to a known set of paths.
+	 * @since 4.10
+	 */
+	public byte[][] getPathsBestEffort() {
+		return null;
+	}
+
 	/**
 	 * Clone this tree filter, including its parameters.
 	 * <p>